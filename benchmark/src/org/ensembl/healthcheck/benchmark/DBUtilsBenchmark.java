@@ -0,0 +1,106 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.util.DBUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link DBUtils} methods most tests go through: counting rows and
+ * comparing the results of a query on two databases.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DBUtilsBenchmark {
+
+	@Param({ "10000" })
+	public int genes;
+
+	private Connection core1;
+	private Connection core2;
+	private Connection compara;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+		core1 = SyntheticDatabase.createCore("dbutils_benchmark_core1", genes);
+		core2 = SyntheticDatabase.createCore("dbutils_benchmark_core2", genes);
+		compara = SyntheticDatabase.createCompara("dbutils_benchmark_compara", genes);
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		SyntheticDatabase.drop(core1);
+		SyntheticDatabase.drop(core2);
+		SyntheticDatabase.drop(compara);
+	}
+
+	/** A COUNT(*) query, read as a single value. */
+	@Benchmark
+	public int getRowCount() {
+		return DBUtils.getRowCount(core1, "SELECT COUNT(*) FROM exon WHERE seq_region_start > seq_region_end");
+	}
+
+	/** A query whose rows are counted as they are read. */
+	@Benchmark
+	public int getRowCountOfRows() {
+		return DBUtils.getRowCount(compara, "SELECT homology_id FROM homology_member WHERE perc_id < 50");
+	}
+
+	@Benchmark
+	public String getRowColumnValue() {
+		return DBUtils.getRowColumnValue(core1, "SELECT meta_value FROM meta WHERE meta_key = 'schema_version'");
+	}
+
+	@Benchmark
+	public boolean compareResultSets() throws SQLException {
+
+		String sql = "SELECT gene_id, biotype, seq_region_id, seq_region_start, seq_region_end, stable_id FROM gene ORDER BY gene_id";
+
+		Statement stmt1 = core1.createStatement();
+		Statement stmt2 = core2.createStatement();
+		try {
+			return DBUtils.compareResultSets(stmt1.executeQuery(sql), stmt2.executeQuery(sql), null, "", false, false,
+					"gene", false);
+		} finally {
+			DBUtils.closeQuietly(stmt1);
+			DBUtils.closeQuietly(stmt2);
+		}
+	}
+
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the options given, as JMH's own main class does,
+ * but always with the GC profiler so allocation rates are reported alongside
+ * throughput, and with results written as JSON unless another format is
+ * asked for. Usage:
+ *
+ * <pre>
+ * mvn -P benchmark package
+ * java -jar target/benchmarks.jar [JMH options] [benchmark regexp]
+ * </pre>
+ */
+public class HealthcheckBenchmarks {
+
+	/** Where results go unless -rff is given. */
+	public static final String RESULT_FILE = "target/benchmarks.json";
+
+	public static void main(String[] args) throws Exception {
+
+		CommandLineOptions commandLine = new CommandLineOptions(args);
+
+		if (commandLine.shouldHelp()) {
+			commandLine.showHelp();
+			return;
+		}
+
+		ChainedOptionsBuilder options = new OptionsBuilder().parent(commandLine).addProfiler(GCProfiler.class);
+
+		if (!commandLine.getResultFormat().hasValue()) {
+			options.resultFormat(ResultFormatType.JSON);
+			if (!commandLine.getResult().hasValue()) {
+				options.result(RESULT_FILE);
+			}
+		}
+
+		new Runner(options.build()).run();
+	}
+
+}
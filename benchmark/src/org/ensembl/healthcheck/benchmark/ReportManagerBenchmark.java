@@ -0,0 +1,110 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.Team;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * {@link ReportManager#add(ReportLine)} keeping reports in memory, from one
+ * thread and from several, as when tests are run in parallel.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReportManagerBenchmark {
+
+	/** The number of lines added per invocation, each batch to a new session. */
+	private static final int LINES = 1000;
+
+	private static class NoopTestCase extends SingleDatabaseTestCase {
+
+		@Override
+		public boolean run(DatabaseRegistryEntry dbre) {
+			return true;
+		}
+	}
+
+	private ReportLine[] lines;
+
+	@Setup(Level.Trial)
+	public void setUp() {
+
+		ReportManager.setReporter(null);
+
+		// fewer lines than fill the buffer of a test
+		NoopTestCase testCase = new NoopTestCase();
+		lines = new ReportLine[LINES];
+		for (int i = 0; i < LINES; i++) {
+			lines[i] = new ReportLine(testCase, "homo_sapiens_core_96_38_" + (i % 50), ReportLine.PROBLEM, "Problem "
+					+ i, Team.GENEBUILD, null);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() {
+		ReportManager.initialise();
+	}
+
+	private void addLines() {
+		for (ReportLine line : lines) {
+			ReportManager.add(line);
+		}
+	}
+
+	@Benchmark
+	@OperationsPerInvocation(LINES)
+	public void add() {
+		ReportManager.initialise();
+		addLines();
+	}
+
+	/**
+	 * Lines added to the same session by four threads. The buffer of the test
+	 * soon fills up, after which lines are only counted, as in a verbose run.
+	 */
+	@Benchmark
+	@Threads(4)
+	@OperationsPerInvocation(LINES)
+	public void addContended() {
+		addLines();
+	}
+
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Types;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.DefaultObjectRowMapper;
+import org.ensembl.healthcheck.util.ObjectArrayRowMapper;
+import org.ensembl.healthcheck.util.Pair;
+import org.ensembl.healthcheck.util.Quadruple;
+import org.ensembl.healthcheck.util.RowMapper;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.ensembl.healthcheck.util.StringPairRowMapper;
+import org.ensembl.healthcheck.util.TupleRowMappers;
+import org.h2.tools.SimpleResultSet;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The {@link RowMapper} implementations, mapping rows held in memory so the
+ * cost of the driver is left out.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RowMapperBenchmark {
+
+	@Param({ "1000" })
+	public int rows;
+
+	private Connection con;
+	private SqlTemplate template;
+	private SimpleResultSet resultSet;
+
+	private final RowMapper<Integer> integerMapper = new DefaultObjectRowMapper<Integer>(Integer.class);
+	private final RowMapper<Object[]> objectArrayMapper = new ObjectArrayRowMapper();
+	private final RowMapper<Pair<String, String>> stringPairMapper = new StringPairRowMapper();
+	private final RowMapper<Pair<Integer, String>> pairMapper = TupleRowMappers.pair(Integer.class, String.class);
+	private final RowMapper<Quadruple<Integer, String, String, Integer>> quadrupleMapper = TupleRowMappers.quadruple(
+			Integer.class, String.class, String.class, Integer.class);
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+
+		// only used by the template to name the database in errors
+		con = DriverManager.getConnection("jdbc:h2:mem:row_mapper_benchmark", "sa", "");
+		template = new ConnectionBasedSqlTemplateImpl(con);
+
+		resultSet = new SimpleResultSet();
+		resultSet.setAutoClose(false);
+		resultSet.addColumn("gene_id", Types.INTEGER, 10, 0);
+		resultSet.addColumn("stable_id", Types.VARCHAR, 128, 0);
+		resultSet.addColumn("biotype", Types.VARCHAR, 40, 0);
+		resultSet.addColumn("seq_region_start", Types.INTEGER, 10, 0);
+		for (int i = 1; i <= rows; i++) {
+			resultSet.addRow(i, String.format("ENSG%011d", i), i % 10 < 7 ? "protein_coding" : "lincRNA", i * 1000);
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		con.close();
+	}
+
+	private <T> List<T> map(RowMapper<T> mapper) throws SQLException {
+		resultSet.beforeFirst();
+		return template.mapResultSetToList(resultSet, mapper, ConnectionBasedSqlTemplateImpl.NO_ROW_LIMIT_CHECKS, "", null);
+	}
+
+	@Benchmark
+	public List<Integer> defaultObjectRowMapper() throws SQLException {
+		return map(integerMapper);
+	}
+
+	@Benchmark
+	public List<Object[]> objectArrayRowMapper() throws SQLException {
+		return map(objectArrayMapper);
+	}
+
+	@Benchmark
+	public List<Pair<String, String>> stringPairRowMapper() throws SQLException {
+		return map(stringPairMapper);
+	}
+
+	@Benchmark
+	public List<Pair<Integer, String>> pairRowMapper() throws SQLException {
+		return map(pairMapper);
+	}
+
+	@Benchmark
+	public List<Quadruple<Integer, String, String, Integer>> quadrupleRowMapper() throws SQLException {
+		return map(quadrupleMapper);
+	}
+
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.ObjectArrayRowMapper;
+import org.ensembl.healthcheck.util.RangeScanExecutor;
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallback;
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallbackFactory;
+import org.ensembl.healthcheck.util.RangeScanExecutor.Row;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.ensembl.healthcheck.util.StringMapRowMapper;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * The query methods of {@link SqlTemplate}, as implemented by
+ * ConnectionBasedSqlTemplateImpl, on a core-shaped database.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SqlTemplateBenchmark {
+
+	/** Sums the lengths of the exons in a range. */
+	private static final RangeCallbackFactory<long[]> EXON_LENGTHS = new RangeCallbackFactory<long[]>() {
+		public RangeCallback<long[]> create(long lower, long upper) {
+			return new RangeCallback<long[]>() {
+
+				private final long[] length = new long[1];
+
+				public boolean row(Row row) {
+					length[0] += row.getLong(2) - row.getLong(1) + 1;
+					return true;
+				}
+
+				public long[] finish() {
+					return length;
+				}
+			};
+		}
+	};
+
+	@Param({ "10000" })
+	public int genes;
+
+	private Connection con;
+	private SqlTemplate template;
+	private Map<String, String> predicates;
+
+	@Setup(Level.Trial)
+	public void setUp() throws SQLException {
+
+		con = SyntheticDatabase.createCore("sql_template_benchmark", genes);
+		template = DBUtils.getSqlTemplate(con);
+
+		predicates = new LinkedHashMap<String, String>();
+		predicates.put("start", "seq_region_start < 1");
+		predicates.put("end", "seq_region_start > seq_region_end");
+		predicates.put("strand", "seq_region_strand NOT IN (1, -1)");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws SQLException {
+		SyntheticDatabase.drop(con);
+	}
+
+	@Benchmark
+	public Integer queryForDefaultObject() {
+		return template.queryForDefaultObject("SELECT COUNT(*) FROM gene WHERE biotype = ?", Integer.class,
+				"protein_coding");
+	}
+
+	@Benchmark
+	public List<Integer> queryForDefaultObjectList() {
+		return template.queryForDefaultObjectList("SELECT transcript_id FROM transcript", Integer.class);
+	}
+
+	@Benchmark
+	public List<Object[]> queryForList() {
+		return template.queryForList("SELECT gene_id, stable_id, seq_region_start, seq_region_end FROM gene",
+				new ObjectArrayRowMapper());
+	}
+
+	@Benchmark
+	public Map<String, String> queryForMap() {
+		return template.queryForMap("SELECT stable_id, biotype FROM transcript", new StringMapRowMapper());
+	}
+
+	@Benchmark
+	public Map<String, Integer> queryForCounts() {
+		return template.queryForCounts("exon", predicates);
+	}
+
+	@Benchmark
+	public long scanRanges() {
+
+		List<long[]> lengths = new RangeScanExecutor(con, genes, RangeScanExecutor.DEFAULT_CONCURRENCY).scan("exon",
+				"exon_id", "SELECT seq_region_start, seq_region_end FROM exon WHERE exon_id BETWEEN ? AND ?", EXON_LENGTHS);
+
+		long total = 0;
+		for (long[] length : lengths) {
+			total += length[0];
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.benchmark;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.DBUtils;
+
+/**
+ * In-memory H2 databases with the shape of core and compara databases, filled
+ * with generated rows, for the benchmarks to query.
+ */
+public class SyntheticDatabase {
+
+	/** The number of transcripts of each gene. */
+	public static final int TRANSCRIPTS_PER_GENE = 2;
+
+	/** The number of exons of each transcript. */
+	public static final int EXONS_PER_TRANSCRIPT = 4;
+
+	/** The number of members of each homology. */
+	public static final int MEMBERS_PER_HOMOLOGY = 2;
+
+	// hide constructor to stop instantiation
+	private SyntheticDatabase() {
+	}
+
+	/**
+	 * Connect to a new, empty database. The connection comes from a bounded
+	 * pool, so code under test can borrow more connections to the same
+	 * database.
+	 */
+	private static Connection connect(String name) throws SQLException {
+
+		// kept until dropped, rather than when the last connection is closed
+		return ConnectionPool.borrowConnection("org.h2.Driver", "jdbc:h2:mem:" + name + ";MODE=MySQL;DB_CLOSE_DELAY=-1",
+				"sa", "");
+	}
+
+	/**
+	 * Create a database with core-shaped seq_region, gene, transcript, exon,
+	 * exon_transcript and meta tables.
+	 *
+	 * @param name
+	 *          The name of the database; the same name gives the same database.
+	 * @param genes
+	 *          The number of genes, each with {@link #TRANSCRIPTS_PER_GENE}
+	 *          transcripts of {@link #EXONS_PER_TRANSCRIPT} exons.
+	 */
+	public static Connection createCore(String name, int genes) throws SQLException {
+
+		Connection con = connect(name);
+		Statement stmt = con.createStatement();
+
+		try {
+
+			stmt.execute("CREATE TABLE seq_region (seq_region_id INT PRIMARY KEY, name VARCHAR(40), coord_system_id INT, length INT)");
+			stmt.execute("CREATE TABLE gene (gene_id INT PRIMARY KEY, biotype VARCHAR(40), analysis_id INT, seq_region_id INT, "
+					+ "seq_region_start INT, seq_region_end INT, seq_region_strand TINYINT, display_xref_id INT, "
+					+ "stable_id VARCHAR(128), version SMALLINT)");
+			stmt.execute("CREATE TABLE transcript (transcript_id INT PRIMARY KEY, gene_id INT, biotype VARCHAR(40), "
+					+ "seq_region_id INT, seq_region_start INT, seq_region_end INT, seq_region_strand TINYINT, "
+					+ "stable_id VARCHAR(128))");
+			stmt.execute("CREATE TABLE exon (exon_id INT PRIMARY KEY, seq_region_id INT, seq_region_start INT, "
+					+ "seq_region_end INT, seq_region_strand TINYINT, phase TINYINT, end_phase TINYINT, stable_id VARCHAR(128))");
+			stmt.execute("CREATE TABLE exon_transcript (exon_id INT, transcript_id INT, rank INT, "
+					+ "PRIMARY KEY (exon_id, transcript_id, rank))");
+			stmt.execute("CREATE TABLE meta (meta_id INT PRIMARY KEY, species_id INT, meta_key VARCHAR(40), meta_value VARCHAR(255))");
+			stmt.execute("CREATE INDEX gene_seq_region_idx ON gene (seq_region_id, seq_region_start)");
+			stmt.execute("CREATE INDEX transcript_gene_idx ON transcript (gene_id)");
+			stmt.execute("CREATE INDEX exon_transcript_transcript_idx ON exon_transcript (transcript_id)");
+
+			int regions = Math.max(1, genes / 1000);
+			stmt.execute("INSERT INTO seq_region SELECT x, CONCAT('chr', x), 1, 100000000 FROM SYSTEM_RANGE(1, " + regions + ")");
+
+			String biotype = "CASE MOD(x, 10) WHEN 7 THEN 'lincRNA' WHEN 8 THEN 'pseudogene' WHEN 9 THEN 'miRNA' "
+					+ "ELSE 'protein_coding' END";
+
+			stmt.execute("INSERT INTO gene SELECT x, " + biotype + ", 1, MOD(x, " + regions + ") + 1, x * 1000, x * 1000 + 900, "
+					+ "CASE WHEN MOD(x, 2) = 0 THEN 1 ELSE -1 END, x, CONCAT('ENSG', LPAD(x, 11, '0')), 1 FROM SYSTEM_RANGE(1, " + genes + ")");
+			stmt.execute("INSERT INTO transcript SELECT t.x, (t.x + " + (TRANSCRIPTS_PER_GENE - 1) + ") / " + TRANSCRIPTS_PER_GENE
+					+ ", g.biotype, g.seq_region_id, g.seq_region_start, g.seq_region_end, g.seq_region_strand, "
+					+ "CONCAT('ENST', LPAD(t.x, 11, '0')) FROM SYSTEM_RANGE(1, " + genes * TRANSCRIPTS_PER_GENE + ") t "
+					+ "JOIN gene g ON g.gene_id = (t.x + " + (TRANSCRIPTS_PER_GENE - 1) + ") / " + TRANSCRIPTS_PER_GENE);
+
+			int transcripts = genes * TRANSCRIPTS_PER_GENE;
+			stmt.execute("INSERT INTO exon SELECT x, MOD(x, " + regions + ") + 1, x * 200, x * 200 + 150, 1, "
+					+ "MOD(x, 3), MOD(x + 1, 3), CONCAT('ENSE', LPAD(x, 11, '0')) FROM SYSTEM_RANGE(1, " + transcripts
+					* EXONS_PER_TRANSCRIPT + ")");
+			stmt.execute("INSERT INTO exon_transcript SELECT x, (x + " + (EXONS_PER_TRANSCRIPT - 1) + ") / " + EXONS_PER_TRANSCRIPT
+					+ ", MOD(x - 1, " + EXONS_PER_TRANSCRIPT + ") + 1 FROM SYSTEM_RANGE(1, " + transcripts * EXONS_PER_TRANSCRIPT + ")");
+
+			stmt.execute("INSERT INTO meta VALUES (1, NULL, 'schema_version', '96'), (2, NULL, 'schema_type', 'core'), "
+					+ "(3, 1, 'species.production_name', 'homo_sapiens'), (4, 1, 'assembly.default', 'GRCh38'), "
+					+ "(5, 1, 'species.taxonomy_id', '9606'), (6, 1, 'genebuild.start_date', '2014-01-Ensembl')");
+
+		} finally {
+			DBUtils.closeQuietly(stmt);
+		}
+
+		return con;
+	}
+
+	/**
+	 * Create a database with compara-shaped gene_member, homology and
+	 * homology_member tables.
+	 *
+	 * @param name
+	 *          The name of the database; the same name gives the same database.
+	 * @param homologies
+	 *          The number of homologies, each of {@link #MEMBERS_PER_HOMOLOGY}
+	 *          members.
+	 */
+	public static Connection createCompara(String name, int homologies) throws SQLException {
+
+		Connection con = connect(name);
+		Statement stmt = con.createStatement();
+
+		try {
+
+			stmt.execute("CREATE TABLE gene_member (gene_member_id INT PRIMARY KEY, stable_id VARCHAR(128), "
+					+ "genome_db_id INT, dnafrag_id BIGINT, dnafrag_start INT, dnafrag_end INT)");
+			stmt.execute("CREATE TABLE homology (homology_id INT PRIMARY KEY, method_link_species_set_id INT, "
+					+ "description VARCHAR(40), is_tree_compliant TINYINT, gene_tree_root_id INT)");
+			stmt.execute("CREATE TABLE homology_member (homology_id INT, gene_member_id INT, seq_member_id INT, "
+					+ "perc_id FLOAT, perc_pos FLOAT, PRIMARY KEY (homology_id, gene_member_id))");
+			stmt.execute("CREATE INDEX homology_member_gene_member_idx ON homology_member (gene_member_id)");
+
+			int members = homologies * MEMBERS_PER_HOMOLOGY;
+			stmt.execute("INSERT INTO gene_member SELECT x, CONCAT('ENSG', LPAD(x, 11, '0')), MOD(x, 20) + 1, x, "
+					+ "x * 1000, x * 1000 + 900 FROM SYSTEM_RANGE(1, " + members + ")");
+			stmt.execute("INSERT INTO homology SELECT x, 20000 + MOD(x, 50), CASE WHEN MOD(x, 3) = 0 THEN 'ortholog_one2one' "
+					+ "ELSE 'ortholog_one2many' END, 1, x / 100 + 1 FROM SYSTEM_RANGE(1, " + homologies + ")");
+			stmt.execute("INSERT INTO homology_member SELECT (x + " + (MEMBERS_PER_HOMOLOGY - 1) + ") / " + MEMBERS_PER_HOMOLOGY
+					+ ", x, x, MOD(x, 100), MOD(x, 100) FROM SYSTEM_RANGE(1, " + members + ")");
+
+		} finally {
+			DBUtils.closeQuietly(stmt);
+		}
+
+		return con;
+	}
+
+	/**
+	 * Drop everything in the database of con and close it.
+	 */
+	public static void drop(Connection con) throws SQLException {
+
+		Statement stmt = con.createStatement();
+		try {
+			stmt.execute("DROP ALL OBJECTS");
+		} finally {
+			DBUtils.closeQuietly(stmt);
+			con.close();
+		}
+	}
+
+}
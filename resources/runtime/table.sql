@@ -40,8 +40,10 @@ CREATE TABLE report (
   text					TEXT,
   team_responsible                      VARCHAR(255),
   created                               DATETIME,
+  report_hash				CHAR(32),
   
   PRIMARY KEY (report_id),
+  UNIQUE KEY report_hash_idx(report_hash),
   KEY first_session_idx(first_session_id),
   KEY last_session_idx(last_session_id),
   KEY testcase_idx(testcase),
@@ -113,3 +115,27 @@ CREATE VIEW timings AS
   WHERE text LIKE '#%' 
   GROUP BY last_session_id, database_name, testcase;
 
+-- Time and resources used by each test on each database in a session.
+-- table_rows are the rows of the tables the test reads, as estimated by MySQL.
+-- table_rows and bytes_transferred are NULL if not known, e.g. for non-MySQL
+-- databases. Used to run the longest tests first in later sessions.
+
+CREATE TABLE session_timing (
+
+  session_id                      INT(10) UNSIGNED NOT NULL,
+  testcase                        VARCHAR(255) NOT NULL,
+  database_name                   VARCHAR(255),
+  database_type                   VARCHAR(255),
+  table_rows                      BIGINT UNSIGNED,
+  start_time                      DATETIME,
+  wall_time_ms                    BIGINT UNSIGNED NOT NULL,
+  statements                      INT(10) UNSIGNED NOT NULL,
+  rows_fetched                    BIGINT UNSIGNED NOT NULL,
+  bytes_transferred               BIGINT UNSIGNED,
+  report_lines                    INT(10) UNSIGNED NOT NULL,
+  heap_delta_bytes                BIGINT NOT NULL,
+
+  KEY session_idx(session_id),
+  KEY testcase_idx(testcase)
+
+);
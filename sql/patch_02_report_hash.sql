@@ -0,0 +1,28 @@
+-- Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+-- Copyright [2016-2019] EMBL-European Bioinformatics Institute
+-- 
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--      http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Identify reports by a hash of database, test case, result and text so they
+-- can be written in batches with INSERT ... ON DUPLICATE KEY UPDATE.
+
+alter table report add column report_hash CHAR(32) after created;
+
+-- Hash the UTF-8 bytes whatever the column charset, as the healthchecks do.
+update report set report_hash = MD5(CONVERT(CONCAT_WS(CHAR(0), database_name, testcase, result, text) USING utf8));
+
+-- The unique key can only be added if no report is stored twice. This lists
+-- any that are, they need to be merged by hand before going on.
+select report_hash, count(*) from report group by report_hash having count(*) > 1;
+
+alter table report add unique key report_hash_idx(report_hash);
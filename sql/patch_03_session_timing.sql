@@ -0,0 +1,36 @@
+-- Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+-- Copyright [2016-2019] EMBL-European Bioinformatics Institute
+-- 
+-- Licensed under the Apache License, Version 2.0 (the "License");
+-- you may not use this file except in compliance with the License.
+-- You may obtain a copy of the License at
+-- 
+--      http://www.apache.org/licenses/LICENSE-2.0
+-- 
+-- Unless required by applicable law or agreed to in writing, software
+-- distributed under the License is distributed on an "AS IS" BASIS,
+-- WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+-- See the License for the specific language governing permissions and
+-- limitations under the License.
+
+-- Time and resources used by each test on each database in a session.
+-- bytes_transferred is NULL if not known, e.g. for non-MySQL databases.
+
+CREATE TABLE session_timing (
+
+  session_id                      INT(10) UNSIGNED NOT NULL,
+  testcase                        VARCHAR(255) NOT NULL,
+  database_name                   VARCHAR(255),
+  database_type                   VARCHAR(255),
+  start_time                      DATETIME,
+  wall_time_ms                    BIGINT UNSIGNED NOT NULL,
+  statements                      INT(10) UNSIGNED NOT NULL,
+  rows_fetched                    BIGINT UNSIGNED NOT NULL,
+  bytes_transferred               BIGINT UNSIGNED,
+  report_lines                    INT(10) UNSIGNED NOT NULL,
+  heap_delta_bytes                BIGINT NOT NULL,
+
+  KEY session_idx(session_id),
+  KEY testcase_idx(testcase)
+
+);
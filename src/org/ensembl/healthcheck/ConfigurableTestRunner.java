@@ -18,6 +18,7 @@
 package org.ensembl.healthcheck;
 
 import java.io.File;
+import java.io.IOException;
 import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
@@ -36,9 +37,11 @@ import org.ensembl.healthcheck.ReporterFactory.ReporterType;
 import org.ensembl.healthcheck.TestRegistryFactory.TestRegistryType;
 import org.ensembl.healthcheck.configuration.ConfigurationUserParameters;
 import org.ensembl.healthcheck.configuration.ConfigureConfiguration;
+import org.ensembl.healthcheck.configuration.ConfigureConnectionPool;
 import org.ensembl.healthcheck.configuration.ConfigureHealthcheckDatabase;
 import org.ensembl.healthcheck.configuration.ConfigureHost;
 import org.ensembl.healthcheck.configuration.ConfigureTestGroups;
+import org.ensembl.healthcheck.configuration.ConfigureTestRunner;
 import org.ensembl.healthcheck.configurationmanager.ConfigurationDumper;
 import org.ensembl.healthcheck.configurationmanager.ConfigurationException;
 import org.ensembl.healthcheck.configurationmanager.ConfigurationFactory;
@@ -48,6 +51,11 @@ import org.ensembl.healthcheck.testcase.MultiDatabaseTestCase;
 import org.ensembl.healthcheck.testcase.OrderedDatabaseTestCase;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.PreparedStatementCache;
+import org.ensembl.healthcheck.util.QueryMonitor;
+import org.ensembl.healthcheck.util.MetadataCache;
+import org.ensembl.healthcheck.util.SharedTableScan;
 import org.ensembl.healthcheck.util.CreateHealthCheckDB;
 import org.ensembl.healthcheck.util.DBUtils;
 import org.ensembl.healthcheck.util.SqlTemplate;
@@ -129,6 +137,28 @@ public class ConfigurableTestRunner extends TestRunner {
 		this.doRepair = (repair.equals("do") || repair.equals("1") || repair.equals("yes"));
 		this.showRepair = (repair.equals("show"));
 
+		if (configuration.isParallelThreads()) {
+			int threads = parseThreadCount("parallel.threads", configuration.getParallelThreads());
+			int threadsPerServer = configuration.isParallelThreadsPerServer()
+					? parseThreadCount("parallel.threads_per_server", configuration.getParallelThreadsPerServer())
+					: threads;
+			setParallelThreads(threads, threadsPerServer);
+		}
+
+		configureConnectionPool(configuration);
+
+		configureQueryMonitor(configuration);
+
+		if (configuration.isCompareByDigest()) {
+			String compareByDigest = configuration.getCompareByDigest().toLowerCase();
+			DBUtils.setCompareByDigest(compareByDigest.equals("yes") || compareByDigest.equals("1")
+					|| compareByDigest.equals("true"));
+		}
+
+		if (configuration.isIncrementalCacheDir()) {
+			setIncrementalRunCache(new IncrementalRunCache(new File(configuration.getIncrementalCacheDir())));
+		}
+
 		/* configuration is cast to a lesser interface to compartmentalise options for
 		* different packages.
 		* */
@@ -151,6 +181,105 @@ public class ConfigurableTestRunner extends TestRunner {
 		this(createConfigurationObj(args));
 	}
 
+	/**
+	 * Parse a thread or job count, which must be at least 1.
+	 */
+	protected static int parseThreadCount(String parameterName, String value) {
+
+		return parseNumber(parameterName, value, 1);
+	}
+
+	/**
+	 * Parse a numeric parameter, which must be at least minimum.
+	 */
+	protected static int parseNumber(String parameterName, String value, int minimum) {
+
+		int number;
+
+		try {
+			number = Integer.parseInt(value.trim());
+		} catch (NumberFormatException e) {
+			throw new ConfigurationException("Parameter " + parameterName
+					+ " has been set to an illegal value: " + value);
+		}
+		if (number < minimum) {
+			throw new ConfigurationException("Parameter " + parameterName
+					+ " must be at least " + minimum + ", but was set to " + value);
+		}
+
+		return number;
+	}
+
+	/**
+	 * Pass the connection_pool settings, if any, on to the ConnectionPool.
+	 */
+	protected static void configureConnectionPool(ConfigureConnectionPool configuration) {
+
+		if (configuration.isConnectionPoolMinIdle()) {
+			ConnectionPool.setMinIdle(parseNumber("connection_pool.min_idle",
+					configuration.getConnectionPoolMinIdle(), 0));
+		}
+		if (configuration.isConnectionPoolMaxSize()) {
+			ConnectionPool.setMaxSize(parseNumber("connection_pool.max_size",
+					configuration.getConnectionPoolMaxSize(), 1));
+		}
+		if (configuration.isConnectionPoolIdleTimeout()) {
+			ConnectionPool.setIdleTimeout(1000L * parseNumber("connection_pool.idle_timeout",
+					configuration.getConnectionPoolIdleTimeout(), 0));
+		}
+		if (configuration.isConnectionPoolValidationInterval()) {
+			ConnectionPool.setValidationInterval(1000L * parseNumber("connection_pool.validation_interval",
+					configuration.getConnectionPoolValidationInterval(), 0));
+		}
+		if (configuration.isConnectionPoolMaxWait()) {
+			ConnectionPool.setMaxWait(1000L * parseNumber("connection_pool.max_wait",
+					configuration.getConnectionPoolMaxWait(), 0));
+		}
+		if (configuration.isConnectionPoolLeaseTimeout()) {
+			ConnectionPool.setLeaseTimeout(1000L * parseNumber("connection_pool.lease_timeout",
+					configuration.getConnectionPoolLeaseTimeout(), 0));
+		}
+		if (configuration.isConnectionPoolMaxSizePerServer()) {
+			ConnectionPool.setMaxSizePerServer(parseNumber("connection_pool.max_size_per_server",
+					configuration.getConnectionPoolMaxSizePerServer(), 0));
+		}
+		if (configuration.isStatementCacheSize()) {
+			PreparedStatementCache.setSize(parseNumber("statement_cache.size",
+					configuration.getStatementCacheSize(), 0));
+		}
+		if (configuration.isStatementCacheServerSide()) {
+			String serverSide = configuration.getStatementCacheServerSide().toLowerCase();
+			DatabaseServer.setServerPreparedStatements(serverSide.equals("yes") || serverSide.equals("1")
+					|| serverSide.equals("true"));
+		}
+	}
+
+	/**
+	 * Pass the query time limits and slow query log settings, if any, on to
+	 * the QueryMonitor.
+	 */
+	protected static void configureQueryMonitor(ConfigureTestRunner configuration) {
+
+		if (configuration.isQueryTimeout()) {
+			QueryMonitor.setQueryTimeout(parseNumber("query_timeout", configuration.getQueryTimeout(), 0));
+		}
+		if (configuration.isTestTimeout()) {
+			QueryMonitor.setTestTimeout(parseNumber("test_timeout", configuration.getTestTimeout(), 0));
+		}
+		if (configuration.isSlowQueryThreshold()) {
+			QueryMonitor.setSlowQueryThreshold(1000L * parseNumber("slow_query.threshold",
+					configuration.getSlowQueryThreshold(), 0));
+		}
+		if (configuration.isSlowQueryLog()) {
+			try {
+				QueryMonitor.setSlowQueryLog(new File(configuration.getSlowQueryLog()));
+			} catch (IOException e) {
+				throw new ConfigurationException("Can't write slow query log "
+						+ configuration.getSlowQueryLog() + ": " + e.getMessage());
+			}
+		}
+	}
+
 	/**
 	 * Used for created layered constructors.
 	 */
@@ -442,6 +571,13 @@ public class ConfigurableTestRunner extends TestRunner {
                         } else {
 			        ReportManager.createDatabaseSession();
                         }
+
+			if (configuration.isScheduleHistory() && parallelThreads > 1) {
+				TestCostModel costModel = new TestCostModel(ReportManager.readSessionTimings(parseNumber(
+						"schedule.history", configuration.getScheduleHistory(), 1)));
+				logger.info("Scheduling tests by " + costModel.size() + " past timings");
+				setTestCostModel(costModel);
+			}
 		}
 
 		// When writing to a database, this must only be run after calling
@@ -536,10 +672,28 @@ public class ConfigurableTestRunner extends TestRunner {
 
 		
 		logger.info("Done running tests\n\n");
+
+		ConnectionPool.logPoolStatistics();
+		PreparedStatementCache.logStatistics();
+		QueryMonitor.logStatistics();
+		QueryMonitor.closeSlowQueryLog();
+		if (configuration.isTimingsFile()) {
+			try {
+				TestInstrumentation.write(new File(configuration.getTimingsFile()));
+			} catch (IOException e) {
+				logger.warning("Could not write timings to " + configuration.getTimingsFile() + ": " + e.getMessage());
+			}
+		}
+		logger.info("Connection validations performed: " + DatabaseRegistryEntry.getValidationsPerformed()
+				+ ", skipped: " + DatabaseRegistryEntry.getValidationsSkipped());
+		logger.info("Metadata cache hits: " + MetadataCache.getHitCount() + ", misses: " + MetadataCache.getMissCount());
+		MetadataCache.clear();
+		SharedTableScan.clear();
 		
 		boolean printFailureText = true;
 
 		if (this.reporterType == ReporterType.DATABASE) {
+                        ReportManager.writeSessionTimings(TestInstrumentation.getTimings());
                         if (!configuration.isSessionID()) {
 			        logger.info("Finishing reporter session");
 			        ReportManager.endDatabaseSession();
@@ -659,8 +813,20 @@ public class ConfigurableTestRunner extends TestRunner {
 		// --------------------------------
 		// Single-database tests
 
+		DatabaseRegistryEntry[] serialDatabases = databaseRegistry.getAll();
+
+		if (parallelThreads > 1) {
+
+			numberOfTestsRun += new ParallelTestExecutor(this, parallelThreads, parallelThreadsPerServer, testCostModel)
+					.runSingleDatabaseTests(databaseRegistry, testRegistry, groupsToRun, skipSlow,
+							testsRun, trackCompletionStatus, exceptionToDb);
+
+			// already tested
+			serialDatabases = new DatabaseRegistryEntry[0];
+		}
+
 		// run the appropriate tests on each of them
-		for (DatabaseRegistryEntry database : databaseRegistry.getAll()) {
+		for (DatabaseRegistryEntry database : serialDatabases) {
                     logger.info("Processing database "+database.getName());
 			for (SingleDatabaseTestCase testCase : testRegistry.getAllSingle(
 					groupsToRun, database.getType())) {
@@ -674,7 +840,7 @@ public class ConfigurableTestRunner extends TestRunner {
 
 						testCase.types();
 						
-						boolean result = testCase.run(database);
+						boolean result = runTestCase(testCase, database);
 
 						testsRun.add(testCase.getClass());
 						trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.COMPLETED);
@@ -730,7 +896,13 @@ public class ConfigurableTestRunner extends TestRunner {
 					logger.info("Starting test " + testCase.getName() + " ");
 
 					testCase.types();
-					boolean result = testCase.run(databaseRegistry);
+					boolean result;
+					TestInstrumentation.startTest(testCase, null);
+					try {
+						result = testCase.run(databaseRegistry);
+					} finally {
+						TestInstrumentation.finishTest();
+					}
 					testsRun.add(testCase.getClass());
 					trackCompletionStatus.put(testCase.getClass(), TestRunStats.CompletionStatus.COMPLETED);
 
@@ -956,47 +1128,3 @@ class TestRunnerSelfCheck extends EnsTestCase {
 		setTeamResponsible(Team.RELEASE_COORDINATOR);
 	}
 };
-
-class TestRunStats {
-
-	protected enum CompletionStatus {
-		COMPLETED,
-		SKIPPED_LONG_RUNNING,
-		DIED_WITH_EXCEPTION		
-	}
-
-	public HashSet<Class<? extends EnsTestCase>> getTestsRun() {
-		return testsRun;
-	}
-
-	public Map<Class<? extends EnsTestCase>, CompletionStatus> getTrackCompletionStatus() {
-		return trackCompletionStatus;
-	}
-
-	protected final HashSet<Class<? extends EnsTestCase>> testsRun;
-	protected final Map<Class<? extends EnsTestCase>, CompletionStatus> trackCompletionStatus;
-	protected final Map<
-		Class<? extends EnsTestCase>,
-		List<DatabaseRegistryEntry>
-	> exceptionToDb;
-
-	public Map<Class<? extends EnsTestCase>, List<DatabaseRegistryEntry>> getExceptionToDb() {
-		return exceptionToDb;
-	}
-
-	public TestRunStats(
-			HashSet<Class<? extends EnsTestCase>> testsRun, 
-			Map<Class<? extends EnsTestCase>, CompletionStatus> trackCompletionStatus,
-			Map<
-				Class<? extends EnsTestCase>,
-				List<DatabaseRegistryEntry>
-			> exceptionToDb
-	) {
-		this.testsRun = testsRun;
-		this.trackCompletionStatus = trackCompletionStatus;
-		this.exceptionToDb = exceptionToDb;
-	}
-}
-
-
-
@@ -17,16 +17,26 @@
 
 package org.ensembl.healthcheck;
 
+import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Logger;
 
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
 import org.ensembl.healthcheck.util.DBUtils;
 
 /**
@@ -43,6 +53,9 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 	private DatabaseType globalType = null;
 
+	/** Maximum number of servers and patterns searched for databases at once. */
+	private static final int DISCOVERY_THREADS = 8;
+
 	/** The logger to use */
 	private static Logger logger = Logger.getLogger("HealthCheckLogger");
 
@@ -67,41 +80,192 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 		List<DatabaseServer> servers = isSecondary ? DBUtils.getSecondaryDatabaseServers() : DBUtils.getMainDatabaseServers();
 
-		for (DatabaseServer server : servers) {
+		List<String> patterns = regexps;
+		if (patterns == null || patterns.size() == 0) {
+			patterns = Collections.singletonList(null);
+		}
+
+		int threads = Math.max(1, Math.min(DISCOVERY_THREADS, servers.size() * patterns.size()));
+		ExecutorService pool = Executors.newFixedThreadPool(threads, new DiscoveryThreadFactory());
+
+		try {
+
+			// List the databases on all servers and for all patterns at once
+			List<List<Future<String[]>>> listings = new ArrayList<List<Future<String[]>>>();
+
+			for (DatabaseServer server : servers) {
 
-			if (regexps == null || regexps.size() == 0) {
+				List<Future<String[]>> serverListings = new ArrayList<Future<String[]>>();
 
-				String[] names = null;
-				
-				try {
-					
-					names = DBUtils.listDatabases(server.getServerConnection(), null);
-					
-				} catch(SQLException e) {
-					logger.warning(e.getMessage());
+				for (String pattern : patterns) {
+					serverListings.add(pool.submit(new DatabaseLister(server, pattern)));
 				}
-				addEntriesToRegistry(server, names, isSecondary);
 
-			} else {
+				listings.add(serverListings);
+			}
+
+			// Keep the first occurrence of each name, in server and pattern order
+			Set<String> seen = new HashSet<String>();
+			List<List<String>> namesByServer = new ArrayList<List<String>>();
+
+			for (List<Future<String[]>> serverListings : listings) {
 
-				for(String regexp: regexps) {
+				List<String> serverNames = new ArrayList<String>();
 
-					String[] names = null;
-					
-					try {
-						
-						names = DBUtils.listDatabases(server.getServerConnection(), regexp);
-					
-					} catch(SQLException e) {
-						logger.warning(e.getMessage());
+				for (Future<String[]> listing : serverListings) {
+
+					String[] names = getResult(listing);
+
+					if (names == null) {
+						continue;
 					}
 
-					addEntriesToRegistry(server, names, isSecondary);
+					for (String name : names) {
+						if (seen.add(name)) {
+							serverNames.add(name);
+						} else {
+							logger.finest("Registry already contains an entry for " + name + ", skipping");
+						}
+					}
+				}
+
+				namesByServer.add(serverNames);
+			}
+
+			// Read the type of databases whose names don't give it away, one
+			// batch per server
+			List<Future<Map<String, DatabaseInfo>>> infos = new ArrayList<Future<Map<String, DatabaseInfo>>>();
+
+			for (int i = 0; i < servers.size(); i++) {
+
+				List<String> unknown = new ArrayList<String>();
+
+				for (String name : namesByServer.get(i)) {
+					if (DatabaseRegistryEntry.getInfoFromName(name, this.globalSpecies, this.globalType).getType() == DatabaseType.UNKNOWN) {
+						unknown.add(name);
+					}
+				}
+
+				infos.add(pool.submit(new DatabaseInfoReader(servers.get(i), unknown)));
+			}
+
+			for (int i = 0; i < servers.size(); i++) {
+
+				Map<String, DatabaseInfo> serverInfos = getResult(infos.get(i));
+
+				for (String name : namesByServer.get(i)) {
 
+					DatabaseInfo dbInfo = serverInfos == null ? null : serverInfos.get(name);
+					DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(servers.get(i), name, this.globalSpecies, this.globalType, dbInfo);
+					dbre.setDatabaseRegistry(this);
+					entries.add(dbre);
+
+					logger.finest("Added DatabaseRegistryEntry for " + name + " to " + (isSecondary ? "secondary" : "main") + " DatabaseRegistry");
 				}
 			}
+
+		} finally {
+			pool.shutdownNow();
+		}
+
+	}
+
+	/**
+	 * Lists the databases on a server that match a pattern.
+	 */
+	private static class DatabaseLister implements Callable<String[]> {
+
+		private final DatabaseServer server;
+		private final String pattern;
+
+		DatabaseLister(DatabaseServer server, String pattern) {
+			this.server = server;
+			this.pattern = pattern;
+		}
+
+		public String[] call() {
+
+			Connection con = null;
+
+			try {
+
+				con = server.getDatabaseConnection("");
+				return DBUtils.listDatabases(con, pattern);
+
+			} catch (SQLException e) {
+				logger.warning(e.getMessage());
+				return null;
+			} finally {
+				DBUtils.closeQuietly(con);
+			}
+		}
+	}
+
+	/**
+	 * Reads the type and schema version of databases on a server.
+	 */
+	private static class DatabaseInfoReader implements Callable<Map<String, DatabaseInfo>> {
+
+		private final DatabaseServer server;
+		private final List<String> names;
+
+		DatabaseInfoReader(DatabaseServer server, List<String> names) {
+			this.server = server;
+			this.names = names;
+		}
+
+		public Map<String, DatabaseInfo> call() {
+
+			try {
+
+				return DatabaseRegistryEntry.getInfoFromDatabases(server, names);
+
+			} catch (SQLException e) {
+				logger.warning(e.getMessage());
+				return null;
+			}
+		}
+	}
+
+	/**
+	 * @return The result of a discovery task, rethrowing what it threw.
+	 */
+	private static <T> T getResult(Future<T> future) {
+
+		try {
+
+			return future.get();
+
+		} catch (InterruptedException e) {
+
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while looking for databases", e);
+
+		} catch (ExecutionException e) {
+
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new RuntimeException(cause);
 		}
+	}
+
+	/**
+	 * Names discovery threads so log output can be attributed.
+	 */
+	private static class DiscoveryThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
 
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "healthcheck-discovery-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
 	}
 
 	// -------------------------------------------------------------------------
@@ -140,35 +304,6 @@ public class DatabaseRegistry implements Iterable<DatabaseRegistryEntry> {
 
 	// -----------------------------------------------------------------
 
-	private void addEntriesToRegistry(DatabaseServer server, final String[] names, boolean isSecondary) {
-
-		if (names==null) {
-			return;
-		}
-		
-		for (String name : names) {
-
-			DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(server, name, globalSpecies, globalType);
-
-			if (!this.contains(dbre)) {
-
-				// logger.finest(dbre.getName() + " appears to be type " + dbre.getType() + " and species " + dbre.getSpecies());
-
-				dbre.setDatabaseRegistry(this);
-
-				entries.add(dbre);
-
-				logger.finest("Added DatabaseRegistryEntry for " + name + " to " + (isSecondary ? "secondary" : "main") + " DatabaseRegistry");
-
-			} else {
-
-				logger.finest("Registry already contains an entry for " + dbre.getName() + ", skipping");
-
-			}
-		}
-
-	}
-
 	// -----------------------------------------------------------------
 	/**
 	 * Add a new DatabaseRegistryEntry to this registry.
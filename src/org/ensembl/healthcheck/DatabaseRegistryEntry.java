@@ -29,11 +29,19 @@
  */
 package org.ensembl.healthcheck;
 
+import java.lang.ref.WeakReference;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -44,6 +52,7 @@ import org.ensembl.healthcheck.util.CollectionUtils;
 import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
 import org.ensembl.healthcheck.util.ConnectionPool;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.MetadataCache;
 import org.ensembl.healthcheck.util.RowMapper;
 import org.ensembl.healthcheck.util.SqlTemplate;
 import org.ensembl.healthcheck.util.SqlUncheckedException;
@@ -57,6 +66,9 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 
 	private static final String COLLECTION_CLAUSE = "_collection";
 
+	/** Number of databases whose meta tables are read in one query. */
+	private static final int META_BATCH_SIZE = 100;
+
 	/**
 	 * Simple read-only bean to store pertinent information about a database.
 	 * Objects of this type are held by the {@link DatabaseRegistryEntry} and
@@ -206,10 +218,11 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 	public static DatabaseInfo getInfoFromDatabase(DatabaseServer server,
 			final String name) throws SQLException {
 		SqlTemplate template = null;
+		Connection con = null;
 
 		try {
-			template = new ConnectionBasedSqlTemplateImpl(
-					server.getDatabaseConnection(name));
+			con = server.getDatabaseConnection(name);
+			template = new ConnectionBasedSqlTemplateImpl(con);
 		} catch (NullPointerException e) {
 
 			// This exception can be thrown, if a database name has hashes in
@@ -227,60 +240,186 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 
 			// No info will be available for this database.
 			//
+			DBUtils.closeQuietly(con);
 			return null;
 		}
 
 		DatabaseInfo info = null;
 
-		boolean dbHasAMetaTable = template.queryForDefaultObjectList(
-				"show tables like 'meta'", String.class).size() == 1;
+		try {
 
-		if (dbHasAMetaTable) {
+			boolean dbHasAMetaTable = template.queryForDefaultObjectList(
+					"show tables like 'meta'", String.class).size() == 1;
 
-			try {
-				List<DatabaseInfo> dbInfos = template
-						.queryForList(
-
-						// Will return something like ("core", 63)
-						//
-								"select m1.meta_value, m2.meta_value from meta m1 join meta m2 where m1.meta_key='schema_type' and m2.meta_key='schema_version'",
-
-								new RowMapper<DatabaseInfo>() {
-
-									public DatabaseInfo mapRow(
-											ResultSet resultSet, int position)
-											throws SQLException {
-
-										String schemaType = resultSet
-												.getString(1);
-										String schemaVersion = resultSet
-												.getString(2);
-
-										return new DatabaseInfo(
-												name,
-												null,
-												Species.UNKNOWN,
-												DatabaseType
-														.resolveAlias(schemaType),
-												schemaVersion, null);
-									}
-								});
-
-				info = CollectionUtils.getFirstElement(dbInfos, info);
-
-			} catch (SqlUncheckedException e) {
-
-				logger.warning("Can't determine database type and version from "
-						+ name + " on " + server+": "+e.getMessage());
-
-				// No info will be available for this database.
-				//
-				return null;
-			} finally {
-				
+			if (dbHasAMetaTable) {
+
+				try {
+					List<DatabaseInfo> dbInfos = template
+							.queryForList(
+
+							// Will return something like ("core", 63)
+							//
+									"select m1.meta_value, m2.meta_value from meta m1 join meta m2 where m1.meta_key='schema_type' and m2.meta_key='schema_version'",
+
+									new RowMapper<DatabaseInfo>() {
+
+										public DatabaseInfo mapRow(
+												ResultSet resultSet, int position)
+												throws SQLException {
+
+											String schemaType = resultSet
+													.getString(1);
+											String schemaVersion = resultSet
+													.getString(2);
+
+											return new DatabaseInfo(
+													name,
+													null,
+													Species.UNKNOWN,
+													DatabaseType
+															.resolveAlias(schemaType),
+													schemaVersion, null);
+										}
+									});
+
+					info = CollectionUtils.getFirstElement(dbInfos, info);
+
+				} catch (SqlUncheckedException e) {
+
+					logger.warning("Can't determine database type and version from "
+							+ name + " on " + server+": "+e.getMessage());
+
+					// No info will be available for this database.
+					//
+					return null;
+				}
 			}
+			return info;
+
+		} finally {
+			// Hand the connection back to the pool
+			DBUtils.closeQuietly(con);
+		}
+	}
+
+	/**
+	 * <p>
+	 * Like {@link #getInfoFromDatabase(DatabaseServer, String)} for many
+	 * databases on one server. Looks up which of them have a meta table in a
+	 * single information_schema query, and reads the schema type and version
+	 * of up to {@value #META_BATCH_SIZE} databases per query.
+	 * </p>
+	 * 
+	 * @param server
+	 * @param names
+	 * @return DatabaseInfo keyed on database name, for the databases it could
+	 *         be determined for.
+	 */
+	public static Map<String, DatabaseInfo> getInfoFromDatabases(DatabaseServer server, List<String> names)
+			throws SQLException {
+
+		Map<String, DatabaseInfo> infos = new HashMap<String, DatabaseInfo>();
+
+		if (names.isEmpty()) {
+			return infos;
+		}
+
+		Connection con = server.getDatabaseConnection("");
+
+		try {
+
+			List<String> withMeta = getDatabasesWithMetaTable(con, names);
+
+			for (int i = 0; i < withMeta.size(); i += META_BATCH_SIZE) {
+
+				List<String> batch = withMeta.subList(i, Math.min(i + META_BATCH_SIZE, withMeta.size()));
+
+				try {
+
+					readSchemaTypeAndVersion(con, batch, infos);
+
+				} catch (SQLException e) {
+
+					logger.fine("Can't read meta tables of " + batch.size() + " databases on " + server
+							+ " in one go, reading them one by one: " + e.getMessage());
+
+					for (String name : batch) {
+						DatabaseInfo info = getInfoFromDatabase(server, name);
+						if (info != null) {
+							infos.put(name, info);
+						}
+					}
+				}
+			}
+
+		} finally {
+			DBUtils.closeQuietly(con);
+		}
+
+		return infos;
+	}
+
+	private static List<String> getDatabasesWithMetaTable(Connection con, List<String> names) throws SQLException {
+
+		StringBuilder sql = new StringBuilder(
+				"SELECT TABLE_SCHEMA FROM information_schema.TABLES WHERE TABLE_NAME = 'meta' AND TABLE_SCHEMA IN (");
+		sql.append(StringUtils.repeat("?, ", names.size() - 1)).append("?)");
+
+		PreparedStatement stmt = con.prepareStatement(sql.toString());
+
+		try {
+
+			for (int i = 0; i < names.size(); i++) {
+				stmt.setString(i + 1, names.get(i));
+			}
+
+			List<String> withMeta = new ArrayList<String>();
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				withMeta.add(rs.getString(1));
+			}
+			return withMeta;
+
+		} finally {
+			DBUtils.closeQuietly(stmt);
+		}
+	}
+
+	private static void readSchemaTypeAndVersion(Connection con, List<String> names, Map<String, DatabaseInfo> infos)
+			throws SQLException {
+
+		StringBuilder sql = new StringBuilder();
+
+		for (String name : names) {
+			if (sql.length() > 0) {
+				sql.append(" UNION ALL ");
+			}
+			String meta = "`" + name.replace("`", "``") + "`.meta";
+			sql.append("SELECT ?, m1.meta_value, m2.meta_value FROM ").append(meta).append(" m1 JOIN ").append(meta)
+					.append(" m2 WHERE m1.meta_key='schema_type' AND m2.meta_key='schema_version'");
+		}
+
+		PreparedStatement stmt = con.prepareStatement(sql.toString());
+
+		try {
+
+			for (int i = 0; i < names.size(); i++) {
+				stmt.setString(i + 1, names.get(i));
+			}
+
+			ResultSet rs = stmt.executeQuery();
+			while (rs.next()) {
+				String name = rs.getString(1);
+				// like getInfoFromDatabase, use the first row per database
+				if (!infos.containsKey(name)) {
+					infos.put(name, new DatabaseInfo(name, null, Species.UNKNOWN, DatabaseType.resolveAlias(rs
+							.getString(2)), rs.getString(3), null));
+				}
+			}
+
+		} finally {
+			DBUtils.closeQuietly(stmt);
 		}
-		return info;
 	}
 
 	/**
@@ -355,14 +494,26 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 
 	private final DatabaseInfo info;
 
-	private List<Integer> speciesIds;
-
 	private final DatabaseServer server;
 
 	private DatabaseRegistry databaseRegistry;
 
 	private Connection connection;
 
+	/** When connection was last validated or handed out, in milliseconds. */
+	private long connectionLastUsed;
+
+	/** Set if connection must be validated before it is handed out again. */
+	private volatile boolean connectionSuspect;
+
+	private static final AtomicLong validationsPerformed = new AtomicLong();
+
+	private static final AtomicLong validationsSkipped = new AtomicLong();
+
+	/** The entry each connection was handed out by, to invalidate it after a failure. */
+	private static final Map<Connection, WeakReference<DatabaseRegistryEntry>> connectionOwners = Collections
+			.synchronizedMap(new WeakHashMap<Connection, WeakReference<DatabaseRegistryEntry>>());
+
 	/** The logger to use */
 	private static Logger logger = Logger.getLogger("HealthCheckLogger");
 
@@ -403,11 +554,39 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 		}
 		this.info = info;
 	}
+
+	/**
+	 * Create a new DatabaseRegistryEntry without querying the database.
+	 * 
+	 * @param server
+	 *            The database server where this database resides.
+	 * @param name
+	 *            The name of the database.
+	 * @param species
+	 *            The species that this database represents. If null, derive it
+	 *            from name.
+	 * @param type
+	 *            The type of this database. If null, derive it from name.
+	 * @param dbInfo
+	 *            Information read from the database by
+	 *            {@link #getInfoFromDatabases(DatabaseServer, List)}, used if
+	 *            the type can't be derived from name. May be null.
+	 */
+	public DatabaseRegistryEntry(DatabaseServer server, String name,
+			Species species, DatabaseType type, DatabaseInfo dbInfo) {
+		this.server = server;
+		DatabaseInfo info = getInfoFromName(name, species, type);
+		if (info.getType() == DatabaseType.UNKNOWN && dbInfo != null) {
+			info = dbInfo;
+		}
+		this.info = info;
+	}
 	
 	public DatabaseRegistryEntry(DatabaseInfo info, Connection con) {
 		this.info = info;
 		this.server = null;
 		this.connection = con;
+		connectionOwners.put(con, new WeakReference<DatabaseRegistryEntry>(this));
 	}
 
 	// -----------------------------------------------------------------
@@ -553,23 +732,98 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 		return server;
 	}
 
-	public Connection getConnection() {
+	/**
+	 * Get the connection to this database. The connection is only checked
+	 * with a query if it has not been handed out for longer than the
+	 * connection pool's validation interval, or if
+	 * {@link #invalidateConnection()} was called since.
+	 */
+	public synchronized Connection getConnection() {
 
-		if (
-			(connection == null) 
-			|| !(ConnectionPool.isValidConnection(connection))
-		) {
+		long now = System.currentTimeMillis();
 
-			try {
-				connection = server.getDatabaseConnection(getName());
-			} catch (SQLException e) {
+		if (connection != null && !isClosed(connection)) {
 
-				logger.warning(e.getMessage());
+			if (!connectionSuspect && now - connectionLastUsed < ConnectionPool.getValidationInterval()) {
+				validationsSkipped.incrementAndGet();
+				connectionLastUsed = now;
+				return connection;
 			}
+
+			validationsPerformed.incrementAndGet();
+			if (ConnectionPool.isValidConnection(connection)) {
+				connectionSuspect = false;
+				connectionLastUsed = now;
+				return connection;
+			}
+		}
+
+		try {
+			// Hand a broken connection back so the pool can discard it
+			DBUtils.closeQuietly(connection);
+			connection = server.getDatabaseConnection(getName());
+			connectionOwners.put(connection, new WeakReference<DatabaseRegistryEntry>(this));
+			connectionSuspect = false;
+			connectionLastUsed = now;
+		} catch (SQLException e) {
+
+			logger.warning(e.getMessage());
 		}
 		return connection;
 	}
 
+	private static boolean isClosed(Connection con) {
+
+		try {
+			return con.isClosed();
+		} catch (SQLException e) {
+			return true;
+		}
+	}
+
+	/**
+	 * Make the next call to {@link #getConnection()} validate the connection,
+	 * e.g. after a statement on it failed.
+	 */
+	public void invalidateConnection() {
+		connectionSuspect = true;
+	}
+
+	/**
+	 * Make the entry that handed out a connection validate it before handing
+	 * it out again, because a statement on it failed.
+	 *
+	 * @param con
+	 *            The connection, which needn't come from an entry.
+	 */
+	public static void invalidateConnection(Connection con) {
+
+		if (con == null) {
+			return;
+		}
+		WeakReference<DatabaseRegistryEntry> owner = connectionOwners.get(con);
+		DatabaseRegistryEntry dbre = owner == null ? null : owner.get();
+		if (dbre != null) {
+			dbre.invalidateConnection();
+		}
+	}
+
+	/**
+	 * @return The number of times {@link #getConnection()} checked a
+	 *         connection with a query, over all databases.
+	 */
+	public static long getValidationsPerformed() {
+		return validationsPerformed.get();
+	}
+
+	/**
+	 * @return The number of times {@link #getConnection()} handed out a
+	 *         recently used connection without checking it, over all databases.
+	 */
+	public static long getValidationsSkipped() {
+		return validationsSkipped.get();
+	}
+
 	/**
 	 * Test if this entry is equal to another. Comparison is currently only on
 	 * database name.
@@ -603,10 +857,35 @@ public class DatabaseRegistryEntry implements Comparable<DatabaseRegistryEntry>
 	 * @return list of numeric IDs
 	 */
 	public List<Integer> getSpeciesIds() {
-		if (speciesIds == null) {
-			speciesIds = getSpeciesIds(getConnection(), getSpecies(), getType());
+		try {
+			return getMetadataCache().get("species_ids", new MetadataCache.Loader<List<Integer>>() {
+				public List<Integer> load() {
+					return getSpeciesIds(getConnection(), getSpecies(), getType());
+				}
+			});
+		} catch (SQLException e) {
+			throw new UtilUncheckedException("Problem obtaining list of species IDs", e);
 		}
-		return speciesIds;
+	}
+
+	/**
+	 * @return The cache of metadata about this database shared by all test
+	 *         cases.
+	 */
+	public MetadataCache getMetadataCache() {
+		// Same key as the Connection based helpers in DBUtils use
+		MetadataCache cache = MetadataCache.forConnection(getConnection());
+		if (cache == null) {
+			throw new UtilUncheckedException("Can't get metadata cache for " + getName());
+		}
+		return cache;
+	}
+
+	/**
+	 * Forget everything cached about this database, e.g. after changing it.
+	 */
+	public void invalidateMetadata() {
+		getMetadataCache().invalidateAll();
 	}
 
 	public String toString() {
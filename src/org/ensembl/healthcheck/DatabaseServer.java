@@ -21,6 +21,7 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.logging.Logger;
 
+import org.ensembl.healthcheck.util.ConnectionPool;
 import org.ensembl.healthcheck.util.DBUtils;
 
 /**
@@ -57,6 +58,14 @@ public class DatabaseServer {
 
 	private static Logger logger = Logger.getLogger("HealthCheckLogger");
 
+	/**
+	 * Added to the URL of database connections to have MySQL parse a prepared
+	 * statement once on the server, and the driver keep it after it is closed.
+	 */
+	private static final String SERVER_PREPARED_STATEMENTS = "useServerPrepStmts=true&cachePrepStmts=true";
+
+	private static volatile boolean serverPreparedStatements = false;
+
 	public DatabaseServer(String host, String port, String user, String pass, String driver) {
 
 		this.driver = driver;
@@ -92,9 +101,29 @@ public class DatabaseServer {
 
 	// -------------------------------------------------------------------------
 
+	/**
+	 * Borrow a connection to a database on this server from the connection
+	 * pool. Closing the connection returns it to the pool.
+	 */
 	public Connection getDatabaseConnection(String databaseName) throws SQLException {
 
-		return DBUtils.openConnection(driver, databaseURL + databaseName, user, pass);
+		String url = databaseURL + databaseName;
+		if (serverPreparedStatements && driver.contains("mysql")) {
+			url += "?" + SERVER_PREPARED_STATEMENTS;
+		}
+		return ConnectionPool.borrowConnection(driver, url, user, pass);
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Whether connections to databases opened from now on use server-side
+	 * prepared statements. Off by default, as each statement then takes a
+	 * round trip to prepare and memory on the server until it is closed.
+	 */
+	public static void setServerPreparedStatements(boolean serverPreparedStatements) {
+
+		DatabaseServer.serverPreparedStatements = serverPreparedStatements;
 
 	}
 
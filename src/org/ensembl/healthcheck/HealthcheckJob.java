@@ -0,0 +1,80 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ensembl.healthcheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * One invocation of the {@link ConfigurableTestRunner} submitted to a
+ * {@link JobScheduler}.
+ */
+public class HealthcheckJob {
+
+    private final String name;
+
+    private final List<String> arguments;
+
+    private final List<String> hosts;
+
+    private final String logName;
+
+    /**
+     * @param name
+     *          A name for the job that is unique within the session.
+     * @param arguments
+     *          The command line arguments passed to the ConfigurableTestRunner.
+     * @param hosts
+     *          The MySQL hosts the job will put load on. Schedulers use these
+     *          to limit the number of jobs hitting the same host at once.
+     * @param logName
+     *          Base name of the files stdout and stderr are written to, or null
+     *          to let the scheduler choose one.
+     */
+    public HealthcheckJob(String name, String[] arguments, List<String> hosts, String logName) {
+
+        this.name = name;
+        this.arguments = Collections.unmodifiableList(Arrays.asList(arguments.clone()));
+        this.hosts = Collections.unmodifiableList(new ArrayList<String>(hosts));
+        this.logName = logName;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<String> getArguments() {
+        return arguments;
+    }
+
+    public List<String> getHosts() {
+        return hosts;
+    }
+
+    public String getLogName() {
+        return logName;
+    }
+
+    public String toString() {
+        return name + " " + arguments;
+    }
+
+}
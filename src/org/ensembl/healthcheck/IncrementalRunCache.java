@@ -0,0 +1,275 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.ChecksumDatabase;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.MetadataCache;
+import org.ensembl.healthcheck.util.RangeScanExecutor;
+
+/**
+ * <p>
+ * Remembers the result of each test case on each database together with the
+ * checksums of the tables the test reads, so that a later run can replay the
+ * result instead of running the test again if none of those tables changed.
+ * </p>
+ *
+ * <p>
+ * Only test cases that declare their tables with
+ * {@link EnsTestCase#setTablesRead(String...)} are cached. Each result is kept
+ * in a properties file named after the test case, in a directory per
+ * database. The checksums come from {@link ChecksumDatabase} and are computed
+ * at most once per table and run. Delete the directory to force all tests to
+ * run, for example after the tests themselves have changed.
+ * </p>
+ *
+ * <p>
+ * The reports cached are recorded per thread. A test that reports from
+ * threads of its own must pass them its recording with
+ * {@link ReportManager#setRecording(List)}, as {@link RangeScanExecutor}
+ * does, or those reports won't be replayed.
+ * </p>
+ */
+public class IncrementalRunCache {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private static final String RESULT = "result";
+
+	private static final String TABLE = "table.";
+
+	private static final String LINES = "lines";
+
+	private static final String LINE = "line.";
+
+	private final File directory;
+
+	/**
+	 * @param directory
+	 *          Where the results are kept; created if it doesn't exist.
+	 */
+	public IncrementalRunCache(File directory) {
+		this.directory = directory;
+	}
+
+	/**
+	 * Replay the cached result of testCase on database if the tables it reads
+	 * haven't changed since, otherwise call test and cache what it reports.
+	 *
+	 * @param test
+	 *          Runs testCase on database and returns its result.
+	 * @return The result of testCase.
+	 */
+	public boolean run(EnsTestCase testCase, DatabaseRegistryEntry database, Callable<Boolean> test)
+			throws Exception {
+
+		Map<String, String> checksums = getChecksums(testCase, database);
+
+		if (checksums == null) {
+			return test.call();
+		}
+
+		File file = getFile(testCase, database);
+		Properties cached = load(file);
+
+		if (cached != null && checksums.equals(getChecksums(cached))) {
+			logger.info("Tables read by " + testCase.getTestName() + " on " + database.getName()
+					+ " are unchanged, replaying cached result");
+			return replay(testCase, cached);
+		}
+
+		ReportManager.startRecording();
+		boolean result;
+		List<ReportLine> lines;
+		try {
+			result = test.call();
+		} finally {
+			lines = ReportManager.stopRecording();
+		}
+
+		store(file, checksums, result, lines);
+
+		return result;
+	}
+
+	/**
+	 * @return The checksum of each table testCase reads, or null if it
+	 *         doesn't declare them or one of them can't be checksummed.
+	 */
+	protected Map<String, String> getChecksums(EnsTestCase testCase, DatabaseRegistryEntry database) {
+
+		Collection<String> tables = testCase.getTablesRead();
+
+		if (tables == null) {
+			return null;
+		}
+
+		Map<String, String> checksums = new TreeMap<String, String>();
+
+		for (String table : tables) {
+			String checksum = getChecksum(database, table);
+			if (checksum == null) {
+				logger.fine("No checksum for " + database.getName() + "." + table + ", not caching "
+						+ testCase.getTestName());
+				return null;
+			}
+			checksums.put(table, checksum);
+		}
+
+		return checksums;
+	}
+
+	/**
+	 * @return The checksum of table, or null if it has none. Cached in the
+	 *         database's {@link MetadataCache}, which is invalidated when a
+	 *         test repairs the database.
+	 */
+	protected String getChecksum(final DatabaseRegistryEntry database, final String table) {
+
+		MetadataCache.Loader<String> loader = new MetadataCache.Loader<String>() {
+			public String load() {
+				Properties checksum = new ChecksumDatabase(database, Collections.singletonList(table))
+						.getChecksumFromDatabase();
+				return checksum.isEmpty() ? null : (String) checksum.values().iterator().next();
+			}
+		};
+
+		Connection con = database.getConnection();
+
+		try {
+			return MetadataCache.get(con, "checksum:" + table, loader);
+		} catch (SQLException e) {
+			logger.warning("Could not get checksum of " + database.getName() + "." + table + ": " + e.getMessage());
+			return null;
+		} catch (RuntimeException e) {
+			// missing tables have a null checksum, which Properties rejects
+			logger.warning("Could not get checksum of " + database.getName() + "." + table + ": " + e.getMessage());
+			return null;
+		}
+	}
+
+	private boolean replay(EnsTestCase testCase, Properties cached) {
+
+		// took no time worth learning from
+		TestInstrumentation.discardTest();
+
+		int lineCount = Integer.parseInt(cached.getProperty(LINES));
+
+		for (int i = 0; i < lineCount; i++) {
+			ReportManager.add(new ReportLine(testCase, cached.getProperty(LINE + i + ".database"),
+					Integer.parseInt(cached.getProperty(LINE + i + ".level")), cached.getProperty(LINE + i + ".message"),
+					testCase.getTeamResponsible(), testCase.getSecondTeamResponsible()));
+		}
+
+		return Boolean.parseBoolean(cached.getProperty(RESULT));
+	}
+
+	private static Map<String, String> getChecksums(Properties cached) {
+
+		Map<String, String> checksums = new TreeMap<String, String>();
+		for (String name : cached.stringPropertyNames()) {
+			if (name.startsWith(TABLE)) {
+				checksums.put(name.substring(TABLE.length()), cached.getProperty(name));
+			}
+		}
+		return checksums;
+	}
+
+	/**
+	 * @return The file caching testCase's result on database, under a
+	 *         directory for the database's server, since the same name on
+	 *         another server is another database.
+	 */
+	protected File getFile(EnsTestCase testCase, DatabaseRegistryEntry database) {
+
+		String server = ConnectionPool.getServer(database.getDatabaseServer().getDatabaseURL()).replaceAll(
+				"[^A-Za-z0-9._-]", "_");
+		return new File(new File(new File(directory, server), database.getName()), testCase.getTestName()
+				+ ".properties");
+	}
+
+	private Properties load(File file) {
+
+		if (!file.exists()) {
+			return null;
+		}
+
+		Properties cached = new Properties();
+		InputStream in = null;
+		try {
+			in = new FileInputStream(file);
+			cached.load(in);
+		} catch (IOException e) {
+			logger.warning("Cannot read cached result from " + file + ": " + e.getMessage());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+
+		return cached.getProperty(RESULT) == null || cached.getProperty(LINES) == null ? null : cached;
+	}
+
+	private void store(File file, Map<String, String> checksums, boolean result, List<ReportLine> lines) {
+
+		Properties cached = new Properties();
+		for (Map.Entry<String, String> checksum : checksums.entrySet()) {
+			cached.setProperty(TABLE + checksum.getKey(), checksum.getValue());
+		}
+		cached.setProperty(RESULT, Boolean.toString(result));
+		cached.setProperty(LINES, Integer.toString(lines.size()));
+		for (int i = 0; i < lines.size(); i++) {
+			ReportLine line = lines.get(i);
+			cached.setProperty(LINE + i + ".database", line.getDatabaseName());
+			cached.setProperty(LINE + i + ".level", Integer.toString(line.getLevel()));
+			cached.setProperty(LINE + i + ".message", line.getMessage() == null ? "" : line.getMessage());
+		}
+
+		file.getParentFile().mkdirs();
+
+		OutputStream out = null;
+		try {
+			out = new FileOutputStream(file);
+			cached.store(out, null);
+		} catch (IOException e) {
+			logger.warning("Cannot write cached result to " + file + ": " + e.getMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package org.ensembl.healthcheck;
+
+/**
+ * Interface to be implemented by any class that can run the jobs fanned out
+ * by the {@link ParallelConfigurableTestRunner}.
+ */
+public interface JobScheduler {
+
+    /**
+     * Submit a job. Implementations may return before the job has finished.
+     *
+     * @param job
+     *          The job to run.
+     */
+    void submit(HealthcheckJob job);
+
+    /**
+     * Submit a job that must only start once every job submitted so far has
+     * ended, whether it succeeded or not. Used to close the reporting session.
+     *
+     * @param job
+     *          The job to run.
+     */
+    void submitAfterAll(HealthcheckJob job);
+
+    /**
+     * Called once all jobs have been submitted. Schedulers that run jobs
+     * themselves block here until everything has finished, schedulers that
+     * hand jobs over to a batch system return straight away.
+     */
+    void awaitCompletion();
+
+}
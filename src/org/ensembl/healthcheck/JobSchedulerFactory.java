@@ -0,0 +1,104 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ensembl.healthcheck.configuration.ConfigurationUserParameters;
+import org.ensembl.healthcheck.configurationmanager.ConfigurationException;
+import org.ensembl.healthcheck.scheduler.LocalJobScheduler;
+import org.ensembl.healthcheck.scheduler.LsfJobScheduler;
+
+public class JobSchedulerFactory {
+
+	/**
+	 * An enumeration of the kinds of job schedulers this factory can produce.
+	 *
+	 */
+	public static enum SchedulerType {
+		LSF, LOCAL
+	}
+
+	/**
+	 * @param scheduler
+	 *            One of "Lsf", "Local"
+	 * @return The matching SchedulerType
+	 */
+	public static SchedulerType getSchedulerType(String scheduler) {
+
+		try {
+			return SchedulerType.valueOf(scheduler.toUpperCase());
+		} catch (IllegalArgumentException e) {
+			throw new ConfigurationException("Parameter scheduler has been set to an illegal value: " + scheduler);
+		}
+	}
+
+	/**
+	 *
+	 * @param schedulerType
+	 *            The kind of scheduler to create.
+	 * @param configuration
+	 *            Settings for the scheduler.
+	 * @param runConfigurable
+	 *            Script used by the LSF scheduler to start a test runner.
+	 * @return An implementation of a JobScheduler
+	 *
+	 */
+	public JobScheduler getJobScheduler(SchedulerType schedulerType, ConfigurationUserParameters configuration,
+			String runConfigurable) {
+
+		JobScheduler s = null;
+
+		if (schedulerType == SchedulerType.LSF) {
+			s = new LsfJobScheduler(configuration, runConfigurable);
+		}
+		if (schedulerType == SchedulerType.LOCAL) {
+
+			int jobs = configuration.isSchedulerLocalJobs()
+					? ConfigurableTestRunner.parseThreadCount("scheduler.local.jobs", configuration.getSchedulerLocalJobs())
+					: Runtime.getRuntime().availableProcessors();
+
+			int jobsPerHost = configuration.isSchedulerLocalJobsPerHost()
+					? ConfigurableTestRunner.parseThreadCount("scheduler.local.jobs_per_host",
+							configuration.getSchedulerLocalJobsPerHost())
+					: jobs;
+
+			List<String> jvmOptions = new ArrayList<String>();
+			if (configuration.isSchedulerLocalJvmOptions()
+					&& configuration.getSchedulerLocalJvmOptions().trim().length() > 0) {
+				jvmOptions.addAll(Arrays.asList(configuration.getSchedulerLocalJvmOptions().trim().split("\\s+")));
+			}
+
+			LocalJobScheduler local = new LocalJobScheduler(jobs, jobsPerHost, jvmOptions);
+
+			// every job counts against the secondary host, so it has a limit
+			// of its own rather than capping all jobs at jobsPerHost
+			if (configuration.isSecondaryHost()) {
+				local.setHostLimit(configuration.getSecondaryHost(), configuration.isSchedulerLocalJobsPerSecondaryHost()
+						? ConfigurableTestRunner.parseThreadCount("scheduler.local.jobs_per_secondary_host",
+								configuration.getSchedulerLocalJobsPerSecondaryHost())
+						: jobs);
+			}
+
+			s = local;
+		}
+		return s;
+	}
+}
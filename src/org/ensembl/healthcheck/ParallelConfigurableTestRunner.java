@@ -19,14 +19,12 @@ package org.ensembl.healthcheck;
 
 
 import java.io.File;
-import java.io.BufferedReader;
-import java.io.InputStreamReader;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 import java.util.List;
-import java.util.Iterator;
 import java.util.ArrayList;
 
+import org.ensembl.healthcheck.JobSchedulerFactory.SchedulerType;
 import org.ensembl.healthcheck.configuration.ConfigureHealthcheckDatabase;
 import org.ensembl.healthcheck.configuration.ConfigurationUserParameters;
 import org.ensembl.healthcheck.configuration.ConfigureConfiguration;
@@ -57,9 +55,6 @@ public class ParallelConfigurableTestRunner extends TestRunner {
         protected final static String DEFAULT_PROPERTIES_FILE = "database.release.defaults.properties";
         protected final ConfigurationUserParameters configuration;
 
-        private static final String MEMORY_RUSAGE = "select[mem>2000] rusage[mem=2000]";
-        private static final String MEMORY_RESERVATION = "2000";
-
         static final Logger log = Logger.getLogger(ParallelConfigurableTestRunner.class.getCanonicalName());
         protected final SystemPropertySetter systemPropertySetter;
 
@@ -157,65 +152,92 @@ public class ParallelConfigurableTestRunner extends TestRunner {
          */
         protected void submitJobs() {
 
-                int numberOfTestsRun = 0;
                 int jobNumber = 0;
-                String[] cmd;
-                List<String> jobNames = new ArrayList<String>();
                 String dir = System.getProperty("user.dir");
                 String runConfigurable = dir + File.separator + "run-configurable-testrunner.sh";
                 long sessionID = ReportManager.getSessionID();
 
+                JobScheduler scheduler = getJobScheduler(runConfigurable);
+
                 for (String database : configuration.getTestDatabases()) {
 
                         String currentJobName = "Job_" + jobNumber;
 
-                        if ( configuration.getHost1() != null ) {  
-                                 cmd = new String[] {"bsub", "-q", "long", "-J", currentJobName, "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-R", "select[my" + configuration.getHost().replace("-", "_") + "<=800]", "-R",
-                                 "select[my" + configuration.getHost1().replace("-", "_") + "<=800]", "-R",  "select[my" + configuration.getSecondaryHost().replace("-", "_") + "<=400]", "-R",
-                                 "rusage[my" + configuration.getHost().replace("-", "_") + "=10:my" + configuration.getHost1().replace("-", "_") + "=10:my" + configuration.getSecondaryHost().replace("-", "_") + "=50]", "-o", "healthcheck_%J.out", "-e", 
-                                 "healthcheck_%J.err", runConfigurable, "-d", database, "--sessionID", "" + sessionID, "-c", DEFAULT_PROPERTIES_FILE };
-                        }
-                        else {
-                                 cmd = new String[] {"bsub", "-q", "long", "-J", currentJobName, "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-R", "select[my" + configuration.getHost().replace("-", "_") + "<=800]", "-R", 
-                                 "select[my" + configuration.getSecondaryHost().replace("-", "_") + "<=400]", "-R", "rusage[my" + configuration.getHost().replace("-", "_") + "=10:my" + configuration.getSecondaryHost().replace("-", "_") + "=50]",
-                                 "-o", "healthcheck_%J.out", "-e", "healthcheck_%J.err", runConfigurable, "-d", database, "--sessionID", "" + sessionID, "-c", 
-                                 DEFAULT_PROPERTIES_FILE };
-                        }
+                        scheduler.submit(new HealthcheckJob(currentJobName, new String[] { "-d", database, "--sessionID",
+                                        "" + sessionID, "-c", DEFAULT_PROPERTIES_FILE }, getHostsUsedBy(database), null));
 
-                        jobNames.add(currentJobName);
-
-                        execCmd(cmd);
                         System.out.println("Submitted job with database regexp " + database);
                         jobNumber++;
 
                  }
- 
-                 Iterator<String> jobNameIterator = jobNames.iterator();
-                 StringBuffer bsubConditionClause = new StringBuffer();
-                 while (jobNameIterator.hasNext()) {
 
-                        String currentJobName = jobNameIterator.next();
-                        bsubConditionClause.append("ended(\"" + currentJobName + "\")");
+                String session = "" + sessionID;
 
-                        if (jobNameIterator.hasNext()) {
-                                bsubConditionClause.append(" && ");
-                        }
-                }
+                scheduler.submitAfterAll(new HealthcheckJob(String.format("hc_%s", session), new String[] { "--endSession",
+                                session, "-c", DEFAULT_PROPERTIES_FILE }, new ArrayList<String>(),
+                                String.format("healthcheck_session_%s", session)));
 
-                String session = "" + sessionID;
+                System.out.println("Submitted session dependency job");
 
-                String out = String.format("healthcheck_session_%s.out", session);
-                String err = String.format("healthcheck_session_%s.err", session);
+                scheduler.awaitCompletion();
 
-                String jobName = String.format("hc_%s", session);
+        } // submitJobs
 
-                String[] sessionEndTimeCmd = { "bsub", "-R", MEMORY_RUSAGE, "-M", MEMORY_RESERVATION, "-o", out, "-e", err, "-J", jobName, "-w", bsubConditionClause.toString(), runConfigurable, "--endSession", "" + sessionID, "-c", DEFAULT_PROPERTIES_FILE };
+        /**
+         * Create the scheduler configured with the "scheduler" parameter. LSF
+         * is used if none has been set.
+         *
+         * @param runConfigurable
+         *            Script that starts a test runner on a farm node.
+         */
+        protected JobScheduler getJobScheduler(String runConfigurable) {
 
-                execCmd(sessionEndTimeCmd);
+                SchedulerType schedulerType = configuration.isScheduler()
+                                ? JobSchedulerFactory.getSchedulerType(configuration.getScheduler())
+                                : SchedulerType.LSF;
 
-                System.out.println("Submitted session dependency job");
+                logger.config("Using scheduler of type: " + schedulerType);
 
-        } // submitJobs
+                return new JobSchedulerFactory().getJobScheduler(schedulerType, configuration, runConfigurable);
+        }
+
+        /**
+         * Find the MySQL hosts a job testing the databases matching a regexp
+         * will put load on: the main servers that have matching databases, plus
+         * the secondary server. Falls back to all configured hosts if the
+         * servers can't be queried.
+         *
+         * @param databaseRegexp
+         *            One of the test_databases entries.
+         */
+        protected List<String> getHostsUsedBy(String databaseRegexp) {
+
+                List<String> hosts = new ArrayList<String>();
+
+                try {
+                        for (DatabaseServer server : DBUtils.getMainDatabaseServers()) {
+                                if (DBUtils.listDatabases(server.getServerConnection(), databaseRegexp).length > 0) {
+                                        hosts.add(server.getHost());
+                                }
+                        }
+                } catch (Exception e) {
+                        logger.log(Level.WARNING, "Can't find the hosts used by " + databaseRegexp + ", assuming all of them: "
+                                        + e.getMessage());
+                        hosts.clear();
+                        for (String host : new String[] { configuration.getHost(), configuration.getHost1(),
+                                        configuration.getHost2() }) {
+                                if (host != null) {
+                                        hosts.add(host);
+                                }
+                        }
+                }
+
+                if (configuration.isSecondaryHost()) {
+                        hosts.add(configuration.getSecondaryHost());
+                }
+
+                return hosts;
+        }
 
         /**
          * Used for creating layered constructors.
@@ -294,39 +316,6 @@ public class ParallelConfigurableTestRunner extends TestRunner {
                 return configuration;
         }
 
-        /**
-         * Used for executing bsub commands.
-         *
-         * @param cmd
-         *
-         */
-        protected void execCmd(String[] cmd) {
-
-                try {
-
-                        Process p = Runtime.getRuntime().exec(cmd);
-
-                        BufferedReader stdInput = new BufferedReader(new InputStreamReader(p.getInputStream()));
-                        BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
-
-                        String s = null;
-
-                        while ((s = stdInput.readLine()) != null) {
-                                System.out.println(s);
-                        }
-
-                        while ((s = stdError.readLine()) != null) {
-                                System.out.println(s);
-                        }
-
-                        stdInput.close();
-                        stdError.close();
-
-                } catch (Exception ioe) {
-                        System.err.println("Error in head job " + ioe.getMessage());
-                }
-        }
-
 }
 
 
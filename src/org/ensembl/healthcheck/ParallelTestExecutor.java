@@ -0,0 +1,479 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
+
+/**
+ * <p>
+ * Runs single-database tests on a bounded pool of worker threads instead of
+ * one after the other.
+ * </p>
+ *
+ * <p>
+ * Each database is processed by one worker at a time, so the tests for a
+ * given database still run in registry order and never share the
+ * database's connection with another thread. Work for different databases
+ * runs concurrently. The number of databases processed at the same time on
+ * one {@link DatabaseServer} is capped by <code>threadsPerServer</code> and
+ * the number of tests running at once across all servers is capped by
+ * <code>threads</code>.
+ * </p>
+ *
+ * <p>
+ * With a {@link TestCostModel}, the databases on each server are tested in
+ * order of their estimated time, longest first, so that long tests don't
+ * start near the end of the run and hold it up. Without one, they are tested
+ * in registry order.
+ * </p>
+ *
+ * <p>
+ * Every (database, test) pair runs on its own instance of the test class,
+ * because test cases are free to keep state in fields. The instance takes
+ * the settings of the registered one, see
+ * {@link EnsTestCase#copySettingsFrom(EnsTestCase)}; state a subclass sets
+ * on the registered instance after creating it is not copied. Outcomes are merged
+ * into the accounting collections in the order the serial runner would have
+ * produced them, so the resulting {@link TestRunStats} are identical to a
+ * serial run.
+ * </p>
+ */
+class ParallelTestExecutor {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger(ParallelTestExecutor.class.getSimpleName());
+
+	private final TestRunner testRunner;
+
+	private final int threads;
+
+	private final int threadsPerServer;
+
+	private final TestCostModel costModel;
+
+	/**
+	 * @param testRunner
+	 *            The runner on whose behalf tests are executed. Used for
+	 *            show/repair handling.
+	 * @param threads
+	 *            Maximum number of tests running at the same time.
+	 * @param threadsPerServer
+	 *            Maximum number of databases on one server being tested at
+	 *            the same time.
+	 */
+	ParallelTestExecutor(TestRunner testRunner, int threads, int threadsPerServer) {
+
+		this(testRunner, threads, threadsPerServer, null);
+	}
+
+	/**
+	 * @param costModel
+	 *            Estimates the time of each test, to test the databases on
+	 *            each server longest first. Null for registry order.
+	 */
+	ParallelTestExecutor(TestRunner testRunner, int threads, int threadsPerServer, TestCostModel costModel) {
+
+		if (threads < 1 || threadsPerServer < 1) {
+			throw new IllegalArgumentException("Thread counts must be at least 1, got " + threads + " and " + threadsPerServer);
+		}
+
+		this.testRunner = testRunner;
+		this.threads = threads;
+		this.threadsPerServer = threadsPerServer;
+		this.costModel = costModel;
+	}
+
+	/**
+	 * The result of running one test on one database.
+	 */
+	static class Outcome {
+
+		final SingleDatabaseTestCase testCase;
+		final TestRunStats.CompletionStatus status;
+
+		Outcome(SingleDatabaseTestCase testCase, TestRunStats.CompletionStatus status) {
+			this.testCase = testCase;
+			this.status = status;
+		}
+	}
+
+	/**
+	 * Run all single-database tests on all databases and record the results
+	 * in the collections passed in.
+	 *
+	 * @return The number of tests that completed.
+	 */
+	int runSingleDatabaseTests(
+			DatabaseRegistry databaseRegistry,
+			TestRegistry testRegistry,
+			List<String> groupsToRun,
+			boolean skipSlow,
+			HashSet<Class<? extends EnsTestCase>> testsRun,
+			Map<Class<? extends EnsTestCase>, TestRunStats.CompletionStatus> trackCompletionStatus,
+			Map<Class<? extends EnsTestCase>, List<DatabaseRegistryEntry>> exceptionToDb
+	) {
+
+		final DatabaseRegistryEntry[] databases = databaseRegistry.getAll();
+
+		// One slot per database, filled in by whichever worker ran it.
+		final List<List<Outcome>> outcomes = new ArrayList<List<Outcome>>(databases.length);
+
+		// Group databases by server, keeping registry order within each
+		// server.
+		Map<String, Queue<Integer>> databasesByServer = new LinkedHashMap<String, Queue<Integer>>();
+
+		for (int i = 0; i < databases.length; i++) {
+
+			outcomes.add(null);
+
+			String serverKey = getServerKey(databases[i]);
+			if (!databasesByServer.containsKey(serverKey)) {
+				databasesByServer.put(serverKey, new ConcurrentLinkedQueue<Integer>());
+			}
+			databasesByServer.get(serverKey).add(i);
+		}
+
+		if (costModel != null) {
+			for (Map.Entry<String, Queue<Integer>> server : databasesByServer.entrySet()) {
+				sortLongestFirst(server.getKey(), server.getValue(), databases, testRegistry, groupsToRun, skipSlow);
+			}
+		}
+
+		int workerCount = 0;
+		for (Queue<Integer> queue : databasesByServer.values()) {
+			workerCount += Math.min(threadsPerServer, queue.size());
+		}
+
+		logger.info("Running single-database tests on " + databases.length + " databases on " + databasesByServer.size()
+				+ " servers using " + workerCount + " workers, at most " + threads + " tests at a time");
+
+		if (workerCount == 0) {
+			return 0;
+		}
+
+		final Semaphore runningTests = new Semaphore(threads, true);
+
+		ExecutorService pool = Executors.newFixedThreadPool(workerCount, new WorkerThreadFactory());
+		List<Future<?>> futures = new ArrayList<Future<?>>();
+
+		try {
+
+			for (final Queue<Integer> queue : databasesByServer.values()) {
+
+				int workersForServer = Math.min(threadsPerServer, queue.size());
+
+				for (int i = 0; i < workersForServer; i++) {
+
+					futures.add(pool.submit(new Runnable() {
+						public void run() {
+							Integer index;
+							while ((index = queue.poll()) != null) {
+								List<Outcome> databaseOutcomes = runTestsOnDatabase(databases[index], testRegistry, groupsToRun,
+										skipSlow, runningTests);
+								synchronized (outcomes) {
+									outcomes.set(index, databaseOutcomes);
+								}
+							}
+						}
+					}));
+				}
+			}
+
+			for (Future<?> future : futures) {
+				try {
+					future.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new RuntimeException("Interrupted while waiting for tests to finish", e);
+				} catch (java.util.concurrent.ExecutionException e) {
+					throw new RuntimeException("Worker died while running tests", e.getCause());
+				}
+			}
+
+		} finally {
+			pool.shutdownNow();
+		}
+
+		// Merge in registry order so the accounting matches a serial run.
+		int numberOfTestsRun = 0;
+
+		for (int i = 0; i < databases.length; i++) {
+
+			List<Outcome> databaseOutcomes = outcomes.get(i);
+
+			if (databaseOutcomes == null) {
+				continue;
+			}
+
+			for (Outcome outcome : databaseOutcomes) {
+
+				Class<? extends EnsTestCase> testClass = outcome.testCase.getClass();
+				trackCompletionStatus.put(testClass, outcome.status);
+
+				if (outcome.status == TestRunStats.CompletionStatus.COMPLETED) {
+
+					testsRun.add(testClass);
+					numberOfTestsRun++;
+
+				} else if (outcome.status == TestRunStats.CompletionStatus.DIED_WITH_EXCEPTION) {
+
+					if (!exceptionToDb.containsKey(testClass)) {
+						exceptionToDb.put(testClass, new ArrayList<DatabaseRegistryEntry>());
+					}
+					exceptionToDb.get(testClass).add(databases[i]);
+				}
+			}
+		}
+
+		return numberOfTestsRun;
+	}
+
+	/**
+	 * Reorder the databases of one server by their estimated time, longest
+	 * first. Databases with the same estimate keep registry order.
+	 */
+	void sortLongestFirst(String serverKey, Queue<Integer> queue, DatabaseRegistryEntry[] databases,
+			TestRegistry testRegistry, List<String> groupsToRun, boolean skipSlow) {
+
+		List<Integer> indexes = new ArrayList<Integer>(queue);
+		final Map<Integer, Long> costs = new HashMap<Integer, Long>();
+		long total = 0;
+
+		List<String> names = new ArrayList<String>();
+		for (Integer index : indexes) {
+			names.add(databases[index].getName());
+		}
+		Map<String, Map<String, Long>> tableRows = getTableRowCounts(databases[indexes.get(0)].getDatabaseServer(), names);
+
+		for (Integer index : indexes) {
+			long cost = estimateTime(databases[index], tableRows.get(databases[index].getName()), testRegistry,
+					groupsToRun, skipSlow);
+			costs.put(index, cost);
+			total += cost;
+		}
+
+		Collections.sort(indexes, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return costs.get(b).compareTo(costs.get(a));
+			}
+		});
+
+		queue.clear();
+		queue.addAll(indexes);
+
+		logger.info("Testing " + indexes.size() + " databases on " + serverKey + " longest first, estimated "
+				+ total / 1000 + "s in all, " + costs.get(indexes.get(0)) / 1000 + "s for "
+				+ databases[indexes.get(0)].getName());
+	}
+
+	/**
+	 * @return The rows of each table of the named databases, read over one
+	 *         connection to their server so that no database connection is
+	 *         opened before its tests run. Empty if they can't be read.
+	 */
+	static Map<String, Map<String, Long>> getTableRowCounts(DatabaseServer server, List<String> databases) {
+
+		if (server == null) {
+			return new HashMap<String, Map<String, Long>>();
+		}
+
+		try {
+			// shared with everyone else connecting to the server, so left open
+			return DBUtils.getTableRowCounts(server.getServerConnection(), databases);
+		} catch (SQLException e) {
+			logger.fine("Can't read table rows on " + server.getHost() + ":" + server.getPort() + ": " + e.getMessage());
+		} catch (SqlUncheckedException e) {
+			logger.fine("Can't read table rows on " + server.getHost() + ":" + server.getPort() + ": " + e.getMessage());
+		}
+		return new HashMap<String, Map<String, Long>>();
+	}
+
+	/**
+	 * @param tableRows
+	 *          The rows of each table of database, or null if not known.
+	 * @return The estimated time in milliseconds of the tests that will run on
+	 *         a database.
+	 */
+	long estimateTime(DatabaseRegistryEntry database, Map<String, Long> tableRows, TestRegistry testRegistry,
+			List<String> groupsToRun, boolean skipSlow) {
+
+		List<SingleDatabaseTestCase> tests;
+		synchronized (testRegistry) {
+			tests = new ArrayList<SingleDatabaseTestCase>(testRegistry.getAllSingle(groupsToRun, database.getType()));
+		}
+
+		long time = 0;
+		for (SingleDatabaseTestCase test : tests) {
+			if (!(test.isLongRunning() && skipSlow)) {
+				time += costModel.estimate(test, database, tableRows);
+			}
+		}
+		return time;
+	}
+
+	/**
+	 * Run the applicable tests on one database, one after the other.
+	 */
+	List<Outcome> runTestsOnDatabase(DatabaseRegistryEntry database, TestRegistry testRegistry, List<String> groupsToRun,
+			boolean skipSlow, Semaphore runningTests) {
+
+		List<Outcome> databaseOutcomes = new ArrayList<Outcome>();
+
+		logger.info("Processing database " + database.getName());
+
+		List<SingleDatabaseTestCase> tests;
+		synchronized (testRegistry) {
+			tests = new ArrayList<SingleDatabaseTestCase>(testRegistry.getAllSingle(groupsToRun, database.getType()));
+		}
+
+		for (SingleDatabaseTestCase registeredTestCase : tests) {
+
+			if (registeredTestCase.isLongRunning() && skipSlow) {
+
+				logger.info("Skipping long-running test " + registeredTestCase.getName());
+				databaseOutcomes.add(new Outcome(registeredTestCase, TestRunStats.CompletionStatus.SKIPPED_LONG_RUNNING));
+				continue;
+			}
+
+			try {
+				runningTests.acquire();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting to run " + registeredTestCase.getName(), e);
+			}
+
+			try {
+				databaseOutcomes.add(new Outcome(registeredTestCase, runTest(registeredTestCase, database)));
+			} finally {
+				runningTests.release();
+			}
+		}
+
+		return databaseOutcomes;
+	}
+
+	/**
+	 * Run a single test on a single database using a fresh instance of the
+	 * test class.
+	 */
+	TestRunStats.CompletionStatus runTest(SingleDatabaseTestCase registeredTestCase, DatabaseRegistryEntry database) {
+
+		SingleDatabaseTestCase testCase = newInstanceOf(registeredTestCase);
+
+		try {
+			logger.info("Executing " + testCase.getTestName() + " on " + database.getName());
+			ReportManager.startTestCase(testCase, database);
+
+			boolean result;
+
+			if (testCase == registeredTestCase) {
+				// Shared instance, don't let two databases use it at once
+				synchronized (registeredTestCase) {
+					testCase.types();
+					result = testRunner.runTestCase(testCase, database);
+				}
+			} else {
+				result = testRunner.runTestCase(testCase, database);
+			}
+
+			ReportManager.finishTestCase(testCase, result, database);
+
+			testRunner.checkRepair(testCase, database);
+			logger.info("Completed executing " + testCase.getTestName() + " on " + database.getName());
+
+			return TestRunStats.CompletionStatus.COMPLETED;
+
+		} catch (Throwable e) {
+
+			String msg = "Could not execute test " + testCase.getName() + " on " + database.getName() + ": " + e.getMessage();
+			logger.log(Level.WARNING, msg, e);
+
+			return TestRunStats.CompletionStatus.DIED_WITH_EXCEPTION;
+		}
+	}
+
+	/**
+	 * Create a new instance of a test with the settings of the registered
+	 * one. Falls back to the registered instance if the class cannot be
+	 * instantiated.
+	 */
+	SingleDatabaseTestCase newInstanceOf(SingleDatabaseTestCase registeredTestCase) {
+
+		try {
+			SingleDatabaseTestCase testCase = registeredTestCase.getClass().getDeclaredConstructor().newInstance();
+			testCase.copySettingsFrom(registeredTestCase);
+			testCase.types();
+			return testCase;
+		} catch (Exception e) {
+			logger.fine("Can't create new instance of " + registeredTestCase.getName() + ", reusing registered one: "
+					+ e.getMessage());
+			return registeredTestCase;
+		}
+	}
+
+	/**
+	 * @return A key identifying the server a database lives on.
+	 */
+	static String getServerKey(DatabaseRegistryEntry database) {
+
+		DatabaseServer server = database.getDatabaseServer();
+
+		if (server == null) {
+			return "(no server)";
+		}
+		return server.getHost() + ":" + server.getPort();
+	}
+
+	/**
+	 * Names worker threads so log output can be attributed.
+	 */
+	static class WorkerThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "healthcheck-worker-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Stores the reports of a session in memory. Reports may be added from any
+ * number of threads at the same time.
+ * </p>
+ *
+ * <p>
+ * Besides the report lines themselves, the number of passed and failed
+ * (test, database) pairs is kept up to date as reports come in, so
+ * questions like "how many tests failed on this database" are answered
+ * without looking at the reports again. A test has passed on a database if
+ * it reported at least one line and none of them was a
+ * {@link ReportLine#PROBLEM}.
+ * </p>
+ *
+ * <p>
+ * {@link ReportManager} keeps one instance of this class and exposes it
+ * through its static methods.
+ * </p>
+ */
+public class ReportCollector {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/**
+	 * The maximum number of lines to store per test case to prevent very
+	 * verbose test cases causing memory problems
+	 */
+	public static final int MAX_BUFFER_SIZE = 2000;
+
+	private final AtomicBoolean bufferSizeWarningPrinted = new AtomicBoolean(false);
+
+	/** Lists of reports keyed on the test name. */
+	private final ConcurrentMap<String, List<ReportLine>> reportsByTest = new ConcurrentHashMap<String, List<ReportLine>>();
+
+	/** Lists of reports keyed on the database name. */
+	private final ConcurrentMap<String, List<ReportLine>> reportsByDatabase = new ConcurrentHashMap<String, List<ReportLine>>();
+
+	/** Whether a test failed on a database, keyed on test and database name. */
+	private final ConcurrentMap<String, Boolean> failedByTestAndDatabase = new ConcurrentHashMap<String, Boolean>();
+
+	private final ConcurrentMap<String, PassFailCount> countsByTest = new ConcurrentHashMap<String, PassFailCount>();
+
+	private final ConcurrentMap<String, PassFailCount> countsByDatabase = new ConcurrentHashMap<String, PassFailCount>();
+
+	private final PassFailCount countsAll = new PassFailCount();
+
+	/**
+	 * Number of (test, database) pairs that passed and failed.
+	 */
+	static class PassFailCount {
+
+		final AtomicInteger passes = new AtomicInteger();
+		final AtomicInteger fails = new AtomicInteger();
+
+		int[] toArray() {
+			return new int[] { passes.get(), fails.get() };
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Add a test case report.
+	 *
+	 * @param report
+	 *          The ReportLine to add.
+	 */
+	public void add(ReportLine report) {
+
+		String testCaseName = report.getTestCaseName();
+		String databaseName = report.getDatabaseName();
+
+		boolean hasTest = testCaseName != null && testCaseName.length() > 0;
+		boolean hasDatabase = databaseName != null && databaseName.length() > 0;
+
+		if (hasTest) {
+
+			List<ReportLine> lines = getOrCreateList(reportsByTest, testCaseName);
+
+			synchronized (lines) {
+				// prevent the buffer getting too big
+				if (lines.size() > MAX_BUFFER_SIZE) {
+					if (bufferSizeWarningPrinted.compareAndSet(false, true)) {
+						System.err.println("\n\nReportManager has reached its maximum buffer size (" + MAX_BUFFER_SIZE
+								+ " lines) - no more output will be stored\n");
+					}
+				} else {
+					lines.add(report);
+				}
+			}
+
+		} else {
+			logger.warning("Cannot add report with test case name not set");
+		}
+
+		if (hasDatabase) {
+			getOrCreateList(reportsByDatabase, databaseName).add(report);
+		}
+
+		if (report.getLevel() >= ReportLine.ALL) {
+			count(testCaseName, databaseName, report.getLevel() >= ReportLine.PROBLEM, hasTest, hasDatabase);
+		}
+	}
+
+	/**
+	 * Update the pass/fail counters for a new report.
+	 */
+	private void count(String testCaseName, String databaseName, boolean problem, boolean hasTest, boolean hasDatabase) {
+
+		String key = testCaseName + "\t" + databaseName;
+
+		Boolean previous = failedByTestAndDatabase.putIfAbsent(key, problem);
+
+		int passDelta;
+		int failDelta;
+
+		if (previous == null) {
+
+			// First report for this pair
+			passDelta = problem ? 0 : 1;
+			failDelta = problem ? 1 : 0;
+
+		} else if (problem && !previous && failedByTestAndDatabase.replace(key, false, true)) {
+
+			// Passed so far, now failed
+			passDelta = -1;
+			failDelta = 1;
+
+		} else {
+			return;
+		}
+
+		if (hasTest) {
+			update(getOrCreateCount(countsByTest, testCaseName), passDelta, failDelta);
+		}
+		if (hasDatabase) {
+			update(getOrCreateCount(countsByDatabase, databaseName), passDelta, failDelta);
+			update(countsAll, passDelta, failDelta);
+		}
+	}
+
+	private static void update(PassFailCount count, int passDelta, int failDelta) {
+		count.passes.addAndGet(passDelta);
+		count.fails.addAndGet(failDelta);
+	}
+
+	private static List<ReportLine> getOrCreateList(ConcurrentMap<String, List<ReportLine>> map, String key) {
+
+		List<ReportLine> lines = map.get(key);
+		if (lines == null) {
+			List<ReportLine> newLines = Collections.synchronizedList(new ArrayList<ReportLine>());
+			lines = map.putIfAbsent(key, newLines);
+			if (lines == null) {
+				lines = newLines;
+			}
+		}
+		return lines;
+	}
+
+	private static PassFailCount getOrCreateCount(ConcurrentMap<String, PassFailCount> map, String key) {
+
+		PassFailCount count = map.get(key);
+		if (count == null) {
+			PassFailCount newCount = new PassFailCount();
+			count = map.putIfAbsent(key, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		return count;
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * @return All the reports, keyed on test case name. The lists must not be
+	 *         iterated while reports are still being added.
+	 */
+	public Map<String, List<ReportLine>> getReportsByTest() {
+		return reportsByTest;
+	}
+
+	/**
+	 * @return All the reports, keyed on database name. The lists must not be
+	 *         iterated while reports are still being added.
+	 */
+	public Map<String, List<ReportLine>> getReportsByDatabase() {
+		return reportsByDatabase;
+	}
+
+	/**
+	 * @return A copy of the reports for a test case, or null if it has not
+	 *         reported anything.
+	 */
+	public List<ReportLine> getReportsForTest(String testCaseName) {
+		return copyOf(reportsByTest.get(testCaseName));
+	}
+
+	/**
+	 * @return A copy of the reports for a database, or null if nothing has been
+	 *         reported for it.
+	 */
+	public List<ReportLine> getReportsForDatabase(String databaseName) {
+		return copyOf(reportsByDatabase.get(databaseName));
+	}
+
+	private static List<ReportLine> copyOf(List<ReportLine> lines) {
+
+		if (lines == null) {
+			return null;
+		}
+		synchronized (lines) {
+			return new ArrayList<ReportLine>(lines);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * @return The number of tests that passed [0] and failed [1] on a database.
+	 */
+	public int[] countPassesAndFailsDatabase(String database) {
+
+		PassFailCount count = countsByDatabase.get(database);
+		return count == null ? new int[2] : count.toArray();
+	}
+
+	/**
+	 * @return The number of databases that passed [0] and failed [1] a test.
+	 */
+	public int[] countPassesAndFailsTest(String test) {
+
+		PassFailCount count = countsByTest.get(test);
+		return count == null ? new int[2] : count.toArray();
+	}
+
+	/**
+	 * @return The number of (test, database) pairs that passed [0] and failed
+	 *         [1].
+	 */
+	public int[] countPassesAndFailsAll() {
+		return countsAll.toArray();
+	}
+
+	/**
+	 * @return true if test has not reported a problem for database.
+	 */
+	public boolean databasePassed(String test, String database) {
+		return !Boolean.TRUE.equals(failedByTestAndDatabase.get(test + "\t" + database));
+	}
+
+	/**
+	 * @return true if test has not reported a problem for any database.
+	 */
+	public boolean allDatabasesPassed(String test) {
+		return countPassesAndFailsTest(test)[1] == 0;
+	}
+
+} // ReportCollector
@@ -0,0 +1,384 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.UnsupportedEncodingException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Writes report lines to the report table of the output database on a
+ * background thread.
+ * </p>
+ *
+ * <p>
+ * Lines are queued by {@link #add(ReportLine)} and written in JDBC batches of
+ * <code>INSERT ... ON DUPLICATE KEY UPDATE</code> statements. A report is
+ * identified by the report_hash column, the MD5 of its database name, test
+ * case, result and text, so a report seen in an earlier session only gets its
+ * last_session_id and timestamp updated. This replaces looking up every line
+ * before inserting or updating it.
+ * </p>
+ *
+ * <p>
+ * {@link #flush()} blocks until every line queued before the call has been
+ * written. If the background thread dies, add() and flush() stop waiting
+ * for it and throw its error instead.
+ * </p>
+ */
+class ReportDatabaseWriter {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Maximum number of lines sent to the database in one batch. */
+	static final int BATCH_SIZE = 500;
+
+	/** Maximum number of lines waiting to be written before add() blocks. */
+	static final int QUEUE_CAPACITY = 10000;
+
+	private static final String SQL = "INSERT INTO report (first_session_id, last_session_id, database_name, species, database_type, testcase, result, text, timestamp, team_responsible, created, report_hash) "
+			+ "VALUES (?, ?, ?, ?, ?, ?, ?, ?, NOW(), ?, NOW(), ?) "
+			+ "ON DUPLICATE KEY UPDATE last_session_id=VALUES(last_session_id), timestamp=NOW()";
+
+	/** How often add() and flush() check the background thread while waiting for it. */
+	static final long WAIT_MILLIS = 1000;
+
+	/** Separates the fields that go into the hash, like CONCAT_WS(CHAR(0), ...). */
+	private static final String HASH_SEPARATOR = "\u0000";
+
+	private final Connection con;
+
+	private final BlockingQueue<Object> queue = new LinkedBlockingQueue<Object>(QUEUE_CAPACITY);
+
+	private final Thread thread;
+
+	private PreparedStatement stmt;
+
+	/** What killed the background thread, if it died. */
+	private volatile Throwable failure;
+
+	ReportDatabaseWriter(Connection con) {
+
+		this.con = con;
+
+		thread = new Thread(new Runnable() {
+			public void run() {
+				try {
+					writeQueuedLines();
+				} catch (RuntimeException e) {
+					failure = e;
+					logger.severe("Report writer failed: " + e);
+				} catch (Error e) {
+					failure = e;
+					throw e;
+				}
+			}
+		}, "healthcheck-report-writer");
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	/**
+	 * @return true if the report table of the database has the report_hash
+	 *         column and its unique key report_hash_idx, which this writer
+	 *         relies on. Without the key, ON DUPLICATE KEY UPDATE would insert
+	 *         a report again in every session.
+	 */
+	static boolean isSupported(Connection con) {
+
+		try {
+			if (!hasRow(con, "SHOW COLUMNS FROM report LIKE 'report_hash'")) {
+				return false;
+			}
+			if (!hasRow(con, "SHOW INDEX FROM report WHERE Key_name = 'report_hash_idx'")) {
+				logger.warning("The report table has a report_hash column but no report_hash_idx key. "
+						+ "Merge the duplicate reports listed by sql/patch_02_report_hash.sql, then run its update again and add the key.");
+				return false;
+			}
+			return true;
+		} catch (SQLException e) {
+			logger.warning("Can't check for report_hash column and key: " + e.getMessage());
+			return false;
+		}
+	}
+
+	private static boolean hasRow(Connection con, String sql) throws SQLException {
+
+		Statement stmt = con.createStatement();
+		try {
+			ResultSet rs = stmt.executeQuery(sql);
+			return rs.next();
+		} finally {
+			stmt.close();
+		}
+	}
+
+	/**
+	 * Queue a report line for writing. Blocks if too many lines are waiting
+	 * already.
+	 *
+	 * @throws IllegalStateException
+	 *           If the background thread has stopped.
+	 */
+	void add(ReportLine report) {
+
+		try {
+			checkWriter();
+			while (!queue.offer(report, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+				checkWriter();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while queueing report", e);
+		}
+	}
+
+	/**
+	 * Wait until all lines queued so far have been written.
+	 *
+	 * @throws IllegalStateException
+	 *           If the background thread died.
+	 */
+	void flush() {
+
+		if (failure == null && !thread.isAlive()) {
+			// closed
+			return;
+		}
+
+		CountDownLatch written = new CountDownLatch(1);
+
+		try {
+			checkWriter();
+			while (!queue.offer(written, WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+				checkWriter();
+			}
+			while (!written.await(WAIT_MILLIS, TimeUnit.MILLISECONDS)) {
+				checkWriter();
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while writing reports", e);
+		}
+	}
+
+	/**
+	 * Write all queued lines and stop the background thread.
+	 */
+	void close() {
+
+		try {
+			flush();
+		} finally {
+			thread.interrupt();
+		}
+	}
+
+	/**
+	 * @throws IllegalStateException
+	 *           If the background thread has stopped, with the error that
+	 *           killed it as the cause.
+	 */
+	private void checkWriter() {
+
+		if (failure != null) {
+			throw new IllegalStateException("Report writer failed, reports not written", failure);
+		}
+		if (!thread.isAlive()) {
+			throw new IllegalStateException("Report writer has been closed");
+		}
+	}
+
+	private void writeQueuedLines() {
+
+		List<Object> items = new ArrayList<Object>();
+		List<ReportLine> batch = new ArrayList<ReportLine>();
+
+		try {
+			while (true) {
+
+				items.clear();
+				items.add(queue.take());
+				queue.drainTo(items, BATCH_SIZE - 1);
+
+				for (Object item : items) {
+
+					if (item instanceof ReportLine) {
+
+						batch.add((ReportLine) item);
+						if (batch.size() >= BATCH_SIZE) {
+							write(batch);
+						}
+
+					} else {
+
+						write(batch);
+						((CountDownLatch) item).countDown();
+					}
+				}
+
+				write(batch);
+			}
+		} catch (InterruptedException e) {
+			// close() was called
+		} finally {
+			closeStatement();
+		}
+	}
+
+	private void write(List<ReportLine> batch) {
+
+		if (batch.isEmpty()) {
+			return;
+		}
+
+		long sessionID = ReportManager.getSessionID();
+
+		try {
+
+			if (stmt == null) {
+				stmt = con.prepareStatement(SQL);
+			}
+
+			for (ReportLine report : batch) {
+				setParameters(report, sessionID);
+				stmt.addBatch();
+			}
+
+			stmt.executeBatch();
+			logger.fine("Wrote " + batch.size() + " reports");
+
+		} catch (SQLException e) {
+
+			logger.warning("Error writing " + batch.size() + " reports in a batch, writing them one at a time: "
+					+ e.getMessage());
+			closeStatement();
+			writeOneByOne(batch, sessionID);
+
+		} finally {
+			batch.clear();
+		}
+	}
+
+	/**
+	 * Write the lines of a batch that failed one at a time, so that only the
+	 * lines that fail on their own are lost.
+	 */
+	private void writeOneByOne(List<ReportLine> batch, long sessionID) {
+
+		for (ReportLine report : batch) {
+
+			try {
+
+				if (stmt == null) {
+					stmt = con.prepareStatement(SQL);
+				}
+
+				setParameters(report, sessionID);
+				stmt.executeUpdate();
+
+			} catch (SQLException e) {
+
+				System.err.println("Error writing report using:\n" + SQL);
+				e.printStackTrace();
+				closeStatement();
+			}
+		}
+	}
+
+	private void setParameters(ReportLine report, long sessionID) throws SQLException {
+
+		stmt.setLong(1, sessionID);
+		stmt.setLong(2, sessionID);
+		stmt.setString(3, report.getDatabaseName());
+		// EG Store species name and db type from explicit report line, not from database
+		stmt.setString(4, report.getSpeciesName());
+		stmt.setString(5, report.getType().toString());
+		stmt.setString(6, report.getShortTestCaseName());
+		stmt.setString(7, report.getLevelAsString());
+		stmt.setString(8, report.getMessage());
+		stmt.setString(9, report.getPrintableTeamResponsibleString());
+		stmt.setString(10, getReportHash(report));
+	}
+
+	private void closeStatement() {
+
+		if (stmt != null) {
+			try {
+				stmt.close();
+			} catch (SQLException e) {
+				// nothing more to do
+			}
+			stmt = null;
+		}
+	}
+
+	/**
+	 * @return The MD5 hex digest identifying a report: the MD5 of the UTF-8
+	 *         bytes of its fields, the same as MySQL's MD5(CONVERT(CONCAT_WS(
+	 *         CHAR(0), database_name, testcase, result, text) USING utf8)).
+	 */
+	static String getReportHash(ReportLine report) {
+
+		StringBuilder key = new StringBuilder();
+		String[] fields = { report.getDatabaseName(), report.getShortTestCaseName(), report.getLevelAsString(),
+				report.getMessage() };
+
+		boolean first = true;
+		for (String field : fields) {
+			// CONCAT_WS skips NULLs
+			if (field != null) {
+				if (!first) {
+					key.append(HASH_SEPARATOR);
+				}
+				key.append(field);
+				first = false;
+			}
+		}
+
+		try {
+			byte[] digest = MessageDigest.getInstance("MD5").digest(key.toString().getBytes("UTF-8"));
+
+			StringBuilder hex = new StringBuilder(32);
+			for (byte b : digest) {
+				hex.append(String.format("%02x", b & 0xff));
+			}
+			return hex.toString();
+
+		} catch (NoSuchAlgorithmException e) {
+			throw new RuntimeException(e);
+		} catch (UnsupportedEncodingException e) {
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -24,6 +24,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -39,6 +40,9 @@ import org.ensembl.healthcheck.util.Utils;
 /**
  * ReportManager is the main class for reporting in the Ensj Healthcheck system. It provides methods for storing reports - single
  * items of information - and retrieving them in various formats.
+ * <p>
+ * Reports may be added from several threads at once when tests are run in parallel. Reports kept in memory are stored in a
+ * {@link ReportCollector}, calls to the Reporter and writes to the output database are serialised.
  */
 public class ReportManager {
 
@@ -52,18 +56,21 @@ public class ReportManager {
 	 */
 	public static void initialise() {
 
-		reportsByTest = new HashMap<String,List<ReportLine>>();
-		reportsByDatabase = new HashMap<String,List<ReportLine>>();
+		collector = new ReportCollector();
 
+		closeDatabaseWriter();
 		outputDatabaseConnection = null;
 		sessionID = -1;
 	}
 
-	/** A hash of lists keyed on the test name. */
-	protected static Map<String,List<ReportLine>> reportsByTest = new HashMap<String,List<ReportLine>>();
+	/** Holds the reports of the current session. */
+	private static volatile ReportCollector collector = new ReportCollector();
 
-	/** A hash of lists keyed on the database name */
-	protected static Map<String,List<ReportLine>> reportsByDatabase = new HashMap<String,List<ReportLine>>();
+	/** Held while a Reporter is called. */
+	private static final Object reporterLock = new Object();
+
+	/** Held while a report is written to the output database. */
+	private static final Object databaseLock = new Object();
 
 	/** The logger to use for this class */
 	protected static Logger logger = Logger.getLogger("HealthCheckLogger");
@@ -71,19 +78,23 @@ public class ReportManager {
 	/**
 	 * The maximum number of lines to store to prevent very verbose test cases causing memory problems
 	 */
-	protected static final int MAX_BUFFER_SIZE = 2000;
+	protected static final int MAX_BUFFER_SIZE = ReportCollector.MAX_BUFFER_SIZE;
+
+	private static volatile Reporter reporter;
 
-	private static boolean bufferSizeWarningPrinted = false;
+	private static volatile boolean usingDatabase = false;
 
-	private static Reporter reporter;
+        private static volatile int outputLevel = 0;
 
-	private static boolean usingDatabase = false;
+	private static volatile Connection outputDatabaseConnection;
 
-        private static int outputLevel = 0;
+	/** Writes reports to the output database in batches, null if not available. */
+	private static volatile ReportDatabaseWriter databaseWriter;
 
-	private static Connection outputDatabaseConnection;
+	private static volatile long sessionID = -1;
 
-	private static long sessionID = -1;
+	/** Lines added by the current thread since startRecording(), if any. */
+	private static final ThreadLocal<List<ReportLine>> recording = new ThreadLocal<List<ReportLine>>();
 
 	// hide constructor to stop instantiation
 	private ReportManager() {
@@ -115,8 +126,11 @@ public class ReportManager {
 	 */
 	public static void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
 
-		if (reporter != null) {
-			reporter.startTestCase(testCase, dbre);
+		Reporter r = reporter;
+		if (r != null) {
+			synchronized (reporterLock) {
+				r.startTestCase(testCase, dbre);
+			}
 		}
 	}
 
@@ -132,9 +146,14 @@ public class ReportManager {
 	 */
 	public static void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
 
-		if (reporter != null) {
-			reporter.finishTestCase(testCase, result, dbre);
+		Reporter r = reporter;
+		if (r != null) {
+			synchronized (reporterLock) {
+				r.finishTestCase(testCase, result, dbre);
+			}
 		}
+
+		flushDatabaseReports();
 	}
 
 	// -------------------------------------------------------------------------
@@ -146,66 +165,91 @@ public class ReportManager {
 	 */
 	public static void add(ReportLine report) {
 
-		if (usingDatabase) {
-
-			checkAndAddToDatabase(report);
-			return;
+		TestInstrumentation.countReportLine();
 
+		List<ReportLine> recorded = recording.get();
+		if (recorded != null) {
+			recorded.add(report);
 		}
 
-		String testCaseName = report.getTestCaseName();
-		String databaseName = report.getDatabaseName();
+		if (usingDatabase) {
 
-		List<ReportLine> lines;
+			ReportDatabaseWriter writer = databaseWriter;
 
-		// add to each hash
-		if (testCaseName != null && testCaseName.length() > 0) {
-			// create the lists if they're not there already
-			if (reportsByTest.get(testCaseName) == null) {
-				lines = new ArrayList<ReportLine>();
-				lines.add(report);
-				reportsByTest.put(testCaseName, lines);
+			if (writer != null) {
+				if (report.getLevel() >= outputLevel) {
+					writer.add(report);
+				}
 			} else {
-				// get the relevant list, update it, and re-add it
-				lines = reportsByTest.get(testCaseName);
-
-				// prevent the buffer getting too big
-				if (lines.size() > MAX_BUFFER_SIZE) {
-					if (!bufferSizeWarningPrinted) {
-						System.err.println("\n\nReportManager has reached its maximum buffer size (" + MAX_BUFFER_SIZE + " lines) - no more output will be stored\n");
-						bufferSizeWarningPrinted = true;
-					}
-				} else {
-					// buffer small enough, add it
-					lines.add(report);
-					reportsByTest.put(testCaseName, lines);
+				synchronized (databaseLock) {
+					checkAndAddToDatabase(report);
 				}
-
 			}
+			return;
 
-		} else {
-			logger.warning("Cannot add report with test case name not set");
 		}
 
-		if (databaseName != null && databaseName.length() > 0) {
-			// create the lists if they're not there already
-			if (reportsByDatabase.get(databaseName) == null) {
-				lines = new ArrayList<ReportLine>();
-				lines.add(report);
-				reportsByDatabase.put(databaseName, lines);
-			} else {
-				// get the relevant list, update it, and re-add it
-				lines = reportsByDatabase.get(databaseName);
-				lines.add(report);
-				reportsByDatabase.put(databaseName, lines);
-			}
+		collector.add(report);
 
+		Reporter r = reporter;
+		if (r != null) {
+			synchronized (reporterLock) {
+				r.message(report);
+			}
 		}
+	} // add
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Start keeping a copy of the reports added by the current thread, in
+	 * addition to reporting them as usual.
+	 */
+	public static void startRecording() {
 
-		if (reporter != null) {
-			reporter.message(report);
+		recording.set(Collections.synchronizedList(new ArrayList<ReportLine>()));
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * @return The reports recorded for the current thread so far, or null if
+	 *         it isn't recording. For passing on to threads working on its
+	 *         behalf with {@link #setRecording(List)}.
+	 */
+	public static List<ReportLine> getRecording() {
+
+		return recording.get();
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Record the reports added by the current thread in recorded, or stop
+	 * recording them if it is null.
+	 */
+	public static void setRecording(List<ReportLine> recorded) {
+
+		if (recorded == null) {
+			recording.remove();
+		} else {
+			recording.set(recorded);
 		}
-	} // add
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Stop keeping reports added by the current thread.
+	 * 
+	 * @return The reports added since {@link #startRecording()}.
+	 */
+	public static List<ReportLine> stopRecording() {
+
+		List<ReportLine> recorded = recording.get();
+		recording.remove();
+		return recorded == null ? new ArrayList<ReportLine>() : recorded;
+
+	}
 
 	// -------------------------------------------------------------------------
 	/**
@@ -385,7 +429,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByTestCase() {
 
-		return reportsByTest;
+		return collector.getReportsByTest();
 
 	} // getAllReportsByTestCase
 
@@ -399,7 +443,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByTestCase(int level) {
 
-		return filterMap(reportsByTest, level);
+		return filterMap(collector.getReportsByTest(), level);
 
 	} // getAllReportsByTestCase
 
@@ -411,7 +455,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByDatabase() {
 
-		return reportsByDatabase;
+		return collector.getReportsByDatabase();
 
 	} // getReportsByDatabase
 
@@ -425,7 +469,7 @@ public class ReportManager {
 	 */
 	public static Map<String,List<ReportLine>> getAllReportsByDatabase(int level) {
 
-		return filterMap(reportsByDatabase, level);
+		return filterMap(collector.getReportsByDatabase(), level);
 
 	} // getAllReportsByTestCase
 
@@ -441,9 +485,7 @@ public class ReportManager {
 	 */
 	public static List<ReportLine> getReportsByTestCase(String testCaseName, int level) {
 
-		List<ReportLine> allReports = reportsByTest.get(testCaseName);
-
-		return filterList(allReports, level);
+		return filterList(collector.getReportsForTest(testCaseName), level);
 
 	} // getReportsByTestCase
 
@@ -459,7 +501,7 @@ public class ReportManager {
 	 */
 	public static List<ReportLine> getReportsByDatabase(String databaseName, int level) {
 
-		return filterList(reportsByDatabase.get(databaseName), level);
+		return filterList(collector.getReportsForDatabase(databaseName), level);
 
 	} // getReportsByDatabase
 
@@ -503,9 +545,11 @@ public class ReportManager {
 
 		HashMap<String,List<ReportLine>> result = new HashMap<String,List<ReportLine>>();
 
-		for(String key: map.keySet()) {
-			List<ReportLine> list = map.get(key);
-			result.put(key, filterList(list, level));
+		for(Map.Entry<String,List<ReportLine>> entry: map.entrySet()) {
+			List<ReportLine> list = entry.getValue();
+			synchronized (list) {
+				result.put(entry.getKey(), filterList(list, level));
+			}
 		}
 
 		return result;
@@ -523,34 +567,7 @@ public class ReportManager {
 	 */
 	public static int[] countPassesAndFailsDatabase(String database) {
 
-		int[] result = new int[2];
-
-		List<String> testsRun = new ArrayList<String>();
-
-		// get all of them to build a list of the tests that were run
-		List<ReportLine> reports = getReportsByDatabase(database, ReportLine.ALL);
-		for(ReportLine line: reports) {
-			String test = line.getTestCaseName();
-			if (!testsRun.contains(test)) {
-				testsRun.add(test);
-			}
-		}
-
-		// count those that failed
-		List<String> testsFailed = new ArrayList<String>();
-		reports = getReportsByDatabase(database, ReportLine.PROBLEM);
-		for(ReportLine line: reports) {
-			String test = line.getTestCaseName();
-			if (!testsFailed.contains(test)) {
-				testsFailed.add(test);
-			}
-		}
-
-		result[1] = testsFailed.size();
-		result[0] = testsRun.size() - testsFailed.size(); // if it didn't
-		// fail, it passed
-
-		return result;
+		return collector.countPassesAndFailsDatabase(database);
 
 	}
 
@@ -565,34 +582,7 @@ public class ReportManager {
 	 */
 	public static int[] countPassesAndFailsTest(String test) {
 
-		int[] result = new int[2];
-
-		List<String> allDBs = new ArrayList<String>();
-
-		// get all of them to build a list of the tests that were run
-		List<ReportLine> reports = getReportsByTestCase(test, ReportLine.ALL);
-		for(ReportLine line: reports) {
-			String database = line.getDatabaseName();
-			if (!allDBs.contains(database)) {
-				allDBs.add(database);
-			}
-		}
-
-		// count those that failed
-		List<String> dbsFailed = new ArrayList<String>();
-		reports = getReportsByTestCase(test, ReportLine.PROBLEM);
-		for(ReportLine line: reports) {
-			String database = line.getDatabaseName();
-			if (!dbsFailed.contains(database)) {
-				dbsFailed.add(database);
-			}
-		}
-
-		result[1] = dbsFailed.size();
-		result[0] = allDBs.size() - dbsFailed.size(); // if it didn't fail, it
-		// passed
-
-		return result;
+		return collector.countPassesAndFailsTest(test);
 
 	}
 
@@ -606,15 +596,7 @@ public class ReportManager {
 	 */
 	public static int[] countPassesAndFailsAll() {
 
-		int[] result = new int[2];
-
-		for(String database: getAllReportsByDatabase().keySet()) {
-			int[] dbResult = countPassesAndFailsDatabase(database);
-			result[0] += dbResult[0];
-			result[1] += dbResult[1];
-		}
-
-		return result;
+		return collector.countPassesAndFailsAll();
 
 	}
 
@@ -631,14 +613,7 @@ public class ReportManager {
 	 */
 	public static boolean databasePassed(String test, String database) {
 
-		List<ReportLine> reports = getReportsByTestCase(test, ReportLine.PROBLEM);
-		for(ReportLine line: reports) {
-			if (database.equals(line.getDatabaseName())) {
-				return false;
-			}
-		}
-
-		return true;
+		return collector.databasePassed(test, database);
 
 	}
 
@@ -652,12 +627,7 @@ public class ReportManager {
 	 */
 	public static boolean allDatabasesPassed(String test) {
 
-		List reports = getReportsByTestCase(test, ReportLine.PROBLEM);
-		if (reports.size() > 0) {
-			return false;
-		}
-
-		return true;
+		return collector.allDatabasesPassed(test);
 
 	}
 
@@ -675,9 +645,13 @@ public class ReportManager {
 
 		List<ReportLine> result = new ArrayList<ReportLine>();
 
-		for(ReportLine line: reportsByTest.get(test)) {
-			if (database.equals(line.getDatabaseName())) {
-				result.add(line);
+		List<ReportLine> lines = collector.getReportsForTest(test);
+
+		if (lines != null) {
+			for(ReportLine line: lines) {
+				if (database.equals(line.getDatabaseName())) {
+					result.add(line);
+				}
 			}
 		}
 
@@ -739,6 +713,16 @@ public class ReportManager {
 			throw new RuntimeException(e);			
 		}
 
+		closeDatabaseWriter();
+
+		if (ReportDatabaseWriter.isSupported(outputDatabaseConnection)) {
+			databaseWriter = new ReportDatabaseWriter(outputDatabaseConnection);
+			addFlushOnExitHook();
+		} else {
+			logger.warning("The report table has no usable report_hash column, reports will be written one at a time. "
+					+ "Apply sql/patch_02_report_hash.sql to the output database to write them in batches.");
+		}
+
 		usingDatabase = true;
 
 	}
@@ -859,6 +843,8 @@ public class ReportManager {
 	 */
 	public static void endDatabaseSession() {
 
+		flushDatabaseReports();
+
 		String sql = "UPDATE session SET end_time=NOW() WHERE session_id=" + sessionID;
 
 		try {
@@ -876,6 +862,182 @@ public class ReportManager {
 
 	}
 
+	// -------------------------------------------------------------------------
+	/**
+	 * Wait until all reports added so far have been written to the output database. Called when a test case finishes and when
+	 * the session ends.
+	 */
+	public static void flushDatabaseReports() {
+
+		ReportDatabaseWriter writer = databaseWriter;
+		if (writer != null) {
+			writer.flush();
+		}
+
+	}
+
+	private static boolean flushOnExitHookAdded = false;
+
+	/**
+	 * Runners that are part of a bigger session don't end it, so make sure reports still queued are written before the JVM exits.
+	 */
+	private static synchronized void addFlushOnExitHook() {
+
+		if (!flushOnExitHookAdded) {
+			Runtime.getRuntime().addShutdownHook(new Thread("healthcheck-report-flush") {
+				public void run() {
+					flushDatabaseReports();
+				}
+			});
+			flushOnExitHookAdded = true;
+		}
+
+	}
+
+	private static void closeDatabaseWriter() {
+
+		ReportDatabaseWriter writer = databaseWriter;
+		databaseWriter = null;
+		if (writer != null) {
+			writer.close();
+		}
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Store the timings of tests in the session_timing table of the output
+	 * database. Output databases created before the table was added need
+	 * sql/patch_03_session_timing.sql and
+	 * sql/patch_04_session_timing_table_rows.sql.
+	 */
+	public static void writeSessionTimings(List<TestTiming> timings) {
+
+		if (outputDatabaseConnection == null) {
+			logger.severe("No connection to output database!");
+			return;
+		}
+
+		StringBuffer columns = new StringBuffer("session_id");
+		StringBuffer params = new StringBuffer("?");
+		for (String column : TestTiming.COLUMNS) {
+			columns.append(", ").append(column);
+			params.append(", ?");
+		}
+		String sql = "INSERT INTO session_timing (" + columns + ") VALUES (" + params + ")";
+
+		PreparedStatement stmt = null;
+
+		try {
+
+			stmt = outputDatabaseConnection.prepareStatement(sql);
+			for (TestTiming timing : timings) {
+				stmt.setLong(1, sessionID);
+				Object[] values = timing.getValues();
+				for (int i = 0; i < values.length; i++) {
+					stmt.setObject(i + 2, values[i]);
+				}
+				stmt.addBatch();
+			}
+			stmt.executeBatch();
+			logger.fine("Stored timings of " + timings.size() + " tests for session " + sessionID);
+
+		} catch (SQLException e) {
+
+			System.err.println("Error executing:\n" + sql);
+			e.printStackTrace();
+			logger.warning("Could not store test timings. If the output database has no session_timing table, "
+					+ "or no table_rows column in it, apply sql/patch_03_session_timing.sql and "
+					+ "sql/patch_04_session_timing_table_rows.sql to it.");
+
+		} finally {
+			DBUtils.closeQuietly(stmt);
+		}
+
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Read the timings of tests stored by the last few sessions.
+	 *
+	 * @param sessions
+	 *          The number of sessions, counting back from the most recent one
+	 *          with timings.
+	 * @return The timings, empty if there are none or they can't be read.
+	 */
+	public static List<TestTiming> readSessionTimings(int sessions) {
+
+		if (outputDatabaseConnection == null) {
+			logger.severe("No connection to output database!");
+			return new ArrayList<TestTiming>();
+		}
+
+		return readSessionTimings(outputDatabaseConnection, sessions);
+	}
+
+	static List<TestTiming> readSessionTimings(Connection con, int sessions) {
+
+		List<TestTiming> timings = new ArrayList<TestTiming>();
+
+		// session IDs have gaps, e.g. for sessions run without timings, so
+		// the sessions are counted rather than their IDs
+		String firstSQL = "SELECT DISTINCT session_id FROM session_timing ORDER BY session_id DESC LIMIT " + sessions;
+		String sql = "SELECT testcase, database_name, database_type, table_rows, start_time, wall_time_ms, statements, "
+				+ "rows_fetched, bytes_transferred, report_lines, heap_delta_bytes FROM session_timing "
+				+ "WHERE session_id >= ?";
+
+		Statement first = null;
+		PreparedStatement stmt = null;
+
+		try {
+
+			first = con.createStatement();
+			ResultSet rs = first.executeQuery(firstSQL);
+			long firstSession = -1;
+			while (rs.next()) {
+				firstSession = rs.getLong(1);
+			}
+			rs.close();
+
+			if (firstSession < 0) {
+				return timings;
+			}
+
+			stmt = con.prepareStatement(sql);
+			stmt.setLong(1, firstSession);
+			rs = stmt.executeQuery();
+
+			while (rs.next()) {
+				long tableRows = rs.getLong(4);
+				if (rs.wasNull()) {
+					tableRows = -1;
+				}
+				long bytes = rs.getLong(9);
+				if (rs.wasNull()) {
+					bytes = -1;
+				}
+				String startTime = rs.getString(5);
+				if (startTime != null && startTime.endsWith(".0")) {
+					startTime = startTime.substring(0, startTime.length() - 2);
+				}
+				timings.add(new TestTiming(rs.getString(1), rs.getString(2), rs.getString(3), tableRows, startTime, rs
+						.getLong(6), rs.getLong(7), rs.getLong(8), bytes, rs.getLong(10), rs.getLong(11)));
+			}
+			logger.fine("Read timings of " + timings.size() + " tests from the last " + sessions + " sessions");
+
+		} catch (SQLException e) {
+
+			// e.g. an output database from before the table was added
+			logger.warning("Could not read test timings: " + e.getMessage());
+
+		} finally {
+			DBUtils.closeQuietly(first);
+			DBUtils.closeQuietly(stmt);
+		}
+
+		return timings;
+	}
+
 	// -------------------------------------------------------------------------
 	/**
 	 * Delete all previous data.
@@ -1052,6 +1214,13 @@ public class ReportManager {
 
 	// -------------------------------------------------------------------------
 
+	/**
+	 * @return The collector holding the reports of the current session.
+	 */
+	public static ReportCollector getCollector() {
+		return collector;
+	}
+
 	public static long getSessionID() {
 		return sessionID;
 	}
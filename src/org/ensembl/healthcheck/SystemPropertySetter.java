@@ -146,6 +146,28 @@ public class SystemPropertySetter {
 			//
 			System.setProperty("master.schema",    configuration.getMasterSchema());
 		}
+
+		if (configuration.isCompareSchemaSnapshotDir()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.testcase.generic.SchemaComparer
+			//
+			System.setProperty(
+				org.ensembl.healthcheck.testcase.generic.SchemaComparer.SNAPSHOT_DIR,
+				configuration.getCompareSchemaSnapshotDir()
+			);
+		}
+
+		if (configuration.isCompareSchemaFromFile()) {
+			// Used in:
+			//
+			// org.ensembl.healthcheck.testcase.generic.AbstractCompareSchema
+			//
+			System.setProperty(
+				org.ensembl.healthcheck.testcase.generic.AbstractCompareSchema.FROM_FILE,
+				configuration.getCompareSchemaFromFile()
+			);
+		}
 		
 		
 		if (configuration.isPerl()) {
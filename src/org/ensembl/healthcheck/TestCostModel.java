@@ -0,0 +1,202 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ensembl.healthcheck;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
+
+/**
+ * <p>
+ * Estimates how long a test will take on a database from how long it took
+ * before, so that parallel runs can start the longest work first.
+ * </p>
+ *
+ * <p>
+ * Past runs are {@link TestTiming}s, usually those of the last few sessions
+ * read from the session_timing table of the output database with
+ * {@link ReportManager#readSessionTimings(int)}. A test is estimated from its
+ * past runs on databases of the same type, or of any type if it never ran on
+ * one, scaled by the rows of the tables it reads now compared to then. A test
+ * without past runs is assumed to take as long as the average test, or as the
+ * longest one if it is hinted as long running.
+ * </p>
+ */
+public class TestCostModel {
+
+	/** The estimate for every test if there are no past runs at all. */
+	public static final long DEFAULT_ESTIMATE_MS = 1000;
+
+	private final Map<String, List<TestTiming>> runsByTestAndType = new HashMap<String, List<TestTiming>>();
+
+	private final Map<String, List<TestTiming>> runsByTest = new HashMap<String, List<TestTiming>>();
+
+	private long totalMs = 0;
+
+	private long maxMs = 0;
+
+	private int runs = 0;
+
+	/**
+	 * @param history
+	 *          Past runs of tests.
+	 */
+	public TestCostModel(Collection<TestTiming> history) {
+
+		for (TestTiming timing : history) {
+			add(timing);
+		}
+	}
+
+	/**
+	 * Take another past run of a test into account.
+	 */
+	public void add(TestTiming timing) {
+
+		addTo(runsByTestAndType, timing.getTestcase() + "/" + timing.getDatabaseType(), timing);
+		addTo(runsByTest, timing.getTestcase(), timing);
+
+		totalMs += timing.getWallTimeMs();
+		maxMs = Math.max(maxMs, timing.getWallTimeMs());
+		runs++;
+	}
+
+	private static void addTo(Map<String, List<TestTiming>> map, String key, TestTiming timing) {
+
+		List<TestTiming> list = map.get(key);
+		if (list == null) {
+			list = new ArrayList<TestTiming>();
+			map.put(key, list);
+		}
+		list.add(timing);
+	}
+
+	/**
+	 * @return The number of past runs known.
+	 */
+	public int size() {
+		return runs;
+	}
+
+	/**
+	 * @param tableRows
+	 *          The rows of each table of dbre, or null if not known.
+	 * @return The estimated time in milliseconds testCase will take on dbre.
+	 * @see DBUtils#getTableRowCounts(java.sql.Connection, Collection)
+	 */
+	public long estimate(EnsTestCase testCase, DatabaseRegistryEntry dbre, Map<String, Long> tableRows) {
+
+		return estimate(testCase.getShortTestName(), dbre.getType() == null ? null : dbre.getType().getName(),
+				getTableRows(testCase, tableRows), testCase.isLongRunning());
+	}
+
+	/**
+	 * @param testcase
+	 *          The short name of the test.
+	 * @param databaseType
+	 *          The type of the database tested.
+	 * @param tableRows
+	 *          Rows of the tables the test reads, or -1 if not known.
+	 * @param longRunning
+	 *          If the test is hinted as long running.
+	 * @return The estimated time in milliseconds.
+	 */
+	public long estimate(String testcase, String databaseType, long tableRows, boolean longRunning) {
+
+		List<TestTiming> pastRuns = runsByTestAndType.get(testcase + "/" + databaseType);
+		if (pastRuns == null) {
+			pastRuns = runsByTest.get(testcase);
+		}
+
+		if (pastRuns == null) {
+			if (runs == 0) {
+				return DEFAULT_ESTIMATE_MS;
+			}
+			return longRunning ? maxMs : totalMs / runs;
+		}
+
+		long total = 0;
+		double msPerRow = 0;
+		int sized = 0;
+
+		for (TestTiming run : pastRuns) {
+			total += run.getWallTimeMs();
+			if (run.getTableRows() > 0) {
+				msPerRow += (double) run.getWallTimeMs() / run.getTableRows();
+				sized++;
+			}
+		}
+
+		if (tableRows >= 0 && sized > 0) {
+			return Math.round(msPerRow / sized * tableRows);
+		}
+		return total / pastRuns.size();
+	}
+
+	/**
+	 * @return The rows of the tables testCase reads in dbre, or of all its
+	 *         tables if the test doesn't declare them, or -1 if not known.
+	 * @see EnsTestCase#setTablesRead(String...)
+	 */
+	public static long getTableRows(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+
+		if (dbre == null || dbre.getConnection() == null) {
+			return -1;
+		}
+
+		try {
+			return getTableRows(testCase, DBUtils.getTableRowCounts(dbre.getConnection()));
+		} catch (SqlUncheckedException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * @param rows
+	 *          The rows of each table of the database tested, or null if not
+	 *          known.
+	 * @return The rows of the tables testCase reads, or of all the tables if
+	 *         the test doesn't declare them, or -1 if not known.
+	 */
+	public static long getTableRows(EnsTestCase testCase, Map<String, Long> rows) {
+
+		if (rows == null || rows.isEmpty()) {
+			return -1;
+		}
+
+		Collection<String> tables = testCase.getTablesRead();
+		if (tables == null || tables.isEmpty()) {
+			tables = rows.keySet();
+		}
+
+		long total = 0;
+		for (String table : tables) {
+			Long tableRows = rows.get(table);
+			if (tableRows != null) {
+				total += tableRows;
+			}
+		}
+		return total;
+	}
+
+}
@@ -0,0 +1,298 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.QueryMonitor;
+
+import com.google.gson.GsonBuilder;
+
+/**
+ * <p>
+ * Measures what each test takes to run on each database, as a
+ * {@link TestTiming}: wall time, queries run and rows they returned, bytes
+ * transferred, report lines added and how much the heap grew, along with the
+ * rows of the tables it reads as estimated by MySQL.
+ * </p>
+ *
+ * <p>
+ * The test runner calls {@link #startTest(EnsTestCase, DatabaseRegistryEntry)}
+ * and {@link #finishTest()} around each test on the thread running it. The
+ * queries are counted by the {@link QueryMonitor}, so only those run through
+ * SqlTemplate and the helpers built on it are included. Bytes are the
+ * database server's count for the test database's connection, so they are
+ * only known for MySQL and include other tests using the same connection at
+ * the same time. The heap is sampled after each query, so the growth is a
+ * lower bound.
+ * </p>
+ *
+ * <p>
+ * The timings of a run can be written to a JSON or CSV file with
+ * {@link #write(File)}, and are written to the session_timing table of the
+ * output database by {@link ReportManager#writeSessionTimings(List)}.
+ * </p>
+ */
+public final class TestInstrumentation {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	private static final List<TestTiming> timings = new ArrayList<TestTiming>();
+
+	private static final ThreadLocal<Measurement> current = new ThreadLocal<Measurement>();
+
+	/**
+	 * The test being measured on a thread.
+	 */
+	private static class Measurement {
+
+		final EnsTestCase testCase;
+		final DatabaseRegistryEntry dbre;
+		final Date startTime = new Date();
+		final long start = System.nanoTime();
+		final long bytesAtStart;
+		final long tableRows;
+		long reportLines = 0;
+		boolean discarded = false;
+
+		Measurement(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+			this.testCase = testCase;
+			this.dbre = dbre;
+			this.bytesAtStart = getBytesTransferred(dbre);
+			this.tableRows = TestCostModel.getTableRows(testCase, dbre);
+		}
+	}
+
+	// hide constructor to stop instantiation
+	private TestInstrumentation() {
+	}
+
+	/**
+	 * Start measuring a test on the current thread. Also starts it in the
+	 * {@link QueryMonitor}.
+	 *
+	 * @param dbre
+	 *          The database tested, or null if the test runs on several.
+	 */
+	public static void startTest(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+
+		// measured first, so its queries aren't counted as the test's
+		Measurement measurement = new Measurement(testCase, dbre);
+		QueryMonitor.startTest(testCase.getShortTestName(), dbre == null ? null : dbre.getName());
+		current.set(measurement);
+	}
+
+	/**
+	 * Stop measuring the test started last on the current thread, and keep its
+	 * timing unless it was discarded.
+	 *
+	 * @return The timing, or null if no test was started or it was discarded.
+	 */
+	public static TestTiming finishTest() {
+
+		Measurement measurement = current.get();
+		current.remove();
+		QueryMonitor.TestContext queries = QueryMonitor.finishTest();
+
+		if (measurement == null || measurement.discarded) {
+			return null;
+		}
+
+		long wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - measurement.start);
+
+		long bytes = -1;
+		if (measurement.bytesAtStart >= 0) {
+			long bytesAtEnd = getBytesTransferred(measurement.dbre);
+			if (bytesAtEnd >= measurement.bytesAtStart) {
+				bytes = bytesAtEnd - measurement.bytesAtStart;
+			}
+		}
+
+		DatabaseRegistryEntry dbre = measurement.dbre;
+		TestTiming timing = new TestTiming(measurement.testCase.getShortTestName(), dbre == null ? null : dbre.getName(),
+				dbre == null || dbre.getType() == null ? null : dbre.getType().getName(), measurement.tableRows,
+				new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(measurement.startTime), wallTime,
+				queries == null ? 0 : queries.getStatementCount(), queries == null ? 0 : queries.getRowCount(), bytes,
+				measurement.reportLines, queries == null ? 0 : queries.getPeakHeapDelta());
+
+		synchronized (timings) {
+			timings.add(timing);
+		}
+		logger.fine(timing.toString());
+
+		return timing;
+	}
+
+	/**
+	 * Don't keep the timing of the test running on the current thread, e.g.
+	 * because its result was replayed from the {@link IncrementalRunCache}
+	 * rather than run, so the timing would mislead the {@link TestCostModel}.
+	 */
+	static void discardTest() {
+
+		Measurement measurement = current.get();
+		if (measurement != null) {
+			measurement.discarded = true;
+		}
+	}
+
+	/**
+	 * Count a report line added by the test running on the current thread, if
+	 * any.
+	 */
+	static void countReportLine() {
+
+		Measurement measurement = current.get();
+		if (measurement != null) {
+			measurement.reportLines++;
+		}
+	}
+
+	/**
+	 * @return Bytes sent and received on the connection to dbre, as counted by
+	 *         MySQL, or -1 if not known.
+	 */
+	private static long getBytesTransferred(DatabaseRegistryEntry dbre) {
+
+		if (dbre == null) {
+			return -1;
+		}
+
+		Connection con = dbre.getConnection();
+		Statement stmt = null;
+		try {
+
+			if (con == null || !con.getMetaData().getURL().startsWith("jdbc:mysql:")) {
+				return -1;
+			}
+
+			// not through SqlTemplate, so it isn't counted as one of the test's
+			stmt = con.createStatement();
+			ResultSet rs = stmt.executeQuery("SHOW SESSION STATUS WHERE Variable_name IN ('Bytes_received', 'Bytes_sent')");
+			long bytes = 0;
+			while (rs.next()) {
+				bytes += rs.getLong(2);
+			}
+			return bytes;
+
+		} catch (SQLException e) {
+			logger.finest("Can't get bytes transferred for " + dbre.getName() + ": " + e.getMessage());
+			return -1;
+		} finally {
+			DBUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * @return The timings of all tests finished so far, in the order they
+	 *         finished.
+	 */
+	public static List<TestTiming> getTimings() {
+
+		synchronized (timings) {
+			return new ArrayList<TestTiming>(timings);
+		}
+	}
+
+	/**
+	 * Forget the timings of all tests finished so far.
+	 */
+	public static void clear() {
+
+		synchronized (timings) {
+			timings.clear();
+		}
+	}
+
+	/**
+	 * Write the timings of all tests finished so far to a file, as CSV if its
+	 * name ends with .csv and as a JSON array of objects otherwise. The CSV
+	 * columns and JSON fields are named by {@link TestTiming#COLUMNS}.
+	 */
+	public static void write(File file) throws IOException {
+
+		List<TestTiming> all = getTimings();
+		PrintWriter out = new PrintWriter(new FileWriter(file));
+
+		try {
+
+			if (file.getName().toLowerCase().endsWith(".csv")) {
+
+				out.println(join(TestTiming.COLUMNS));
+				for (TestTiming timing : all) {
+					out.println(join(timing.getValues()));
+				}
+
+			} else {
+
+				List<Map<String, Object>> objects = new ArrayList<Map<String, Object>>();
+				for (TestTiming timing : all) {
+					Map<String, Object> object = new LinkedHashMap<String, Object>();
+					Object[] values = timing.getValues();
+					for (int i = 0; i < values.length; i++) {
+						object.put(TestTiming.COLUMNS[i], values[i]);
+					}
+					objects.add(object);
+				}
+				out.println(new GsonBuilder().serializeNulls().setPrettyPrinting().create().toJson(objects));
+			}
+
+		} finally {
+			out.close();
+		}
+
+		logger.info("Wrote timings of " + all.size() + " tests to " + file);
+	}
+
+	private static String join(Object[] values) {
+
+		StringBuilder buf = new StringBuilder();
+		for (int i = 0; i < values.length; i++) {
+			if (i > 0) {
+				buf.append(',');
+			}
+			if (values[i] != null) {
+				String value = values[i].toString();
+				if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0) {
+					value = '"' + value.replace("\"", "\"\"") + '"';
+				}
+				buf.append(value);
+			}
+		}
+		return buf.toString();
+	}
+
+}
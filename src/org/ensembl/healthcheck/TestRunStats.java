@@ -0,0 +1,64 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ensembl.healthcheck;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+
+class TestRunStats {
+
+	protected enum CompletionStatus {
+		COMPLETED,
+		SKIPPED_LONG_RUNNING,
+		DIED_WITH_EXCEPTION		
+	}
+
+	public HashSet<Class<? extends EnsTestCase>> getTestsRun() {
+		return testsRun;
+	}
+
+	public Map<Class<? extends EnsTestCase>, CompletionStatus> getTrackCompletionStatus() {
+		return trackCompletionStatus;
+	}
+
+	protected final HashSet<Class<? extends EnsTestCase>> testsRun;
+	protected final Map<Class<? extends EnsTestCase>, CompletionStatus> trackCompletionStatus;
+	protected final Map<
+		Class<? extends EnsTestCase>,
+		List<DatabaseRegistryEntry>
+	> exceptionToDb;
+
+	public Map<Class<? extends EnsTestCase>, List<DatabaseRegistryEntry>> getExceptionToDb() {
+		return exceptionToDb;
+	}
+
+	public TestRunStats(
+			HashSet<Class<? extends EnsTestCase>> testsRun, 
+			Map<Class<? extends EnsTestCase>, CompletionStatus> trackCompletionStatus,
+			Map<
+				Class<? extends EnsTestCase>,
+				List<DatabaseRegistryEntry>
+			> exceptionToDb
+	) {
+		this.testsRun = testsRun;
+		this.trackCompletionStatus = trackCompletionStatus;
+		this.exceptionToDb = exceptionToDb;
+	}
+}
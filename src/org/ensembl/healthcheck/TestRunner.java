@@ -19,9 +19,12 @@
 package org.ensembl.healthcheck;
 
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,6 +75,30 @@ public class TestRunner {
 	/** Flag to determine whether repairs will be carried out if appropriate */
 	protected boolean doRepair = false;
 
+	/**
+	 * Number of single-database tests allowed to run at the same time. The
+	 * default of 1 runs everything serially.
+	 */
+	protected int parallelThreads = 1;
+
+	/**
+	 * Number of databases on one server that may be tested at the same time
+	 * when running in parallel.
+	 */
+	protected int parallelThreadsPerServer = 1;
+
+	/**
+	 * If not null, single-database tests whose tables haven't changed since
+	 * the last run replay their result from here instead of running.
+	 */
+	protected IncrementalRunCache incrementalRunCache = null;
+
+	/**
+	 * If not null, databases are tested in parallel in order of how long
+	 * their tests took before, longest first.
+	 */
+	protected TestCostModel testCostModel = null;
+
 	// -------------------------------------------------------------------------
 	/** Creates a new instance of TestRunner */
 
@@ -102,8 +129,17 @@ public class TestRunner {
 		// --------------------------------
 		// Single-database tests
 
+		DatabaseRegistryEntry[] serialDatabases = databaseRegistry.getAll();
+
+		if (parallelThreads > 1) {
+			numberOfTestsRun += runAllSingleTestsInParallel(databaseRegistry, testRegistry, skipSlow);
+
+			// already tested
+			serialDatabases = new DatabaseRegistryEntry[0];
+		}
+
 		// run the appropriate tests on each of them
-		for (DatabaseRegistryEntry database : databaseRegistry.getAll()) {
+		for (DatabaseRegistryEntry database : serialDatabases) {
 
 // If a healthcheck database is being used and nothing has been propagated for the database being tested, skip
                         if (ReportManager.usingDatabase()) {
@@ -126,7 +162,7 @@ public class TestRunner {
 
 						testCase.types();
 						
-						boolean result = testCase.run(database);
+						boolean result = runTestCase(testCase, database);
 
 						ReportManager
 								.finishTestCase(testCase, result, database);
@@ -235,6 +271,105 @@ public class TestRunner {
 
 	} // runAllTests
 
+	// ---------------------------------------------------------------------
+	/**
+	 * Run the single-database tests using a {@link ParallelTestExecutor}.
+	 * Databases for which nothing has been propagated are skipped, as in the
+	 * serial case.
+	 * 
+	 * @return The number of tests that completed.
+	 */
+	protected int runAllSingleTestsInParallel(DatabaseRegistry databaseRegistry,
+			TestRegistry testRegistry, boolean skipSlow) {
+
+		List<DatabaseRegistryEntry> databases = new ArrayList<DatabaseRegistryEntry>();
+
+		for (DatabaseRegistryEntry database : databaseRegistry.getAll()) {
+			if (ReportManager.usingDatabase() && !ReportManager.hasPropagated(database)) {
+				continue;
+			}
+			databases.add(database);
+		}
+
+		return new ParallelTestExecutor(this, parallelThreads, parallelThreadsPerServer, testCostModel)
+				.runSingleDatabaseTests(new DatabaseRegistry(databases), testRegistry, groupsToRun, skipSlow,
+						new HashSet<Class<? extends EnsTestCase>>(),
+						new HashMap<Class<? extends EnsTestCase>, TestRunStats.CompletionStatus>(),
+						new HashMap<Class<? extends EnsTestCase>, List<DatabaseRegistryEntry>>());
+
+	} // runAllSingleTestsInParallel
+
+	// ---------------------------------------------------------------------
+	/**
+	 * Set how many single-database tests may run at the same time.
+	 * 
+	 * @param threads
+	 *            Maximum number of tests running at once. 1 runs serially.
+	 * @param threadsPerServer
+	 *            Maximum number of databases on one server tested at once.
+	 */
+	public void setParallelThreads(int threads, int threadsPerServer) {
+
+		if (threads < 1 || threadsPerServer < 1) {
+			throw new IllegalArgumentException("Thread counts must be at least 1");
+		}
+		parallelThreads = threads;
+		parallelThreadsPerServer = threadsPerServer;
+
+	} // setParallelThreads
+
+	// ---------------------------------------------------------------------
+	/**
+	 * Keep the results of single-database tests in cache, and replay them
+	 * while the tables they read are unchanged.
+	 */
+	public void setIncrementalRunCache(IncrementalRunCache cache) {
+
+		incrementalRunCache = cache;
+
+	} // setIncrementalRunCache
+
+	// ---------------------------------------------------------------------
+	/**
+	 * Estimate how long single-database tests will take from how long they
+	 * took before, and test the databases with the most work first when
+	 * running in parallel.
+	 */
+	public void setTestCostModel(TestCostModel costModel) {
+
+		testCostModel = costModel;
+
+	} // setTestCostModel
+
+	// ---------------------------------------------------------------------
+	/**
+	 * Run a single-database test, or replay its cached result if there is an
+	 * incremental run cache and the tables the test reads are unchanged.
+	 */
+	protected boolean runTestCase(final SingleDatabaseTestCase testCase,
+			final DatabaseRegistryEntry database) throws Exception {
+
+		// its queries are timed, limited and counted as the test's
+		TestInstrumentation.startTest(testCase, database);
+
+		try {
+
+			if (incrementalRunCache == null) {
+				return testCase.run(database);
+			}
+
+			return incrementalRunCache.run(testCase, database, new Callable<Boolean>() {
+				public Boolean call() {
+					return testCase.run(database);
+				}
+			});
+
+		} finally {
+			TestInstrumentation.finishTest();
+		}
+
+	} // runTestCase
+
 	// ---------------------------------------------------------------------
 	/**
 	 * Check if the given testcase can repair errors on the given database.
@@ -249,6 +384,8 @@ public class TestRunner {
 			}
 			if (doRepair) {
 				((Repair) testCase).repair(database);
+				// the repair may have changed anything other tests look up
+				database.invalidateMetadata();
 			}
 		}
 
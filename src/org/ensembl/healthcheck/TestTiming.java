@@ -0,0 +1,131 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+/**
+ * What one test took to run on one database: time, queries, rows, bytes,
+ * report lines and heap, along with the size of the tables it read. Recorded
+ * by {@link TestInstrumentation}.
+ */
+public class TestTiming {
+
+	/**
+	 * The names of the fields, in the order of {@link #getValues()}, as used
+	 * for the columns of CSV files and the session_timing table.
+	 */
+	public static final String[] COLUMNS = { "testcase", "database_name", "database_type", "table_rows", "start_time",
+			"wall_time_ms", "statements", "rows_fetched", "bytes_transferred", "report_lines", "heap_delta_bytes" };
+
+	private final String testcase;
+	private final String databaseName;
+	private final String databaseType;
+	private final long tableRows;
+	private final String startTime;
+	private final long wallTimeMs;
+	private final long statements;
+	private final long rowsFetched;
+	private final long bytesTransferred;
+	private final long reportLines;
+	private final long heapDeltaBytes;
+
+	/**
+	 * @param databaseName
+	 *          The database tested, or null for a test of several databases.
+	 * @param tableRows
+	 *          Rows of the tables the test reads, or -1 if not known.
+	 * @param startTime
+	 *          When the test started, as yyyy-MM-dd HH:mm:ss.
+	 * @param bytesTransferred
+	 *          Bytes sent and received on the database's connection, or -1 if
+	 *          not known.
+	 */
+	public TestTiming(String testcase, String databaseName, String databaseType, long tableRows, String startTime,
+			long wallTimeMs, long statements, long rowsFetched, long bytesTransferred, long reportLines, long heapDeltaBytes) {
+		this.testcase = testcase;
+		this.databaseName = databaseName;
+		this.databaseType = databaseType;
+		this.tableRows = tableRows;
+		this.startTime = startTime;
+		this.wallTimeMs = wallTimeMs;
+		this.statements = statements;
+		this.rowsFetched = rowsFetched;
+		this.bytesTransferred = bytesTransferred;
+		this.reportLines = reportLines;
+		this.heapDeltaBytes = heapDeltaBytes;
+	}
+
+	public String getTestcase() {
+		return testcase;
+	}
+
+	public String getDatabaseName() {
+		return databaseName;
+	}
+
+	public String getDatabaseType() {
+		return databaseType;
+	}
+
+	public long getTableRows() {
+		return tableRows;
+	}
+
+	public String getStartTime() {
+		return startTime;
+	}
+
+	public long getWallTimeMs() {
+		return wallTimeMs;
+	}
+
+	public long getStatements() {
+		return statements;
+	}
+
+	public long getRowsFetched() {
+		return rowsFetched;
+	}
+
+	public long getBytesTransferred() {
+		return bytesTransferred;
+	}
+
+	public long getReportLines() {
+		return reportLines;
+	}
+
+	public long getHeapDeltaBytes() {
+		return heapDeltaBytes;
+	}
+
+	/**
+	 * @return The values of the fields named by {@link #COLUMNS}, with null for
+	 *         unknown values.
+	 */
+	public Object[] getValues() {
+		return new Object[] { testcase, databaseName, databaseType, tableRows < 0 ? null : Long.valueOf(tableRows),
+				startTime, wallTimeMs, statements, rowsFetched, bytesTransferred < 0 ? null : Long.valueOf(bytesTransferred),
+				reportLines, heapDeltaBytes };
+	}
+
+	public String toString() {
+		return testcase + " on " + databaseName + ": " + wallTimeMs + "ms, " + statements + " statements, " + rowsFetched
+				+ " rows";
+	}
+
+}
@@ -55,7 +55,8 @@ public interface ConfigurationUserParameters
 		ConfigureTestRunner,
 		ConfigureHealthcheckDatabase,
 		ConfigureCompareSchema,
-		ConfigureMiscProperties {
+		ConfigureMiscProperties,
+		ConfigureConnectionPool {
 	
 	@Option(helpRequest = true, description = "display help", shortName = "h")
 	boolean getHelp();
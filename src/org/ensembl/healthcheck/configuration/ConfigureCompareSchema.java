@@ -18,7 +18,9 @@
 package org.ensembl.healthcheck.configuration;
 
 import org.ensembl.healthcheck.testcase.funcgen.CompareFuncgenSchema;
+import org.ensembl.healthcheck.testcase.generic.AbstractCompareSchema;
 import org.ensembl.healthcheck.testcase.generic.CompareSchema;
+import org.ensembl.healthcheck.testcase.generic.SchemaComparer;
 import org.ensembl.healthcheck.testcase.variation.CompareVariationSchema;
 
 import uk.co.flamingpenguin.jewel.cli.Option;
@@ -64,4 +66,26 @@ public interface ConfigureCompareSchema {
 
 	boolean isMasterFuncgenSchema();
 
+	// Used in:
+	//
+	// org.ensembl.healthcheck.testcase.generic.SchemaComparer
+	//
+	@Option(longName = SchemaComparer.SNAPSHOT_DIR, description = "Directory in which snapshots of the "
+			+ "master schemas are kept, so later runs only read a master again if its tables have changed")
+	String getCompareSchemaSnapshotDir();
+
+	boolean isCompareSchemaSnapshotDir();
+
+	// Used in:
+	//
+	// org.ensembl.healthcheck.testcase.generic.AbstractCompareSchema
+	//
+	@Option(longName = AbstractCompareSchema.FROM_FILE, description = "If set to \"yes\", the compare "
+			+ "schema tests compare databases with the schema definition files given by schema.file, "
+			+ "variation_schema.file and funcgen_schema.file, which are parsed rather than loaded into a "
+			+ "temporary database, instead of with the master databases")
+	String getCompareSchemaFromFile();
+
+	boolean isCompareSchemaFromFile();
+
 }
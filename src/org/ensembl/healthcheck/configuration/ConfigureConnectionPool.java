@@ -0,0 +1,75 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.configuration;
+
+import uk.co.flamingpenguin.jewel.cli.Option;
+
+/**
+ * 
+ * Interface for providing options for the pool of connections to the
+ * databases being tested.
+ * 
+ */
+public interface ConfigureConnectionPool {
+
+	@Option(longName = "connection_pool.min_idle", description = "Number of idle connections "
+			+ "kept open per database. Defaults to 0.")
+	String getConnectionPoolMinIdle();
+	boolean isConnectionPoolMinIdle();
+
+	@Option(longName = "connection_pool.max_size", description = "Maximum number of connections "
+			+ "open per database. Defaults to 8.")
+	String getConnectionPoolMaxSize();
+	boolean isConnectionPoolMaxSize();
+
+	@Option(longName = "connection_pool.idle_timeout", description = "Seconds after which an idle "
+			+ "connection is closed. Defaults to 300.")
+	String getConnectionPoolIdleTimeout();
+	boolean isConnectionPoolIdleTimeout();
+
+	@Option(longName = "connection_pool.validation_interval", description = "Seconds a connection "
+			+ "may be unused before it is validated again. Defaults to 30.")
+	String getConnectionPoolValidationInterval();
+	boolean isConnectionPoolValidationInterval();
+
+	@Option(longName = "connection_pool.max_wait", description = "Seconds to wait for a connection "
+			+ "when all connections to a database are in use. Defaults to 300.")
+	String getConnectionPoolMaxWait();
+	boolean isConnectionPoolMaxWait();
+
+	@Option(longName = "connection_pool.lease_timeout", description = "Seconds a borrowed connection "
+			+ "may go unused before it is taken back for someone waiting. 0, the default, never does, as tests "
+			+ "keep their connection while working on what they read, so only set it above the longest of those.")
+	String getConnectionPoolLeaseTimeout();
+	boolean isConnectionPoolLeaseTimeout();
+
+	@Option(longName = "connection_pool.max_size_per_server", description = "Maximum number of connections "
+			+ "open per server, over all its databases. 0 for no limit. Defaults to 0.")
+	String getConnectionPoolMaxSizePerServer();
+	boolean isConnectionPoolMaxSizePerServer();
+
+	@Option(longName = "statement_cache.size", description = "Number of prepared statements "
+			+ "kept open per connection for reuse. 0 turns the cache off. Defaults to 50.")
+	String getStatementCacheSize();
+	boolean isStatementCacheSize();
+
+	@Option(longName = "statement_cache.server_side", description = "Set to yes to have MySQL "
+			+ "prepare statements on the server, so repeated queries are only parsed once. Defaults to no.")
+	String getStatementCacheServerSide();
+	boolean isStatementCacheServerSide();
+}
@@ -44,4 +44,85 @@ public interface ConfigureTestRunner {
                         + "The allowed options are \"All\", \"None\", \"Problem\", \"Current\", \"Warning\" and \"Info\", .")
         String getOutputLevel();
         boolean isOutputLevel();
+
+	@Option(longName = "parallel.threads", description = "Number of single-database tests that may run "
+			+ "at the same time. If not set or set to 1, tests are run one after the other.")
+	String getParallelThreads();
+	boolean isParallelThreads();
+
+	@Option(longName = "parallel.threads_per_server", description = "Number of databases on the same "
+			+ "database server that may be tested at the same time when parallel.threads is greater than 1. "
+			+ "Defaults to the value of parallel.threads.")
+	String getParallelThreadsPerServer();
+	boolean isParallelThreadsPerServer();
+
+	@Option(longName = "schedule.history", description = "Number of past sessions in the output database "
+			+ "whose test timings are used to test the databases with the longest tests first when "
+			+ "parallel.threads is greater than 1. If not set, databases are tested in registry order.")
+	String getScheduleHistory();
+	boolean isScheduleHistory();
+
+	@Option(longName = "compare.by_digest", description = "If set to \"yes\", tests comparing the result "
+			+ "of a query on several databases first compare a hash of the rows of each database, and only "
+			+ "compare rows for the databases that differ. The order of the rows is ignored.")
+	String getCompareByDigest();
+	boolean isCompareByDigest();
+
+	@Option(longName = "incremental.cache_dir", description = "Directory in which the result of each test "
+			+ "on each database is kept with checksums of the tables the test reads. Tests whose tables haven't "
+			+ "changed since are not run again, their cached result is reported instead.")
+	String getIncrementalCacheDir();
+	boolean isIncrementalCacheDir();
+
+	@Option(longName = "scheduler", description = "Specify how the ParallelConfigurableTestRunner runs its jobs. "
+			+ "The allowed options are \"Lsf\" and \"Local\". Defaults to \"Lsf\".")
+	String getScheduler();
+	boolean isScheduler();
+
+	@Option(longName = "scheduler.local.jobs", description = "Number of jobs the local scheduler runs "
+			+ "at the same time. Defaults to the number of processors.")
+	String getSchedulerLocalJobs();
+	boolean isSchedulerLocalJobs();
+
+	@Option(longName = "scheduler.local.jobs_per_host", description = "Number of jobs the local scheduler "
+			+ "lets use the same MySQL host at the same time. Defaults to the value of scheduler.local.jobs.")
+	String getSchedulerLocalJobsPerHost();
+	boolean isSchedulerLocalJobsPerHost();
+
+	@Option(longName = "scheduler.local.jobs_per_secondary_host", description = "Number of jobs the local "
+			+ "scheduler lets use the secondary host at the same time, as every job may use it. Defaults to the "
+			+ "value of scheduler.local.jobs.")
+	String getSchedulerLocalJobsPerSecondaryHost();
+	boolean isSchedulerLocalJobsPerSecondaryHost();
+
+	@Option(longName = "scheduler.local.jvm_options", description = "Options passed to the JVMs started by "
+			+ "the local scheduler, e.g. \"-Xmx2g\".")
+	String getSchedulerLocalJvmOptions();
+	boolean isSchedulerLocalJvmOptions();
+
+	@Option(longName = "query_timeout", description = "Seconds a single query may run for before it is "
+			+ "cancelled. 0, the default, for no limit.")
+	String getQueryTimeout();
+	boolean isQueryTimeout();
+
+	@Option(longName = "test_timeout", description = "Seconds the queries of a test on one database may "
+			+ "run for together before they are cancelled. 0, the default, for no limit.")
+	String getTestTimeout();
+	boolean isTestTimeout();
+
+	@Option(longName = "slow_query.threshold", description = "Queries running for at least this many "
+			+ "seconds are logged. Defaults to 60.")
+	String getSlowQueryThreshold();
+	boolean isSlowQueryThreshold();
+
+	@Option(longName = "slow_query.log", description = "File slow queries are appended to, with their "
+			+ "duration, rows, test and database, instead of the log.")
+	String getSlowQueryLog();
+	boolean isSlowQueryLog();
+
+	@Option(longName = "timings.file", description = "File the time, queries, rows, bytes, report lines "
+			+ "and heap of each test on each database are written to at the end of a run, as CSV if "
+			+ "its name ends with .csv and as JSON otherwise.")
+	String getTimingsFile();
+	boolean isTimingsFile();
 }
@@ -26,7 +26,8 @@ import org.ensembl.healthcheck.util.Utils;
 
 public class DatabaseReporter implements Reporter {
 
-	private long testStartTime;
+	/** Start time of the test running on the current thread */
+	private final ThreadLocal<Long> testStartTime = new ThreadLocal<Long>();
 	private static String TIMINGS_FILE = "timings.txt";
 
 	/**
@@ -42,7 +43,8 @@ public class DatabaseReporter implements Reporter {
 	 */
 	public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
 
-		long duration = System.currentTimeMillis() - testStartTime;
+		Long startTime = testStartTime.get();
+		long duration = (startTime == null) ? 0 : System.currentTimeMillis() - startTime;
 
 		String str = duration + "\t";
 		if (dbre != null) {
@@ -91,7 +93,7 @@ public class DatabaseReporter implements Reporter {
 	 */
 	public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
 
-		testStartTime = System.currentTimeMillis();
+		testStartTime.set(System.currentTimeMillis());
 		
 		// Copied over from the NodeDatabaseTestRunner so we have the markers
 		// in the database that the webcode needs
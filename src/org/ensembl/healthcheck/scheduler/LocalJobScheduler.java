@@ -0,0 +1,285 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.scheduler;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.ConfigurableTestRunner;
+import org.ensembl.healthcheck.HealthcheckJob;
+import org.ensembl.healthcheck.JobScheduler;
+
+/**
+ * <p>
+ * Runs jobs on the local machine, each one in its own JVM.
+ * </p>
+ *
+ * <p>
+ * At most <code>jobs</code> jobs run at the same time and at most
+ * <code>jobsPerHost</code> of them may use the same MySQL host, unless the
+ * host has a limit of its own. This is the local equivalent of the
+ * my&lt;host&gt; resources used on the LSF farm.
+ * </p>
+ *
+ * <p>
+ * Jobs are started in the order they were submitted, except that a job
+ * waiting for a busy host doesn't hold up the jobs behind it that use other
+ * hosts.
+ * </p>
+ */
+public class LocalJobScheduler implements JobScheduler {
+
+	/** The logger to use for this class */
+	protected static Logger logger = Logger.getLogger(LocalJobScheduler.class.getSimpleName());
+
+	private final int jobs;
+
+	private final int jobsPerHost;
+
+	private final List<String> jvmOptions;
+
+	private final ExecutorService pool;
+
+	/** Limits of hosts that don't have the default jobsPerHost. */
+	private final Map<String, Integer> hostLimits = new HashMap<String, Integer>();
+
+	/** Guarded by this, like the fields below. */
+	private final Map<String, Integer> jobsOnHost = new HashMap<String, Integer>();
+
+	private final LinkedList<HealthcheckJob> queued = new LinkedList<HealthcheckJob>();
+
+	private int running = 0;
+
+	/**
+	 * @param jobs
+	 *            Maximum number of jobs running at the same time.
+	 * @param jobsPerHost
+	 *            Maximum number of running jobs using the same MySQL host.
+	 * @param jvmOptions
+	 *            Options passed to each JVM started, e.g. -Xmx2g.
+	 */
+	public LocalJobScheduler(int jobs, int jobsPerHost, List<String> jvmOptions) {
+
+		if (jobs < 1 || jobsPerHost < 1) {
+			throw new IllegalArgumentException("Job counts must be at least 1, got " + jobs + " and " + jobsPerHost);
+		}
+
+		this.jobs = jobs;
+		this.jobsPerHost = jobsPerHost;
+		this.jvmOptions = new ArrayList<String>(jvmOptions);
+		this.pool = Executors.newFixedThreadPool(jobs, new JobThreadFactory());
+	}
+
+	/**
+	 * Let a different number of jobs use a host at the same time, e.g. the
+	 * secondary host that all jobs may use.
+	 */
+	public synchronized void setHostLimit(String host, int limit) {
+
+		if (limit < 1) {
+			throw new IllegalArgumentException("Jobs per host must be at least 1, got " + limit + " for " + host);
+		}
+		hostLimits.put(host, limit);
+	}
+
+	public synchronized void submit(HealthcheckJob job) {
+
+		queued.add(job);
+		startQueuedJobs();
+	}
+
+	/**
+	 * Waits for all jobs submitted so far and then runs the job in the
+	 * calling thread.
+	 */
+	public void submitAfterAll(HealthcheckJob job) {
+
+		waitForSubmittedJobs();
+		runJob(job);
+	}
+
+	public void awaitCompletion() {
+
+		try {
+			waitForSubmittedJobs();
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	private synchronized void waitForSubmittedJobs() {
+
+		while (running > 0 || !queued.isEmpty()) {
+			try {
+				wait();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RuntimeException("Interrupted while waiting for jobs to finish", e);
+			}
+		}
+	}
+
+	/**
+	 * Start the queued jobs whose hosts have room, in the order they were
+	 * submitted, until as many jobs run as allowed. Pool threads are only
+	 * taken by jobs that can run straight away.
+	 */
+	private void startQueuedJobs() {
+
+		Iterator<HealthcheckJob> it = queued.iterator();
+		while (running < jobs && it.hasNext()) {
+
+			HealthcheckJob job = it.next();
+			Set<String> hosts = new HashSet<String>(job.getHosts());
+			if (!hasRoom(hosts)) {
+				continue;
+			}
+
+			it.remove();
+			running++;
+			for (String host : hosts) {
+				jobsOnHost.put(host, getJobsOnHost(host) + 1);
+			}
+			pool.execute(new JobRunner(job, hosts));
+		}
+	}
+
+	private boolean hasRoom(Set<String> hosts) {
+
+		for (String host : hosts) {
+			Integer limit = hostLimits.get(host);
+			if (getJobsOnHost(host) >= (limit == null ? jobsPerHost : limit)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private int getJobsOnHost(String host) {
+
+		Integer count = jobsOnHost.get(host);
+		return count == null ? 0 : count;
+	}
+
+	private synchronized void finished(Set<String> hosts) {
+
+		running--;
+		for (String host : hosts) {
+			jobsOnHost.put(host, getJobsOnHost(host) - 1);
+		}
+		startQueuedJobs();
+		notifyAll();
+	}
+
+	/**
+	 * Runs a job on a pool thread, and frees its hosts for the next ones.
+	 */
+	private class JobRunner implements Runnable {
+
+		private final HealthcheckJob job;
+
+		private final Set<String> hosts;
+
+		JobRunner(HealthcheckJob job, Set<String> hosts) {
+			this.job = job;
+			this.hosts = hosts;
+		}
+
+		public void run() {
+
+			try {
+				runJob(job);
+			} catch (RuntimeException e) {
+				logger.log(Level.WARNING, "Job failed: " + e.getMessage(), e);
+			} finally {
+				finished(hosts);
+			}
+		}
+	}
+
+	/**
+	 * Run the ConfigurableTestRunner in a new JVM using the classpath of this
+	 * one and wait for it to finish.
+	 *
+	 * @return The exit code of the JVM.
+	 */
+	protected int runJob(HealthcheckJob job) {
+
+		String logName = job.getLogName() == null ? "healthcheck_" + job.getName() : job.getLogName();
+
+		List<String> cmd = new ArrayList<String>();
+		cmd.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+		cmd.addAll(jvmOptions);
+		cmd.add("-cp");
+		cmd.add(System.getProperty("java.class.path"));
+		cmd.add(ConfigurableTestRunner.class.getName());
+		cmd.addAll(job.getArguments());
+
+		ProcessBuilder builder = new ProcessBuilder(cmd);
+		builder.redirectOutput(new File(logName + ".out"));
+		builder.redirectError(new File(logName + ".err"));
+
+		logger.info("Starting " + job);
+
+		try {
+			int exitCode = builder.start().waitFor();
+
+			if (exitCode != 0) {
+				logger.warning(job.getName() + " exited with code " + exitCode + ", see " + logName + ".err");
+			} else {
+				logger.info("Finished " + job.getName());
+			}
+			return exitCode;
+
+		} catch (IOException e) {
+			throw new RuntimeException("Could not start " + job, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("Interrupted while running " + job, e);
+		}
+	}
+
+	/**
+	 * Names the threads waiting on jobs so log output can be attributed.
+	 */
+	static class JobThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "healthcheck-job-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,192 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.scheduler;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.ensembl.healthcheck.HealthcheckJob;
+import org.ensembl.healthcheck.JobScheduler;
+import org.ensembl.healthcheck.configuration.ConfigureHost;
+
+/**
+ * Submits jobs to an LSF farm using bsub. Load on the MySQL hosts is
+ * limited by the my&lt;host&gt; resources defined on the farm.
+ */
+public class LsfJobScheduler implements JobScheduler {
+
+	private static final String MEMORY_RUSAGE = "select[mem>2000] rusage[mem=2000]";
+	private static final String MEMORY_RESERVATION = "2000";
+
+	private final ConfigureHost configuration;
+
+	private final String runConfigurable;
+
+	private final List<String> jobNames = new ArrayList<String>();
+
+	/**
+	 * @param configuration
+	 *            Used to find the hosts whose LSF resources are reserved.
+	 * @param runConfigurable
+	 *            The script that starts the ConfigurableTestRunner on the farm
+	 *            nodes.
+	 */
+	public LsfJobScheduler(ConfigureHost configuration, String runConfigurable) {
+
+		this.configuration = configuration;
+		this.runConfigurable = runConfigurable;
+	}
+
+	public void submit(HealthcheckJob job) {
+
+		List<String> cmd = new ArrayList<String>();
+
+		String host = resourceName(configuration.getHost());
+		String secondaryHost = resourceName(configuration.getSecondaryHost());
+
+		cmd.add("bsub");
+		cmd.add("-q");
+		cmd.add("long");
+		cmd.add("-J");
+		cmd.add(job.getName());
+		cmd.add("-R");
+		cmd.add(MEMORY_RUSAGE);
+		cmd.add("-M");
+		cmd.add(MEMORY_RESERVATION);
+		cmd.add("-R");
+		cmd.add("select[" + host + "<=800]");
+
+		if (configuration.getHost1() != null) {
+
+			String host1 = resourceName(configuration.getHost1());
+
+			cmd.add("-R");
+			cmd.add("select[" + host1 + "<=800]");
+			cmd.add("-R");
+			cmd.add("select[" + secondaryHost + "<=400]");
+			cmd.add("-R");
+			cmd.add("rusage[" + host + "=10:" + host1 + "=10:" + secondaryHost + "=50]");
+
+		} else {
+
+			cmd.add("-R");
+			cmd.add("select[" + secondaryHost + "<=400]");
+			cmd.add("-R");
+			cmd.add("rusage[" + host + "=10:" + secondaryHost + "=50]");
+		}
+
+		addOutputAndCommand(cmd, job, "healthcheck_%J");
+
+		jobNames.add(job.getName());
+
+		execCmd(cmd.toArray(new String[cmd.size()]));
+	}
+
+	public void submitAfterAll(HealthcheckJob job) {
+
+		Iterator<String> jobNameIterator = jobNames.iterator();
+		StringBuffer bsubConditionClause = new StringBuffer();
+		while (jobNameIterator.hasNext()) {
+
+			String currentJobName = jobNameIterator.next();
+			bsubConditionClause.append("ended(\"" + currentJobName + "\")");
+
+			if (jobNameIterator.hasNext()) {
+				bsubConditionClause.append(" && ");
+			}
+		}
+
+		List<String> cmd = new ArrayList<String>();
+
+		cmd.add("bsub");
+		cmd.add("-R");
+		cmd.add(MEMORY_RUSAGE);
+		cmd.add("-M");
+		cmd.add(MEMORY_RESERVATION);
+		cmd.add("-J");
+		cmd.add(job.getName());
+		cmd.add("-w");
+		cmd.add(bsubConditionClause.toString());
+
+		addOutputAndCommand(cmd, job, "healthcheck_" + job.getName());
+
+		execCmd(cmd.toArray(new String[cmd.size()]));
+	}
+
+	/**
+	 * Nothing to wait for, LSF takes care of the jobs once submitted.
+	 */
+	public void awaitCompletion() {
+	}
+
+	private void addOutputAndCommand(List<String> cmd, HealthcheckJob job, String defaultLogName) {
+
+		String logName = job.getLogName() == null ? defaultLogName : job.getLogName();
+
+		cmd.add("-o");
+		cmd.add(logName + ".out");
+		cmd.add("-e");
+		cmd.add(logName + ".err");
+		cmd.add(runConfigurable);
+		cmd.addAll(job.getArguments());
+	}
+
+	/**
+	 * @return The name of the LSF resource tracking the load on a MySQL host.
+	 */
+	private static String resourceName(String host) {
+		return "my" + host.replace("-", "_");
+	}
+
+	/**
+	 * Used for executing bsub commands.
+	 *
+	 * @param cmd
+	 *
+	 */
+	protected void execCmd(String[] cmd) {
+
+		try {
+
+			Process p = Runtime.getRuntime().exec(cmd);
+
+			BufferedReader stdInput = new BufferedReader(new InputStreamReader(p.getInputStream()));
+			BufferedReader stdError = new BufferedReader(new InputStreamReader(p.getErrorStream()));
+
+			String s = null;
+
+			while ((s = stdInput.readLine()) != null) {
+				System.out.println(s);
+			}
+
+			while ((s = stdError.readLine()) != null) {
+				System.out.println(s);
+			}
+
+			stdInput.close();
+			stdError.close();
+
+		} catch (Exception ioe) {
+			System.err.println("Error in head job " + ioe.getMessage());
+		}
+	}
+
+}
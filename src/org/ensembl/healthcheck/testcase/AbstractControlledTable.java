@@ -21,16 +21,22 @@ import java.sql.Connection;
 
 import org.ensembl.healthcheck.testcase.eg_compara.AbstractControlledRows;
 import org.ensembl.healthcheck.util.ChecksumDatabase;
+import org.ensembl.healthcheck.util.DefaultMapRowMapper;
+import org.ensembl.healthcheck.util.RowMapper;
 import org.ensembl.healthcheck.util.SqlTemplate;
 import org.ensembl.healthcheck.util.SqlTemplate.ResultSetCallback;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
 
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Types;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 import java.util.Set;
+import java.util.TreeSet;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -92,9 +98,24 @@ public abstract class AbstractControlledTable extends AbstractControlledRows {
 		/**
 		 * Compares two tables using checksums.
 		 */
-		Checksum 
+		Checksum,
+
+		/**
+		 * Compares hashes of the rows in ranges of primary key values, and
+		 * then row by row only in the ranges that differ. Falls back to 
+		 * Checksum for tables without a single integer primary key.
+		 */
+		RowHash
 	};
 
+	/**
+	 * Number of primary key values in each range compared by 
+	 * {@link ComparisonStrategy#RowHash}.
+	 */
+	protected int getRowHashBucketSize() {
+		return 10000;
+	}
+
 	/**
 	 * DatabaseRegistryEntry of the master database.
 	 */
@@ -141,6 +162,19 @@ public abstract class AbstractControlledTable extends AbstractControlledRows {
 					masterDbRe				
 			);
 			
+		} else if (getComparisonStrategy() == ComparisonStrategy.RowHash
+				&& getIntegerPrimaryKeyColumn(testDbConn, controlledTableToTest) != null) {
+			
+			getLogger().log(Level.INFO, "Checking by using row hashes");
+			
+			numReportedRows = 0;
+			
+			passed = checkByRowHash(
+					controlledTableToTest,
+					dbre,
+					masterDbRe
+			);
+			
 		} else {
 			
 			getLogger().log(Level.INFO, "Checking by using checksums");
@@ -184,6 +218,236 @@ public abstract class AbstractControlledTable extends AbstractControlledRows {
 		return checksumValueMaster.equals(checksumValueTest);
 	}
 
+	/**
+	 * Checks whether a table that exists in two databases has the same 
+	 * content, by comparing a hash of the rows in each range of 
+	 * {@link #getRowHashBucketSize()} primary key values. Rows are only 
+	 * compared one by one in the ranges whose hashes differ, so the rows 
+	 * that differ can be reported.
+	 */
+	protected boolean checkByRowHash(
+			final String controlledTableToTest,
+			DatabaseRegistryEntry testDbRe,
+			DatabaseRegistryEntry masterDbRe
+		) {
+		
+		final Logger logger = getLogger();
+		
+		final Connection testDbConn = testDbRe.getConnection();
+		final Connection masterconn = masterDbRe.getConnection();
+		
+		final List<String> testTableColumns = getColumnsOfTable(testDbConn, controlledTableToTest);
+		
+		if (!columnsAreSubset(testDbConn, masterconn, controlledTableToTest)) {
+			
+			testTableColumns.removeAll(getColumnsOfTable(masterconn, controlledTableToTest));
+			ReportManager.problem(
+				this, 
+				testDbConn, 
+				"The following columns are not present in the master database: "
+				+ testTableColumns + "\n"
+				+ "The schemas are not compatible.\n"
+			);
+			return false;
+		}
+		
+		String keyColumn = getIntegerPrimaryKeyColumn(testDbConn, controlledTableToTest);
+		String bucketHashSql = getBucketHashSql(controlledTableToTest, testTableColumns, keyColumn);
+		
+		Map<Long, String> testHashes   = getBucketHashes(testDbConn, bucketHashSql);
+		Map<Long, String> masterHashes = getBucketHashes(masterconn, bucketHashSql);
+		
+		Set<Long> buckets = new TreeSet<Long>(testHashes.keySet());
+		buckets.addAll(masterHashes.keySet());
+		
+		List<Long> differingBuckets = new ArrayList<Long>();
+		for (Long bucket : buckets) {
+			String testHash = testHashes.get(bucket);
+			if (testHash == null || !testHash.equals(masterHashes.get(bucket))) {
+				differingBuckets.add(bucket);
+			}
+		}
+		
+		logger.info(differingBuckets.size() + " of " + buckets.size() + " ranges of " + controlledTableToTest + " differ");
+		
+		if (differingBuckets.isEmpty()) {
+			return true;
+		}
+		
+		int bucketSize = getRowHashBucketSize();
+		
+		List<String> rangesWithoutRows = new ArrayList<String>();
+		
+		for (Long bucket : differingBuckets) {
+			
+			if (numReportedRowsExceedsMaximum()) {
+				break;
+			}
+			
+			String whereClause = " where " + keyColumn + " >= " + (bucket * bucketSize) 
+				+ " and " + keyColumn + " < " + ((bucket + 1) * bucketSize) + " ";
+			
+			logger.info("Comparing rows" + whereClause);
+			
+			int reportedBefore = numReportedRows;
+			
+			checkRowsInTable(controlledTableToTest, controlledTableToTest, testDbRe, masterDbRe, whereClause);
+			reportRowsMissingFromTest(controlledTableToTest, testDbConn, masterconn, testTableColumns, whereClause);
+			
+			if (numReportedRows == reportedBefore) {
+				rangesWithoutRows.add((bucket * bucketSize) + "-" + ((bucket + 1) * bucketSize - 1));
+			}
+		}
+		
+		// Even if no single row has been reported, the hashes say that the 
+		// tables differ.
+		//
+		if (!rangesWithoutRows.isEmpty()) {
+			ReportManager.problem(
+				this, 
+				testDbConn, 
+				"The rows of " + controlledTableToTest + " with " + keyColumn + " in " 
+				+ asCommaSeparatedString(rangesWithoutRows) + " differ from the master database, "
+				+ "but no single row was found to be missing from either."
+			);
+		}
+		return false;
+	}
+
+	/**
+	 * Reports rows of the master table that are not in the tested table.
+	 */
+	protected void reportRowsMissingFromTest(
+			final String controlledTableToTest,
+			final Connection testDbConn,
+			final Connection masterconn,
+			final List<String> columns,
+			String whereClause
+		) {
+		
+		List<Object[]> masterRows = getSqlTemplate(masterconn).queryForList(
+			"select " + asCommaSeparatedString(columns) + " from " + controlledTableToTest + whereClause,
+			new RowMapper<Object[]>() {
+				@Override public Object[] mapRow(ResultSet rs, int position) throws SQLException {
+					return getRowValues(rs);
+				}
+			}
+		);
+		
+		for (int start = 0; start < masterRows.size() && !numReportedRowsExceedsMaximum(); start += lookupBatchSize) {
+			
+			List<Object[]> lookupRows = masterRows.subList(start, Math.min(start + lookupBatchSize, masterRows.size()));
+			int[] numberOfMatchingRows = countRowsInMaster(testDbConn, controlledTableToTest, columns, lookupRows);
+			
+			for (int i = 0; i < lookupRows.size() && !numReportedRowsExceedsMaximum(); i++) {
+				
+				if (numberOfMatchingRows[i] == 0) {
+					
+					numReportedRows++;
+					
+					if (numReportedRowsExceedsMaximum()) {
+						ReportManager.problem(
+							this, 
+							testDbConn, 
+							"The maximum of " + getMaxReportedMismatches() + " reported rows has been reached, no further rows will be tested."
+						);
+					} else {
+						ReportManager.problem(
+							this, 
+							testDbConn, 
+							"Row from master not found: " + rowAsString(columns, lookupRows.get(i))
+						);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * 
+	 * SQL returning, for each range of primary key values, the range's 
+	 * number, the number of rows in it and a hash of the rows. Each row 
+	 * is hashed with the first 64 bits of its MD5 and the hashes are added 
+	 * up, so the order of the rows doesn't matter. Unlike BIT_XOR of CRC32, 
+	 * which is linear, values swapped between rows change the sum.
+	 * 
+	 * @param tableName
+	 * @param columns
+	 * @param keyColumn
+	 * @return SQL statement
+	 */
+	protected String getBucketHashSql(String tableName, List<String> columns, String keyColumn) {
+		
+		// concat_ws skips nulls, so mark values to tell nulls from empty
+		// strings
+		//
+		List<String> values = new ArrayList<String>(columns.size());
+		for (String column : columns) {
+			values.add("coalesce(concat('=', " + column + "), '')");
+		}
+		
+		return "select floor(" + keyColumn + " / " + getRowHashBucketSize() + ") as bucket, count(*), "
+			+ "sum(cast(conv(left(md5(concat_ws('#', " + asCommaSeparatedString(values) + ")), 16), 16, 10) as unsigned)) "
+			+ "from " + tableName + " group by bucket";
+	}
+
+	/**
+	 * @return The row count and hash of each range, keyed on the range's 
+	 *         number.
+	 */
+	protected Map<Long, String> getBucketHashes(Connection conn, String bucketHashSql) {
+		
+		return getSqlTemplate(conn).queryForMap(
+			bucketHashSql,
+			new DefaultMapRowMapper<Long, String>(Long.class, String.class) {
+				@Override public Long getKey(ResultSet rs) throws SQLException {
+					return rs.getLong(1);
+				}
+				@Override public String mapRow(ResultSet rs, int position) throws SQLException {
+					return rs.getLong(2) + ":" + rs.getString(3);
+				}
+			}
+		);
+	}
+
+	/**
+	 * 
+	 * Returns the name of the primary key column of a table, or null if the 
+	 * table has no primary key, one made of several columns or one that is
+	 * not an integer.
+	 * 
+	 * @param conn
+	 * @param table
+	 * @return name of column
+	 */
+	protected String getIntegerPrimaryKeyColumn(Connection conn, String table) {
+		
+		String keyColumn = getPrimaryKeyColumn(conn, table);
+		if (keyColumn == null) {
+			return null;
+		}
+		
+		try {
+			ResultSet rs = conn.getMetaData().getColumns(null, null, table, keyColumn);
+			try {
+				if (rs.next()) {
+					switch (rs.getInt("DATA_TYPE")) {
+					case Types.TINYINT:
+					case Types.SMALLINT:
+					case Types.INTEGER:
+					case Types.BIGINT:
+						return keyColumn;
+					}
+				}
+			} finally {
+				rs.close();
+			}
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not get type of " + table + "." + keyColumn, e);
+		}
+		return null;
+	}
+
 	/**
 	 * 
 	 * Calculates the checksum of a list of tables in a given database.
@@ -289,23 +553,13 @@ public abstract class AbstractControlledTable extends AbstractControlledRows {
 			logger.log(Level.INFO, "Columns are ok.");
 		}
 		
-		int limit = batchSize;
-		boolean allRowsInMaster = true;
-		
-		for(int currentOffset = 0; currentOffset<rowCount && !numReportedRowsExceedsMaximum(); currentOffset+=limit) {
-			
-			logger.info("Checking rows " + currentOffset + " out of " + rowCount);
-			
-			allRowsInMaster &= checkRangeOfRowsInTable(
-				controlledTableToTest,
-				masterTable,
-				testDbre,
-				masterDbRe,
-				limit,
-				currentOffset
-			);			
-		}
-		return allRowsInMaster;
+		return checkRowsInTable(
+			controlledTableToTest,
+			masterTable,
+			testDbre,
+			masterDbRe,
+			""
+		);
 	}
 
 	/**
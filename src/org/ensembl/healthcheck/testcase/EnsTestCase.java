@@ -37,6 +37,7 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
@@ -56,6 +57,9 @@ import org.ensembl.healthcheck.configurationmanager.ConfigurationException;
 import org.ensembl.healthcheck.util.CollectionUtils;
 import org.ensembl.healthcheck.util.DBUtils;
 import org.ensembl.healthcheck.util.MapRowMapper;
+import org.ensembl.healthcheck.util.MetadataCache;
+import org.ensembl.healthcheck.util.OrphanFinder;
+import org.ensembl.healthcheck.util.QueryMonitor;
 import org.ensembl.healthcheck.util.SQLParser;
 import org.ensembl.healthcheck.util.SqlTemplate;
 import org.ensembl.healthcheck.util.SqlUncheckedException;
@@ -120,6 +124,13 @@ public abstract class EnsTestCase {
 	 */
 	protected boolean hintLongRunning = false;
 
+	/**
+	 * The tables whose contents decide the result of this test, or null if
+	 * they haven't been declared. Only tests that declare them can have their
+	 * results replayed by an {@link org.ensembl.healthcheck.IncrementalRunCache}.
+	 */
+	protected List<String> tablesRead = null;
+
 	/**
 	 * Store a list of which types of database this test applies to.
 	 */
@@ -175,6 +186,18 @@ public abstract class EnsTestCase {
 		this.setSystemProperties = setSystemProperties;
 	}
 
+	public List<String> getTablesRead() {
+		return tablesRead;
+	}
+
+	/**
+	 * Declare the tables this test reads. Tests that read tables of other
+	 * databases, or whose tables depend on the database, shouldn't.
+	 */
+	public void setTablesRead(String... tables) {
+		this.tablesRead = Arrays.asList(tables);
+	}
+
 	/**
 	 * A DatabaseRegistryEntry pointing to the production database.
 	 */
@@ -199,6 +222,35 @@ public abstract class EnsTestCase {
 
 	} // EnsTestCase
 
+	// -------------------------------------------------------------------------
+	/**
+	 * Copy the settings of another instance of the same test, e.g. those set
+	 * by the test registry or the test runner after it was created, so this
+	 * one can run in its place.
+	 *
+	 * @param other
+	 *            The instance to copy from.
+	 */
+	public void copySettingsFrom(EnsTestCase other) {
+
+		testRunner = other.testRunner;
+		groups = new ArrayList<String>(other.groups);
+		description = other.description;
+		priority = other.priority;
+		effect = other.effect;
+		fix = other.fix;
+		failureText = other.failureText;
+		teamResponsible = other.teamResponsible;
+		secondTeamResponsible = other.secondTeamResponsible;
+		hintLongRunning = other.hintLongRunning;
+		tablesRead = other.tablesRead;
+		appliesToTypes = new ArrayList<DatabaseType>(other.appliesToTypes);
+		setSystemProperties = other.setSystemProperties;
+		productionDBRE = other.productionDBRE;
+		comparaMasterDbre = other.comparaMasterDbre;
+
+	} // copySettingsFrom
+
 	// -------------------------------------------------------------------------
 
 	/**
@@ -546,9 +598,19 @@ public abstract class EnsTestCase {
 			String sql = "DROP DATABASE " + dbName;
 			logger.finest(sql);
 			Statement stmt = con.createStatement();
-			stmt.execute(sql);
+			QueryMonitor.Query query = QueryMonitor.start(con, stmt, sql);
+			try {
+				stmt.execute(sql);
+			} finally {
+				query.finish(-1);
+			}
 			logger.fine("Database " + dbName + " removed!");
 
+			MetadataCache cache = MetadataCache.forConnection(con);
+			if (cache != null) {
+				cache.invalidateAll();
+			}
+
 		} catch (Exception e) {
 
 			String msg = "Could not drop database " + dbName;
@@ -624,11 +686,10 @@ public abstract class EnsTestCase {
 		ResultSet rs = null;
 		try {
 
-			Statement stmt = con.createStatement();
-			rs = stmt.executeQuery("SELECT * FROM " + table + " ORDER BY "
-					+ key);
+			rs = executeQuery(con, getWholeTableSQL(table, key));
 
 		} catch (Exception e) {
+			DatabaseRegistryEntry.invalidateConnection(con);
 			throw new SqlUncheckedException("Could not retrieve whole table", e);
 		} finally {
 		}
@@ -636,6 +697,43 @@ public abstract class EnsTestCase {
 
 	}
 
+	/**
+	 * Run a query whose ResultSet is read by the caller. Only the time until
+	 * its first row is known to the {@link QueryMonitor}, not its rows.
+	 */
+	private ResultSet executeQuery(Connection con, String sql)
+			throws SQLException {
+
+		Statement stmt = con.createStatement();
+		QueryMonitor.Query query = QueryMonitor.start(con, stmt, sql);
+		try {
+			return stmt.executeQuery(sql);
+		} finally {
+			query.finish(-1);
+		}
+
+	}
+
+	private String getWholeTableSQL(String table, String key) {
+
+		return "SELECT * FROM " + table + " ORDER BY " + key;
+
+	}
+
+	private String getWholeTableExceptSomeColumnsSQL(Connection con,
+			String table, String key, List<String> exceptionColumns,
+			String whereClause) {
+
+		List<String> allColumns = DBUtils.getColumnsInTable(con, table);
+		allColumns.removeAll(exceptionColumns);
+
+		String columns = StringUtils.join(allColumns, ",");
+
+		return String.format("SELECT %s FROM %s %s ORDER BY %s", columns,
+				table, whereClause, key);
+
+	}
+
 	// -------------------------------------------------------------------------
 	/**
 	 * Get all the rows from certain columns of a table, specifying which ones
@@ -654,19 +752,13 @@ public abstract class EnsTestCase {
 
 		ResultSet rs = null;
 
-		List<String> allColumns = DBUtils.getColumnsInTable(con, table);
-		allColumns.removeAll(exceptionColumns);
-
-		String columns = StringUtils.join(allColumns, ",");
-
 		try {
 
-			Statement stmt = con.createStatement();
-			rs = stmt.executeQuery(String.format(
-					"SELECT %s FROM %s %s ORDER BY %s", columns, table,
-					whereClause, key));
+			rs = executeQuery(con, getWholeTableExceptSomeColumnsSQL(con,
+					table, key, exceptionColumns, whereClause));
 
 		} catch (Exception e) {
+			DatabaseRegistryEntry.invalidateConnection(con);
 			throw new SqlUncheckedException("Could not retrieve whole table "
 					+ table, e);
 		} finally {
@@ -789,11 +881,11 @@ public abstract class EnsTestCase {
 
 		DatabaseRegistryEntry productionDBRE = getProductionDatabase();
 
-		return DBUtils.compareResultSets(
-				getWholeTable(con, tableName, tableKey),
-				getWholeTable(productionDBRE.getConnection(),
-						productionTableName, productionKey), this, "", true,
-				false, tableName, null, false);
+		return DBUtils.compareQueryResults(con,
+				getWholeTableSQL(tableName, tableKey),
+				productionDBRE.getConnection(),
+				getWholeTableSQL(productionTableName, productionKey), this, "",
+				true, false, tableName, null, false);
 
 	}
 
@@ -831,13 +923,14 @@ public abstract class EnsTestCase {
 		    throw new ConfigurationException("Production database not found");
 		}
 
-		return DBUtils.compareResultSets(
-				getWholeTableExceptSomeColumns(con, tableName, tableKey,
+		return DBUtils.compareQueryResults(con,
+				getWholeTableExceptSomeColumnsSQL(con, tableName, tableKey,
 						exceptionColumns, ""),
-				getWholeTableExceptSomeColumns(productionDBRE.getConnection(),
-						productionTableName, productionKey, exceptionColumns,
-						"WHERE is_current=1"), this, "", true, false,
-				tableName, null, false);
+				productionDBRE.getConnection(),
+				getWholeTableExceptSomeColumnsSQL(
+						productionDBRE.getConnection(), productionTableName,
+						productionKey, exceptionColumns, "WHERE is_current=1"),
+				this, "", true, false, tableName, null, false);
 
 	}
 
@@ -1132,51 +1225,19 @@ public abstract class EnsTestCase {
 			logger.severe("countOrphans: Database connection is null");
 		}
 
-		int resultLeft, resultRight;
-
-		String sql = " FROM " + table1 + " LEFT JOIN " + table2 + " ON "
-				+ table1 + "." + col1 + " = " + table2 + "." + col2 + " WHERE "
-				+ table2 + "." + col2 + " IS NULL";
-
-		resultLeft = DBUtils.getRowCount(con, "SELECT COUNT(*)" + sql);
-
-		logger.finest("Left: " + resultLeft);
-
-		if (resultLeft > 0) {
-			String[] values = DBUtils.getColumnValues(con, "SELECT " + table1
-					+ "." + col1 + sql + " LIMIT 20");
-			for (int i = 0; i < values.length; i++) {
-				ReportManager.info(this, con, table1 + "." + col1 + " "
-						+ values[i] + " is not linked.");
-			}
-		}
-
+		List<OrphanFinder.ForeignKey> keys = new ArrayList<OrphanFinder.ForeignKey>();
+		keys.add(new OrphanFinder.ForeignKey(table1, col1, table2, col2));
 		if (!oneWayOnly) {
-			// and the other way ... (a right join?)
-			sql = " FROM " + table2 + " LEFT JOIN " + table1 + " ON " + table2
-					+ "." + col2 + " = " + table1 + "." + col1 + " WHERE "
-					+ table1 + "." + col1 + " IS NULL";
-
-			resultRight = DBUtils.getRowCount(con, "SELECT COUNT(*)" + sql);
-
-			if (resultRight > 0) {
-				String[] values = DBUtils.getColumnValues(con, "SELECT "
-						+ table2 + "." + col2 + sql + " LIMIT 20");
-				for (int i = 0; i < values.length; i++) {
-					ReportManager.info(this, con, table2 + "." + col2 + " "
-							+ values[i] + " is not linked.");
-				}
-			}
-
-			logger.finest("Right: " + resultRight);
-
-		} else {
-			resultRight = 0;
+			// and the other way ...
+			keys.add(new OrphanFinder.ForeignKey(table2, col2, table1, col1));
 		}
 
-		// logger.finest("Left: " + resultLeft + " Right: " + resultRight);
+		int result = 0;
+		for (OrphanFinder.Orphans orphans : OrphanFinder.find(con, keys)) {
+			result += reportOrphans(con, orphans);
+		}
 
-		return resultLeft + resultRight;
+		return result;
 
 	} // countOrphans
 
@@ -1206,29 +1267,92 @@ public abstract class EnsTestCase {
 			logger.severe("countOrphans: Database connection is null");
 		}
 
-		int resultLeft;
+		return reportOrphans(con, OrphanFinder.find(con, new OrphanFinder.ForeignKey(table1, col1, table2, col2,
+				constraint1)));
 
-		String sql = " FROM " + table1 + " LEFT JOIN " + table2 + " ON "
-				+ table1 + "." + col1 + " = " + table2 + "." + col2 + " WHERE "
-				+ table2 + "." + col2 + " iS NULL";
+	} // countOrphans
 
-		sql = sql + " AND " + table1 + "." + constraint1;
+	// -------------------------------------------------------------------------
+	/**
+	 * Verify several foreign-key relations at once. Relations referring to the
+	 * same table are checked with a single query.
+	 * 
+	 * @param con
+	 *            A connection to the database to be tested. Should already be
+	 *            open.
+	 * @param foreignKeys
+	 *            The relations to check.
+	 * @return The number of "orphans" of each relation, in the same order as
+	 *         foreignKeys.
+	 */
+	public int[] countOrphans(Connection con,
+			List<OrphanFinder.ForeignKey> foreignKeys) {
 
-		resultLeft = DBUtils.getRowCount(con, "SELECT COUNT(*)" + sql);
-		if (resultLeft > 0) {
-			String[] values = DBUtils.getColumnValues(con, "SELECT " + table1
-					+ "." + col1 + sql + " LIMIT 20");
-			for (int i = 0; i < values.length; i++) {
-				ReportManager.info(this, con, table1 + "." + col1 + " "
-						+ values[i] + " is not linked.");
+		List<OrphanFinder.Orphans> found = OrphanFinder.find(con, foreignKeys);
+
+		int[] result = new int[found.size()];
+		for (int i = 0; i < result.length; i++) {
+			result[i] = reportOrphans(con, found.get(i));
+		}
+		return result;
+
+	} // countOrphans
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Verify several foreign-key relations at once, and fills ReportManager
+	 * with useful sql for the ones that fail.
+	 * 
+	 * @return true If there are no orphans.
+	 */
+	public boolean checkForOrphans(Connection con,
+			List<OrphanFinder.ForeignKey> foreignKeys) {
+
+		int[] orphans = countOrphans(con, foreignKeys);
+
+		boolean result = true;
+
+		for (int i = 0; i < orphans.length; i++) {
+
+			if (orphans[i] > 0) {
+				OrphanFinder.ForeignKey key = foreignKeys.get(i);
+				ReportManager.problem(this, con, "FAILED " + key.getTable1()
+						+ " -> " + key.getTable2() + " using FK "
+						+ key.getCol1() + "(" + key.getCol2() + ")"
+						+ " relationships");
+				ReportManager.problem(this, con, "FAILURE DETAILS: "
+						+ orphans[i] + " " + key.getTable1()
+						+ " entries are not linked to " + key.getTable2());
+				ReportManager.problem(this, con, "USEFUL SQL: "
+						+ key.getOrphanSQL());
+				result = false;
 			}
 		}
 
-		logger.finest("Left: " + resultLeft);
+		return result;
 
-		return resultLeft;
+	} // checkForOrphans
 
-	} // countOrphans
+	// -------------------------------------------------------------------------
+	/**
+	 * Report some of the orphans found for a relation.
+	 * 
+	 * @return The number of orphans.
+	 */
+	private int reportOrphans(Connection con, OrphanFinder.Orphans orphans) {
+
+		OrphanFinder.ForeignKey key = orphans.getForeignKey();
+
+		logger.finest(key + ": " + orphans.getCount());
+
+		for (String value : orphans.getSample()) {
+			ReportManager.info(this, con, key.getTable1() + "." + key.getCol1()
+					+ " " + value + " is not linked.");
+		}
+
+		return orphans.getCount();
+
+	} // reportOrphans
 
 	// -------------------------------------------------------------------------
 	/**
@@ -1760,38 +1884,47 @@ public abstract class EnsTestCase {
 	 *            The connection to use.
 	 * @return A map of analysis IDs (keys) and logic names (values).
 	 */
-	public Map<Integer, String> getLogicNamesFromAnalysisTable(Connection con) {
-
-		return DBUtils.getSqlTemplate(con).queryForMap(
-				"SELECT analysis_id, logic_name FROM analysis",
-				new MapRowMapper<Integer, String>() {
+	public Map<Integer, String> getLogicNamesFromAnalysisTable(final Connection con) {
 
-					@Override
-					public String mapRow(ResultSet resultSet, int position)
-							throws SQLException {
-						return resultSet.getString("logic_name");
-					}
-
-					@Override
-					public Map<Integer, String> getMap() {
-						return CollectionUtils.createHashMap();
-					}
-
-					@Override
-					public Integer getKey(ResultSet resultSet)
-							throws SQLException {
-						return resultSet.getInt("analysis_id");
-					}
-
-					@Override
-					public void existingObject(String currentValue,
-							ResultSet resultSet, int position)
-							throws SQLException {
-						throw new SqlUncheckedException(
-								"Duplicate analysis row found for ID "
-										+ currentValue);
-					}
-				});
+		try {
+			return new HashMap<Integer, String>(MetadataCache.get(con, "analysis_logic_names",
+					new MetadataCache.Loader<Map<Integer, String>>() {
+				public Map<Integer, String> load() {
+					return DBUtils.getSqlTemplate(con).queryForMap(
+							"SELECT analysis_id, logic_name FROM analysis",
+							new MapRowMapper<Integer, String>() {
+
+								@Override
+								public String mapRow(ResultSet resultSet, int position)
+										throws SQLException {
+									return resultSet.getString("logic_name");
+								}
+
+								@Override
+								public Map<Integer, String> getMap() {
+									return CollectionUtils.createHashMap();
+								}
+
+								@Override
+								public Integer getKey(ResultSet resultSet)
+										throws SQLException {
+									return resultSet.getInt("analysis_id");
+								}
+
+								@Override
+								public void existingObject(String currentValue,
+										ResultSet resultSet, int position)
+										throws SQLException {
+									throw new SqlUncheckedException(
+											"Duplicate analysis row found for ID "
+													+ currentValue);
+								}
+							});
+				}
+			}));
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not get logic names", e);
+		}
 
 	}
 
@@ -1921,22 +2054,32 @@ public abstract class EnsTestCase {
 	/**
 	 * Get the names of the top level seq_regions.
 	 */
-	public List<String> getTopLevelNames(Connection con) {
-
-		List<String> names = new ArrayList<String>();
+	public List<String> getTopLevelNames(final Connection con) {
 
 		try {
-			Statement stmt = con.createStatement();
-			ResultSet rs = stmt
-					.executeQuery("SELECT sr.name FROM seq_region sr, seq_region_attrib sra, attrib_type at WHERE sra.seq_region_id=sr.seq_region_id AND sra.attrib_type_id=at.attrib_type_id AND at.code='toplevel'");
-			while (rs.next()) {
-				names.add(rs.getString(1));
-			}
+			return new ArrayList<String>(MetadataCache.get(con, "toplevel_names", new MetadataCache.Loader<List<String>>() {
+				public List<String> load() throws SQLException {
+					List<String> names = new ArrayList<String>();
+					String sql = "SELECT sr.name FROM seq_region sr, seq_region_attrib sra, attrib_type at WHERE sra.seq_region_id=sr.seq_region_id AND sra.attrib_type_id=at.attrib_type_id AND at.code='toplevel'";
+					Statement stmt = con.createStatement();
+					QueryMonitor.Query query = QueryMonitor.start(con, stmt, sql);
+					try {
+						ResultSet rs = stmt.executeQuery(sql);
+						while (rs.next()) {
+							names.add(rs.getString(1));
+						}
+					} finally {
+						query.finish(names.size());
+						DBUtils.closeQuietly(stmt);
+					}
+					return names;
+				}
+			}));
 		} catch (SQLException se) {
 			se.printStackTrace();
 		}
 
-		return names;
+		return new ArrayList<String>();
 
 	}
 
@@ -2315,17 +2458,24 @@ public abstract class EnsTestCase {
 
 		try {
 			Statement stmt = con.createStatement();
-			ResultSet rs = stmt.executeQuery(sql);
-
-			while (rs.next()) {
-				StringBuffer buf = new StringBuffer(rs.getString(1));
-				for (int a = 2; a <= rs.getMetaData().getColumnCount(); a++) {
-					buf.append("::");
-					buf.append(rs.getString(a));
+			QueryMonitor.Query query = QueryMonitor.start(con, stmt, sql);
+			long rows = 0;
+			try {
+				ResultSet rs = stmt.executeQuery(sql);
+
+				while (rs.next()) {
+					rows++;
+					StringBuffer buf = new StringBuffer(rs.getString(1));
+					for (int a = 2; a <= rs.getMetaData().getColumnCount(); a++) {
+						buf.append("::");
+						buf.append(rs.getString(a));
+					}
+					values.put(buf.toString(), "1");
 				}
-				values.put(buf.toString(), "1");
+				rs.close();
+			} finally {
+				query.finish(rows);
 			}
-			rs.close();
 			stmt.close();
 
 		} catch (Exception e) {
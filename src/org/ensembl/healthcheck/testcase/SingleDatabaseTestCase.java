@@ -22,6 +22,8 @@ import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.util.DBUtils;
 
 import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 /**
  * Subclass of EnsTestCase for tests that apply to a <em>single</em> database. Such tests should
@@ -84,6 +86,50 @@ public abstract class SingleDatabaseTestCase extends EnsTestCase {
 
     } // checkCountIsZero
 
+    // -------------------------------------------------------------------------
+    /**
+     * Like {@link #checkCountIsZero(Connection, String, String)} for several
+     * constraints, counted with one scan of the table.
+     * 
+     * @param con
+     *          The database connection to use.
+     * @param table
+     *          The name of the table, or joined tables, to examine.
+     * @param constraints
+     *          The constraints no row should match.
+     * @return boolean
+     *          true if everything is fine
+     *          false otherwise
+     */
+    public boolean checkCountsAreZero(Connection con, String table, String... constraints) {
+
+        boolean result = true;
+
+        Map<String, String> predicates = new LinkedHashMap<String, String>();
+        for (String constraint : constraints) {
+            predicates.put(constraint, constraint);
+        }
+
+        Map<String, Integer> counts = DBUtils.getRowCounts(con, table, predicates);
+
+        for (String constraint : constraints) {
+
+            int count = counts.get(constraint);
+
+            if (count == 0) {
+                ReportManager.correct(this, con, "PASSED ");
+            } else {
+                ReportManager.problem(this, con, "FAILED ");
+                ReportManager.problem(this, con, "FAILURE DETAILS: " + count + " ENTRIES found in " + table  + " matching '" + constraint + "' instead of 0");
+                ReportManager.problem(this, con, "USEFUL SQL: SELECT COUNT(*) FROM " + table + " WHERE " + constraint);
+                result = false;
+            }
+        }
+
+        return result;
+
+    } // checkCountsAreZero
+
     /**
      * Check that the count in a table for a given constraint is higher
 	 * than 0.
@@ -20,7 +20,7 @@ package org.ensembl.healthcheck.testcase.compara;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.SQLException;
 
 import com.google.gson.Gson;
 
@@ -28,8 +28,7 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
-import org.ensembl.healthcheck.util.DBUtils;
-import org.ensembl.healthcheck.util.SqlUncheckedException;
+import org.ensembl.healthcheck.util.SqlTemplate.RowCallback;
 
 /**
  * An EnsEMBL Healthcheck test case that checks the validity of JSON
@@ -59,36 +58,26 @@ public class CheckJSONObjects extends SingleDatabaseTestCase {
 		return result;
 	}
 
-    public boolean checkAllJSONs(Connection con) {
+	public boolean checkAllJSONs(final Connection con) {
 
-		boolean result = true;
-        Statement stmt = null;
-        ResultSet rs = null;
 		String sql = "SELECT root_id, data_label, UNCOMPRESS(compressed_data) FROM gene_tree_object_store";
-        try {
-            stmt = con.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-            stmt.setFetchSize(Integer.MIN_VALUE);
-            rs = stmt.executeQuery(sql);
+		final boolean[] result = { true };
 
-			while (result && rs.next()) {
+		// streamed, and stopped at the first invalid object
+		getSqlTemplate(con).forEachRow(sql, new RowCallback() {
+			public boolean process(ResultSet rs) throws SQLException {
 				String json = rs.getString(3);
 				if (!isJSONValid(json)) {
-					ReportManager.problem(this, con, "FAILED JSON not valid for root_id=" + rs.getString(1) + " / data_label=" + rs.getString(2));
-					result = false;
+					ReportManager.problem(CheckJSONObjects.this, con, "FAILED JSON not valid for root_id=" + rs.getString(1) + " / data_label=" + rs.getString(2));
+					result[0] = false;
 				}
+				return result[0];
 			}
-            rs.close();
-            stmt.close();
-        } catch (Exception e) {
-            throw new SqlUncheckedException("Could not execute query", e);
-        } finally {
-            DBUtils.closeQuietly(rs);
-            DBUtils.closeQuietly(stmt);
-        }
-
-        return result;
-
-    } // checkAllJSONs 
+		});
+
+		return result[0];
+
+	} // checkAllJSONs
 
 	public static boolean isJSONValid(String jsonInString) {
 		try {
@@ -19,11 +19,14 @@
 package org.ensembl.healthcheck.testcase.compara;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
+import org.ensembl.healthcheck.util.OrphanFinder;
 
 /**
  * An EnsEMBL Healthcheck test case that looks for broken foreign-key
@@ -44,11 +47,17 @@ public class ForeignKeyGenomicAlignmentTables extends AbstractComparaTestCase {
 		boolean result = true;
 		// genomic_align -> dnafrag
 		result &= checkForOrphans(con, "genomic_align", "dnafrag_id", "dnafrag", "dnafrag_id");
+		// the server's joins of these tables with each other spill to disk
+		List<OrphanFinder.ForeignKey> keys = new ArrayList<OrphanFinder.ForeignKey>();
 		// genomic_align <-> genomic_align_block
-		result &= checkForOrphans(con, "genomic_align_block", "genomic_align_block_id", "genomic_align", "genomic_align_block_id");
-		result &= checkForOrphans(con, "genomic_align", "genomic_align_block_id", "genomic_align_block", "genomic_align_block_id");
+		keys.add(new OrphanFinder.ForeignKey("genomic_align_block", "genomic_align_block_id", "genomic_align", "genomic_align_block_id"));
+		keys.add(new OrphanFinder.ForeignKey("genomic_align", "genomic_align_block_id", "genomic_align_block", "genomic_align_block_id"));
 		// genomic_align -> genomic_align_tree
-		result &= checkOptionalRelation(con, "genomic_align", "node_id", "genomic_align_tree", "node_id");
+		keys.add(new OrphanFinder.ForeignKey("genomic_align", "node_id", "genomic_align_tree", "node_id", "node_id IS NOT NULL"));
+		for (OrphanFinder.ForeignKey key : keys) {
+			key.setMergeJoin(true);
+		}
+		result &= checkForOrphans(con, keys);
 		// genomic_align_tree internal relationships
 		result &= checkForOrphansSameTable(con, "genomic_align_tree", "parent_id", "node_id", true);
 		result &= checkForOrphansSameTable(con, "genomic_align_tree", "root_id", "node_id", false);
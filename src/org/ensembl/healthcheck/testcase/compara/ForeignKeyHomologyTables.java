@@ -19,11 +19,14 @@
 package org.ensembl.healthcheck.testcase.compara;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
+import org.ensembl.healthcheck.util.OrphanFinder;
 
 /**
  * An EnsEMBL Healthcheck test case that looks for broken foreign-key
@@ -42,10 +45,16 @@ public class ForeignKeyHomologyTables extends AbstractComparaTestCase {
 
 		boolean result = true;
 
-		result &= checkForOrphans(con, "homology_member", "homology_id", "homology", "homology_id");
-		result &= checkForOrphans(con, "homology", "homology_id", "homology_member", "homology_id");
-		result &= checkForOrphans(con, "homology_member", "seq_member_id", "seq_member", "seq_member_id");
-		result &= checkForOrphans(con, "homology_member", "gene_member_id", "gene_member", "gene_member_id");
+		// the server's joins of these tables with each other spill to disk
+		List<OrphanFinder.ForeignKey> keys = new ArrayList<OrphanFinder.ForeignKey>();
+		keys.add(new OrphanFinder.ForeignKey("homology_member", "homology_id", "homology", "homology_id"));
+		keys.add(new OrphanFinder.ForeignKey("homology", "homology_id", "homology_member", "homology_id"));
+		keys.add(new OrphanFinder.ForeignKey("homology_member", "seq_member_id", "seq_member", "seq_member_id"));
+		keys.add(new OrphanFinder.ForeignKey("homology_member", "gene_member_id", "gene_member", "gene_member_id"));
+		for (OrphanFinder.ForeignKey key : keys) {
+			key.setMergeJoin(true);
+		}
+		result &= checkForOrphans(con, keys);
 		result &= checkOptionalRelation(con, "homology", "gene_tree_node_id", "gene_tree_node", "node_id");
 		result &= checkOptionalRelation(con, "homology", "gene_tree_root_id", "gene_tree_root", "root_id");
 		result &= checkOptionalRelation(con, "homology", "species_tree_node_id", "species_tree_node", "node_id");
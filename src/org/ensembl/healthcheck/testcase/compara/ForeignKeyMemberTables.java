@@ -19,11 +19,14 @@
 package org.ensembl.healthcheck.testcase.compara;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.compara.AbstractComparaTestCase;
+import org.ensembl.healthcheck.util.OrphanFinder;
 
 /**
  * An EnsEMBL Healthcheck test case that looks for broken foreign-key
@@ -47,13 +50,21 @@ public class ForeignKeyMemberTables extends AbstractComparaTestCase {
 		result &= checkForOrphans(con, "gene_member", "taxon_id", "ncbi_taxa_name", "taxon_id");
 		result &= checkOptionalRelation(con, "gene_member", "dnafrag_id", "dnafrag", "dnafrag_id");
 		// seq_member table
-		result &= checkOptionalRelation(con, "seq_member", "gene_member_id", "gene_member", "gene_member_id");
 		result &= checkOptionalRelation(con, "seq_member", "genome_db_id", "genome_db", "genome_db_id");
 		result &= checkForOrphans(con, "seq_member", "taxon_id", "ncbi_taxa_node", "taxon_id");
 		result &= checkForOrphans(con, "seq_member", "taxon_id", "ncbi_taxa_name", "taxon_id");
 		result &= checkOptionalRelation(con, "seq_member", "dnafrag_id", "dnafrag", "dnafrag_id");
-		result &= checkOptionalRelation(con, "seq_member", "sequence_id", "sequence", "sequence_id");
-		result &= checkForOrphans(con, "other_member_sequence", "seq_member_id", "seq_member", "seq_member_id");
+		// the server's joins of these tables with each other spill to disk
+		List<OrphanFinder.ForeignKey> keys = new ArrayList<OrphanFinder.ForeignKey>();
+		keys.add(new OrphanFinder.ForeignKey("seq_member", "gene_member_id", "gene_member", "gene_member_id",
+				"gene_member_id IS NOT NULL"));
+		keys.add(new OrphanFinder.ForeignKey("seq_member", "sequence_id", "sequence", "sequence_id",
+				"sequence_id IS NOT NULL"));
+		keys.add(new OrphanFinder.ForeignKey("other_member_sequence", "seq_member_id", "seq_member", "seq_member_id"));
+		for (OrphanFinder.ForeignKey key : keys) {
+			key.setMergeJoin(true);
+		}
+		result &= checkForOrphans(con, keys);
 		return result;
 	}
 
@@ -21,6 +21,7 @@ import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -30,7 +31,10 @@ import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.testcase.AbstractTemplatedTestCase;
 import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.RowMapper;
 import org.ensembl.healthcheck.util.SqlTemplate;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
 import org.ensembl.healthcheck.util.SqlTemplate.ResultSetCallback;
 
 abstract public class AbstractControlledRows extends AbstractTemplatedTestCase {
@@ -68,6 +72,10 @@ abstract public class AbstractControlledRows extends AbstractTemplatedTestCase {
 	 * testDbre this checks, if this row also exists in the table 
 	 * masterTable of masterDbRe.
 	 * 
+	 * Paging with limit and offset gets slower with every page, use 
+	 * {@link #checkRowsInTable(String, String, DatabaseRegistryEntry, DatabaseRegistryEntry, String)}
+	 * to check a whole table.
+	 * 
 	 */
 	protected boolean checkRangeOfRowsInTable(
 			final String controlledTableToTest,
@@ -83,61 +91,325 @@ abstract public class AbstractControlledRows extends AbstractTemplatedTestCase {
 		final Connection masterconn = masterDbRe.getConnection();
 		
 		final SqlTemplate sqlTemplateTestDb        = getSqlTemplate(testDbConn);  
-		final SqlTemplate sqlTemplateComparaMaster = getSqlTemplate(masterconn);
 		
 		String fetchAllRowsFromTableSql = generateFetchAllRowsFromTableSql(testDbConn, controlledTableToTest, whereClause, limit, offset);
 
-		final EnsTestCase thisTest = this;
 		final List<String> testTableColumns = getColumnsOfTable(testDbConn, controlledTableToTest);
 		
-		boolean result = sqlTemplateTestDb.execute(
+		List<Object[]> rows = sqlTemplateTestDb.queryForList(
 			fetchAllRowsFromTableSql,
-			new ResultSetCallback<Boolean>() {
+			new RowMapper<Object[]>() {
+				@Override public Object[] mapRow(ResultSet rs, int position) throws SQLException {
+					return getRowValues(rs);
+				}
+			}
+		);
 
-				@Override public Boolean process(ResultSet rs) throws SQLException {
-					
-					rs.setFetchSize(batchSize);					
-							
-					boolean allRowsPresentInMasterDb = true;				
-					
-					while (rs.next() && !numReportedRowsExceedsMaximum()) {
-						
-						boolean currentRowPresentInMasterDb = isCurrentRowInMaster(
-							rs,
-							sqlTemplateComparaMaster, 
-							masterTable,
-							testTableColumns 
+		boolean result = checkRowsInMaster(testDbConn, masterconn, masterTable, testTableColumns, rows);
+		return result;
+	}
+
+	/**
+	 * For every row of the table controlledTableToTest in the database 
+	 * testDbre matching whereClause this checks, if this row also exists in
+	 * the table masterTable of masterDbRe.
+	 * 
+	 * Rows are fetched in batches of {@link #batchSize}, paging on the 
+	 * primary key of the table if it has a single column one, or else in one
+	 * streamed pass. The rows of a batch are looked up in the master database
+	 * {@link #lookupBatchSize} at a time, see 
+	 * {@link #countRowsInMaster(Connection, String, List, List)}.
+	 * 
+	 * @param whereClause
+	 *          Either empty or a where clause like " where genome_db_id = 1 ".
+	 */
+	protected boolean checkRowsInTable(
+			final String controlledTableToTest,
+			final String masterTable,
+			DatabaseRegistryEntry testDbre,
+			DatabaseRegistryEntry masterDbRe,
+			String whereClause
+		) {
+
+		final Connection testDbConn = testDbre.getConnection();
+		final Connection masterconn = masterDbRe.getConnection();
+
+		final List<String> testTableColumns = getColumnsOfTable(testDbConn, controlledTableToTest);
+		final String keyColumn = getPrimaryKeyColumn(testDbConn, controlledTableToTest);
+
+		if (keyColumn == null || !testTableColumns.contains(keyColumn)) {
+			return checkRowsInTableStreamed(controlledTableToTest, masterTable, testDbConn, masterconn, testTableColumns, whereClause);
+		}
+
+		final int keyIndex = testTableColumns.indexOf(keyColumn);
+		final SqlTemplate sqlTemplateTestDb = getSqlTemplate(testDbConn);
+
+		String keyJoiner = whereClause.trim().length() == 0 ? " where " : " and ";
+
+		boolean allRowsPresentInMasterDb = true;
+		Object lastKey = null;
+		int rowsChecked = 0;
+
+		while (!numReportedRowsExceedsMaximum()) {
+
+			String sql = "select " + asCommaSeparatedString(testTableColumns) + " from " + controlledTableToTest + " " + whereClause
+				+ (lastKey == null ? "" : keyJoiner + keyColumn + " > ?")
+				+ " order by " + keyColumn + " limit " + batchSize;
+
+			List<Object[]> rows = sqlTemplateTestDb.queryForList(
+				sql,
+				new RowMapper<Object[]>() {
+					@Override public Object[] mapRow(ResultSet rs, int position) throws SQLException {
+						return getRowValues(rs);
+					}
+				},
+				lastKey == null ? new Object[0] : new Object[] { lastKey }
+			);
+
+			if (rows.isEmpty()) {
+				break;
+			}
+
+			allRowsPresentInMasterDb &= checkRowsInMaster(testDbConn, masterconn, masterTable, testTableColumns, rows);
+
+			rowsChecked += rows.size();
+			getLogger().info("Checked " + rowsChecked + " rows of " + controlledTableToTest);
+
+			if (rows.size() < batchSize) {
+				break;
+			}
+			lastKey = rows.get(rows.size() - 1)[keyIndex];
+		}
+		return allRowsPresentInMasterDb;
+	}
+
+	/**
+	 * Like {@link #checkRowsInTable(String, String, DatabaseRegistryEntry, DatabaseRegistryEntry, String)},
+	 * for tables without a single column primary key to page on.
+	 */
+	protected boolean checkRowsInTableStreamed(
+			final String controlledTableToTest,
+			final String masterTable,
+			final Connection testDbConn,
+			final Connection masterconn,
+			final List<String> testTableColumns,
+			String whereClause
+		) {
+
+		String sql = "select " + asCommaSeparatedString(testTableColumns) + " from " + controlledTableToTest + " " + whereClause;
+
+		Statement stmt = null;
+
+		try {
+			// a streamed result would block queries on the same connection
+			stmt = testDbConn == masterconn ? testDbConn.createStatement() : DBUtils.createStreamingStatement(testDbConn);
+			ResultSet rs = stmt.executeQuery(sql);
+
+			boolean allRowsPresentInMasterDb = true;
+			List<Object[]> rows = new ArrayList<Object[]>(batchSize);
+
+			while (rs.next() && !numReportedRowsExceedsMaximum()) {
+
+				rows.add(getRowValues(rs));
+
+				if (rows.size() == batchSize) {
+					allRowsPresentInMasterDb &= checkRowsInMaster(testDbConn, masterconn, masterTable, testTableColumns, rows);
+					rows.clear();
+				}
+			}
+			if (!rows.isEmpty()) {
+				allRowsPresentInMasterDb &= checkRowsInMaster(testDbConn, masterconn, masterTable, testTableColumns, rows);
+			}
+			return allRowsPresentInMasterDb;
+
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not read rows of " + controlledTableToTest, e);
+		} finally {
+			DBUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * Checks, if rows of the tested table are present in the master database,
+	 * and reports the ones that aren't.
+	 * 
+	 * @param rows
+	 *          Values of the rows, in the order of columns.
+	 * @return true if all rows were found.
+	 */
+	protected boolean checkRowsInMaster(
+			final Connection testDbConn,
+			final Connection masterconn,
+			final String masterTableName,
+			final List<String> columns,
+			final List<Object[]> rows
+		) {
+
+		boolean allRowsPresentInMasterDb = true;
+
+		for (int start = 0; start < rows.size() && !numReportedRowsExceedsMaximum(); start += lookupBatchSize) {
+
+			List<Object[]> lookupRows = rows.subList(start, Math.min(start + lookupBatchSize, rows.size()));
+			int[] numberOfMatchingRowsInMaster = countRowsInMaster(masterconn, masterTableName, columns, lookupRows);
+
+			for (int i = 0; i < lookupRows.size() && !numReportedRowsExceedsMaximum(); i++) {
+
+				if (numberOfMatchingRowsInMaster[i] > 1) {
+
+					// The tested database has passed for this row, it is the
+					// master database that has the problem.
+					//
+					ReportManager.problem(this, masterconn,
+						"Found " + numberOfMatchingRowsInMaster[i] + " "
+						+ "matching rows in the master database!\n"
+						+ "The row searched for was:\n"
+						+ rowAsString(columns, lookupRows.get(i))
+					);
+				}
+
+				boolean currentRowPresentInMasterDb = numberOfMatchingRowsInMaster[i] > 0;
+
+				allRowsPresentInMasterDb &= currentRowPresentInMasterDb;
+
+				if (!currentRowPresentInMasterDb) {
+
+					numReportedRows++;
+
+					if (numReportedRowsExceedsMaximum()) {
+						ReportManager.problem(
+								this, 
+								testDbConn, 
+								"The maximum of " + getMaxReportedMismatches() + " reported rows has been reached, no further rows will be tested."
 						);
-						
-						allRowsPresentInMasterDb &= currentRowPresentInMasterDb;
-						
-						if (!currentRowPresentInMasterDb) {
-							
-							numReportedRows++;
-							
-							if (numReportedRowsExceedsMaximum()) {
-								ReportManager.problem(
-										thisTest, 
-										testDbConn, 
-										"The maximum of " + getMaxReportedMismatches() + " reported rows has been reached, no further rows will be tested."
-								);
-							} else {							
-								ReportManager.problem(
-									thisTest, 
-									testDbConn, 
-									"Row not found in master: " + resultSetRowAsString(rs)
-								);
-							}
-						}
-					}					
-					return allRowsPresentInMasterDb;
+					} else {
+						ReportManager.problem(
+							this, 
+							testDbConn, 
+							"Row not found in master: " + rowAsString(columns, lookupRows.get(i))
+						);
+					}
+				}
+			}
+		}
+		return allRowsPresentInMasterDb;
+	}
+
+	/**
+	 * 
+	 * Counts how often each of the given rows occurs in the master table, with
+	 * one query. The query has a select per row, each with the same where 
+	 * clause as {@link #isCurrentRowInMaster(ResultSet, SqlTemplate, String, List)}
+	 * uses, so each is a lookup on the master table's indexes.
+	 * 
+	 * @param rows
+	 *          Values of the rows, in the order of columns.
+	 * @return The number of matching rows in the master table for each row.
+	 */
+	protected int[] countRowsInMaster(
+			final Connection masterconn,
+			final String masterTableName,
+			final List<String> columns,
+			final List<Object[]> rows
+		) {
+
+		int numColumns = columns.size();
+		List<Object> params = new ArrayList<Object>(rows.size() * numColumns);
+		List<String> selects = new ArrayList<String>(rows.size());
+
+		for (int row = 0; row < rows.size(); row++) {
+
+			List<String> conditions = new ArrayList<String>(numColumns);
+
+			for (int col = 0; col < numColumns; col++) {
+
+				Object value = rows.get(row)[col];
+
+				// Tests for null values have to be done with "is null", "=?" 
+				// would always evaluate to false.
+				//
+				if (value == null) {
+					conditions.add(columns.get(col) + " is null");
+				} else {
+					conditions.add(columns.get(col) + "=?");
+					params.add(value);
+				}
+			}
+			selects.add("select " + row + " from " + masterTableName + " where " + joinListOfStrings(conditions, " and "));
+		}
+
+		String countMatchingRowsSql = joinListOfStrings(selects, " union all ");
+
+		final int[] numberOfMatchingRowsInMaster = new int[rows.size()];
+
+		getSqlTemplate(masterconn).execute(
+			countMatchingRowsSql,
+			new ResultSetCallback<Void>() {
+				@Override public Void process(ResultSet rsFromMaster) throws SQLException {
+					while (rsFromMaster.next()) {
+						numberOfMatchingRowsInMaster[rsFromMaster.getInt(1)]++;
+					}
+					return null;
 				}
 			},
-			// No bound parameters
-			//
-			new Object[0]
+			params.toArray()
 		);
-		return result;
+
+		return numberOfMatchingRowsInMaster;
+	}
+
+	/**
+	 * @return The values of the current row of rs.
+	 */
+	protected Object[] getRowValues(ResultSet rs) throws SQLException {
+
+		int numColumns = rs.getMetaData().getColumnCount();
+		Object[] values = new Object[numColumns];
+		for (int i = 0; i < numColumns; i++) {
+			values[i] = rs.getObject(i + 1);
+		}
+		return values;
+	}
+
+	/**
+	 * 
+	 * Returns the name of the primary key column of a table, or null if the 
+	 * table has no primary key or one made of several columns.
+	 * 
+	 * @param conn
+	 * @param table
+	 * @return name of column
+	 */
+	protected String getPrimaryKeyColumn(Connection conn, String table) {
+
+		List<String> keyColumns = new ArrayList<String>();
+		try {
+			ResultSet rs = conn.getMetaData().getPrimaryKeys(null, null, table);
+			while (rs.next()) {
+				keyColumns.add(rs.getString(4));
+			}
+			rs.close();
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not get primary key of " + table, e);
+		}
+		return keyColumns.size() == 1 ? keyColumns.get(0) : null;
+	}
+
+	/**
+	 * 
+	 * Like {@link #resultSetRowAsString(ResultSet)} for a row that has been
+	 * read already.
+	 * 
+	 * @param columns
+	 * @param values
+	 * @return row as string
+	 */
+	protected String rowAsString(List<String> columns, Object[] values) {
+
+		List<String> columnValuesStringy = new ArrayList<String>(values.length);
+		for (int i = 0; i < values.length; i++) {
+			columnValuesStringy.add(columns.get(i) + "=" + (values[i] == null ? "<null>" : values[i].toString()));
+		}
+		return asCommaSeparatedString(columnValuesStringy);
 	}
 
 	/**
@@ -398,6 +670,12 @@ abstract public class AbstractControlledRows extends AbstractTemplatedTestCase {
 	 */
 	protected final int batchSize = 1000;
 
+	/**
+	 * Maximum number of rows to be looked up in the master database with one
+	 * query.
+	 */
+	protected final int lookupBatchSize = 100;
+
 	protected boolean numReportedRowsExceedsMaximum() {
 		return numReportedRows>getMaxReportedMismatches();
 	}
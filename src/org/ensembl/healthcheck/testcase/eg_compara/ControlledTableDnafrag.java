@@ -82,9 +82,6 @@ public class ControlledTableDnafrag extends AbstractControlledRows {
 			DatabaseRegistryEntry masterDbRe,
 			String speciesName
 ) {
-		//checkRangeOfRowsInTable
-		
-		
 		final Logger logger = getLogger();
 		
 		final Connection testDbConn = testDbre.getConnection();
@@ -132,24 +129,13 @@ public class ControlledTableDnafrag extends AbstractControlledRows {
 			logger.log(Level.INFO, "Columns are ok.");
 		}
 		
-		int limit = batchSize;
-		boolean allRowsInMaster = true;
-		
-		for(int currentOffset = 0; currentOffset<rowCount && !numReportedRowsExceedsMaximum(); currentOffset+=limit) {
-			
-			logger.info("Checking rows " + currentOffset + " out of " + rowCount + " for species " + speciesName);
-			
-			allRowsInMaster &= checkRangeOfRowsInTable(
-				controlledTableToTest,
-				masterTable,
-				testDbre,
-				masterDbRe,
-				whereClause,
-				limit,
-				currentOffset
-			);			
-		}
-		return allRowsInMaster;
+		return checkRowsInTable(
+			controlledTableToTest,
+			masterTable,
+			testDbre,
+			masterDbRe,
+			whereClause
+		);
 	}
 	
 	protected boolean checkAllRowsInTableIfInDnaCompara(
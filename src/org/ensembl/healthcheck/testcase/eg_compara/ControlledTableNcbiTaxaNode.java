@@ -26,7 +26,7 @@ public class ControlledTableNcbiTaxaNode extends AbstractControlledTable {
 	}
 	
 	@Override protected ComparisonStrategy getComparisonStrategy() {
-		return ComparisonStrategy.Checksum;
+		return ComparisonStrategy.RowHash;
 	}
 
 }
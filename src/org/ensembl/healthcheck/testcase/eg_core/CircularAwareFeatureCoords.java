@@ -22,29 +22,39 @@ import java.sql.Connection;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.testcase.generic.FeatureCoords;
-import org.ensembl.healthcheck.util.DBUtils;
-import org.ensembl.healthcheck.util.TemplateBuilder;
+import org.ensembl.healthcheck.util.SharedTableScan;
 
 public class CircularAwareFeatureCoords extends FeatureCoords {
 
 	public final static String START_END_SQL = "SELECT COUNT(*) FROM $tableName$ " + "WHERE seq_region_start > seq_region_end and " + "seq_region_id not in "
 			+ "(select seq_region_id from seq_region_attrib " + "join attrib_type using (attrib_type_id) " + "where code = 'circular_seq' and value=1)";
 
+	public final static String START_END_PREDICATE = "seq_region_start > seq_region_end and seq_region_id not in "
+			+ "(select seq_region_id from seq_region_attrib join attrib_type using (attrib_type_id) "
+			+ "where code = 'circular_seq' and value=1)";
+
+	private static final String START_AFTER_END_LINEAR = "CircularAwareFeatureCoords.start_after_end";
+
 	public CircularAwareFeatureCoords() {
 	
 		super();
 		removeFromAllGroups();
 		
 	}
+
+	@Override
+	protected void registerPredicates(String tableName) {
+		SharedTableScan.register(tableName, START_BELOW_ONE, "seq_region_start < 1");
+		SharedTableScan.register(tableName, START_AFTER_END_LINEAR, START_END_PREDICATE);
+	}
 	
 	@Override
 	protected boolean checkStartEnd(DatabaseRegistryEntry dbre, String tableName) {
 		Connection con=dbre.getConnection(); 
-		String sql = TemplateBuilder.template(START_END_SQL, "tableName", tableName);
 		boolean result = true;
 		// ------------------------
 		logger.info("Checking " + tableName + " for start > end");
-		int rows = DBUtils.getRowCount(con, sql);
+		int rows = SharedTableScan.getCount(con, tableName, START_AFTER_END_LINEAR);
 		if (rows > 0) {
 			ReportManager.problem(this, con, rows + " rows in " + tableName + " have seq_region_start > seq_region_end");
 			result = false;
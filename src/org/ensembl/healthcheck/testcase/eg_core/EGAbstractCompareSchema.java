@@ -17,6 +17,10 @@
 
 package org.ensembl.healthcheck.testcase.eg_core;
 
+import static org.ensembl.healthcheck.testcase.generic.SchemaComparer.TestTypes.CHARSET;
+import static org.ensembl.healthcheck.testcase.generic.SchemaComparer.TestTypes.ENGINE;
+import static org.ensembl.healthcheck.testcase.generic.SchemaComparer.TestTypes.IGNORE_AUTOINCREMENT_OPTION;
+
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -25,6 +29,8 @@ import java.sql.Connection;
 import java.util.logging.Logger;
 import java.util.regex.Pattern;
 
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
 import org.ensembl.healthcheck.DatabaseRegistry;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.DatabaseServer;
@@ -33,6 +39,9 @@ import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.SystemCommand;
 import org.ensembl.healthcheck.TestRunner;
 import org.ensembl.healthcheck.testcase.MultiDatabaseTestCase;
+import org.ensembl.healthcheck.testcase.generic.AbstractCompareSchema;
+import org.ensembl.healthcheck.testcase.generic.SchemaComparer;
+import org.ensembl.healthcheck.testcase.generic.SchemaDdlParser;
 import org.ensembl.healthcheck.util.ActionAppendable;
 import org.ensembl.healthcheck.util.DBUtils;
 
@@ -52,6 +61,12 @@ import java.sql.Statement;
  * mysqldiff, which will suggest a patch file, if the schemas differ from one
  * another.
  * </p>
+ * <p>
+ * 	If {@link AbstractCompareSchema#FROM_FILE} is set, a configured schema
+ * definition file is read by {@link SchemaDdlParser} and compared with
+ * {@link SchemaComparer} instead, so no temporary database is created, but
+ * no patch file is written either.
+ * </p>
  */
 public abstract class EGAbstractCompareSchema extends MultiDatabaseTestCase {
 
@@ -76,6 +91,18 @@ public abstract class EGAbstractCompareSchema extends MultiDatabaseTestCase {
 	protected boolean doSchemaCompatibilityChecks = true;
 	protected boolean tolerant;
 
+	/**
+	 * Matches the schema_type and schema_version rows inserted into the meta
+	 * table by a schema definition file.
+	 */
+	private static final Pattern SCHEMA_META = Pattern.compile("'(schema_type|schema_version)'\\s*,\\s*'([^']*)'");
+
+	/**
+	 * The meta values of the schema definition file being compared with, used
+	 * in place of the master's meta table when there is no master connection.
+	 */
+	private Map<String, String> schemaFileMeta = new HashMap<String, String>();
+
 	public EGAbstractCompareSchema() {
 
 		tolerant = true;
@@ -148,6 +175,11 @@ public abstract class EGAbstractCompareSchema extends MultiDatabaseTestCase {
 
 	public boolean run(DatabaseRegistry dbr) {
 
+		String definitionFile = System.getProperty(getDefinitionFileKey());
+		if (definitionFile != null && "yes".equalsIgnoreCase(System.getProperty(AbstractCompareSchema.FROM_FILE))) {
+			return compareToSchemaFile(dbr, new File(definitionFile));
+		}
+
 		boolean result = true;
 		boolean somethingWasChecked = false;
 
@@ -336,6 +368,92 @@ public abstract class EGAbstractCompareSchema extends MultiDatabaseTestCase {
 		return result;
 	}
 
+	/**
+	 * <p>
+	 * 	Compares each database with the tables of a schema definition file,
+	 * parsed with the defaults of the database being checked. The meta rows
+	 * inserted by the file stand in for the master's meta table in the
+	 * compatibility checks.
+	 * </p>
+	 */
+	protected boolean compareToSchemaFile(DatabaseRegistry dbr, File definitionFile) {
+
+		logger.info("Will use schema definition from " + definitionFile.getAbsolutePath());
+
+		try {
+			schemaFileMeta = readSchemaMeta(FileUtils.readFileToString(definitionFile, "UTF-8"));
+		} catch (IOException e) {
+			ReportManager.problem(this, (Connection) null, "Can't read schema file " + definitionFile + ": " + e.getMessage());
+			return false;
+		}
+
+		SchemaComparer comparer = new SchemaComparer();
+		comparer.addTestTypes(IGNORE_AUTOINCREMENT_OPTION, CHARSET, ENGINE);
+
+		boolean result = true;
+
+		for (DatabaseRegistryEntry dbre : dbr.getAll()) {
+
+			if (!appliesToType(dbre.getType())) { continue; }
+
+			Connection checkCon = dbre.getConnection();
+
+			logger.info("Checking schema of " + dbre.getName());
+
+			if (
+				doSchemaCompatibilityChecks
+				&& !assertSchemaCompatibility(null, checkCon)
+			) {
+				result = false;
+				continue;
+			}
+
+			boolean schemasAreEqual;
+			try {
+				schemasAreEqual = comparer.compare(this, SchemaDdlParser.forFile(definitionFile, checkCon), dbre);
+			} catch (IOException e) {
+				ReportManager.problem(this, checkCon, "Can't read schema file " + definitionFile + ": " + e.getMessage());
+				return false;
+			}
+
+			if (schemasAreEqual) {
+				ReportManager.correct(this, checkCon, "The schema of " + dbre.getName() + " is correct.");
+			} else {
+				result = false;
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * @return The schema_type and schema_version values inserted into the meta
+	 *         table by ddl.
+	 */
+	static Map<String, String> readSchemaMeta(String ddl) {
+
+		Map<String, String> meta = new HashMap<String, String>();
+		Matcher m = SCHEMA_META.matcher(ddl);
+		while (m.find()) {
+			if (!meta.containsKey(m.group(1))) {
+				meta.put(m.group(1), m.group(2));
+			}
+		}
+		return meta;
+	}
+
+	/**
+	 * @return The value of key in the meta table of the master database, or
+	 *         in the schema definition file if masterCon is null.
+	 */
+	private String getMasterMetaValue(Connection masterCon, String key) {
+
+		if (masterCon == null) {
+			return StringUtils.defaultString(schemaFileMeta.get(key));
+		}
+		return DBUtils.getRowColumnValue(masterCon, "SELECT meta_value FROM meta WHERE meta_key='" + key + "'");
+	}
+
 	protected boolean assertSchemaTypesCompatible(
 			Connection masterCon,
 			Connection checkCon
@@ -343,7 +461,7 @@ public abstract class EGAbstractCompareSchema extends MultiDatabaseTestCase {
 
 		String sql = "SELECT meta_value FROM meta WHERE meta_key='schema_type'";
 		String schemaTypeCheck  = DBUtils.getRowColumnValue(checkCon, sql);
-		String schemaTypeMaster = DBUtils.getRowColumnValue(masterCon, sql);
+		String schemaTypeMaster = getMasterMetaValue(masterCon, "schema_type");
 
 		if (schemaTypeMaster.isEmpty()) {
 			logger.severe("Can't find schema_type in meta table of the master database!");
@@ -388,7 +506,7 @@ public abstract class EGAbstractCompareSchema extends MultiDatabaseTestCase {
 	) {
 		String sql = "SELECT meta_value FROM meta WHERE meta_key='schema_version'";
 		String schemaVersionCheck  = DBUtils.getRowColumnValue(checkCon, sql);
-		String schemaVersionMaster = DBUtils.getRowColumnValue(masterCon, sql);
+		String schemaVersionMaster = getMasterMetaValue(masterCon, "schema_version");
 
 		String checkShortName = DBUtils.getShortDatabaseName(checkCon);
 
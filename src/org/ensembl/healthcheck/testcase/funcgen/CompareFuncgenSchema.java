@@ -69,4 +69,9 @@ public class CompareFuncgenSchema extends AbstractCompareSchema {
 		return MASTER_FUNCGEN_SCHEMA;
 	}
 
+	@Override
+	protected String getSchemaFileKey() {
+		return "funcgen_schema.file";
+	}
+
 }
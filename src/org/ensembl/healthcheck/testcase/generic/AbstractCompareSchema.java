@@ -34,6 +34,9 @@ import static org.ensembl.healthcheck.testcase.generic.SchemaComparer.TestTypes.
 import static org.ensembl.healthcheck.testcase.generic.SchemaComparer.TestTypes.ENGINE;
 import static org.ensembl.healthcheck.testcase.generic.SchemaComparer.TestTypes.IGNORE_AUTOINCREMENT_OPTION;
 
+import java.io.File;
+import java.io.IOException;
+
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 
@@ -42,9 +45,24 @@ import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
  */
 public abstract class AbstractCompareSchema extends SingleDatabaseTestCase {
 
+	/**
+	 * System property which, if set to "yes", makes tests compare with the
+	 * schema definition file named by {@link #getSchemaFileKey()} rather than
+	 * with a master database.
+	 */
+	public static final String FROM_FILE = "compare_schema.from_file";
+
 	@Override
 	public boolean run(DatabaseRegistryEntry dbre) {
 		SchemaComparer comparer = getComparer(dbre);
+		String schemaFile = getSchemaFileKey() == null ? null : System.getProperty(getSchemaFileKey());
+		if (schemaFile != null && "yes".equalsIgnoreCase(System.getProperty(FROM_FILE))) {
+			try {
+				return comparer.compare(this, SchemaDdlParser.forFile(new File(schemaFile), dbre.getConnection()), dbre);
+			} catch (IOException e) {
+				throw new RuntimeException("Can't read schema file " + schemaFile, e);
+			}
+		}
 		String masterName = System.getProperty(getMasterSchemaKey());
 		DatabaseRegistryEntry masterDbre = getDatabaseRegistryEntryByPattern(masterName);
 		if (masterDbre==null) {
@@ -60,4 +78,12 @@ public abstract class AbstractCompareSchema extends SingleDatabaseTestCase {
 	}
 
 	protected abstract String getMasterSchemaKey();
+
+	/**
+	 * @return The property naming the schema definition file to compare with
+	 *         if {@link #FROM_FILE} is set, or null if there is none.
+	 */
+	protected String getSchemaFileKey() {
+		return null;
+	}
 }
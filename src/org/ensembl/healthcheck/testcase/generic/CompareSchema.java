@@ -61,4 +61,9 @@ public class CompareSchema extends AbstractCompareSchema {
 		return MASTER_SCHEMA;
 	}
 
+	@Override
+	protected String getSchemaFileKey() {
+		return "schema.file";
+	}
+
 }
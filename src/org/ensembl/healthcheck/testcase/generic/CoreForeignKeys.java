@@ -31,6 +31,8 @@
 package org.ensembl.healthcheck.testcase.generic;
 
 import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.DatabaseType;
@@ -38,6 +40,7 @@ import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.OrphanFinder;
 
 /**
  * An EnsEMBL Healthcheck test case that looks for broken foreign-key relationships.
@@ -162,14 +165,16 @@ public class CoreForeignKeys extends SingleDatabaseTestCase {
 		// Ensure that feature tables reference existing seq_regions
 		String[] featTabs = getCoreFeatureTables();
 
+		List<OrphanFinder.ForeignKey> featKeys = new ArrayList<OrphanFinder.ForeignKey>();
 		for (int i = 0; i < featTabs.length; i++) {
 			String featTab = featTabs[i];
 			// skip large tables as this test takes an inordinately long time
 			// if (featTab.equals("protein_align_feature") || featTab.equals("dna_align_feature") || featTab.equals("repeat_feature")) {
 			// continue;
 			// }
-			result &= checkForOrphans(con, featTab, "seq_region_id", "seq_region", "seq_region_id", true);
+			featKeys.add(new OrphanFinder.ForeignKey(featTab, "seq_region_id", "seq_region", "seq_region_id"));
 		}
+		result &= checkForOrphans(con, featKeys);
 
 		result &= checkForOrphans(con, "analysis_description", "analysis_id", "analysis", "analysis_id", true);
 
@@ -230,6 +235,7 @@ public class CoreForeignKeys extends SingleDatabaseTestCase {
 		// Check tables which reference the analysis table
 		String[] analysisTabs = getCoreTablesWithAnalysisID();
 
+		List<OrphanFinder.ForeignKey> analysisKeys = new ArrayList<OrphanFinder.ForeignKey>();
 		for(String analysisTab: analysisTabs) {
 			// skip large tables as this test takes an inordinately long time
 			if (analysisTab.equals("protein_align_feature") || analysisTab.equals("dna_align_feature") || analysisTab.equals("repeat_feature")) {
@@ -241,11 +247,16 @@ public class CoreForeignKeys extends SingleDatabaseTestCase {
 			  constraint += " and "+analysisTab+".analysis_id <> 0";
 			}
 
-			if (countOrphansWithConstraint(con, analysisTab, "analysis_id", "analysis", "analysis_id", constraint) > 0) {
-				ReportManager.problem(this, con, "FAILED " + analysisTab + " -> analysis using FK analysis_id relationships");
+			analysisKeys.add(new OrphanFinder.ForeignKey(analysisTab, "analysis_id", "analysis", "analysis_id", constraint));
+		}
+
+		// all checked with one query
+		int[] analysisOrphans = countOrphans(con, analysisKeys);
+		for (int i = 0; i < analysisOrphans.length; i++) {
+			if (analysisOrphans[i] > 0) {
+				ReportManager.problem(this, con, "FAILED " + analysisKeys.get(i).getTable1() + " -> analysis using FK analysis_id relationships");
 				result = false;
 			}
-
 		}
 
 		// end new tests
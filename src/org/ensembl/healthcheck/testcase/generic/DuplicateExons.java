@@ -20,13 +20,14 @@ package org.ensembl.healthcheck.testcase.generic;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.SQLException;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.DatabaseType;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.ensembl.healthcheck.util.SqlTemplate.RowCallback;
 
 /**
  * An EnsEMBL Healthcheck test case which checks all exon of a gene are on the same strand and in the correct order in their
@@ -75,66 +76,15 @@ public class DuplicateExons extends SingleDatabaseTestCase {
 				+ " ORDER BY chromosome_id, gene_id, strand, start, end, phase, end_phase";
 
 		Connection con = dbre.getConnection();
+		DuplicateFinder finder = new DuplicateFinder(con);
 		try {
 
-			Statement stmt = con.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-			stmt.setFetchSize(1000);
-			ResultSet rs = stmt.executeQuery(sql);
-
-			int exonStart, exonEnd, exonPhase, exonChromosome, exonID, exonEndPhase, exonStrand, exonGeneId;
-			int lastExonStart = -1;
-			int lastExonEnd = -1;
-			int lastExonPhase = -1;
-			int lastExonChromosome = -1;
-			int lastExonEndPhase = -1;
-			int lastExonStrand = -1;
-			int lastExonID = -1;
-			int lastExonGeneId = -1;
-			int duplicateExon = 0;
-
-			boolean first = true;
-
-			while (rs.next()) {
-
-				// load the vars
-				exonID = rs.getInt("exon_id");
-				exonPhase = rs.getInt("phase");
-				exonStart = rs.getInt("start");
-				exonEnd = rs.getInt("end");
-				exonChromosome = rs.getInt("chromosome_id");
-				exonEndPhase = rs.getInt("end_phase");
-				exonStrand = rs.getInt("strand");
-				exonGeneId = rs.getInt("gene_id");
-
-				if (!first) {
-					if (lastExonChromosome == exonChromosome && lastExonStart == exonStart && lastExonEnd == exonEnd && lastExonPhase == exonPhase && lastExonStrand == exonStrand
-							&& lastExonEndPhase == exonEndPhase && lastExonGeneId != exonGeneId && lastExonID != exonID) {
-						duplicateExon++;
-						if (duplicateExon <= MAX_WARNINGS) {
-							ReportManager.warning(this, con, "Exon " + exonID + " in gene " + exonGeneId + " is a duplicate of exon " + lastExonID);
-						}
-					}
-				} else {
-					first = false;
-				}
-
-				lastExonStart = exonStart;
-				lastExonEnd = exonEnd;
-				lastExonChromosome = exonChromosome;
-				lastExonPhase = exonPhase;
-				lastExonEndPhase = exonEndPhase;
-				lastExonStrand = exonStrand;
-				lastExonID = exonID;
-				lastExonGeneId = exonGeneId;
+			getSqlTemplate(con).forEachRow(sql, finder);
 
-			} // while rs
-
-			if (duplicateExon > 0) {
-				ReportManager.problem(this, con, "Has at least " + duplicateExon + " duplicated exons.");
+			if (finder.duplicateExon > 0) {
+				ReportManager.problem(this, con, "Has at least " + finder.duplicateExon + " duplicated exons.");
 				result = false;
 			}
-			rs.close();
-			stmt.close();
 
 		} catch (Exception e) {
 			result = false;
@@ -149,4 +99,65 @@ public class DuplicateExons extends SingleDatabaseTestCase {
 
 	}
 
+	/**
+	 * Compares each exon with the one before it in the sorted rows.
+	 */
+	private class DuplicateFinder implements RowCallback {
+
+		private final Connection con;
+
+		int duplicateExon = 0;
+
+		private int lastExonStart = -1;
+		private int lastExonEnd = -1;
+		private int lastExonPhase = -1;
+		private int lastExonChromosome = -1;
+		private int lastExonEndPhase = -1;
+		private int lastExonStrand = -1;
+		private int lastExonID = -1;
+		private int lastExonGeneId = -1;
+
+		private boolean first = true;
+
+		DuplicateFinder(Connection con) {
+			this.con = con;
+		}
+
+		public boolean process(ResultSet rs) throws SQLException {
+
+			// load the vars
+			int exonID = rs.getInt("exon_id");
+			int exonPhase = rs.getInt("phase");
+			int exonStart = rs.getInt("start");
+			int exonEnd = rs.getInt("end");
+			int exonChromosome = rs.getInt("chromosome_id");
+			int exonEndPhase = rs.getInt("end_phase");
+			int exonStrand = rs.getInt("strand");
+			int exonGeneId = rs.getInt("gene_id");
+
+			if (!first) {
+				if (lastExonChromosome == exonChromosome && lastExonStart == exonStart && lastExonEnd == exonEnd && lastExonPhase == exonPhase && lastExonStrand == exonStrand
+						&& lastExonEndPhase == exonEndPhase && lastExonGeneId != exonGeneId && lastExonID != exonID) {
+					duplicateExon++;
+					if (duplicateExon <= MAX_WARNINGS) {
+						ReportManager.warning(DuplicateExons.this, con, "Exon " + exonID + " in gene " + exonGeneId + " is a duplicate of exon " + lastExonID);
+					}
+				}
+			} else {
+				first = false;
+			}
+
+			lastExonStart = exonStart;
+			lastExonEnd = exonEnd;
+			lastExonChromosome = exonChromosome;
+			lastExonPhase = exonPhase;
+			lastExonEndPhase = exonEndPhase;
+			lastExonStrand = exonStrand;
+			lastExonID = exonID;
+			lastExonGeneId = exonGeneId;
+
+			return true;
+		}
+	}
+
 } // DuplicateExons
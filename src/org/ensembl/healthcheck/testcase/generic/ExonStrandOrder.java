@@ -19,14 +19,14 @@ package org.ensembl.healthcheck.testcase.generic;
 
 import java.sql.Connection;
 import java.sql.ResultSet;
-import java.sql.Statement;
+import java.sql.SQLException;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.DatabaseType;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
-import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.SqlTemplate.RowCallback;
 
 /**
  * An EnsEMBL Healthcheck test case which checks all exon of a gene are on the
@@ -69,10 +69,6 @@ public class ExonStrandOrder extends SingleDatabaseTestCase {
 
 	public boolean run(DatabaseRegistryEntry dbre) {
 
-		boolean result = true;
-
-		int singleExonTranscripts = 0, transcriptCount = 0;
-
 		String sql = "SELECT g.gene_id, g.seq_region_start, g.seq_region_end, g.seq_region_strand, tr.transcript_id, tr.seq_region_start, tr.seq_region_end, tr.seq_region_strand,e.exon_id, e.seq_region_start, e.seq_region_end, e.seq_region_strand, et.rank,  g.stable_id, tr.stable_id "
 				+ "FROM   gene g, transcript tr, exon_transcript et, exon e " + "WHERE  e.exon_id = et.exon_id "
 				+ "AND    et.transcript_id = tr.transcript_id " + "AND    tr.gene_id = g.gene_id "
@@ -81,139 +77,148 @@ public class ExonStrandOrder extends SingleDatabaseTestCase {
 				+ "ORDER BY et.transcript_id, et.rank";
 		System.out.println(sql);
 		Connection con = dbre.getConnection();
-		Statement st = null;
-		ResultSet rs = null;
+		ExonChecker checker = new ExonChecker(con);
 		try {
-			st = con.createStatement(java.sql.ResultSet.TYPE_FORWARD_ONLY, java.sql.ResultSet.CONCUR_READ_ONLY);
-			st.setFetchSize(Integer.MIN_VALUE);
-			rs = st.executeQuery(sql);
-
-			long lastTranscriptID = -1;
-			long lastExonStart = -1;
-			long lastExonEnd = -1;
-			long lastExonStrand = -2;
-			long lastExonID = -1;
-			int lastExonRank = 0;
-
-			// ResultSet is ordered by transcript ID and rank, so we can loop
-			// through
-			// and look at the grouped exons for each transcript
-			while (rs.next()) {
-
-				long geneID = rs.getLong(1);
-				// long geneStart = rs.getLong(2);
-				// long geneEnd = rs.getLong(3);
-				// int geneStrand = rs.getInt(4);
-				long transcriptID = rs.getLong(5);
-				long transcriptStart = rs.getLong(6);
-				long transcriptEnd = rs.getLong(7);
-				int transcriptStrand = rs.getInt(8);
-				long exonID = rs.getLong(9);
-				long exonStart = rs.getLong(10);
-				long exonEnd = rs.getLong(11);
-				int exonStrand = rs.getInt(12);
-				int exonRank = rs.getInt(13);
-				String geneStableID = rs.getString(14);
-				String transcriptStableID = rs.getString(15);
-
-				if (transcriptID == lastTranscriptID) {
-
-					if (lastExonStrand < -1) {
-						// first exon in "new" transcript
-						lastExonStrand = exonStrand;
-						lastExonStart = exonStart;
-						lastExonEnd = exonEnd;
-						lastExonID = exonID;
-						lastExonRank = exonRank;
-
-					} else {
-
-						// check all exons in a transcript have the same strand
-						if (exonStrand != lastExonStrand) {
-							ReportManager.problem(this, con,
-									"Exons in transcript " + transcriptID + " have different strands");
-							result = false;
-						}
+			// the rows are streamed, rather than all held in memory
+			getSqlTemplate(con).forEachRow(sql, checker);
 
-						// check all exons have the same strand as their
-						// transcript
-						if (exonStrand != transcriptStrand) {
-							ReportManager.problem(this, con, "Exon " + exonID + " in transcript " + transcriptID
-									+ " has strand " + exonStrand + " but transcript's strand is " + transcriptStrand);
-							result = false;
-						}
+			if ((double) checker.singleExonTranscripts / checker.transcriptCount > 0.2) {
+				ReportManager.warning(this, con,
+						"High single exon transcript count. (" + checker.singleExonTranscripts + "/" + checker.transcriptCount + ")");
+			}
+		} catch (Exception e) {
+			e.printStackTrace();
+		}
+		ReportManager.correct(this, con, "Exon strand order seems OK");
 
-						// check that exon start/ends make sense
-						if (exonStrand == 1) {
-							if (lastExonEnd > exonStart) {
-								ReportManager.problem(this, con,
-										"Exons " + lastExonID + " (end " + lastExonEnd + ") and " + exonID + " (start "
-												+ exonStart + ") in transcript " + transcriptID
-												+ " appear to overlap (positive strand)");
-								result = false;
-							}
-						} else if (exonStrand == -1) {
-							if (lastExonStart < exonEnd) {
-								ReportManager.problem(this, con,
-										"Exons " + lastExonID + " (start " + lastExonStart + ") and " + exonID
-												+ " (end " + exonEnd + ") in transcript " + transcriptID
-												+ " appear to overlap (negative strand)");
-								result = false;
-							}
-						}
+		return checker.result;
 
-						// check for rank jumping
-						if (exonRank - lastExonRank > 1) {
-							ReportManager.problem(this, con, "Exon rank jump in exon " + exonID + " transcript: "
-									+ transcriptID + " gene: " + geneID);
-							result = false;
-						}
+	}
 
-						// get ready for next exon
-						lastExonStrand = exonStrand;
-						lastExonStrand = exonStrand;
-						lastExonStart = exonStart;
-						lastExonEnd = exonEnd;
-						lastExonID = exonID;
-						lastExonRank = exonRank;
+	/**
+	 * Checks the exons of each transcript in turn.
+	 */
+	private class ExonChecker implements RowCallback {
+
+		private final Connection con;
 
-					} // if first exon
+		boolean result = true;
+
+		int singleExonTranscripts = 0, transcriptCount = 0;
+
+		private long lastTranscriptID = -1;
+		private long lastExonStart = -1;
+		private long lastExonEnd = -1;
+		private long lastExonStrand = -2;
+		private long lastExonID = -1;
+		private int lastExonRank = 0;
+
+		ExonChecker(Connection con) {
+			this.con = con;
+		}
+
+		// ResultSet is ordered by transcript ID and rank, so we can loop
+		// through
+		// and look at the grouped exons for each transcript
+		public boolean process(ResultSet rs) throws SQLException {
+
+			long geneID = rs.getLong(1);
+			// long geneStart = rs.getLong(2);
+			// long geneEnd = rs.getLong(3);
+			// int geneStrand = rs.getInt(4);
+			long transcriptID = rs.getLong(5);
+			// long transcriptStart = rs.getLong(6);
+			// long transcriptEnd = rs.getLong(7);
+			int transcriptStrand = rs.getInt(8);
+			long exonID = rs.getLong(9);
+			long exonStart = rs.getLong(10);
+			long exonEnd = rs.getLong(11);
+			int exonStrand = rs.getInt(12);
+			int exonRank = rs.getInt(13);
+
+			if (transcriptID == lastTranscriptID) {
+
+				if (lastExonStrand < -1) {
+					// first exon in "new" transcript
+					lastExonStrand = exonStrand;
+					lastExonStart = exonStart;
+					lastExonEnd = exonEnd;
+					lastExonID = exonID;
+					lastExonRank = exonRank;
 
 				} else {
 
-					// check for single-exon transcripts (highest rank = 1)
-					if (lastExonRank == 1) {
-						singleExonTranscripts++;
+					// check all exons in a transcript have the same strand
+					if (exonStrand != lastExonStrand) {
+						ReportManager.problem(ExonStrandOrder.this, con,
+								"Exons in transcript " + transcriptID + " have different strands");
+						result = false;
+					}
+
+					// check all exons have the same strand as their
+					// transcript
+					if (exonStrand != transcriptStrand) {
+						ReportManager.problem(ExonStrandOrder.this, con, "Exon " + exonID + " in transcript " + transcriptID
+								+ " has strand " + exonStrand + " but transcript's strand is " + transcriptStrand);
+						result = false;
 					}
 
-					// next
-					lastTranscriptID = transcriptID;
-					lastExonStrand = -2;
-					lastExonStart = -1;
-					lastExonEnd = -1;
-					lastExonID = -1;
-					lastExonRank = 0;
+					// check that exon start/ends make sense
+					if (exonStrand == 1) {
+						if (lastExonEnd > exonStart) {
+							ReportManager.problem(ExonStrandOrder.this, con,
+									"Exons " + lastExonID + " (end " + lastExonEnd + ") and " + exonID + " (start "
+											+ exonStart + ") in transcript " + transcriptID
+											+ " appear to overlap (positive strand)");
+							result = false;
+						}
+					} else if (exonStrand == -1) {
+						if (lastExonStart < exonEnd) {
+							ReportManager.problem(ExonStrandOrder.this, con,
+									"Exons " + lastExonID + " (start " + lastExonStart + ") and " + exonID
+											+ " (end " + exonEnd + ") in transcript " + transcriptID
+											+ " appear to overlap (negative strand)");
+							result = false;
+						}
+					}
 
-					transcriptCount++;
+					// check for rank jumping
+					if (exonRank - lastExonRank > 1) {
+						ReportManager.problem(ExonStrandOrder.this, con, "Exon rank jump in exon " + exonID + " transcript: "
+								+ transcriptID + " gene: " + geneID);
+						result = false;
+					}
 
+					// get ready for next exon
+					lastExonStrand = exonStrand;
+					lastExonStart = exonStart;
+					lastExonEnd = exonEnd;
+					lastExonID = exonID;
+					lastExonRank = exonRank;
+
+				} // if first exon
+
+			} else {
+
+				// check for single-exon transcripts (highest rank = 1)
+				if (lastExonRank == 1) {
+					singleExonTranscripts++;
 				}
 
-			} // while rs
+				// next
+				lastTranscriptID = transcriptID;
+				lastExonStrand = -2;
+				lastExonStart = -1;
+				lastExonEnd = -1;
+				lastExonID = -1;
+				lastExonRank = 0;
 
-			if ((double) singleExonTranscripts / transcriptCount > 0.2) {
-				ReportManager.warning(this, con,
-						"High single exon transcript count. (" + singleExonTranscripts + "/" + transcriptCount + ")");
-			}
-		} catch (Exception e) {
-			e.printStackTrace();
-		} finally {
-			DBUtils.closeQuietly(rs);
-			DBUtils.closeQuietly(st);
-		}
-		ReportManager.correct(this, con, "Exon strand order seems OK");
+				transcriptCount++;
 
-		return result;
+			}
 
+			return true;
+		}
 	}
 
 } // ExonStrandOrder
@@ -30,6 +30,7 @@ import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.SharedTableScan;
 import org.ensembl.healthcheck.util.SqlTemplate;
 import org.ensembl.healthcheck.util.Utils;
 import org.ensembl.healthcheck.util.RowMapper;
@@ -54,6 +55,21 @@ public class FeatureCoords extends SingleDatabaseTestCase {
 		setTeamResponsible(Team.GENEBUILD);
 	}
 
+	protected static final String START_BELOW_ONE = "FeatureCoords.start_below_one";
+
+	protected static final String START_AFTER_END = "FeatureCoords.start_after_end";
+
+	/**
+	 * Register the predicates counted by checkStart and checkStartEnd, so both
+	 * checks are answered by one scan of the table. This is done when the test
+	 * runs rather than when it is created, so that tests which are not part of
+	 * the run don't add their predicates to the scan.
+	 */
+	protected void registerPredicates(String tableName) {
+		SharedTableScan.register(tableName, START_BELOW_ONE, "seq_region_start < 1");
+		SharedTableScan.register(tableName, START_AFTER_END, "seq_region_start > seq_region_end");
+	}
+
 	public Map<String,Integer> seq_regions;
 	
 	/**
@@ -74,6 +90,10 @@ public class FeatureCoords extends SingleDatabaseTestCase {
         DefaultMapRowMapper<String, Integer> mapper = new DefaultMapRowMapper<String, Integer>(String.class, Integer.class);
                              
         seq_regions = t.queryForMap(sql,mapper);
+
+		for (String tableName : featureTables) {
+			registerPredicates(tableName);
+		}
         
 		for (int tableIndex = 0; tableIndex < featureTables.length; tableIndex++) {
 
@@ -119,8 +139,7 @@ public class FeatureCoords extends SingleDatabaseTestCase {
 
 
       protected boolean checkStart(DatabaseRegistryEntry dbre, String tableName) {
-        String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE seq_region_start < 1";
-        int rows = DBUtils.getRowCount(dbre.getConnection(), sql);
+        int rows = SharedTableScan.getCount(dbre.getConnection(), tableName, START_BELOW_ONE);
         if (rows > 0) {
                 ReportManager.problem(this, dbre.getConnection(), rows + " rows in " + tableName + " have seq_region_start < 1");
                 return false;
@@ -138,8 +157,7 @@ public class FeatureCoords extends SingleDatabaseTestCase {
 	 * @return true if start is after end
 	 */
 	protected boolean checkStartEnd(DatabaseRegistryEntry dbre, String tableName) {
-		String sql = "SELECT COUNT(*) FROM " + tableName + " WHERE seq_region_start > seq_region_end";
-		int rows = DBUtils.getRowCount(dbre.getConnection(), sql);;
+		int rows = SharedTableScan.getCount(dbre.getConnection(), tableName, START_AFTER_END);
 		if (rows > 0) {
 			ReportManager.problem(this, dbre.getConnection(), rows + " rows in " + tableName + " have seq_region_start > seq_region_end");
 			return false;
@@ -33,7 +33,6 @@ package org.ensembl.healthcheck.testcase.generic;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.sql.Statement;
 import java.util.HashSet;
 import java.util.Set;
 import java.util.Arrays;
@@ -51,6 +50,7 @@ import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.DBUtils;
 import org.ensembl.healthcheck.util.RowMapper;
 import org.ensembl.healthcheck.util.SqlTemplate;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
 import org.ensembl.healthcheck.util.Utils;
 
 /**
@@ -634,23 +634,13 @@ public class MetaValues extends SingleDatabaseTestCase {
 				// compare assembly_exception tables (patches only) from each database
 				try {
 
-					Statement previousStmt = previousCon.createStatement();
-					Statement currentStmt = con.createStatement();
-
 					String sql = "SELECT * FROM assembly_exception WHERE exc_type LIKE ('PATCH_%') ORDER BY assembly_exception_id";
-					ResultSet previousRS = previousStmt.executeQuery(sql);
-					ResultSet currentRS = currentStmt.executeQuery(sql);
 
-					boolean assExSame = DBUtils.compareResultSets(currentRS, previousRS, this, "", false, false, "assembly_exception", false);
+					boolean assExSame = DBUtils.compareQueryResults(con, sql, previousCon, sql, this, "", false, false, "assembly_exception", null, false);
 
-					currentRS.close();
-					previousRS.close();
-					currentStmt.close();
-					previousStmt.close();
-					
 					assemblyExceptionTableChanged = !assExSame;
 
-				} catch (SQLException e) {
+				} catch (SqlUncheckedException e) {
 					e.printStackTrace();
 				}			
 				
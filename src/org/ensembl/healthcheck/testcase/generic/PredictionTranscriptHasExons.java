@@ -40,6 +40,7 @@ public class PredictionTranscriptHasExons extends SingleDatabaseTestCase {
     setDescription("Verify that all predicted transcripts have predicted exons.");
     setTeamResponsible(Team.GENEBUILD);
     setSecondTeamResponsible(Team.RELEASE_COORDINATOR);
+    setTablesRead("prediction_transcript", "prediction_exon");
   }  
 
 
@@ -19,17 +19,12 @@ package org.ensembl.healthcheck.testcase.generic;
 
 import static org.ensembl.healthcheck.util.CollectionUtils.createArrayList;
 
+import java.io.File;
 import java.sql.Connection;
-import java.sql.ResultSet;
 import java.sql.SQLException;
-import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.HashMap;
-import java.util.HashSet; 
-import java.util.LinkedHashMap;
+import java.util.HashSet;
 import java.util.LinkedHashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.logging.Logger;
 import java.util.regex.Matcher;
@@ -39,163 +34,26 @@ import org.apache.commons.lang.StringUtils;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.testcase.EnsTestCase;
-import org.ensembl.healthcheck.util.ConnectionBasedSqlTemplateImpl;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Column;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Index;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Table;
 import org.ensembl.healthcheck.util.DBUtils;
-import org.ensembl.healthcheck.util.DefaultObjectRowMapper;
-import org.ensembl.healthcheck.util.PoorLruMap;
-import org.ensembl.healthcheck.util.RowMapper;
 
 /**
- * Abstraction of code needed by compare schema HCs
+ * Abstraction of code needed by compare schema HCs. Both schemas are read
+ * into {@link SchemaSnapshot}s first; the snapshot of the master is kept for
+ * the rest of the run, and in the directory named by the system property
+ * {@value #SNAPSHOT_DIR} if it is set.
  * 
  * @author ayates
  */
 public class SchemaComparer {
 
 	/**
-	 * Internal class used to represent a column
+	 * System property naming the directory master schema snapshots are kept
+	 * in between runs.
 	 */
-	private static class Column {
-
-		private String name;
-		private int dataType;
-		private int columnSize;
-		private int decimalDigits;
-		private boolean nullable;
-		private String columnDefault;
-		private int charOctetLength;
-		private boolean autoIncrement;
-
-		public Column(String name, int dataType, int columnSize, int decimalDigits, boolean nullable,
-				String columnDefault, int charOctetLength, boolean autoIncrement) {
-			super();
-			this.name = name;
-			this.dataType = dataType;
-			this.columnSize = columnSize;
-			this.decimalDigits = decimalDigits;
-			this.nullable = nullable;
-			this.columnDefault = columnDefault;
-			this.charOctetLength = charOctetLength;
-			this.autoIncrement = autoIncrement;
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			Column other = (Column) obj;
-			if (autoIncrement != other.autoIncrement)
-				return false;
-			if (charOctetLength != other.charOctetLength)
-				return false;
-			if (columnDefault == null) {
-				if (other.columnDefault != null)
-					return false;
-			} else if (!columnDefault.equals(other.columnDefault))
-				return false;
-			if (columnSize != other.columnSize)
-				return false;
-			if (dataType != other.dataType)
-				return false;
-			if (decimalDigits != other.decimalDigits)
-				return false;
-			if (name == null) {
-				if (other.name != null)
-					return false;
-			} else if (!name.equals(other.name))
-				return false;
-			if (nullable != other.nullable)
-				return false;
-			return true;
-		}
-
-		public String getName() {
-			return name;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + (autoIncrement ? 1231 : 1237);
-			result = prime * result + charOctetLength;
-			result = prime * result + ((columnDefault == null) ? 0 : columnDefault.hashCode());
-			result = prime * result + columnSize;
-			result = prime * result + dataType;
-			result = prime * result + decimalDigits;
-			result = prime * result + ((name == null) ? 0 : name.hashCode());
-			result = prime * result + (nullable ? 1231 : 1237);
-			return result;
-		}
-
-		@Override
-		public String toString() {
-			return getName();
-		}
-	}
-
-	/**
-	 * Represents an Index with an equality and hashcode method which does not take
-	 * into account name which is why a List would not suffice
-	 */
-	private static class Index {
-
-		private String name;
-		private List<String> columns = new ArrayList<String>();
-		private boolean nonUnique;
-		private int type;
-
-		public Index(String name, boolean nonUnique, int type) {
-			super();
-			this.name = name;
-			this.nonUnique = nonUnique;
-			this.type = type;
-		}
-
-		public void addColumn(String col) {
-			columns.add(col);
-		}
-
-		@Override
-		public boolean equals(Object obj) {
-			if (this == obj)
-				return true;
-			if (obj == null)
-				return false;
-			if (getClass() != obj.getClass())
-				return false;
-			Index other = (Index) obj;
-			if (columns == null) {
-				if (other.columns != null)
-					return false;
-			} else if (!columns.equals(other.columns))
-				return false;
-			if (nonUnique != other.nonUnique)
-				return false;
-			if (type != other.type)
-				return false;
-			return true;
-		}
-
-		@Override
-		public int hashCode() {
-			final int prime = 31;
-			int result = 1;
-			result = prime * result + ((columns == null) ? 0 : columns.hashCode());
-			result = prime * result + (nonUnique ? 1231 : 1237);
-			result = prime * result + type;
-			return result;
-		}
-
-		@Override
-		public String toString() {
-			return name + "=[" + StringUtils.join(columns, ',') + "]";
-		}
-	}
+	public static final String SNAPSHOT_DIR = "compare_schema.snapshot_dir";
 
 	/**
 	 * An enum to contain the types of tests we allow a compare schema to perform.
@@ -205,7 +63,6 @@ public class SchemaComparer {
 	public static enum TestTypes {
 		IGNORE_AUTOINCREMENT_OPTION, AVG_ROW_LENGTH, MAX_ROWS, CHARSET, ENGINE, CHECK_UNEQUAL, IGNORE_BACKUP
 	}
-	private static final int MAX_CACHE_SIZE = 3;
 	/* comparison flags */
 	private static final int COMPARE_LEFT = 0;
 
@@ -213,6 +70,10 @@ public class SchemaComparer {
 
 	private static final int COMPARE_BOTH = 2;
 
+	private static final Pattern AVG_ROW_LENGTH_OPTION = Pattern.compile("avg_row_length=(\\d+)");
+
+	private static final Pattern MAX_ROWS_OPTION = Pattern.compile("max_rows=(\\d+)");
+
 	protected Logger logger = Logger.getLogger(this.getClass().getSimpleName());
 
 	private final Set<TestTypes> testTypes = new HashSet<>();
@@ -221,18 +82,13 @@ public class SchemaComparer {
 
 	private Set<String> requiredTables = new HashSet<>();
 
+	private File snapshotDirectory = System.getProperty(SNAPSHOT_DIR) == null ? null : new File(
+			System.getProperty(SNAPSHOT_DIR));
+
 	public Set<String> getRequiredTables() {
 		return requiredTables;
 	}
 
-	private Map<String, Set<String>> views = new PoorLruMap<String, Set<String>>(MAX_CACHE_SIZE);
-	
-
-	private Map<String, Map<String, Set<Column>>> columns = new PoorLruMap<String, Map<String, Set<Column>>>(
-			MAX_CACHE_SIZE);
-	private Map<String, String> createTables = new PoorLruMap<String, String>(MAX_CACHE_SIZE);
-	private Map<String, Set<String>> tables = new PoorLruMap<String, Set<String>>(MAX_CACHE_SIZE);
-
 	/**
 	 * @param tables additional tables that may be in the schema but not the master
 	 */
@@ -255,6 +111,15 @@ public class SchemaComparer {
 		}
 	}
 
+	/**
+	 * @param directory
+	 *            Where snapshots of master schemas are kept between runs, or
+	 *            null to read the master once per run.
+	 */
+	public void setSnapshotDirectory(File directory) {
+		this.snapshotDirectory = directory;
+	}
+
 	private boolean applyTest(TestTypes testType) {
 		return getTestTypes().contains(testType);
 	}
@@ -268,40 +133,81 @@ public class SchemaComparer {
 	 */
 	public boolean compare(EnsTestCase testcase, DatabaseRegistryEntry master, DatabaseRegistryEntry dbre) {
 
+		logger.info("Comparing " + master.getName() + " with " + dbre.getName());
+
+		try {
+			return compare(testcase, SchemaSnapshot.forMaster(master.getConnection(), snapshotDirectory), dbre);
+		} catch (SQLException e) {
+			ReportManager.problem(testcase, dbre.getConnection(), "Could not read the schema of " + master.getName()
+					+ ": " + e.getMessage());
+			return false;
+		}
+	}
+
+	/**
+	 * Compare a database with a master snapshot, for example one parsed from a
+	 * schema definition file by {@link SchemaDdlParser}.
+	 * 
+	 * @return true if the test passed.
+	 */
+	public boolean compare(EnsTestCase testcase, SchemaSnapshot masterSnapshot, DatabaseRegistryEntry dbre) {
+
 		boolean result = true;
-		Connection masterCon = master.getConnection();
 		Connection checkCon = dbre.getConnection();
-		logger.info("Comparing " + master.getName() + " with " + dbre.getName());
-		// check that both schemas have the same tables
+		SchemaSnapshot targetSnapshot = SchemaSnapshot.capture(checkCon);
 
+		// check that both schemas have the same tables
 		// method will generate a report
-		try {
-			if (!compareTableEquality(testcase, master, dbre, COMPARE_BOTH)) {
-				result = false;
-
-				if (getTestTypes().contains(TestTypes.CHECK_UNEQUAL)) {
-					String msg;
-					if (searchForTemporaryTables(checkCon)) {
-						msg = String.format("Table name discrepancy detected but temporary tables "
-								+ "were found in the schema '%s'. Try running "
-								+ "ensembl/misc-scripts/db/cleanup_tmp_tables.pl", dbre.getName());
-					} else {
-						msg = "Table name discrepancy detected, skipping rest of checks";
-					}
-					ReportManager.problem(testcase, checkCon, msg);
+		if (!compareTableNames(testcase, masterSnapshot, targetSnapshot, checkCon)) {
+			result = false;
+
+			if (getTestTypes().contains(TestTypes.CHECK_UNEQUAL)) {
+				String msg;
+				if (searchForTemporaryTables(targetSnapshot)) {
+					msg = String.format("Table name discrepancy detected but temporary tables "
+							+ "were found in the schema '%s'. Try running "
+							+ "ensembl/misc-scripts/db/cleanup_tmp_tables.pl", dbre.getName());
 				} else {
-					ReportManager.problem(testcase, checkCon,
-							"Table name discrepancy detected but continuing with table checks");
+					msg = "Table name discrepancy detected, skipping rest of checks";
 				}
+				ReportManager.problem(testcase, checkCon, msg);
+			} else {
+				ReportManager.problem(testcase, checkCon,
+						"Table name discrepancy detected but continuing with table checks");
 			}
+		}
 
-			for (String table : DBUtils.getTableNames(masterCon)) {
-				if(!getIgnoreTables().contains(table)) {
-					result &= compareTable(testcase, master, dbre, table);
+		for (String table : masterSnapshot.getTableNames()) {
+			if(!getIgnoreTables().contains(table)) {
+				result &= compareTable(testcase, masterSnapshot, targetSnapshot, checkCon, table);
+			}
+		}
+
+		return result;
+	}
+
+	/**
+	 * Like {@link #compareTablesInSchema(EnsTestCase, DatabaseRegistryEntry, DatabaseRegistryEntry, int)}
+	 * in both directions, but on snapshots.
+	 * 
+	 * @return true if both snapshots have the same tables, apart from ignored
+	 *         ones.
+	 */
+	protected boolean compareTableNames(EnsTestCase testcase, SchemaSnapshot masterSnapshot,
+			SchemaSnapshot targetSnapshot, Connection target) {
+
+		boolean result = true;
+
+		SchemaSnapshot[][] directions = { { masterSnapshot, targetSnapshot }, { targetSnapshot, masterSnapshot } };
+		for (SchemaSnapshot[] direction : directions) {
+			Set<String> otherTables = direction[1].getTableNames();
+			for (String table : direction[0].getTableNames()) {
+				if (!getIgnoreTables().contains(table) && !otherTables.contains(table)) {
+					ReportManager.problem(testcase, target, "Table " + table + " exists in " + direction[0].getName()
+							+ " but not in " + direction[1].getName());
+					result = false;
 				}
 			}
-		} catch (SQLException e) {
-			logger.severe(e.getMessage());
 		}
 
 		return result;
@@ -313,74 +219,79 @@ public class SchemaComparer {
 	 * other creation parameters e.g. <em>AVG_ROW_LENGTH</em>. Many of these are
 	 * controlled by the {@link TestTypes} enum.
 	 * 
-	 * To help with speed we first compare a <em>SHOW CREATE TABLE</em> with some
-	 * post modification.
+	 * To help with speed we first check if the tables are identical.
+	 * 
+	 * @param target
+	 *            Connection to the database of targetSnapshot, to report
+	 *            problems against.
 	 */
-	protected boolean compareTable(EnsTestCase test, DatabaseRegistryEntry master, DatabaseRegistryEntry targetDbre,
-			String table) throws SQLException {
+	protected boolean compareTable(EnsTestCase test, SchemaSnapshot masterSnapshot, SchemaSnapshot targetSnapshot,
+			Connection target, String table) {
 
-		String masterName = master.getName();
-		String targetName = targetDbre.getName();
+		String masterName = masterSnapshot.getName();
+		String targetName = targetSnapshot.getName();
 		logger.info("Comparing "+table+" between "+masterName+" and "+targetName);
-		Connection target = targetDbre.getConnection();
-		Connection masterCon = master.getConnection();
 
+		Table masterTable = masterSnapshot.getTables().get(table);
+		Table targetTable = targetSnapshot.getTables().get(table);
 
 		// If either schema did not contain this table then just return early
 		// because we will have warned about it earlier on. This could only happen
 		// if the skipCheckingIfTablesAreUnequal() method was returning false
-		if (!getTables(masterCon).contains(table)) { 
+		if (masterTable == null) { 
 			ReportManager.problem(test, target, "Table "+table+" not found in "+masterName);
 			return false;			
 		}
-		if (!getTables(target).contains(table)) { 
+		if (targetTable == null) { 
 			ReportManager.problem(test, target, "Table "+table+" not found in "+targetName);
 			return false;			
 		}
 
-		// - test show create table as it's the fastest ... apparently
-		if (getCreateTable(masterCon, table).equals(getCreateTable(target, table))) {
+		if (masterTable.isIdentical(targetTable)) {
 			logger.info("Table "+table+" identical between schemata");
 			return true;
 		}
 
 		boolean okay = true;
-		// Compare table structure
-		Set<Column> masterMinusTargetColumns = getColumns(masterCon, table);
-		masterMinusTargetColumns.removeAll(getColumns(target, table));
-		Set<Column> columnIssuesCalled = new HashSet<Column>();
-		// report that the target is missing columns deinfod in the master
+		// Compare table structure, unless the master is a view parsed from a
+		// schema file, whose columns aren't known
+		Set<Column> masterMinusTargetColumns = new LinkedHashSet<Column>(masterTable.getColumns());
+		masterMinusTargetColumns.removeAll(targetTable.getColumns());
+		if (masterTable.isView() && masterTable.getColumns().isEmpty()) {
+			masterMinusTargetColumns.clear();
+		}
+		// report that the target is missing columns defined in the master
 		if (!masterMinusTargetColumns.isEmpty()) {
 			for (Column col : masterMinusTargetColumns) {
 				String message = String.format(
 						"`%s` `%s` does not have the same definition as `%s`. Column `%s` was different. Check table structures",
 						targetName, table, masterName, col);
 				ReportManager.problem(test, target, message);
-				columnIssuesCalled.add(col);
 			}
 			okay = false;
 		}
 
-		Set<Column> targetMinusMasterColumns = getColumns(target, table);
-		Set<Column> localMaster = getColumns(masterCon, table);
-		localMaster.removeAll(columnIssuesCalled);
-		targetMinusMasterColumns.removeAll(localMaster);
+		Set<Column> targetMinusMasterColumns = new LinkedHashSet<Column>(targetTable.getColumns());
+		targetMinusMasterColumns.removeAll(masterTable.getColumns());
+		if (masterTable.isView() && masterTable.getColumns().isEmpty()) {
+			targetMinusMasterColumns.clear();
+		}
 		// report that a target table columns which the master lacks
 		if (!targetMinusMasterColumns.isEmpty()) {
 			for (Column col : targetMinusMasterColumns) {
-				if (columnIssuesCalled.contains(col)) {
+				if (masterMinusTargetColumns.contains(col)) {
 					continue;
 				}
 				String message = String.format(
 						"`%s` `%s` does not have the same definition as `%s`. Column `%s` was different. Check table structures",
-						masterCon, table, targetName, col);
-				ReportManager.problem(test, targetDbre.getConnection(), message);
+						masterName, table, targetName, col);
+				ReportManager.problem(test, target, message);
 			}
 			okay = false;
 		}
 
-		boolean masterView = getViews(masterCon).contains(table);
-		boolean targetView = getViews(target).contains(table);
+		boolean masterView = masterTable.isView();
+		boolean targetView = targetTable.isView();
 		if (masterView != targetView) {
 			String masterType = (masterView) ? "VIEW" : "TABLE";
 			String targetType = (targetView) ? "VIEW" : "TABLE";
@@ -391,13 +302,13 @@ public class SchemaComparer {
 		}
 
 		// Compare index structure if it wasn't a view
-		if (!getViews(target).contains(table)) {
-			Set<Index> masterIndexes = getIndexes(masterCon, table);
-			Set<Index> targetIndexes = getIndexes(target, table);
+		if (!targetView) {
+			Set<Index> masterIndexes = masterTable.getIndexes();
+			Set<Index> targetIndexes = targetTable.getIndexes();
 
-			Set<Index> masterMinusTargetIndexes = new HashSet<Index>(masterIndexes);
+			Set<Index> masterMinusTargetIndexes = new LinkedHashSet<Index>(masterIndexes);
 			masterMinusTargetIndexes.removeAll(targetIndexes);
-			// report that target is missing indexes deinfod in master
+			// report that target is missing indexes defined in master
 			if (!masterMinusTargetIndexes.isEmpty()) {
 				for (Index index : masterMinusTargetIndexes) {
 					String message = String.format(
@@ -408,15 +319,15 @@ public class SchemaComparer {
 				okay = false;
 			}
 
-			Set<Index> targetMinusMasterIndexes = new HashSet<Index>(targetIndexes);
+			Set<Index> targetMinusMasterIndexes = new LinkedHashSet<Index>(targetIndexes);
 			targetMinusMasterIndexes.removeAll(masterIndexes);
-			// report that target has indexes not deinfod in master
+			// report that target has indexes not defined in master
 			if (!targetMinusMasterIndexes.isEmpty()) {
 				for (Index index : targetMinusMasterIndexes) {
 					String message = String.format(
 							"`%s` `%s` does not have the index `%s` which is present in `%s`. Check table structures",
-							targetDbre.getName(), table, index, targetName);
-					ReportManager.problem(test, targetDbre.getConnection(), message);
+							masterName, table, index, targetName);
+					ReportManager.problem(test, target, message);
 				}
 				okay = false;
 			}
@@ -424,53 +335,38 @@ public class SchemaComparer {
 
 		// Compare avg_row_length
 		if (applyTest(TestTypes.AVG_ROW_LENGTH)) {
-			boolean result = regexCreateTable(test, master, targetDbre, table, "AVG_ROW_LENGTH=(\\d+)", Integer.class,
+			okay &= compareValues(test, target, masterSnapshot, targetSnapshot, table,
+					regex(AVG_ROW_LENGTH_OPTION, masterTable.getCreateOptions(), Integer.class),
+					regex(AVG_ROW_LENGTH_OPTION, targetTable.getCreateOptions(), Integer.class),
 					TestTypes.AVG_ROW_LENGTH);
-			if (!result) {
-				okay = false;
-			}
 		}
 
 		// Compare max rows
 		if (applyTest(TestTypes.MAX_ROWS)) {
-			boolean result = regexCreateTable(test, master, targetDbre, table, "MAX_ROWS=(\\d+)", Integer.class,
+			okay &= compareValues(test, target, masterSnapshot, targetSnapshot, table,
+					regex(MAX_ROWS_OPTION, masterTable.getCreateOptions(), Integer.class),
+					regex(MAX_ROWS_OPTION, targetTable.getCreateOptions(), Integer.class),
 					TestTypes.MAX_ROWS);
-			if (!result) {
-				okay = false;
-			}
 		}
 
-		// Compare charset
-		if (applyTest(TestTypes.CHARSET)) {
-			boolean result = regexCreateTable(test, master, targetDbre, table, "DEFAULT CHARSET=([a-zA-Z0-9]+)",
-					String.class, TestTypes.CHARSET);
-			if (!result) {
-				okay = false;
-			}
+		// Compare charset, unless the master doesn't say, e.g. a definition file
+		// parsed without the database defaults
+		if (applyTest(TestTypes.CHARSET) && masterTable.getCharset() != null) {
+			okay &= compareValues(test, target, masterSnapshot, targetSnapshot, table,
+					StringUtils.defaultString(masterTable.getCharset()),
+					StringUtils.defaultString(targetTable.getCharset()), TestTypes.CHARSET);
 		}
 
-		// Compare engine
-		if (applyTest(TestTypes.ENGINE)) {
-			boolean result = regexCreateTable(test, master, targetDbre, table, "ENGINE=([a-zA-Z0-9]+)", String.class,
-					TestTypes.ENGINE);
-			if (!result) {
-				okay = false;
-			}
+		// Compare engine, unless the master doesn't say
+		if (applyTest(TestTypes.ENGINE) && masterTable.getEngine() != null) {
+			okay &= compareValues(test, target, masterSnapshot, targetSnapshot, table,
+					StringUtils.defaultString(masterTable.getEngine()),
+					StringUtils.defaultString(targetTable.getEngine()), TestTypes.ENGINE);
 		}
 
 		return okay;
 	}
 
-	/**
-	 * Currently delegates onto
-	 * {@link #compareTablesInSchema(Connection, Connection, boolean, int)} but can
-	 * be over-ridden if required.
-	 */
-	protected boolean compareTableEquality(EnsTestCase testcase, DatabaseRegistryEntry master,
-			DatabaseRegistryEntry target, int directionFlag) {
-		return compareTablesInSchema(testcase, target, master, directionFlag);
-	}
-
 	/**
 	 * Compare two schemas to see if they have the same tables. The comparison can
 	 * be done in in one direction or both directions.
@@ -515,143 +411,17 @@ public class SchemaComparer {
 		return result;
 	}
 
-	/**
-	 * Used to cache the columns from a single schema.
-	 * 
-	 * @param conn
-	 *            Connection to query with
-	 * @return {@link Set} of all columns in a given connection keyed by the table
-	 *         name
-	 * @throws SQLException
-	 *             Thrown if there is an issue with MetaData retrieval
-	 */
-	protected Map<String, Set<Column>> getColumns(Connection conn) throws SQLException {
-		String dbmsUrl = conn.getMetaData().getURL();
-		if (!columns.containsKey(dbmsUrl)) {
-			Map<String, Set<Column>> dbColumns = new LinkedHashMap<String, Set<Column>>();
-			ResultSet rs = conn.getMetaData().getColumns(null, DBUtils.getShortDatabaseName(conn), "%", "%");
-			try {
-
-				boolean processAutoIncrement = DBUtils.resultSetContainsColumn(rs, "IS_AUTOINCREMENT");
-
-				while (rs.next()) {
-					String table = rs.getString("TABLE_NAME");
-					// Get columns list
-					Set<Column> tableColumns = dbColumns.get(table);
-					if (tableColumns == null) {
-						tableColumns = new LinkedHashSet<Column>();
-						dbColumns.put(table, tableColumns);
-					}
-
-					boolean autoIncrement = (processAutoIncrement) ? rs.getBoolean("IS_AUTOINCREMENT") : false;
-					Column columnInstance = new Column(rs.getString("COLUMN_NAME"), rs.getInt("DATA_TYPE"),
-							rs.getInt("COLUMN_SIZE"), rs.getInt("DECIMAL_DIGITS"), rs.getBoolean("NULLABLE"),
-							rs.getString("COLUMN_DEF"), rs.getInt("CHAR_OCTET_LENGTH"), autoIncrement);
-					tableColumns.add(columnInstance);
-				}
-			} finally {
-				DBUtils.closeQuietly(rs);
-			}
-			columns.put(dbmsUrl, dbColumns);
-		}
-		return columns.get(dbmsUrl);
-	}
-
-	/**
-	 * Returns a copy of the columns we currently hold for this table
-	 */
-	protected Set<Column> getColumns(Connection conn, String table) throws SQLException {
-		return new HashSet<Column>(getColumns(conn).get(table));
-	}
-
-	protected String getCreateTable(Connection conn, String table) throws SQLException {
-		String key = conn.getMetaData().getURL() + ":" + table;
-		if (createTables.containsKey(key)) {
-			return createTables.get(key);
-		}
-		String sql = "SHOW CREATE TABLE " + table;
-		RowMapper<String> mapper = new DefaultObjectRowMapper<String>(String.class, 2);
-		String createTable = new ConnectionBasedSqlTemplateImpl(conn).queryForObject(sql, mapper);
-		if (applyTest(TestTypes.IGNORE_AUTOINCREMENT_OPTION)) {
-			createTable = createTable.replaceFirst("AUTO_INCREMENT=\\d+\\s*", "");
-		}
-		createTables.put(key, createTable);
-		return createTable;
-	}
-
 	public Set<String> getIgnoreTables() {
 		return ignoreTables;
 	}
 
-	/**
-	 * Used to return all known indexed columns for a database
-	 * 
-	 * @param conn
-	 *            Connection to query
-	 * @param table
-	 *            Table to query
-	 * @return {@link Set} of index objects ordered by their discovery
-	 * @throws SQLException
-	 *             Thrown if there is a problem with MetaData
-	 */
-	protected Set<Index> getIndexes(Connection conn, String table) throws SQLException {
-		Map<String, Index> indexes = new HashMap<String, Index>();
-		ResultSet rs = conn.getMetaData().getIndexInfo(null, DBUtils.getShortDatabaseName(conn), table, false, false);
-		try {
-			while (rs.next()) {
-				String indexName = rs.getString("INDEX_NAME");
-				Index index = indexes.get(indexName);
-				if (index == null) {
-					index = new Index(indexName, rs.getBoolean("NON_UNIQUE"), rs.getInt("TYPE"));
-					indexes.put(indexName, index);
-				}
-				index.addColumn(rs.getString("COLUMN_NAME"));
-			}
-		} finally {
-			DBUtils.closeQuietly(rs);
-		}
-
-		return new LinkedHashSet<Index>(indexes.values());
-	}
-
-	/**
-	 * Returns a locally cached Set of table names in the given schema
-	 */
-	protected Set<String> getTables(Connection conn) throws SQLException {
-		String url = conn.getMetaData().getURL();
-		if (!tables.containsKey(url)) {
-			String[] array = DBUtils.getTableNames(conn);
-			tables.put(url, new HashSet<String>(Arrays.asList(array)));
-		}
-		return tables.get(url);
-	}
-
 	public Set<TestTypes> getTestTypes() {
 		return testTypes;
 	}
 
-	/**
-	 * Used to cache the current known set of views for each distinct JDBC URL
-	 * retrieved from {@link Connection#getMetaData()}.
-	 * 
-	 * @param conn
-	 *            Connection to query with
-	 * @return {@link Set} of all views known of in the given connection
-	 * @throws SQLException
-	 *             Thrown if there is an issue with MetaData retrieval
-	 */
-	private Set<String> getViews(Connection conn) throws SQLException {
-		String dbmsUrl = conn.getMetaData().getURL();
-		if (!views.containsKey(dbmsUrl)) {
-			List<String> dbViews = DBUtils.getViews(conn);
-			views.put(dbmsUrl, new HashSet<String>(dbViews));
-		}
-		return views.get(dbmsUrl);
-	}
-
 	protected Object regex(Pattern p, CharSequence target, Class<?> type) {
 		final Object o;
-		Matcher matcher = p.matcher(target);
+		Matcher matcher = p.matcher(target == null ? StringUtils.EMPTY : target);
 		if (matcher.find()) {
 			if (Integer.class.equals(type)) {
 				o = Integer.valueOf(matcher.group(1));
@@ -664,28 +434,24 @@ public class SchemaComparer {
 		return o;
 	}
 
-	protected boolean regexCreateTable(EnsTestCase test, DatabaseRegistryEntry master, DatabaseRegistryEntry target,
-			String table, String regex, Class<?> type, TestTypes testing) throws SQLException {
-		Pattern p = Pattern.compile(regex);
-		Object masterValue = regex(p, getCreateTable(master.getConnection(), table), type);
-		Object targetValue = regex(p, getCreateTable(target.getConnection(), table), type);
+	protected boolean compareValues(EnsTestCase test, Connection target, SchemaSnapshot master,
+			SchemaSnapshot targetSnapshot, String table, Object masterValue, Object targetValue, TestTypes testing) {
 		if (masterValue.equals(targetValue)) {
 			return true;
 		}
 
 		String message = String.format("%s in `%s` had different values. `%s` contained '%s'. `%s` contained '%s'",
-				testing.toString(), table, master.getName(), masterValue, target.getName(), targetValue);
+				testing.toString(), table, master.getName(), masterValue, targetSnapshot.getName(), targetValue);
 
-		ReportManager.problem(test, target.getConnection(), message);
+		ReportManager.problem(test, target, message);
 
 		return false;
 	}
 
-	private boolean searchForTemporaryTables(Connection conn) throws SQLException {
+	private boolean searchForTemporaryTables(SchemaSnapshot snapshot) {
 		boolean temporaryTables = false;
-		Set<String> tables = getTables(conn);
 		List<String> searchValues = createArrayList("MTMP_", "tmp", "temp", "bak", "backup");
-		for (String table : tables) {
+		for (String table : snapshot.getTableNames()) {
 			for (String search : searchValues) {
 				if (table.contains(search)) {
 					temporaryTables = true;
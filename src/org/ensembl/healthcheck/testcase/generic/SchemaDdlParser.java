@@ -0,0 +1,846 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.generic;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.lang.StringUtils;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Column;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Index;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Table;
+
+/**
+ * <p>
+ * Reads the <code>CREATE TABLE</code> and <code>CREATE VIEW</code>
+ * statements of a schema definition file such as <code>table.sql</code>
+ * into a {@link SchemaSnapshot}, without loading them into a database.
+ * Other statements are ignored.
+ * </p>
+ *
+ * <p>
+ * Column types, defaults and lengths are written the way MySQL reports them
+ * in <code>information_schema</code>, so the snapshot compares equal to one
+ * captured from a database created from the same file: integer types get
+ * their default display widths, <code>INTEGER</code> becomes
+ * <code>int</code>, primary key columns are NOT NULL and so on. MySQL 8.0.19
+ * and later show no display widths, except for <code>tinyint(1)</code> and
+ * <code>ZEROFILL</code> columns; the widths are only left out when the
+ * server compared with is one of those. Tables
+ * without a character set or engine get the defaults passed in, normally
+ * those of the database the snapshot is compared with; without defaults they
+ * are left unknown. The columns of views are not known.
+ * </p>
+ */
+public class SchemaDdlParser {
+
+	/** Snapshots of files parsed in this run, keyed on path and modification time. */
+	private static final ConcurrentMap<String, SchemaSnapshot> files = new ConcurrentHashMap<String, SchemaSnapshot>();
+
+	private static final Map<String, String> TYPE_ALIASES = new HashMap<String, String>();
+
+	private static final Map<String, Integer> DISPLAY_WIDTHS = new HashMap<String, Integer>();
+
+	private static final Map<String, Long> LOB_LENGTHS = new HashMap<String, Long>();
+
+	private static final Map<String, Integer> BYTES_PER_CHAR = new HashMap<String, Integer>();
+
+	static {
+		TYPE_ALIASES.put("integer", "int");
+		TYPE_ALIASES.put("int1", "tinyint");
+		TYPE_ALIASES.put("int2", "smallint");
+		TYPE_ALIASES.put("int3", "mediumint");
+		TYPE_ALIASES.put("middleint", "mediumint");
+		TYPE_ALIASES.put("int4", "int");
+		TYPE_ALIASES.put("int8", "bigint");
+		TYPE_ALIASES.put("dec", "decimal");
+		TYPE_ALIASES.put("numeric", "decimal");
+		TYPE_ALIASES.put("fixed", "decimal");
+		TYPE_ALIASES.put("real", "double");
+		TYPE_ALIASES.put("character", "char");
+
+		DISPLAY_WIDTHS.put("tinyint", 4);
+		DISPLAY_WIDTHS.put("smallint", 6);
+		DISPLAY_WIDTHS.put("mediumint", 9);
+		DISPLAY_WIDTHS.put("int", 11);
+		DISPLAY_WIDTHS.put("bigint", 20);
+
+		LOB_LENGTHS.put("tinytext", 255L);
+		LOB_LENGTHS.put("text", 65535L);
+		LOB_LENGTHS.put("mediumtext", 16777215L);
+		LOB_LENGTHS.put("longtext", 4294967295L);
+		LOB_LENGTHS.put("tinyblob", 255L);
+		LOB_LENGTHS.put("blob", 65535L);
+		LOB_LENGTHS.put("mediumblob", 16777215L);
+		LOB_LENGTHS.put("longblob", 4294967295L);
+
+		BYTES_PER_CHAR.put("utf8", 3);
+		BYTES_PER_CHAR.put("utf8mb3", 3);
+		BYTES_PER_CHAR.put("utf8mb4", 4);
+		BYTES_PER_CHAR.put("ucs2", 2);
+		BYTES_PER_CHAR.put("utf16", 4);
+		BYTES_PER_CHAR.put("utf32", 4);
+	}
+
+	private static final Pattern SERVER_VERSION = Pattern.compile("^(\\d+)\\.(\\d+)\\.(\\d+)");
+
+	private static final Set<String> INDEX_KEYWORDS = new HashSet<String>(Arrays.asList("PRIMARY", "UNIQUE", "KEY",
+			"INDEX", "FULLTEXT", "SPATIAL", "CONSTRAINT", "FOREIGN", "CHECK"));
+
+	private final List<String> tokens;
+
+	private final String defaultCharset;
+
+	private final String defaultEngine;
+
+	private final boolean displayWidths;
+
+	private int position;
+
+	private SchemaDdlParser(String ddl, String defaultCharset, String defaultEngine, boolean displayWidths) {
+		this.tokens = tokenize(ddl);
+		this.defaultCharset = defaultCharset;
+		this.defaultEngine = defaultEngine;
+		this.displayWidths = displayWidths;
+	}
+
+	/**
+	 * Get the snapshot of a schema definition file as it would be created in
+	 * the database con is connected to, using its default character set and
+	 * storage engine, and showing integer display widths if its server does.
+	 */
+	public static SchemaSnapshot forFile(File file, Connection con) throws IOException {
+		return forFile(file, getDefaultCharset(con), getDefaultEngine(con), showsDisplayWidths(getServerVersion(con)));
+	}
+
+	/**
+	 * Get the snapshot of a schema definition file, parsing it only if it
+	 * hasn't been parsed before in this run with the same defaults.
+	 *
+	 * @param defaultCharset
+	 *          The character set of tables that don't specify one, or null if
+	 *          unknown.
+	 * @param defaultEngine
+	 *          The engine of tables that don't specify one, or null if
+	 *          unknown.
+	 * @param displayWidths
+	 *          False to leave out integer display widths, as MySQL 8.0.19 and
+	 *          later do.
+	 */
+	public static SchemaSnapshot forFile(File file, String defaultCharset, String defaultEngine, boolean displayWidths)
+			throws IOException {
+
+		String key = file.getAbsolutePath() + ":" + file.lastModified() + ":" + defaultCharset + ":" + defaultEngine
+				+ ":" + displayWidths;
+		SchemaSnapshot snapshot = files.get(key);
+
+		if (snapshot == null) {
+			snapshot = parse(file.getName(), FileUtils.readFileToString(file, "UTF-8"), defaultCharset, defaultEngine,
+					displayWidths);
+			files.putIfAbsent(key, snapshot);
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * Parse the statements in ddl, leaving the character set and engine of
+	 * tables that don't specify them unknown.
+	 *
+	 * @param name
+	 *          The name of the snapshot, used in reports.
+	 */
+	public static SchemaSnapshot parse(String name, String ddl) {
+		return parse(name, ddl, null, null);
+	}
+
+	/**
+	 * Parse the statements in ddl.
+	 *
+	 * @param name
+	 *          The name of the snapshot, used in reports.
+	 * @param defaultCharset
+	 *          The character set of tables that don't specify one, or null if
+	 *          unknown.
+	 * @param defaultEngine
+	 *          The engine of tables that don't specify one, or null if
+	 *          unknown.
+	 */
+	public static SchemaSnapshot parse(String name, String ddl, String defaultCharset, String defaultEngine) {
+		return parse(name, ddl, defaultCharset, defaultEngine, true);
+	}
+
+	/**
+	 * Parse the statements in ddl.
+	 *
+	 * @param displayWidths
+	 *          False to leave out integer display widths, as MySQL 8.0.19 and
+	 *          later do.
+	 */
+	public static SchemaSnapshot parse(String name, String ddl, String defaultCharset, String defaultEngine,
+			boolean displayWidths) {
+
+		SchemaDdlParser parser = new SchemaDdlParser(ddl, defaultCharset, defaultEngine, displayWidths);
+		Map<String, Table> tables = new LinkedHashMap<String, Table>();
+
+		while (parser.position < parser.tokens.size()) {
+			Table table = parser.parseStatement();
+			if (table != null) {
+				tables.put(table.getName(), table);
+			}
+		}
+
+		return new SchemaSnapshot(name, "", tables);
+	}
+
+	// -------------------------------------------------------------------------
+	// Tokens
+
+	/**
+	 * Split ddl into words, quoted strings (which keep their quotes),
+	 * backquoted names (which lose them) and single characters, dropping
+	 * comments and white space.
+	 */
+	static List<String> tokenize(String ddl) {
+
+		List<String> tokens = new ArrayList<String>();
+		int i = 0;
+		int length = ddl.length();
+
+		while (i < length) {
+
+			char c = ddl.charAt(i);
+
+			if (Character.isWhitespace(c)) {
+				i++;
+
+			} else if (c == '#' || (c == '-' && ddl.startsWith("--", i)
+					&& (i + 2 == length || Character.isWhitespace(ddl.charAt(i + 2))))) {
+				int end = ddl.indexOf('\n', i);
+				i = end < 0 ? length : end + 1;
+
+			} else if (c == '/' && ddl.startsWith("/*", i)) {
+				int end = ddl.indexOf("*/", i + 2);
+				i = end < 0 ? length : end + 2;
+
+			} else if (c == '\'' || c == '"' || c == '`') {
+				StringBuilder token = new StringBuilder();
+				i++;
+				while (i < length) {
+					char d = ddl.charAt(i);
+					if (d == '\\' && c != '`' && i + 1 < length) {
+						token.append(ddl.charAt(i + 1));
+						i += 2;
+					} else if (d == c && i + 1 < length && ddl.charAt(i + 1) == c) {
+						token.append(c);
+						i += 2;
+					} else if (d == c) {
+						i++;
+						break;
+					} else {
+						token.append(d);
+						i++;
+					}
+				}
+				// names lose their quotes, strings keep a single quote
+				tokens.add(c == '`' ? token.toString() : "'" + token);
+
+			} else if (Character.isLetterOrDigit(c) || c == '_' || c == '$' || c == '.') {
+				int start = i;
+				while (i < length
+						&& (Character.isLetterOrDigit(ddl.charAt(i)) || "_$.".indexOf(ddl.charAt(i)) >= 0)) {
+					i++;
+				}
+				tokens.add(ddl.substring(start, i));
+
+			} else {
+				tokens.add(String.valueOf(c));
+				i++;
+			}
+		}
+
+		return tokens;
+	}
+
+	private static boolean isString(String token) {
+		return token.startsWith("'");
+	}
+
+	private static String unquote(String token) {
+		return isString(token) ? token.substring(1) : token;
+	}
+
+	private String peek() {
+		return position < tokens.size() ? tokens.get(position) : ";";
+	}
+
+	private String next() {
+		return position < tokens.size() ? tokens.get(position++) : ";";
+	}
+
+	private boolean accept(String... words) {
+		for (int i = 0; i < words.length; i++) {
+			if (position + i >= tokens.size() || !tokens.get(position + i).equalsIgnoreCase(words[i])) {
+				return false;
+			}
+		}
+		position += words.length;
+		return true;
+	}
+
+	private void skipStatement() {
+		while (position < tokens.size() && !next().equals(";")) {
+		}
+	}
+
+	/**
+	 * @return The tokens up to the parenthesis matching the one just read.
+	 */
+	private List<String> readParenthesised() {
+		List<String> inner = new ArrayList<String>();
+		int depth = 1;
+		while (position < tokens.size()) {
+			String token = next();
+			if (token.equals("(")) {
+				depth++;
+			} else if (token.equals(")") && --depth == 0) {
+				break;
+			}
+			inner.add(token);
+		}
+		return inner;
+	}
+
+	/**
+	 * Split tokens at the commas that are not in parentheses.
+	 */
+	private static List<List<String>> splitOnCommas(List<String> tokens) {
+		List<List<String>> parts = new ArrayList<List<String>>();
+		List<String> part = new ArrayList<String>();
+		int depth = 0;
+		for (String token : tokens) {
+			if (token.equals("(")) {
+				depth++;
+			} else if (token.equals(")")) {
+				depth--;
+			}
+			if (token.equals(",") && depth == 0) {
+				parts.add(part);
+				part = new ArrayList<String>();
+			} else {
+				part.add(token);
+			}
+		}
+		if (!part.isEmpty()) {
+			parts.add(part);
+		}
+		return parts;
+	}
+
+	// -------------------------------------------------------------------------
+	// Statements
+
+	private Table parseStatement() {
+
+		if (!accept("CREATE")) {
+			skipStatement();
+			return null;
+		}
+
+		accept("OR", "REPLACE");
+		accept("TEMPORARY");
+
+		// view options
+		while (!peek().equals(";") && !peek().equalsIgnoreCase("TABLE") && !peek().equalsIgnoreCase("VIEW")) {
+			next();
+		}
+
+		if (accept("VIEW")) {
+			String name = next();
+			skipStatement();
+			return new Table(name, true, null, null, null, new LinkedHashSet<Column>(), new LinkedHashSet<Index>());
+		}
+
+		if (!accept("TABLE")) {
+			skipStatement();
+			return null;
+		}
+
+		accept("IF", "NOT", "EXISTS");
+		String name = next();
+
+		if (!accept("(")) {
+			// CREATE TABLE ... LIKE or AS SELECT
+			skipStatement();
+			return null;
+		}
+
+		List<List<String>> definitions = splitOnCommas(readParenthesised());
+		Map<String, String> options = parseTableOptions();
+
+		String charset = options.get("charset");
+		if (charset == null && options.containsKey("collate")) {
+			charset = StringUtils.substringBefore(options.get("collate"), "_");
+		}
+		if (charset == null) {
+			charset = defaultCharset;
+		}
+		String engine = options.containsKey("engine") ? options.get("engine") : defaultEngine;
+
+		Set<String> primaryKey = new HashSet<String>();
+		Map<String, Index> indexes = new LinkedHashMap<String, Index>();
+		List<List<String>> columnDefinitions = new ArrayList<List<String>>();
+
+		for (List<String> definition : definitions) {
+			if (INDEX_KEYWORDS.contains(definition.get(0).toUpperCase())) {
+				Index index = parseIndex(definition, indexes.keySet());
+				if (index != null) {
+					indexes.put(index.getName(), index);
+					if (index.getName().equals("PRIMARY")) {
+						primaryKey.addAll(index.getColumns());
+					}
+				}
+			} else {
+				columnDefinitions.add(definition);
+			}
+		}
+
+		Set<Column> columns = new LinkedHashSet<Column>();
+		for (List<String> definition : columnDefinitions) {
+			columns.add(parseColumn(definition, charset, primaryKey, indexes, displayWidths));
+		}
+
+		// MySQL lists the primary key first
+		Set<Index> indexSet = new LinkedHashSet<Index>();
+		if (indexes.containsKey("PRIMARY")) {
+			indexSet.add(indexes.get("PRIMARY"));
+		}
+		indexSet.addAll(indexes.values());
+
+		return new Table(name, false, engine, charset, getCreateOptions(options), columns, indexSet);
+	}
+
+	private Map<String, String> parseTableOptions() {
+
+		Map<String, String> options = new HashMap<String, String>();
+
+		while (!peek().equals(";")) {
+			String option = next().toLowerCase();
+			if (option.equals(",") || option.equals("default")) {
+				continue;
+			}
+			if (option.equals("character") && accept("SET")) {
+				option = "charset";
+			}
+			if (option.equals("type")) {
+				option = "engine";
+			}
+			accept("=");
+			options.put(option, unquote(next()));
+		}
+		next();
+
+		return options;
+	}
+
+	/**
+	 * @return The options as information_schema.TABLES.CREATE_OPTIONS lists
+	 *         them.
+	 */
+	private static String getCreateOptions(Map<String, String> options) {
+
+		List<String> createOptions = new ArrayList<String>();
+		for (String option : new String[] { "min_rows", "max_rows", "avg_row_length" }) {
+			if (options.containsKey(option) && !options.get(option).equals("0")) {
+				createOptions.add(option + "=" + options.get(option));
+			}
+		}
+		for (String option : new String[] { "checksum", "delay_key_write" }) {
+			if ("1".equals(options.get(option))) {
+				createOptions.add(option + "=1");
+			}
+		}
+		if (options.containsKey("row_format")) {
+			createOptions.add("row_format=" + options.get("row_format").toUpperCase());
+		}
+		return StringUtils.join(createOptions, ' ');
+	}
+
+	private static Index parseIndex(List<String> definition, Set<String> existingNames) {
+
+		int i = 0;
+		if (definition.get(i).equalsIgnoreCase("CONSTRAINT")) {
+			i++;
+			if (!INDEX_KEYWORDS.contains(definition.get(i).toUpperCase())) {
+				i++;
+			}
+		}
+
+		String kind = definition.get(i++).toUpperCase();
+		if (kind.equals("FOREIGN") || kind.equals("CHECK")) {
+			return null;
+		}
+
+		String name = null;
+		boolean nonUnique = true;
+		String type = "BTREE";
+
+		if (kind.equals("PRIMARY")) {
+			name = "PRIMARY";
+			nonUnique = false;
+		} else if (kind.equals("UNIQUE")) {
+			nonUnique = false;
+		} else if (kind.equals("FULLTEXT") || kind.equals("SPATIAL")) {
+			type = kind;
+		}
+
+		// skip KEY or INDEX and USING before the columns, keeping the name
+		while (i < definition.size() && !definition.get(i).equals("(")) {
+			String token = definition.get(i++);
+			if (token.equalsIgnoreCase("USING")) {
+				type = definition.get(i++).toUpperCase();
+			} else if (!token.equalsIgnoreCase("KEY") && !token.equalsIgnoreCase("INDEX") && name == null) {
+				name = token;
+			}
+		}
+
+		List<String> columns = new ArrayList<String>();
+		for (List<String> column : splitOnCommas(definition.subList(i + 1, definition.lastIndexOf(")")))) {
+			columns.add(column.get(0));
+		}
+
+		if (name == null) {
+			// MySQL names unnamed indexes after their first column
+			name = columns.get(0);
+			for (int n = 2; existingNames.contains(name); n++) {
+				name = columns.get(0) + "_" + n;
+			}
+		}
+
+		return new Index(name, columns, nonUnique, type);
+	}
+
+	private static Column parseColumn(List<String> definition, String tableCharset, Set<String> primaryKey,
+			Map<String, Index> indexes, boolean displayWidths) {
+
+		String name = definition.get(0);
+		String type = definition.get(1).toLowerCase();
+		int i = 2;
+
+		if (type.equals("double") && i < definition.size() && definition.get(i).equalsIgnoreCase("PRECISION")) {
+			i++;
+		}
+		if (type.equals("bool") || type.equals("boolean")) {
+			type = "tinyint";
+			definition = new ArrayList<String>(definition);
+			definition.addAll(2, Arrays.asList("(", "1", ")"));
+		}
+		if (TYPE_ALIASES.containsKey(type)) {
+			type = TYPE_ALIASES.get(type);
+		}
+		if (type.equals("char") && i < definition.size() && definition.get(i).equalsIgnoreCase("VARYING")) {
+			type = "varchar";
+			i++;
+		}
+
+		List<String> args = new ArrayList<String>();
+		if (i < definition.size() && definition.get(i).equals("(")) {
+			int end = i + 1;
+			while (!definition.get(end).equals(")")) {
+				end++;
+			}
+			for (List<String> arg : splitOnCommas(definition.subList(i + 1, end))) {
+				args.add(StringUtils.join(arg, ""));
+			}
+			i = end + 1;
+		}
+
+		boolean unsigned = false;
+		boolean zerofill = false;
+		Boolean nullable = null;
+		String columnDefault = null;
+		boolean autoIncrement = false;
+		String charset = null;
+
+		while (i < definition.size()) {
+			String word = definition.get(i++).toUpperCase();
+			if (word.equals("UNSIGNED")) {
+				unsigned = true;
+			} else if (word.equals("ZEROFILL")) {
+				zerofill = true;
+				unsigned = true;
+			} else if (word.equals("NOT") && definition.get(i).equalsIgnoreCase("NULL")) {
+				nullable = false;
+				i++;
+			} else if (word.equals("NULL")) {
+				nullable = true;
+			} else if (word.equals("DEFAULT")) {
+				String value = definition.get(i++);
+				if (value.equals("-") || value.equals("+")) {
+					value = (value.equals("-") ? "-" : "") + definition.get(i++);
+				}
+				if (value.equalsIgnoreCase("NULL")) {
+					columnDefault = null;
+				} else if (value.equalsIgnoreCase("CURRENT_TIMESTAMP") || value.equalsIgnoreCase("NOW")
+						|| value.equalsIgnoreCase("LOCALTIMESTAMP")) {
+					columnDefault = "CURRENT_TIMESTAMP";
+					if (i < definition.size() && definition.get(i).equals("(")) {
+						i += 2;
+					}
+				} else {
+					columnDefault = unquote(value);
+				}
+			} else if (word.equals("AUTO_INCREMENT")) {
+				autoIncrement = true;
+			} else if (word.equals("PRIMARY") || word.equals("KEY")) {
+				// KEY on its own also makes a primary key
+				if (word.equals("PRIMARY")) {
+					i++;
+				}
+				primaryKey.add(name);
+				indexes.put("PRIMARY", new Index("PRIMARY", Arrays.asList(name), false, "BTREE"));
+			} else if (word.equals("UNIQUE")) {
+				if (i < definition.size() && definition.get(i).equalsIgnoreCase("KEY")) {
+					i++;
+				}
+				String indexName = name;
+				for (int n = 2; indexes.containsKey(indexName); n++) {
+					indexName = name + "_" + n;
+				}
+				indexes.put(indexName, new Index(indexName, Arrays.asList(name), false, "BTREE"));
+			} else if (word.equals("CHARACTER") || word.equals("CHARSET")) {
+				if (word.equals("CHARACTER")) {
+					i++;
+				}
+				charset = definition.get(i++).toLowerCase();
+			} else if (word.equals("COLLATE")) {
+				if (charset == null) {
+					charset = StringUtils.substringBefore(definition.get(i).toLowerCase(), "_");
+				}
+				i++;
+			} else if (word.equals("COMMENT") || word.equals("ON")) {
+				// COMMENT 'text', ON UPDATE value
+				i += word.equals("ON") ? 2 : 1;
+			}
+		}
+
+		if (nullable == null) {
+			// TIMESTAMP columns are NOT NULL unless declared otherwise
+			nullable = !type.equals("timestamp");
+		}
+		if (primaryKey.contains(name)) {
+			nullable = false;
+		}
+
+		if (charset == null) {
+			charset = tableCharset;
+		}
+
+		String columnType = getColumnType(type, args, unsigned, zerofill, displayWidths);
+
+		if (columnDefault != null && type.equals("decimal")) {
+			// MySQL shows decimal defaults with all their digits
+			int scale = Integer.parseInt(StringUtils.substringBetween(columnType, ",", ")"));
+			try {
+				columnDefault = new BigDecimal(columnDefault).setScale(scale, RoundingMode.HALF_UP).toPlainString();
+			} catch (NumberFormatException e) {
+				// leave it as it was written
+			}
+		}
+
+		return new Column(name, columnType, nullable, columnDefault, getOctetLength(type, args, charset), autoIncrement);
+	}
+
+	/**
+	 * @return The type as information_schema.COLUMNS.COLUMN_TYPE shows it.
+	 */
+	private static String getColumnType(String type, List<String> args, boolean unsigned, boolean zerofill,
+			boolean displayWidths) {
+
+		StringBuilder columnType = new StringBuilder(type);
+
+		boolean integer = DISPLAY_WIDTHS.containsKey(type);
+		if (integer && !displayWidths && !zerofill && !(type.equals("tinyint") && args.equals(Arrays.asList("1")))) {
+			args = new ArrayList<String>();
+		}
+
+		if (type.equals("enum") || type.equals("set")) {
+			List<String> values = new ArrayList<String>();
+			for (String arg : args) {
+				values.add("'" + unquote(arg).replace("'", "''") + "'");
+			}
+			columnType.append('(').append(StringUtils.join(values, ',')).append(')');
+
+		} else if (!args.isEmpty()) {
+			if (type.equals("decimal") && args.size() == 1) {
+				args = Arrays.asList(args.get(0), "0");
+			}
+			columnType.append('(').append(StringUtils.join(args, ',')).append(')');
+
+		} else if (integer && (displayWidths || zerofill)) {
+			int width = DISPLAY_WIDTHS.get(type);
+			if (unsigned && !type.equals("bigint")) {
+				width--;
+			}
+			columnType.append('(').append(width).append(')');
+
+		} else if (type.equals("decimal")) {
+			columnType.append("(10,0)");
+
+		} else if (type.equals("char") || type.equals("binary") || type.equals("bit")) {
+			columnType.append("(1)");
+
+		} else if (type.equals("year")) {
+			columnType.append("(4)");
+		}
+
+		if (unsigned) {
+			columnType.append(" unsigned");
+		}
+		if (zerofill) {
+			columnType.append(" zerofill");
+		}
+
+		return columnType.toString();
+	}
+
+	/**
+	 * @return The maximum length in bytes of a character or binary column, or
+	 *         0 for other types.
+	 */
+	private static long getOctetLength(String type, List<String> args, String charset) {
+
+		if (LOB_LENGTHS.containsKey(type)) {
+			return LOB_LENGTHS.get(type);
+		}
+
+		long bytesPerChar = BYTES_PER_CHAR.containsKey(charset) ? BYTES_PER_CHAR.get(charset) : 1;
+
+		if (type.equals("char") || type.equals("varchar")) {
+			return (args.isEmpty() ? 1 : Long.parseLong(args.get(0))) * bytesPerChar;
+		}
+		if (type.equals("binary") || type.equals("varbinary")) {
+			return args.isEmpty() ? 1 : Long.parseLong(args.get(0));
+		}
+		if (type.equals("enum")) {
+			long longest = 0;
+			for (String arg : args) {
+				longest = Math.max(longest, unquote(arg).length());
+			}
+			return longest * bytesPerChar;
+		}
+		if (type.equals("set")) {
+			long total = args.size() - 1;
+			for (String arg : args) {
+				total += unquote(arg).length();
+			}
+			return total * bytesPerChar;
+		}
+		return 0;
+	}
+
+	/**
+	 * @return The default character set of the database con is connected to,
+	 *         or null if it can't be read.
+	 */
+	private static String getDefaultCharset(Connection con) {
+		return queryForString(con,
+				"SELECT DEFAULT_CHARACTER_SET_NAME FROM information_schema.SCHEMATA WHERE SCHEMA_NAME = DATABASE()");
+	}
+
+	/**
+	 * @return The default storage engine of the server con is connected to, or
+	 *         null if it can't be read.
+	 */
+	private static String getDefaultEngine(Connection con) {
+		return queryForString(con, "SELECT @@default_storage_engine");
+	}
+
+	/**
+	 * @return The version of the server con is connected to, or null if it
+	 *         can't be read.
+	 */
+	private static String getServerVersion(Connection con) {
+		try {
+			return con.getMetaData().getDatabaseProductVersion();
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * @return False for MySQL 8.0.19 and later, which show no integer display
+	 *         widths; true for earlier versions, MariaDB and unknown servers.
+	 */
+	static boolean showsDisplayWidths(String serverVersion) {
+
+		if (serverVersion == null || serverVersion.contains("MariaDB")) {
+			return true;
+		}
+		Matcher m = SERVER_VERSION.matcher(serverVersion);
+		if (!m.find()) {
+			return true;
+		}
+		int major = Integer.parseInt(m.group(1));
+		int minor = Integer.parseInt(m.group(2));
+		int patch = Integer.parseInt(m.group(3));
+		return major < 8 || (major == 8 && minor == 0 && patch < 19);
+	}
+
+	private static String queryForString(Connection con, String sql) {
+		try {
+			Statement stmt = con.createStatement();
+			try {
+				ResultSet rs = stmt.executeQuery(sql);
+				return rs.next() ? rs.getString(1) : null;
+			} finally {
+				stmt.close();
+			}
+		} catch (SQLException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Forget the files parsed in this run.
+	 */
+	public static void clear() {
+		files.clear();
+	}
+
+}
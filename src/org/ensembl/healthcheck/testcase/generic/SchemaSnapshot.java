@@ -0,0 +1,500 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.generic;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.logging.Logger;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.lang.StringUtils;
+import org.ensembl.healthcheck.util.ConnectionPool;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.RowMapper;
+import org.ensembl.healthcheck.util.SqlTemplate;
+
+/**
+ * <p>
+ * The structure of a schema as {@link SchemaComparer} compares it: its tables
+ * and views with their columns, indexes, engine, character set and create
+ * options. Snapshots are immutable and serializable.
+ * </p>
+ *
+ * <p>
+ * A snapshot is read from <code>information_schema</code> with one query
+ * each for tables, columns and indexes. {@link #forMaster(Connection, File)}
+ * keeps the snapshot of a master schema for the rest of the run, and
+ * optionally in a directory, so a master compared with many databases is
+ * read only once.
+ * </p>
+ */
+public class SchemaSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	private static final Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Master snapshots read in this run, keyed on URL. */
+	private static final ConcurrentMap<String, SchemaSnapshot> masters = new ConcurrentHashMap<String, SchemaSnapshot>();
+
+	/**
+	 * A column, compared on everything but its position. Integer display
+	 * widths are ignored, as MySQL 8.0.19 and later no longer show them, so
+	 * that a master and a database on servers of different versions compare
+	 * the same.
+	 */
+	static final class Column implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private static final Pattern INTEGER_WIDTH = Pattern
+				.compile("(tinyint|smallint|mediumint|int|integer|bigint)\\(([0-9]+)\\)(.*)", Pattern.CASE_INSENSITIVE);
+
+		private final String name;
+		private final String columnType;
+		private final boolean nullable;
+		private final String columnDefault;
+		private final long charOctetLength;
+		private final boolean autoIncrement;
+
+		Column(String name, String columnType, boolean nullable, String columnDefault, long charOctetLength,
+				boolean autoIncrement) {
+			this.name = name;
+			this.columnType = columnType;
+			this.nullable = nullable;
+			this.columnDefault = columnDefault;
+			this.charOctetLength = charOctetLength;
+			this.autoIncrement = autoIncrement;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Column))
+				return false;
+			Column other = (Column) obj;
+			return name.equals(other.name) && getComparedType().equals(other.getComparedType())
+					&& nullable == other.nullable && StringUtils.equals(columnDefault, other.columnDefault)
+					&& charOctetLength == other.charOctetLength && autoIncrement == other.autoIncrement;
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * name.hashCode() + getComparedType().hashCode();
+		}
+
+		/**
+		 * @return The column type without the display width of integers,
+		 *         except for tinyint(1) and ZEROFILL columns, whose widths
+		 *         MySQL 8.0.19 still shows.
+		 */
+		String getComparedType() {
+
+			Matcher m = INTEGER_WIDTH.matcher(columnType);
+			if (!m.matches() || m.group(3).toLowerCase().contains("zerofill")
+					|| (m.group(1).equalsIgnoreCase("tinyint") && m.group(2).equals("1"))) {
+				return columnType;
+			}
+			return m.group(1) + m.group(3);
+		}
+
+		@Override
+		public String toString() {
+			return getName();
+		}
+	}
+
+	/**
+	 * An index, compared on its columns and type but not its name.
+	 */
+	static final class Index implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final List<String> columns;
+		private final boolean nonUnique;
+		private final String type;
+
+		Index(String name, List<String> columns, boolean nonUnique, String type) {
+			this.name = name;
+			this.columns = Collections.unmodifiableList(new ArrayList<String>(columns));
+			this.nonUnique = nonUnique;
+			this.type = type;
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public List<String> getColumns() {
+			return columns;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj)
+				return true;
+			if (!(obj instanceof Index))
+				return false;
+			Index other = (Index) obj;
+			return columns.equals(other.columns) && nonUnique == other.nonUnique
+					&& StringUtils.equals(type, other.type);
+		}
+
+		@Override
+		public int hashCode() {
+			return 31 * columns.hashCode() + (nonUnique ? 1231 : 1237);
+		}
+
+		@Override
+		public String toString() {
+			return name + "=[" + StringUtils.join(columns, ',') + "]";
+		}
+	}
+
+	/**
+	 * A table or view.
+	 */
+	static final class Table implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String name;
+		private final boolean view;
+		private final String engine;
+		private final String charset;
+		private final String createOptions;
+		private final Set<Column> columns;
+		private final Set<Index> indexes;
+
+		Table(String name, boolean view, String engine, String charset, String createOptions, Set<Column> columns,
+				Set<Index> indexes) {
+			this.name = name;
+			this.view = view;
+			this.engine = engine;
+			this.charset = charset;
+			this.createOptions = createOptions;
+			this.columns = Collections.unmodifiableSet(new LinkedHashSet<Column>(columns));
+			this.indexes = Collections.unmodifiableSet(new LinkedHashSet<Index>(indexes));
+		}
+
+		public String getName() {
+			return name;
+		}
+
+		public boolean isView() {
+			return view;
+		}
+
+		public String getEngine() {
+			return engine;
+		}
+
+		public String getCharset() {
+			return charset;
+		}
+
+		/**
+		 * @return The options a table was created with, such as
+		 *         <code>max_rows=1000 avg_row_length=100</code>.
+		 */
+		public String getCreateOptions() {
+			return createOptions;
+		}
+
+		public Set<Column> getColumns() {
+			return columns;
+		}
+
+		public Set<Index> getIndexes() {
+			return indexes;
+		}
+
+		/**
+		 * @return true if both tables have the same structure.
+		 */
+		public boolean isIdentical(Table other) {
+			return view == other.view && StringUtils.equals(engine, other.engine)
+					&& StringUtils.equals(charset, other.charset)
+					&& StringUtils.equals(createOptions, other.createOptions)
+					&& new ArrayList<Column>(columns).equals(new ArrayList<Column>(other.columns))
+					&& indexes.equals(other.indexes);
+		}
+	}
+
+	private final String name;
+
+	private final String version;
+
+	private final Map<String, Table> tables;
+
+	SchemaSnapshot(String name, String version, Map<String, Table> tables) {
+		this.name = name;
+		this.version = version;
+		this.tables = Collections.unmodifiableMap(new LinkedHashMap<String, Table>(tables));
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return Changes when tables, columns or indexes are created, altered or
+	 *         dropped.
+	 */
+	public String getVersion() {
+		return version;
+	}
+
+	/**
+	 * @return The tables and views, keyed on name.
+	 */
+	public Map<String, Table> getTables() {
+		return tables;
+	}
+
+	/**
+	 * @return The names of the tables, without the views.
+	 */
+	public Set<String> getTableNames() {
+		Set<String> names = new LinkedHashSet<String>();
+		for (Table table : tables.values()) {
+			if (!table.isView()) {
+				names.add(table.getName());
+			}
+		}
+		return names;
+	}
+
+	// -------------------------------------------------------------------------
+
+	/**
+	 * Sums of CRC32s of what the snapshot holds, as an ALTER TABLE that only
+	 * changes an index or a default leaves the counts and create times alone.
+	 */
+	private static final String VERSION_SQL = "SELECT CONCAT_WS(':', COUNT(*), MAX(CREATE_TIME), "
+			+ "SUM(CRC32(CONCAT_WS('#', TABLE_NAME, TABLE_TYPE, ENGINE, TABLE_COLLATION, CREATE_OPTIONS))), "
+			+ "(SELECT SUM(CRC32(CONCAT_WS('#', TABLE_NAME, COLUMN_NAME, COLUMN_TYPE, IS_NULLABLE, COLUMN_DEFAULT, "
+			+ "CHARACTER_OCTET_LENGTH, EXTRA))) FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ?), "
+			+ "(SELECT SUM(CRC32(CONCAT_WS('#', TABLE_NAME, INDEX_NAME, NON_UNIQUE, INDEX_TYPE, SEQ_IN_INDEX, COLUMN_NAME))) "
+			+ "FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = ?)) "
+			+ "FROM information_schema.TABLES WHERE TABLE_SCHEMA = ?";
+
+	private static final String TABLES_SQL = "SELECT t.TABLE_NAME, t.TABLE_TYPE, t.ENGINE, c.CHARACTER_SET_NAME, t.CREATE_OPTIONS "
+			+ "FROM information_schema.TABLES t "
+			+ "LEFT JOIN information_schema.COLLATION_CHARACTER_SET_APPLICABILITY c ON c.COLLATION_NAME = t.TABLE_COLLATION "
+			+ "WHERE t.TABLE_SCHEMA = ? ORDER BY t.TABLE_NAME";
+
+	private static final String COLUMNS_SQL = "SELECT TABLE_NAME, COLUMN_NAME, COLUMN_TYPE, IS_NULLABLE, COLUMN_DEFAULT, "
+			+ "CHARACTER_OCTET_LENGTH, EXTRA FROM information_schema.COLUMNS WHERE TABLE_SCHEMA = ? "
+			+ "ORDER BY TABLE_NAME, ORDINAL_POSITION";
+
+	private static final String INDEXES_SQL = "SELECT TABLE_NAME, INDEX_NAME, NON_UNIQUE, INDEX_TYPE, COLUMN_NAME "
+			+ "FROM information_schema.STATISTICS WHERE TABLE_SCHEMA = ? ORDER BY TABLE_NAME, INDEX_NAME, SEQ_IN_INDEX";
+
+	/**
+	 * Read the structure of the schema con is connected to.
+	 */
+	public static SchemaSnapshot capture(Connection con) {
+
+		String schema = DBUtils.getShortDatabaseName(con);
+		SqlTemplate template = DBUtils.getSqlTemplate(con);
+
+		final Map<String, Set<Column>> columns = new LinkedHashMap<String, Set<Column>>();
+		template.queryForList(COLUMNS_SQL, new RowMapper<Void>() {
+			public Void mapRow(ResultSet rs, int position) throws SQLException {
+				get(columns, rs.getString(1)).add(new Column(rs.getString(2), rs.getString(3), "YES".equals(rs
+						.getString(4)), rs.getString(5), rs.getLong(6), StringUtils.contains(rs.getString(7),
+						"auto_increment")));
+				return null;
+			}
+		}, schema);
+
+		final Map<String, Map<String, Index>> indexes = new LinkedHashMap<String, Map<String, Index>>();
+		final Map<String, List<String>> indexColumns = new LinkedHashMap<String, List<String>>();
+		template.queryForList(INDEXES_SQL, new RowMapper<Void>() {
+			public Void mapRow(ResultSet rs, int position) throws SQLException {
+				String key = rs.getString(1) + "." + rs.getString(2);
+				List<String> cols = indexColumns.get(key);
+				if (cols == null) {
+					cols = new ArrayList<String>();
+					indexColumns.put(key, cols);
+					Map<String, Index> tableIndexes = indexes.get(rs.getString(1));
+					if (tableIndexes == null) {
+						tableIndexes = new LinkedHashMap<String, Index>();
+						indexes.put(rs.getString(1), tableIndexes);
+					}
+					// columns are filled in below, once they are all read
+					tableIndexes.put(rs.getString(2), new Index(rs.getString(2), cols, rs.getBoolean(3), rs
+							.getString(4)));
+				}
+				cols.add(rs.getString(5));
+				return null;
+			}
+		}, schema);
+
+		final Map<String, Table> tables = new LinkedHashMap<String, Table>();
+		template.queryForList(TABLES_SQL, new RowMapper<Void>() {
+			public Void mapRow(ResultSet rs, int position) throws SQLException {
+				String table = rs.getString(1);
+				Set<Index> tableIndexes = new LinkedHashSet<Index>();
+				if (indexes.containsKey(table)) {
+					for (Index index : indexes.get(table).values()) {
+						tableIndexes.add(new Index(index.name, indexColumns.get(table + "." + index.name),
+								index.nonUnique, index.type));
+					}
+				}
+				tables.put(table, new Table(table, "VIEW".equals(rs.getString(2)), rs.getString(3), rs.getString(4),
+						rs.getString(5), get(columns, table), tableIndexes));
+				return null;
+			}
+		}, schema);
+
+		return new SchemaSnapshot(schema, getVersion(con), tables);
+	}
+
+	private static Set<Column> get(Map<String, Set<Column>> columns, String table) {
+		Set<Column> tableColumns = columns.get(table);
+		if (tableColumns == null) {
+			tableColumns = new LinkedHashSet<Column>();
+			columns.put(table, tableColumns);
+		}
+		return tableColumns;
+	}
+
+	private static String getVersion(Connection con) {
+		String schema = DBUtils.getShortDatabaseName(con);
+		return DBUtils.getSqlTemplate(con).queryForDefaultObject(VERSION_SQL, String.class, schema, schema, schema);
+	}
+
+	/**
+	 * Get the snapshot of a master schema, reading it only if it hasn't been
+	 * read before in this run or, if directory is not null, stored there by an
+	 * earlier run while the master was the same. Snapshots are stored in a
+	 * directory per server, as masters of the same name may be on several.
+	 */
+	public static SchemaSnapshot forMaster(Connection con, File directory) throws SQLException {
+
+		String url = con.getMetaData().getURL();
+		SchemaSnapshot snapshot = masters.get(url);
+
+		if (snapshot == null) {
+
+			if (directory != null) {
+				File file = getFile(directory, url, DBUtils.getShortDatabaseName(con));
+				snapshot = read(file);
+				if (snapshot != null && !snapshot.getVersion().equals(getVersion(con))) {
+					logger.info("Schema of " + snapshot.getName() + " has changed since it was stored in " + file);
+					snapshot = null;
+				}
+				if (snapshot == null) {
+					snapshot = capture(con);
+					write(snapshot, file);
+				}
+			} else {
+				snapshot = capture(con);
+			}
+
+			masters.putIfAbsent(url, snapshot);
+		}
+
+		return snapshot;
+	}
+
+	/**
+	 * @return Where the snapshot of schema on the server of url is stored.
+	 */
+	static File getFile(File directory, String url, String schema) {
+
+		String server = ConnectionPool.getServer(url).replaceAll("[^A-Za-z0-9._-]", "_");
+		return new File(new File(directory, server), schema + ".snapshot");
+	}
+
+	/**
+	 * @return The snapshot stored in file, or null if there is none or it
+	 *         can't be read.
+	 */
+	public static SchemaSnapshot read(File file) {
+
+		if (!file.exists()) {
+			return null;
+		}
+
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new FileInputStream(file));
+			return (SchemaSnapshot) in.readObject();
+		} catch (IOException e) {
+			logger.warning("Cannot read schema snapshot from " + file + ": " + e.getMessage());
+			return null;
+		} catch (ClassNotFoundException e) {
+			logger.warning("Cannot read schema snapshot from " + file + ": " + e.getMessage());
+			return null;
+		} finally {
+			IOUtils.closeQuietly(in);
+		}
+	}
+
+	public static void write(SchemaSnapshot snapshot, File file) {
+
+		file.getParentFile().mkdirs();
+
+		ObjectOutputStream out = null;
+		try {
+			out = new ObjectOutputStream(new FileOutputStream(file));
+			out.writeObject(snapshot);
+		} catch (IOException e) {
+			logger.warning("Cannot write schema snapshot to " + file + ": " + e.getMessage());
+		} finally {
+			IOUtils.closeQuietly(out);
+		}
+	}
+
+	/**
+	 * Forget the master snapshots read in this run.
+	 */
+	public static void clear() {
+		masters.clear();
+	}
+
+}
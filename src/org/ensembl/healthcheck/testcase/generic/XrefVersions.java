@@ -39,6 +39,7 @@ public class XrefVersions extends SingleDatabaseTestCase {
 		setDescription("Check for blank versions in the xref table.");
 		setTeamResponsible(Team.CORE);
 		setSecondTeamResponsible(Team.GENEBUILD);
+		setTablesRead("xref");
 
 	}
 
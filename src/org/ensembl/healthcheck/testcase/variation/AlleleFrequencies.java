@@ -19,21 +19,102 @@
 package org.ensembl.healthcheck.testcase.variation;
 
 import java.sql.Connection;
-import java.sql.ResultSet;
-import java.sql.Statement;
-import java.util.ArrayList;
+import java.util.List;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
-import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.RangeScanExecutor;
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallback;
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallbackFactory;
+import org.ensembl.healthcheck.util.RangeScanExecutor.Row;
 
 /**
  * Check that allele frequencies add up to 1
  */
 public class AlleleFrequencies extends SingleDatabaseTestCase {
 
+	// Tolerance for the deviation from 1.0
+	private static final float TOLERANCE = 0.025f;
+
+	/**
+	 * Sums the frequencies of each variation, subsnp and population in a range
+	 * of variation_ids, and counts the sums that are not 1.
+	 */
+	private static class FrequencySums implements RangeCallback<FrequencySums> {
+
+		private final boolean countAll;
+
+		private long lastVid = 0;
+		private long lastSSid = 0;
+		private long lastSid = 0;
+		private float sum = 0.f;
+
+		// Count the number of failed, and keep the first as an example
+		private int failed = 0;
+		private long failedVid;
+		private long failedSSid;
+		private long failedSid;
+		private float failedSum;
+
+		FrequencySums(boolean countAll) {
+			this.countAll = countAll;
+		}
+
+		public boolean row(Row row) {
+
+			// Get the variation_id, subsnp_id, population_id and frequency. If any of these are NULL, they will be returned as 0
+			long curVid = row.getLong(1);
+			long curSSid = row.getLong(2);
+			long curSid = row.getLong(3);
+
+			// If any of the values was NULL, skip processing the row. The ids it is sufficient to check if they were 0
+			if (curVid != 0 && curSSid != 0 && curSid != 0 && !row.isNull(4)) {
+
+				// If any of the ids is different from the last one, stop summing and check the sum of the latest variation
+				if (curVid != lastVid || curSSid != lastSSid || curSid != lastSid) {
+					check();
+
+					// Set the last ids to this one and reset the sum
+					lastVid = curVid;
+					lastSSid = curSSid;
+					lastSid = curSid;
+					sum = 0.f;
+				}
+				// Add the frequency to the sum
+				sum += (float) row.getDouble(4);
+			}
+
+			// Stop if we've encountered a failed frequency (unless flagged not to)
+			return failed == 0 || countAll;
+		}
+
+		public FrequencySums finish(boolean complete) {
+			// a range cut short by another may have stopped within a group
+			if (complete) {
+				check();
+			}
+			return this;
+		}
+
+		/**
+		 * See if the sum of the frequencies deviates from 1 more than what we tolerate. In that case, count it as a failed
+		 */
+		private void check() {
+
+			if (lastVid != 0 && Math.abs(1.f - sum) > TOLERANCE) {
+				if (failed == 0) {
+					failedVid = lastVid;
+					failedSSid = lastSSid;
+					failedSid = lastSid;
+					failedSum = sum;
+				}
+				failed++;
+			}
+		}
+	}
+
 	/**
 	 * Creates a new instance of Check Allele Frequencies
 	 */
@@ -57,140 +138,51 @@ public class AlleleFrequencies extends SingleDatabaseTestCase {
 		String[] tables = new String[] { "population_genotype", "allele" };
 
 		// Set this flag to true if we want to count ALL failed frequencies and not just break as soon as we've found one
-		boolean countAll = false;
-		// Tolerance for the deviation from 1.0
-		float tol = 0.025f;
-		// Get the results in batches (determined by the variation_id)
-		int chunk = 250000;
+		final boolean countAll = false;
 
-		// long mainStart = System.currentTimeMillis();
-		try {
+		RangeCallbackFactory<FrequencySums> factory = new RangeCallbackFactory<FrequencySums>() {
+			public RangeCallback<FrequencySums> create(long lower, long upper) {
+				return new FrequencySums(countAll);
+			}
+		};
 
-			Statement stmt = con.createStatement();
+		try {
 
-			// Get variations with allele/genotype frequencies that don't add up to 1 for the same variation_id, subsnp_id and population_id
+			// Get variations with allele/genotype frequencies that don't add up to 1 for the same variation_id, subsnp_id and population_id.
+			// The tables are read in ranges of variation_ids, several at a time.
 			for (int i = 0; i < tables.length; i++) {
-				// long subStart = System.currentTimeMillis();
 
-				// Get the maximum variation id
-				String sql = "SELECT MAX(s.variation_id) FROM " + tables[i] + " s";
-				sql = DBUtils.getRowColumnValue(con, sql);
-				if (sql == null || sql.isEmpty()) {
-					sql = "0";
-				}
-				int maxId = Integer.parseInt(sql);
+				String sql = "SELECT s.variation_id, s.subsnp_id, s.population_id, s.frequency FROM " + tables[i]
+						+ " s USE INDEX (variation_idx,subsnp_idx) WHERE s.variation_id BETWEEN ? AND ? ORDER BY s.variation_id, s.subsnp_id, s.population_id";
 
-				// The query to get the data
-				sql = "SELECT s.variation_id, s.subsnp_id, s.population_id, s.frequency FROM " + tables[i]
-						+ " s USE INDEX (variation_idx,subsnp_idx) WHERE s.variation_id BETWEEN VIDLOWER AND VIDUPPER ORDER BY s.variation_id, s.subsnp_id, s.population_id";
-				int offset = 1;
+				List<FrequencySums> ranges = getSqlTemplate(con).scanRanges(tables[i], "variation_id", sql, factory);
 
-				// Count the number of failed
 				int failed = 0;
-				// Keep the failed entries
-				ArrayList failedEntries = new ArrayList();
-
-				// Loop until we've reached the maximum variation_id
-				while (offset <= maxId) {
-
-					// long s = System.currentTimeMillis();
-
-					// Replace the offsets in the SQL query
-					ResultSet rs = stmt.executeQuery(sql.replaceFirst("VIDLOWER", String.valueOf(offset)).replaceFirst("VIDUPPER", String.valueOf(offset + chunk)));
-
-					// long e = System.currentTimeMillis();
-					// System.out.println("Got " + String.valueOf(chunk) + " variations in " + String.valueOf(((e-s)/1000)) +
-					// " seconds. Offset is " + String.valueOf(offset));
-
-					// Increase the offset with the chunk size and add 1
-					offset += chunk + 1;
-
-					int lastVid = 0;
-					int lastSSid = 0;
-					int lastSid = 0;
-					int curVid;
-					int curSSid;
-					int curSid;
-					float freq;
-					float sum = 1.f;
-					int count = 0;
-
-					while (rs.next()) {
-
-						// Get the variation_id, subsnp_id, population_id and frequency. If any of these are NULL, they will be returned as 0
-						curVid = rs.getInt(1);
-						curSSid = rs.getInt(2);
-						curSid = rs.getInt(3);
-						freq = rs.getFloat(4);
-
-						// If any of the values was NULL, skip processing the row. For the frequency, we have to use the wasNull() function to
-						// check this. The ids it is sufficient to check if they were 0
-						if (curVid != 0 && curSSid != 0 && curSid != 0 && !rs.wasNull()) {
-
-							// If any of the ids is different from the last one, stop summing and check the sum of the latest variation
-							if (curVid != lastVid || curSSid != lastSSid || curSid != lastSid) {
-								// See if the sum of the frequencies deviates from 1 more than what we tolerate. In that case, count it as a failed
-								if (Math.abs(1.f - sum) > tol) {
-									// Store the failed data in failedEntries
-									failedEntries.add(new int[] { lastVid, lastSSid, lastSid, Math.round(1000 * sum) });
-									failed++;
-								}
-
-								// Set the last ids to this one and reset the sum
-								lastVid = curVid;
-								lastSSid = curSSid;
-								lastSid = curSid;
-								sum = 0.f;
-							}
-							// Add the frequency to the sum
-							sum += freq;
-						}
-						count++;
-						
-						// Break if we've encountered a failed frequency (unless flagged not to)
-						if (failed > 0 && !countAll) {
-							break;
-						}
+				FrequencySums example = null;
+				for (FrequencySums range : ranges) {
+					if (range.failed > 0 && example == null) {
+						example = range;
 					}
-
-					rs.close();
-
-					// s = System.currentTimeMillis();
-					// System.out.println("Processed " + String.valueOf(count) + " rows in " + String.valueOf(((s-e)/1000)) + " seconds");
+					failed += range.failed;
 				}
+
 				if (failed == 0) {
 					// Report that the current table is ok
 					ReportManager.correct(this, con, "Frequencies in " + tables[i] + " all add up to 1");
 				} else {
-					// Get an example and print it
-					int[] entry = (int[]) failedEntries.get(0);
-					String example = "variation_id = " + String.valueOf(entry[0]) + ", subsnp_id = " + String.valueOf(entry[1]) + ", population_id = " + String.valueOf(entry[2]) + ", sum is "
-							+ String.valueOf((0.001f * entry[3]));
-					ReportManager.problem(this, con, "There are " + String.valueOf(failed) + " variations in " + tables[i] + " where the frequencies don't add up to 1 +/- " + String.valueOf(tol) + " (e.g. "
-							+ example + ")");
+					// Print an example
+					String exampleText = "variation_id = " + String.valueOf(example.failedVid) + ", subsnp_id = " + String.valueOf(example.failedSSid) + ", population_id = " + String.valueOf(example.failedSid) + ", sum is "
+							+ String.valueOf(Math.round(1000 * example.failedSum) * 0.001f);
+					ReportManager.problem(this, con, "There are " + String.valueOf(failed) + " variations in " + tables[i] + " where the frequencies don't add up to 1 +/- " + String.valueOf(TOLERANCE) + " (e.g. "
+							+ exampleText + ")");
 					result = false;
-
-					// Loop over the failed entries and print a list of variation_id, subsnp_id, population_id and summed frequency to stdout
-					/*
-					for (int j = 0; j < failedEntries.size(); j++) {
-						entry = (int[]) failedEntries.get(j);
-						System.out.println(String.valueOf(entry[0]) + "\t" + String.valueOf(entry[1]) + "\t" + String.valueOf(entry[2]) + "\t" + String.valueOf((0.001f * entry[3])));
-					}
-					*/
 				}
-				// long subEnd = System.currentTimeMillis();
-				// System.out.println("Time for healthcheck on " + tables[i] + " (~" + String.valueOf(maxId) + " variations) was " +
-				// String.valueOf(((subEnd-subStart)/1000)) + " seconds");
 			}
-			stmt.close();
 		} catch (Exception e) {
 			result = false;
 			e.printStackTrace();
 		}
 
-		// long mainEnd = System.currentTimeMillis();
-		// System.out.println("Total time for healthcheck was " + String.valueOf(((mainEnd-mainStart)/1000)) + " seconds");
-
 		if (result) {
 			ReportManager.correct(this, con, "Allele/Genotype frequency healthcheck passed without any problem");
 		}
@@ -199,4 +191,3 @@ public class AlleleFrequencies extends SingleDatabaseTestCase {
 	} // run
 
 } // AlleleFrequencies
-
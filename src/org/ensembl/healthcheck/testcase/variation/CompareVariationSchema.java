@@ -64,6 +64,11 @@ public class CompareVariationSchema extends AbstractCompareSchema {
 		return MASTER_VARIATION_SCHEMA;
 	}
 
+	@Override
+	protected String getSchemaFileKey() {
+		return "variation_schema.file";
+	}
+
 	@Override
 	protected SchemaComparer getComparer(DatabaseRegistryEntry dbre) {
 		SchemaComparer comparer = new SchemaComparer();
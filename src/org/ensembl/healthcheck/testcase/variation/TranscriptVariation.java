@@ -19,6 +19,8 @@
 package org.ensembl.healthcheck.testcase.variation;
 
 import java.sql.Connection;
+import java.util.LinkedHashMap;
+import java.util.Map;
 
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
 import org.ensembl.healthcheck.ReportManager;
@@ -41,6 +43,7 @@ public class TranscriptVariation extends SingleDatabaseTestCase {
     public TranscriptVariation() {
         setDescription("Check that if the peptide_allele_string of transcript_variation is not >1. It should out >1, unless it filled with numbers");
 		setTeamResponsible(Team.VARIATION);
+		setTablesRead("transcript_variation", "variation_feature");
     }
 
     /**
@@ -56,7 +59,14 @@ public class TranscriptVariation extends SingleDatabaseTestCase {
 	// check peptide_allele_string not filled with numbers
 
         Connection con = dbre.getConnection();
-        int rows = DBUtils.getRowCount(con, "SELECT COUNT(*) FROM transcript_variation WHERE pep_allele_string >1");
+
+        // one scan of transcript_variation for both counts
+        Map<String, String> predicates = new LinkedHashMap<String, String>();
+        predicates.put("pep_allele_string", "pep_allele_string >1");
+        predicates.put("consequence_types", "consequence_types=''");
+        Map<String, Integer> counts = DBUtils.getRowCounts(con, "transcript_variation", predicates);
+
+        int rows = counts.get("pep_allele_string");
         if (rows >=1) {
             result = false;
             ReportManager.problem(this, con, rows + " with peptide_allele_string >1");
@@ -64,7 +74,7 @@ public class TranscriptVariation extends SingleDatabaseTestCase {
       //      ReportManager.info(this, con, "No transcript_variation have peptide_allele_string >1);
         }
 
-	int rows1 = DBUtils.getRowCount(con, "SELECT COUNT(*) FROM transcript_variation WHERE consequence_types=''");
+	int rows1 = counts.get("consequence_types");
         if (rows1 >=1) {
             result = false;
             ReportManager.problem(this, con, rows1 + " with consequence_types a empty string");
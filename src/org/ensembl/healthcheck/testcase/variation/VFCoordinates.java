@@ -20,7 +20,9 @@ package org.ensembl.healthcheck.testcase.variation;
 
 import java.sql.Connection;
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.ensembl.healthcheck.DatabaseRegistry;
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
@@ -85,13 +87,14 @@ public class VFCoordinates extends MultiDatabaseTestCase {
 
 			System.out.println("Using " + coreName + " as core database and " + variationName + " as variation database");
 
-			int mc = DBUtils.getRowCount(
-					con,
-					"SELECT COUNT(*) FROM "
-							+ variationName
-							+ ".variation_feature vf LEFT JOIN "
-							+ variationName
-							+ ".failed_variation f ON vf.variation_id = f.variation_id WHERE f.variation_id IS NULL AND length(vf.allele_string) = 3 and vf.seq_region_start<> vf.seq_region_end and vf.allele_string NOT LIKE '%-%'");
+			// one scan of variation_feature for the checks that only need it
+			Map<String, String> predicates = new LinkedHashMap<String, String>();
+			predicates.put("allele_length", "NOT EXISTS (SELECT * FROM " + variationName
+					+ ".failed_variation f WHERE f.variation_id = vf.variation_id) AND length(vf.allele_string) = 3 and vf.seq_region_start<> vf.seq_region_end and vf.allele_string NOT LIKE '%-%'");
+			predicates.put("start_one", "vf.seq_region_start = 1 AND vf.seq_region_end > 1");
+			Map<String, Integer> counts = DBUtils.getRowCounts(con, variationName + ".variation_feature vf", predicates);
+
+			int mc = counts.get("allele_length");
 
 			if (mc > 0) {
 				ReportManager.problem(this, con, "Wrong allele length !! (allele_string <> coordinates length) for " + mc + " entries in " + variationName);
@@ -103,7 +106,7 @@ public class VFCoordinates extends MultiDatabaseTestCase {
 				ReportManager.problem(this, con, "Variation Features outside range in " + variationName);
 				result = false;
 			}
-			mc = DBUtils.getRowCount(con, "SELECT COUNT(*) FROM " + variationName + ".variation_feature vf WHERE vf.seq_region_start = 1 AND vf.seq_region_end > 1");
+			mc = counts.get("start_one");
 			if (mc > 0) {
 				ReportManager.problem(this, con, "Variation Features with coordinates = 1 " + variationName);
 				result = false;
@@ -38,6 +38,9 @@ import org.ensembl.healthcheck.ReportManager;
 import org.ensembl.healthcheck.Team;
 import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
 import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallback;
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallbackFactory;
+import org.ensembl.healthcheck.util.RangeScanExecutor.Row;
 import org.ensembl.healthcheck.Species;
 
 /**
@@ -45,6 +48,46 @@ import org.ensembl.healthcheck.Species;
  */
 public class VariationFeature extends SingleDatabaseTestCase {
 
+	/**
+	 * Counts the variations in a range with more than one feature at the same
+	 * location, from features ordered by variation and location.
+	 */
+	private static final RangeCallbackFactory<Long> DUPLICATES = new RangeCallbackFactory<Long>() {
+		public RangeCallback<Long> create(long lower, long upper) {
+			return new RangeCallback<Long>() {
+
+				private long lastVariation = 0;
+				private long lastRegion;
+				private long lastStart;
+				private long lastEnd;
+				private long duplicated = 0;
+				private boolean counted = false;
+
+				public boolean row(Row row) {
+					long variation = row.getLong(1);
+					if (variation == lastVariation && row.getLong(2) == lastRegion && row.getLong(3) == lastStart
+							&& row.getLong(4) == lastEnd) {
+						if (!counted) {
+							duplicated++;
+							counted = true;
+						}
+					} else {
+						counted = counted && variation == lastVariation;
+						lastVariation = variation;
+						lastRegion = row.getLong(2);
+						lastStart = row.getLong(3);
+						lastEnd = row.getLong(4);
+					}
+					return true;
+				}
+
+				public Long finish(boolean complete) {
+					return duplicated;
+				}
+			};
+		}
+	};
+
 	/**
 	 * Creates a new instance of VariationFeature
 	 */
@@ -72,9 +115,12 @@ public class VariationFeature extends SingleDatabaseTestCase {
 		
 		try {
 	
-			// Look for duplicates
-			String stmt = "SELECT COUNT(DISTINCT vf1.variation_id) FROM variation_feature vf1 JOIN variation_feature vf2 ON (vf2.variation_id = vf1.variation_id AND vf2.variation_feature_id > vf1.variation_feature_id AND vf2.seq_region_id = vf1.seq_region_id AND vf2.seq_region_start = vf1.seq_region_start AND vf2.seq_region_end = vf1.seq_region_end)";
-			int rows = DBUtils.getRowCount(con,stmt);
+			// Look for duplicates, in ranges of variation_ids rather than with a join of the table to itself
+			String stmt = "SELECT variation_id, seq_region_id, seq_region_start, seq_region_end FROM variation_feature WHERE variation_id BETWEEN ? AND ? ORDER BY variation_id, seq_region_id, seq_region_start, seq_region_end";
+			long rows = 0;
+			for (long duplicated : getSqlTemplate(con).scanRanges("variation_feature", "variation_id", stmt, DUPLICATES)) {
+				rows += duplicated;
+			}
 			if (rows > 0) {
 				result = false;
 				ReportManager.problem(this, con, String.valueOf(rows) + " rows are duplicated in variation_feature");
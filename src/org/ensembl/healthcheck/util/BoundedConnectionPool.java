@@ -0,0 +1,1004 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * A bounded pool of connections to one database, as one user.
+ * </p>
+ *
+ * <p>
+ * {@link #borrow()} hands out a connection that goes back to the pool when it
+ * is closed. At most <code>maxSize</code> connections are open at a time;
+ * borrowers wait up to <code>maxWait</code> milliseconds for one to be
+ * returned before an SQLException is thrown. A connection that has not been
+ * used for <code>validationInterval</code> milliseconds is checked before it
+ * is handed out again. Idle connections are closed after
+ * <code>idleTimeout</code> milliseconds, keeping <code>minIdle</code> of them.
+ * </p>
+ *
+ * <p>
+ * Much of the code base holds on to connections without ever closing them.
+ * Connections that are no longer referenced by anything are therefore put back
+ * into the pool once the garbage collector has noticed. Statements and result
+ * sets created on a borrowed connection are wrapped so that they reference it,
+ * and return it from getConnection() and getStatement(), so a connection is
+ * never reclaimed while they are still in use. Statements left open are
+ * closed when the connection goes back to the pool.
+ * </p>
+ *
+ * <p>
+ * As the garbage collector may not notice for a long time, a borrower who
+ * finds no connection free can also take back those that have not been used,
+ * through themselves or their statements and result sets, for
+ * <code>leaseTimeout</code> milliseconds, if one is set. Using such a
+ * connection afterwards fails as if it had been closed, so the timeout needs
+ * to be longer than any borrower keeps a connection without using it.
+ * </p>
+ *
+ * <p>
+ * Pools for databases on the same server can share a {@link ServerLimit},
+ * which caps the connections open to the server over all of them. A pool that
+ * is under its own limit but not the server's closes idle connections of the
+ * other pools to make room.
+ * </p>
+ */
+public class BoundedConnectionPool {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** How often a waiting borrower checks for abandoned connections. */
+	private static final long RECLAIM_POLL_MILLIS = 100;
+
+	private final String driverClassName;
+	private final String databaseURL;
+	private final String user;
+	private final String password;
+
+	private final int minIdle;
+	private final int maxSize;
+	private final long idleTimeout;
+	private final long validationInterval;
+	private final long maxWait;
+	private final long leaseTimeout;
+	private final ServerLimit serverLimit;
+
+	/** Idle connections, most recently used first. */
+	private final LinkedList<PooledConnection> idle = new LinkedList<PooledConnection>();
+
+	/** Connections that have been handed out, keyed on the proxy given to the borrower. */
+	private final Map<Reference<Connection>, PooledConnection> borrowed = new HashMap<Reference<Connection>, PooledConnection>();
+
+	private final ReferenceQueue<Connection> abandoned = new ReferenceQueue<Connection>();
+
+	/** Number of open connections, idle or borrowed. */
+	private int size = 0;
+
+	private boolean closed = false;
+
+	private final AtomicLong borrowCount = new AtomicLong();
+	private final AtomicLong waitCount = new AtomicLong();
+	private final AtomicLong waitNanos = new AtomicLong();
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong validationCount = new AtomicLong();
+	private final AtomicLong invalidCount = new AtomicLong();
+	private final AtomicLong abandonedCount = new AtomicLong();
+	private final AtomicLong expiredCount = new AtomicLong();
+
+	/**
+	 * A physical connection and its bookkeeping.
+	 */
+	static class PooledConnection {
+
+		final Connection connection;
+		final String catalog;
+		long lastUsed;
+
+		/** Statements created by the current borrower and not closed yet. */
+		final Set<Statement> statements = Collections.synchronizedSet(new HashSet<Statement>());
+
+		/**
+		 * The proxy handler of the current borrower. Weak, as through its
+		 * statement cache it references the proxy, which must stay collectable.
+		 */
+		Reference<Handler> handler;
+
+		/** Calls of the current borrower that haven't returned yet. */
+		final AtomicInteger activeCalls = new AtomicInteger();
+
+		/** When the current borrower last called it, in milliseconds. */
+		volatile long lastActivity;
+
+		PooledConnection(Connection connection, String catalog) {
+			this.connection = connection;
+			this.catalog = catalog;
+			this.lastUsed = System.currentTimeMillis();
+		}
+
+		void startCall() {
+			activeCalls.incrementAndGet();
+		}
+
+		void finishCall() {
+			lastActivity = System.currentTimeMillis();
+			activeCalls.decrementAndGet();
+		}
+
+		boolean isLeaseExpired(long now, long leaseTimeout) {
+			return activeCalls.get() == 0 && now - lastActivity >= leaseTimeout;
+		}
+	}
+
+	/**
+	 * Caps the number of connections open to one server, over all the pools
+	 * that share it.
+	 */
+	public static class ServerLimit {
+
+		private final String server;
+		private final int maxSize;
+		private int size = 0;
+		private final List<BoundedConnectionPool> pools = new CopyOnWriteArrayList<BoundedConnectionPool>();
+
+		/**
+		 * @param server
+		 *          The server, for messages.
+		 * @param maxSize
+		 *          Maximum number of connections open to it.
+		 */
+		public ServerLimit(String server, int maxSize) {
+
+			if (maxSize < 1) {
+				throw new IllegalArgumentException("Invalid server limit: " + maxSize);
+			}
+			this.server = server;
+			this.maxSize = maxSize;
+		}
+
+		synchronized boolean tryAcquire() {
+
+			if (size >= maxSize) {
+				return false;
+			}
+			size++;
+			return true;
+		}
+
+		synchronized void release() {
+			size--;
+		}
+
+		/** @return The number of connections open to the server. */
+		public synchronized int getSize() {
+			return size;
+		}
+
+		public int getMaxSize() {
+			return maxSize;
+		}
+
+		/**
+		 * Close an idle connection of another pool on the server, taking back
+		 * one whose lease expired if none is idle. Called without holding the
+		 * lock of any pool.
+		 *
+		 * @return true if a connection was closed.
+		 */
+		boolean makeRoom(BoundedConnectionPool except) {
+
+			for (BoundedConnectionPool pool : pools) {
+				if (pool != except && pool.closeIdleConnection()) {
+					return true;
+				}
+			}
+			for (BoundedConnectionPool pool : pools) {
+				if (pool != except && pool.reclaimExpiredLeases() && pool.closeIdleConnection()) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		public String toString() {
+			return server;
+		}
+	}
+
+	/**
+	 * @param driverClassName
+	 *          The class of the JDBC driver.
+	 * @param databaseURL
+	 *          The URL of the database to connect to.
+	 * @param user
+	 *          The username to connect to the database with.
+	 * @param password
+	 *          The password for username.
+	 * @param minIdle
+	 *          Number of idle connections kept open when evicting.
+	 * @param maxSize
+	 *          Maximum number of open connections.
+	 * @param idleTimeout
+	 *          Milliseconds after which an idle connection is closed.
+	 * @param validationInterval
+	 *          Milliseconds a connection may be unused before it is checked on
+	 *          borrow. 0 checks every time.
+	 * @param maxWait
+	 *          Milliseconds to wait for a connection when all are in use.
+	 */
+	public BoundedConnectionPool(String driverClassName, String databaseURL, String user, String password, int minIdle,
+			int maxSize, long idleTimeout, long validationInterval, long maxWait) {
+
+		this(driverClassName, databaseURL, user, password, minIdle, maxSize, idleTimeout, validationInterval, maxWait, 0,
+				null);
+	}
+
+	/**
+	 * @param leaseTimeout
+	 *          Milliseconds a borrowed connection may go unused before it can
+	 *          be taken back for another borrower. 0 never takes them back.
+	 * @param serverLimit
+	 *          The limit shared with the other pools on the same server, or
+	 *          null for none.
+	 */
+	public BoundedConnectionPool(String driverClassName, String databaseURL, String user, String password, int minIdle,
+			int maxSize, long idleTimeout, long validationInterval, long maxWait, long leaseTimeout,
+			ServerLimit serverLimit) {
+
+		if (maxSize < 1 || minIdle < 0 || minIdle > maxSize) {
+			throw new IllegalArgumentException("Invalid pool size: min " + minIdle + ", max " + maxSize);
+		}
+
+		this.driverClassName = driverClassName;
+		this.databaseURL = databaseURL;
+		this.user = user;
+		this.password = password;
+		this.minIdle = minIdle;
+		this.maxSize = maxSize;
+		this.idleTimeout = idleTimeout;
+		this.validationInterval = validationInterval;
+		this.maxWait = maxWait;
+		this.leaseTimeout = leaseTimeout;
+		this.serverLimit = serverLimit;
+
+		if (serverLimit != null) {
+			serverLimit.pools.add(this);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Borrow a connection. Closing the connection returns it to the pool.
+	 *
+	 * @return A connection to the database of this pool.
+	 * @throws SQLException
+	 *           If no connection could be opened, or none was returned within
+	 *           maxWait milliseconds.
+	 */
+	public Connection borrow() throws SQLException {
+
+		return borrow(maxWait);
+	}
+
+	/**
+	 * Borrow a connection, waiting no longer than given for one to be returned
+	 * if all are in use.
+	 *
+	 * @param maxWait
+	 *          The milliseconds to wait; 0 to fail at once.
+	 * @throws SQLException
+	 *           If no connection could be opened, or none was returned within
+	 *           maxWait milliseconds.
+	 */
+	public Connection borrow(long maxWait) throws SQLException {
+
+		long start = System.nanoTime();
+		long deadline = System.currentTimeMillis() + maxWait;
+		boolean waited = false;
+
+		try {
+			while (true) {
+
+				PooledConnection pc = null;
+				boolean reserved = false;
+				boolean serverFull = false;
+
+				synchronized (this) {
+
+					if (closed) {
+						throw new SQLException("Connection pool for " + databaseURL + " has been closed");
+					}
+
+					reclaimAbandoned();
+					evictIdle();
+
+					if (!idle.isEmpty()) {
+						pc = idle.removeFirst();
+					} else if (size < maxSize) {
+						if (serverLimit == null || serverLimit.tryAcquire()) {
+							// Reserve the slot, connect outside the lock
+							size++;
+							reserved = true;
+						} else {
+							serverFull = true;
+						}
+					}
+				}
+
+				if (pc == null && !reserved) {
+
+					// Make room without waiting for the garbage collector
+					if (reclaimExpiredLeases() || (serverFull && serverLimit.makeRoom(this))) {
+						continue;
+					}
+
+					long remaining = deadline - System.currentTimeMillis();
+					if (remaining <= 0) {
+						throw new SQLException("Timed out after " + maxWait + "ms waiting for a connection to "
+								+ databaseURL + (serverFull ? ", all " + serverLimit.getMaxSize() + " to " + serverLimit
+										+ " are in use" : ", all " + maxSize + " are in use"));
+					}
+
+					waited = true;
+					synchronized (this) {
+						try {
+							wait(Math.min(remaining, RECLAIM_POLL_MILLIS));
+						} catch (InterruptedException e) {
+							Thread.currentThread().interrupt();
+							throw new SQLException("Interrupted while waiting for a connection to " + databaseURL);
+						}
+					}
+					continue;
+				}
+
+				if (pc == null) {
+					pc = create();
+				} else if (System.currentTimeMillis() - pc.lastUsed >= validationInterval && !validate(pc)) {
+					destroy(pc);
+					continue;
+				}
+
+				borrowCount.incrementAndGet();
+				return wrap(pc);
+			}
+		} finally {
+			if (waited) {
+				waitCount.incrementAndGet();
+			}
+			waitNanos.addAndGet(System.nanoTime() - start);
+		}
+	}
+
+	private PooledConnection create() throws SQLException {
+
+		try {
+			Class.forName(driverClassName);
+			Connection con = DriverManager.getConnection(databaseURL, user, password);
+			createdCount.incrementAndGet();
+			logger.finest("Opened new pooled connection to " + databaseURL);
+			return new PooledConnection(con, con.getCatalog());
+
+		} catch (ClassNotFoundException e) {
+			releaseSlot();
+			logger.severe("Can't load class " + driverClassName);
+			throw new RuntimeException(e);
+		} catch (SQLException e) {
+			releaseSlot();
+			throw e;
+		} catch (RuntimeException e) {
+			releaseSlot();
+			throw e;
+		}
+	}
+
+	private boolean validate(PooledConnection pc) {
+
+		validationCount.incrementAndGet();
+
+		boolean valid = ConnectionPool.isValidConnection(pc.connection);
+		if (!valid) {
+			invalidCount.incrementAndGet();
+			logger.warning("Pooled connection to " + databaseURL + " was invalid. Creating again from scratch.");
+		}
+		return valid;
+	}
+
+	private Connection wrap(PooledConnection pc) {
+
+		Handler handler = new Handler(pc);
+
+		Connection proxy = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+				new Class<?>[] { Connection.class }, handler);
+
+		synchronized (this) {
+			pc.handler = new WeakReference<Handler>(handler);
+			pc.activeCalls.set(0);
+			pc.lastActivity = System.currentTimeMillis();
+			handler.reference = new WeakReference<Connection>(proxy, abandoned);
+			borrowed.put(handler.reference, pc);
+		}
+		return proxy;
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Put a connection back after its proxy was closed or garbage collected.
+	 */
+	private void giveBack(PooledConnection pc) {
+
+		if (!reset(pc)) {
+			destroy(pc);
+			return;
+		}
+
+		synchronized (this) {
+			if (closed) {
+				closeQuietly(pc);
+				slotFreed();
+				return;
+			}
+			pc.lastUsed = System.currentTimeMillis();
+			idle.addFirst(pc);
+			notifyAll();
+		}
+	}
+
+	/**
+	 * Undo changes a borrower may have made to the session.
+	 *
+	 * @return false if the connection can't be used again.
+	 */
+	private static boolean reset(PooledConnection pc) {
+
+		closeStatements(pc);
+
+		try {
+			if (pc.connection.isClosed()) {
+				return false;
+			}
+			if (!pc.connection.getAutoCommit()) {
+				pc.connection.rollback();
+				pc.connection.setAutoCommit(true);
+			}
+			if (pc.catalog != null && !pc.catalog.equals(pc.connection.getCatalog())) {
+				pc.connection.setCatalog(pc.catalog);
+			}
+			return true;
+
+		} catch (SQLException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Close the statements the last borrower left open, with their result
+	 * sets.
+	 */
+	private static void closeStatements(PooledConnection pc) {
+
+		List<Statement> open;
+		synchronized (pc.statements) {
+			open = new ArrayList<Statement>(pc.statements);
+			pc.statements.clear();
+		}
+		for (Statement statement : open) {
+			DBUtils.closeQuietly(statement);
+		}
+	}
+
+	private void destroy(PooledConnection pc) {
+
+		closeQuietly(pc);
+		releaseSlot();
+	}
+
+	private synchronized void releaseSlot() {
+
+		slotFreed();
+		notifyAll();
+	}
+
+	/**
+	 * Count a connection as closed. Must be called holding the lock.
+	 */
+	private void slotFreed() {
+
+		size--;
+		if (serverLimit != null) {
+			serverLimit.release();
+		}
+	}
+
+	/**
+	 * Return connections whose proxies have been garbage collected without
+	 * being closed. Must be called holding the lock.
+	 */
+	private void reclaimAbandoned() {
+
+		Reference<? extends Connection> ref;
+
+		while ((ref = abandoned.poll()) != null) {
+
+			PooledConnection pc = borrowed.remove(ref);
+
+			if (pc != null) {
+				abandonedCount.incrementAndGet();
+				logger.finest("Reclaimed abandoned connection to " + databaseURL);
+				if (reset(pc)) {
+					pc.lastUsed = System.currentTimeMillis();
+					idle.addFirst(pc);
+				} else {
+					closeQuietly(pc);
+					slotFreed();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Take back borrowed connections that have not been used for longer than
+	 * leaseTimeout, without waiting for the garbage collector.
+	 *
+	 * @return true if any was taken back.
+	 */
+	synchronized boolean reclaimExpiredLeases() {
+
+		if (leaseTimeout <= 0 || borrowed.isEmpty()) {
+			return false;
+		}
+
+		long now = System.currentTimeMillis();
+		boolean reclaimed = false;
+
+		for (Iterator<Map.Entry<Reference<Connection>, PooledConnection>> it = borrowed.entrySet().iterator(); it
+				.hasNext();) {
+
+			Map.Entry<Reference<Connection>, PooledConnection> entry = it.next();
+			PooledConnection pc = entry.getValue();
+
+			Handler handler = pc.handler == null ? null : pc.handler.get();
+			if (handler == null || !handler.expire(now)) {
+				continue;
+			}
+
+			it.remove();
+			entry.getKey().clear();
+			expiredCount.incrementAndGet();
+			logger.warning("Took back connection to " + databaseURL + " that was not used for " + (now - pc.lastActivity)
+					+ "ms without being closed");
+
+			if (reset(pc)) {
+				pc.lastUsed = now;
+				idle.addFirst(pc);
+			} else {
+				closeQuietly(pc);
+				slotFreed();
+			}
+			reclaimed = true;
+		}
+
+		if (reclaimed) {
+			notifyAll();
+		}
+		return reclaimed;
+	}
+
+	/**
+	 * Close the least recently used idle connection, e.g. to make room for a
+	 * connection of another pool on the same server.
+	 *
+	 * @return true if there was one to close.
+	 */
+	synchronized boolean closeIdleConnection() {
+
+		reclaimAbandoned();
+
+		if (idle.isEmpty()) {
+			return false;
+		}
+		closeQuietly(idle.removeLast());
+		slotFreed();
+		return true;
+	}
+
+	/**
+	 * Close connections that have been idle for longer than idleTimeout,
+	 * keeping at least minIdle. Must be called holding the lock.
+	 */
+	private void evictIdle() {
+
+		long cutoff = System.currentTimeMillis() - idleTimeout;
+
+		// Least recently used ones are at the end
+		while (idle.size() > minIdle && idle.getLast().lastUsed < cutoff) {
+			closeQuietly(idle.removeLast());
+			slotFreed();
+		}
+	}
+
+	/**
+	 * Close idle connections that have timed out.
+	 */
+	public synchronized void evictIdleConnections() {
+
+		reclaimAbandoned();
+		evictIdle();
+	}
+
+	/**
+	 * Close all idle connections and stop handing out new ones. Borrowed
+	 * connections are closed when they are returned.
+	 */
+	public synchronized void close() {
+
+		closed = true;
+
+		for (Iterator<PooledConnection> it = idle.iterator(); it.hasNext();) {
+			closeQuietly(it.next());
+			slotFreed();
+			it.remove();
+		}
+		if (serverLimit != null) {
+			serverLimit.pools.remove(this);
+		}
+		notifyAll();
+	}
+
+	private static void closeQuietly(PooledConnection pc) {
+
+		try {
+			pc.connection.close();
+		} catch (SQLException e) {
+			// it's going away anyway
+		}
+	}
+
+	/**
+	 * @param size
+	 *          The number of statements the cache keeps, if it has to be
+	 *          created.
+	 * @return The statement cache of a borrowed connection, or null if con
+	 *         wasn't borrowed from a pool or has been returned.
+	 */
+	static PreparedStatementCache getStatementCache(Connection con, int size) {
+
+		if (!Proxy.isProxyClass(con.getClass())) {
+			return null;
+		}
+		InvocationHandler handler = Proxy.getInvocationHandler(con);
+		if (!(handler instanceof Handler)) {
+			return null;
+		}
+
+		Handler pooled = (Handler) handler;
+		synchronized (pooled) {
+			if (pooled.returned) {
+				return null;
+			}
+			if (pooled.statementCache == null) {
+				pooled.statementCache = new PreparedStatementCache(size);
+			}
+			return pooled.statementCache;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Metrics
+
+	/** @return The number of connections currently borrowed. */
+	public synchronized int getActiveCount() {
+		return size - idle.size();
+	}
+
+	/** @return The number of open connections waiting to be borrowed. */
+	public synchronized int getIdleCount() {
+		return idle.size();
+	}
+
+	/** @return The number of times a connection was borrowed. */
+	public long getBorrowCount() {
+		return borrowCount.get();
+	}
+
+	/** @return The number of borrows that had to wait for a connection. */
+	public long getWaitCount() {
+		return waitCount.get();
+	}
+
+	/** @return Total milliseconds spent in {@link #borrow()}. */
+	public long getWaitTimeMillis() {
+		return TimeUnit.NANOSECONDS.toMillis(waitNanos.get());
+	}
+
+	/** @return The number of physical connections opened. */
+	public long getCreatedCount() {
+		return createdCount.get();
+	}
+
+	/** @return The number of times a connection was validated on borrow. */
+	public long getValidationCount() {
+		return validationCount.get();
+	}
+
+	/** @return The number of connections found to be invalid on borrow. */
+	public long getInvalidCount() {
+		return invalidCount.get();
+	}
+
+	/** @return The number of connections reclaimed without being closed. */
+	public long getAbandonedCount() {
+		return abandonedCount.get();
+	}
+
+	/** @return The number of connections taken back after their lease expired. */
+	public long getExpiredCount() {
+		return expiredCount.get();
+	}
+
+	public String getDatabaseURL() {
+		return databaseURL;
+	}
+
+	public String toString() {
+		return String.format(
+				"%s: active=%d idle=%d borrows=%d waits=%d wait_time=%dms created=%d validations=%d invalid=%d abandoned=%d expired=%d",
+				databaseURL, getActiveCount(), getIdleCount(), getBorrowCount(), getWaitCount(), getWaitTimeMillis(),
+				getCreatedCount(), getValidationCount(), getInvalidCount(), getAbandonedCount(), getExpiredCount());
+	}
+
+	// -------------------------------------------------------------------------
+	/**
+	 * Passes calls on to the pooled connection until the borrower closes it.
+	 */
+	private class Handler implements InvocationHandler {
+
+		private final PooledConnection pc;
+
+		private Reference<Connection> reference;
+
+		private boolean returned = false;
+
+		/** Kept here so that only the borrower references it. */
+		private PreparedStatementCache statementCache;
+
+		Handler(PooledConnection pc) {
+			this.pc = pc;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+			String name = method.getName();
+
+			if (name.equals("close")) {
+				returnToPool();
+				return null;
+			}
+			if (name.equals("isClosed")) {
+				if (isReturned()) {
+					return true;
+				}
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			} else if (name.equals("toString")) {
+				return "Pooled connection to " + databaseURL;
+			}
+
+			Object result;
+			pc.startCall();
+			try {
+				// checked after startCall() so the lease can't expire during the call
+				if (isReturned()) {
+					throw new SQLException("Connection to " + databaseURL + " has already been returned to the pool");
+				}
+				result = method.invoke(pc.connection, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				pc.finishCall();
+			}
+
+			if (result instanceof Statement) {
+				// createStatement, prepareStatement or prepareCall
+				Statement statement = (Statement) result;
+				pc.statements.add(statement);
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { method.getReturnType() },
+						new StatementHandler((Connection) proxy, pc, statement));
+			}
+			return result;
+		}
+
+		private synchronized boolean isReturned() {
+			return returned;
+		}
+
+		/**
+		 * Stop passing calls on because the lease expired, unless the
+		 * connection was used in the meantime.
+		 *
+		 * @return true if the connection can be taken back.
+		 */
+		private boolean expire(long now) {
+
+			PreparedStatementCache cache;
+			synchronized (this) {
+				if (returned || !pc.isLeaseExpired(now, leaseTimeout)) {
+					return false;
+				}
+				returned = true;
+				if (pc.activeCalls.get() > 0) {
+					// a call started after all
+					returned = false;
+					return false;
+				}
+				cache = statementCache;
+				statementCache = null;
+			}
+
+			if (cache != null) {
+				cache.close();
+			}
+			return true;
+		}
+
+		private void returnToPool() {
+
+			PreparedStatementCache cache;
+			synchronized (this) {
+				if (returned) {
+					return;
+				}
+				returned = true;
+				cache = statementCache;
+				statementCache = null;
+			}
+
+			// its statements would stay open on the pooled connection
+			if (cache != null) {
+				cache.close();
+			}
+
+			synchronized (BoundedConnectionPool.this) {
+				borrowed.remove(reference);
+				reference.clear();
+			}
+
+			giveBack(pc);
+		}
+	}
+
+	/**
+	 * Passes calls on to a statement, keeping the connection proxy it was
+	 * created by referenced for as long as the statement is.
+	 */
+	private static class StatementHandler implements InvocationHandler {
+
+		private final Connection connection;
+
+		private final PooledConnection pc;
+
+		private final Statement statement;
+
+		StatementHandler(Connection connection, PooledConnection pc, Statement statement) {
+			this.connection = connection;
+			this.pc = pc;
+			this.statement = statement;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+			String name = method.getName();
+
+			if (name.equals("getConnection")) {
+				return connection;
+			} else if (name.equals("close")) {
+				pc.statements.remove(statement);
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+
+			Object result;
+			pc.startCall();
+			try {
+				result = method.invoke(statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				pc.finishCall();
+			}
+
+			if (result instanceof ResultSet) {
+				return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { ResultSet.class },
+						new ResultSetHandler((Statement) proxy, pc, (ResultSet) result));
+			}
+			return result;
+		}
+	}
+
+	/**
+	 * Passes calls on to a result set, keeping the statement proxy it came
+	 * from referenced for as long as the result set is.
+	 */
+	private static class ResultSetHandler implements InvocationHandler {
+
+		private final Statement statement;
+
+		private final PooledConnection pc;
+
+		private final ResultSet resultSet;
+
+		ResultSetHandler(Statement statement, PooledConnection pc, ResultSet resultSet) {
+			this.statement = statement;
+			this.pc = pc;
+			this.resultSet = resultSet;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+
+			String name = method.getName();
+
+			if (name.equals("getStatement")) {
+				return statement;
+			} else if (name.equals("equals")) {
+				return proxy == args[0];
+			} else if (name.equals("hashCode")) {
+				return System.identityHashCode(proxy);
+			}
+
+			pc.startCall();
+			try {
+				return method.invoke(resultSet, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			} finally {
+				pc.finishCall();
+			}
+		}
+	}
+
+}
@@ -33,6 +33,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
@@ -129,6 +130,7 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 				throw new SqlUncheckedException(message);
 			}
 		} catch (SQLException e) {
+			DatabaseRegistryEntry.invalidateConnection(connection);
 			String message = formatExceptionMessage(
 					"Encountered problem whilst mapping ResultSet to Object List",
 					sql, args);
@@ -165,12 +167,15 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 	public int execute(String sql) {
 		int updatedRows = -1;
 		Statement st = null;
+		QueryMonitor.Query query = null;
 		try {
 			st = connection.createStatement();
+			query = QueryMonitor.start(connection, st, sql);
 			updatedRows = st.executeUpdate(sql);
 		} catch (SQLException e) {
 			createUncheckedException(sql, new Object[] {}, e);
 		} finally {
+			finishQuery(query, updatedRows);
 			closeDbObject(st);
 		}
 		return updatedRows;
@@ -181,23 +186,75 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 	 */
 	public <T> T execute(String sql, ResultSetCallback<T> callback,
 			Object... args) {
-		T object;
+		T object = null;
+		PreparedStatementCache cache = PreparedStatementCache.forConnection(connection);
 		PreparedStatement ps = null;
 		ResultSet rs = null;
+		QueryMonitor.Query query = null;
+		boolean reusable = false;
 		try {
-			ps = connection.prepareStatement(sql);
+			ps = prepareStatement(cache, sql);
 			bindParamsToPreparedStatement(ps, args);
+			query = QueryMonitor.start(connection, ps, sql);
 			rs = ps.executeQuery();
 			object = callback.process(rs);
+			reusable = true;
 		} catch (SQLException e) {
 			throw createUncheckedException(sql, args, e);
 		} finally {
 			closeDbObject(rs);
-			closeDbObject(ps);
+			finishQuery(query, countRows(object));
+			releaseStatement(cache, sql, ps, reusable);
 		}
 		return object;
 	}
 
+	/**
+	 * @return The number of rows a callback made into a collection or map, or
+	 *         -1 as it isn't known for other results.
+	 */
+	private static long countRows(Object result) {
+		if (result instanceof Collection) {
+			return ((Collection<?>) result).size();
+		}
+		if (result instanceof Map) {
+			return ((Map<?, ?>) result).size();
+		}
+		return -1;
+	}
+
+	/**
+	 * Stop timing a query, if it was started.
+	 */
+	private static void finishQuery(QueryMonitor.Query query, long rows) {
+		if (query != null) {
+			query.finish(rows);
+		}
+	}
+
+	/**
+	 * Take a statement for sql from the cache, or prepare one if there is no
+	 * cache.
+	 */
+	private PreparedStatement prepareStatement(PreparedStatementCache cache,
+			String sql) throws SQLException {
+		return (cache == null) ? connection.prepareStatement(sql) : cache
+				.acquire(connection, sql);
+	}
+
+	/**
+	 * Put a statement back in the cache, or close it if there is no cache or
+	 * running it failed.
+	 */
+	private void releaseStatement(PreparedStatementCache cache, String sql,
+			PreparedStatement ps, boolean reusable) {
+		if (cache != null && ps != null && reusable) {
+			cache.release(sql, ps);
+		} else {
+			closeDbObject(ps);
+		}
+	}
+
 	/**
 	 * Use this to close down {@link ResultSet} objects with null safety checks
 	 */
@@ -309,19 +366,121 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 		}, args);
 	}
 	
+	/**
+	 * {@inheritDoc}
+	 */
+	public Map<String, Integer> queryForCounts(final String from,
+			final Map<String, String> predicates, final Object... args)
+			throws SqlUncheckedException {
+
+		final List<String> names = new ArrayList<String>(predicates.keySet());
+
+		StringBuilder sql = new StringBuilder("SELECT ");
+		for (int i = 0; i < names.size(); i++) {
+			if (i > 0) {
+				sql.append(", ");
+			}
+			sql.append("SUM(CASE WHEN (").append(predicates.get(names.get(i)))
+					.append(") THEN 1 ELSE 0 END)");
+		}
+		sql.append(" FROM ").append(from);
+
+		return execute(sql.toString(), new ResultSetCallback<Map<String, Integer>>() {
+			@Override
+			public Map<String, Integer> process(ResultSet rs) throws SQLException {
+				Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+				rs.next();
+				for (int i = 0; i < names.size(); i++) {
+					// the sums are NULL if there are no rows
+					counts.put(names.get(i), rs.getInt(i + 1));
+				}
+				return counts;
+			}
+		}, args);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public int forEachRow(String sql, RowCallback callback, Object... args) {
+		int rows = 0;
+		boolean exhausted = false;
+		PreparedStatement ps = null;
+		ResultSet rs = null;
+		QueryMonitor.Query query = null;
+		try {
+			ps = DBUtils.prepareStreamingStatement(connection, sql);
+			bindParamsToPreparedStatement(ps, args);
+			query = QueryMonitor.start(connection, ps, sql);
+			rs = ps.executeQuery();
+			while (true) {
+				if (!rs.next()) {
+					exhausted = true;
+					break;
+				}
+				rows++;
+				if (!callback.process(rs)) {
+					break;
+				}
+			}
+		} catch (SQLException e) {
+			throw createUncheckedException(sql, args, e);
+		} finally {
+			if (!exhausted) {
+				// rather than reading the rest of a streamed result
+				DBUtils.cancelQuietly(ps);
+			}
+			closeDbObject(rs);
+			finishQuery(query, rows);
+			closeDbObject(ps);
+		}
+		return rows;
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <T> int stream(String sql, final RowMapper<T> mapper,
+			final ObjectCallback<T> callback, Object... args) {
+		return forEachRow(sql, new RowCallback() {
+			private int position = 0;
+
+			public boolean process(ResultSet rs) throws SQLException {
+				return callback.process(mapper.mapRow(rs, position++));
+			}
+		}, args);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 */
+	public <R> List<R> scanRanges(String table, String keyColumn, String sql,
+			RangeScanExecutor.RangeCallbackFactory<R> factory, Object... args) {
+		return new RangeScanExecutor(connection).scan(table, keyColumn, sql,
+				factory, args);
+	}
+
   /**
    * {@inheritDoc}
    */
 	public int update(final String sql, final Object... args) {
+	  PreparedStatementCache cache = PreparedStatementCache.forConnection(connection);
 	  PreparedStatement ps = null;
+	  QueryMonitor.Query query = null;
+	  int updated = -1;
+	  boolean reusable = false;
 	  try {
-      ps = connection.prepareStatement(sql);
+      ps = prepareStatement(cache, sql);
       bindParamsToPreparedStatement(ps, args);
-      return ps.executeUpdate();
+      query = QueryMonitor.start(connection, ps, sql);
+      updated = ps.executeUpdate();
+      reusable = true;
+      return updated;
     } catch (SQLException e) {
       throw createUncheckedException(sql, args, e);
     } finally {
-      closeDbObject(ps);
+      finishQuery(query, updated);
+      releaseStatement(cache, sql, ps, reusable);
     }
 	}
 
@@ -333,6 +492,8 @@ public class ConnectionBasedSqlTemplateImpl implements SqlTemplate {
 	 */
 	private SqlUncheckedException createUncheckedException(String sql,
 			Object[] params, Throwable e) {
+		// the connection may have gone away
+		DatabaseRegistryEntry.invalidateConnection(connection);
 		String message = formatExceptionMessage(
 				"Could not run statement because of SqlServiceException: "+e.getMessage(), sql,
 				params);
@@ -23,15 +23,20 @@ import java.sql.DriverManager;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.util.HashMap;
+import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
-import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 /**
  * Implements connection pooling.
+ * <p>
+ * There are two kinds of connections. {@link #getConnection} returns one connection per URL that is shared by everybody asking
+ * for it and never needs to be closed. {@link #borrowConnection} hands out connections from a {@link BoundedConnectionPool} per
+ * URL and user, which go back to the pool when they are closed. The limits of new pools can be changed with the static
+ * setters.
  */
 public final class ConnectionPool {
 
@@ -39,7 +44,21 @@ public final class ConnectionPool {
     private static Logger logger = Logger.getLogger("HealthCheckLogger");
 
     // store connections; key = database URL (as String), Connection object
-    private static Map<String, Connection> pool = new HashMap<String, Connection>();
+    private static Map<String, Connection> pool = new ConcurrentHashMap<String, Connection>();
+
+    // bounded pools; key = user@database URL
+    private static Map<String, BoundedConnectionPool> boundedPools = new ConcurrentHashMap<String, BoundedConnectionPool>();
+
+    // limits shared by the bounded pools on one server; key = user@host:port
+    private static Map<String, BoundedConnectionPool.ServerLimit> serverLimits = new ConcurrentHashMap<String, BoundedConnectionPool.ServerLimit>();
+
+    private static volatile int minIdle = 0;
+    private static volatile int maxSize = 8;
+    private static volatile long idleTimeout = 5 * 60 * 1000;
+    private static volatile long validationInterval = 30 * 1000;
+    private static volatile long maxWait = 5 * 60 * 1000;
+    private static volatile long leaseTimeout = 0;
+    private static volatile int maxSizePerServer = 0;
 
     // hide constructor to stop people instantiating this
     private ConnectionPool() { }
@@ -80,6 +99,182 @@ public final class ConnectionPool {
         return con;
     }
 
+    // -------------------------------------------------------------------------
+    // Limits for pools created from now on
+
+    /** @param minIdle Number of idle connections kept open per database. */
+    public static void setMinIdle(int minIdle) {
+        ConnectionPool.minIdle = minIdle;
+    }
+
+    /** @param maxSize Maximum number of open connections per database. */
+    public static void setMaxSize(int maxSize) {
+        ConnectionPool.maxSize = maxSize;
+    }
+
+    /** @param idleTimeout Milliseconds after which an idle connection is closed. */
+    public static void setIdleTimeout(long idleTimeout) {
+        ConnectionPool.idleTimeout = idleTimeout;
+    }
+
+    /** @param validationInterval Milliseconds a connection may be unused before it is validated when borrowed. */
+    public static void setValidationInterval(long validationInterval) {
+        ConnectionPool.validationInterval = validationInterval;
+    }
+
+    /** @return Milliseconds a connection may be unused before it is validated. */
+    public static long getValidationInterval() {
+        return validationInterval;
+    }
+
+    /** @param maxWait Milliseconds to wait for a connection if all are in use. */
+    public static void setMaxWait(long maxWait) {
+        ConnectionPool.maxWait = maxWait;
+    }
+
+    /**
+     * @param leaseTimeout Milliseconds a borrowed connection may go unused before it is taken back if needed. 0, the
+     *            default, never does, as a test keeps its connection while it works on what it read.
+     */
+    public static void setLeaseTimeout(long leaseTimeout) {
+        ConnectionPool.leaseTimeout = leaseTimeout;
+    }
+
+    /** @param maxSizePerServer Maximum number of open connections per server over all its databases. 0 for no limit. */
+    public static void setMaxSizePerServer(int maxSizePerServer) {
+        ConnectionPool.maxSizePerServer = maxSizePerServer;
+    }
+
+    /**
+     * Borrow a connection from the bounded pool for this database and user. Closing the connection returns it to the pool.
+     * 
+     * @return A connection that must be closed when no longer needed.
+     * @param driverClassName
+     *          The class of the JDBC driver.
+     * @param databaseURL
+     *          The URL of the database to connect to.
+     * @param user
+     *          The username to connect to the database with.
+     * @param password
+     *          The password for username.
+     * @throws SQLException
+     */
+    public static Connection borrowConnection(String driverClassName, String databaseURL, String user, String password) throws SQLException {
+
+        return getBoundedPool(driverClassName, databaseURL, user, password).borrow();
+    }
+
+    private static BoundedConnectionPool getBoundedPool(String driverClassName, String databaseURL, String user, String password) {
+
+        String key = user + "@" + databaseURL;
+
+        BoundedConnectionPool boundedPool = boundedPools.get(key);
+
+        if (boundedPool == null) {
+            synchronized (boundedPools) {
+                boundedPool = boundedPools.get(key);
+                if (boundedPool == null) {
+                    boundedPool = new BoundedConnectionPool(driverClassName, databaseURL, user, password, minIdle, maxSize, idleTimeout, validationInterval, maxWait,
+                            leaseTimeout, getServerLimit(databaseURL, user));
+                    boundedPools.put(key, boundedPool);
+                }
+            }
+        }
+        return boundedPool;
+    }
+
+    /**
+     * @return The limit shared by the pools on the server of databaseURL, or null if there is none. Must be called holding the
+     *         lock on boundedPools.
+     */
+    private static BoundedConnectionPool.ServerLimit getServerLimit(String databaseURL, String user) {
+
+        if (maxSizePerServer < 1) {
+            return null;
+        }
+
+        String server = getServer(databaseURL);
+        String key = user + "@" + server;
+
+        BoundedConnectionPool.ServerLimit serverLimit = serverLimits.get(key);
+        if (serverLimit == null) {
+            serverLimit = new BoundedConnectionPool.ServerLimit(server, maxSizePerServer);
+            serverLimits.put(key, serverLimit);
+        }
+        return serverLimit;
+    }
+
+    /**
+     * @return The host and port of a URL like jdbc:mysql://host:port/database, or the whole URL if it doesn't name a host.
+     */
+    public static String getServer(String databaseURL) {
+
+        int start = databaseURL.indexOf("//");
+        if (start < 0) {
+            return databaseURL;
+        }
+        int end = databaseURL.indexOf('/', start + 2);
+        return end < 0 ? databaseURL.substring(start + 2) : databaseURL.substring(start + 2, end);
+    }
+
+    /**
+     * Borrow another connection to the database con is connected to, for
+     * running two queries on it at the same time.
+     *
+     * @return A connection that must be closed when no longer needed, or null
+     *         if con did not come from a bounded pool.
+     * @throws SQLException
+     *           If the pool has no connection to spare.
+     */
+    public static Connection borrowConnectionLike(Connection con) throws SQLException {
+
+        return borrowConnectionLike(con, maxWait);
+    }
+
+    /**
+     * Borrow another connection to the database con is connected to, waiting
+     * no longer than given if all its connections are in use.
+     *
+     * @param maxWait
+     *          The milliseconds to wait; 0 to fail at once.
+     * @return A connection that must be closed when no longer needed, or null
+     *         if con did not come from a bounded pool.
+     * @throws SQLException
+     *           If the pool has no connection to spare.
+     */
+    public static Connection borrowConnectionLike(Connection con, long maxWait) throws SQLException {
+
+        String url = con.getMetaData().getURL();
+
+        for (BoundedConnectionPool boundedPool : boundedPools.values()) {
+            String poolURL = boundedPool.getDatabaseURL();
+            // drivers may leave the parameters out of the URL they report
+            if (poolURL.equals(url) || (poolURL.startsWith(url)
+                    && (poolURL.charAt(url.length()) == '?' || poolURL.charAt(url.length()) == ';'))) {
+                return boundedPool.borrow(maxWait);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return The bounded pools created so far, for reporting their metrics.
+     */
+    public static Collection<BoundedConnectionPool> getBoundedPools() {
+
+        return boundedPools.values();
+    }
+
+    /**
+     * Log the metrics of all bounded pools.
+     */
+    public static void logPoolStatistics() {
+
+        for (BoundedConnectionPool boundedPool : boundedPools.values()) {
+            logger.info(boundedPool.toString());
+        }
+    }
+
   public static boolean isValidConnection(Connection con) {
 
     String url;
@@ -138,7 +333,7 @@ public final class ConnectionPool {
  
     public static Connection getConnectionFromPool(String driverClassName, String databaseURL, String user, String password) throws SQLException {
     	
-        Connection con = (Connection) pool.get(databaseURL);
+        Connection con = pool.get(databaseURL);
         
         boolean connectionIsValid;
 
@@ -191,17 +386,17 @@ public final class ConnectionPool {
 
     // -------------------------------------------------------------------------
     /**
-     * Close all the connections in the pool.
+     * Close all the connections in the pool and empty it.
      */
     public static void closeAll() {
 
-        Set<String> keys = pool.keySet();
-        Iterator<String> it = keys.iterator();
+        Iterator<Connection> it = pool.values().iterator();
 
         while (it.hasNext()) {
             try {
 
-                Connection con = (Connection) pool.get(it.next());
+                Connection con = it.next();
+                it.remove();
                 con.close();
 
             } catch (Exception e) {
@@ -211,6 +406,14 @@ public final class ConnectionPool {
             }
         }
 
+        Iterator<BoundedConnectionPool> pools = boundedPools.values().iterator();
+
+        while (pools.hasNext()) {
+            BoundedConnectionPool boundedPool = pools.next();
+            pools.remove();
+            boundedPool.close();
+        }
+
     } // closeAll
 
 } // ConnectionPool
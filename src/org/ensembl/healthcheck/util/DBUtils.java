@@ -34,15 +34,30 @@ import java.io.FileNotFoundException;
 import java.sql.Connection;
 import java.sql.DatabaseMetaData;
 import java.sql.DriverManager;
+import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Timestamp;
 import java.sql.Types;
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.regex.Pattern;
 
 import org.apache.commons.lang.StringUtils;
 import org.ensembl.healthcheck.DatabaseRegistry;
@@ -62,6 +77,14 @@ public final class DBUtils {
 
     private static Logger logger = Logger.getLogger("HealthCheckLogger");
 
+    /** Part of a table definition that is ignored when comparing them. */
+    static final Pattern AUTO_INCREMENT = Pattern.compile("AUTO_INCREMENT=[0-9]+ ");
+
+    /** Maximum number of databases digests are computed for at once. */
+    private static final int DIGEST_THREADS = 8;
+
+    private static volatile boolean compareByDigest = false;
+
     private static List<DatabaseServer> mainDatabaseServers;
     private static List<DatabaseServer> secondaryDatabaseServers;
 
@@ -336,8 +359,15 @@ public final class DBUtils {
      */
     public static boolean checkSameSQLResult(EnsTestCase test, String sql, String regexp, boolean comparingSchema) {
 
+        if (compareByDigest) {
+            List<DatabaseRegistryEntry> databases = getMainDatabaseRegistry().getMatching(regexp);
+            return checkSameSQLResultByDigest(test, sql,
+                    databases.toArray(new DatabaseRegistryEntry[databases.size()]), comparingSchema);
+        }
+
         ArrayList<ResultSet> resultSetGroup = new ArrayList<ResultSet>();
         ArrayList<Statement> statements = new ArrayList<Statement>();
+        List<QueryMonitor.Query> queries = new ArrayList<QueryMonitor.Query>();
 
         try {
 
@@ -350,6 +380,7 @@ public final class DBUtils {
                 ResultSet rs = null;
                 try {
                     stmt = con.createStatement();
+                    queries.add(QueryMonitor.start(con, stmt, sql));
                     rs = stmt.executeQuery(sql);
                     if (rs != null) {
                         resultSetGroup.add(rs);
@@ -380,6 +411,7 @@ public final class DBUtils {
             for (Statement s : statements) {
                 closeQuietly(s);
             }
+            finishQueries(queries);
         }
 
     } // checkSameSQLResult
@@ -399,8 +431,13 @@ public final class DBUtils {
     public static boolean checkSameSQLResult(EnsTestCase test, String sql, DatabaseRegistryEntry[] databases,
             boolean comparingSchema) {
 
+        if (compareByDigest) {
+            return checkSameSQLResultByDigest(test, sql, databases, comparingSchema);
+        }
+
         List<ResultSet> resultSetGroup = new ArrayList<ResultSet>();
         List<Statement> statements = new ArrayList<Statement>();
+        List<QueryMonitor.Query> queries = new ArrayList<QueryMonitor.Query>();
         try {
 
             for (int i = 0; i < databases.length; i++) {
@@ -410,6 +447,7 @@ public final class DBUtils {
                 ResultSet rs = null;
                 try {
                     stmt = con.createStatement();
+                    queries.add(QueryMonitor.start(con, stmt, sql));
                     rs = stmt.executeQuery(sql);
                     if (rs != null) {
                         resultSetGroup.add(rs);
@@ -435,10 +473,288 @@ public final class DBUtils {
             for (Statement s : statements) {
                 DBUtils.closeQuietly(s);
             }
+            finishQueries(queries);
         }
 
     } // checkSameSQLResult
 
+    /**
+     * Stop timing queries whose results were compared, without counting their
+     * rows.
+     */
+    private static void finishQueries(List<QueryMonitor.Query> queries) {
+        for (QueryMonitor.Query query : queries) {
+            query.finish(-1);
+        }
+    }
+
+    /**
+     * @param compareByDigest
+     *            If true, checkSameSQLResult compares databases with
+     *            {@link #checkSameSQLResultByDigest(EnsTestCase, String, DatabaseRegistryEntry[], boolean)}
+     *            .
+     */
+    public static void setCompareByDigest(boolean compareByDigest) {
+        DBUtils.compareByDigest = compareByDigest;
+    }
+
+    // -------------------------------------------------------------------------
+    /**
+     * <p>
+     * Check that a particular SQL statement has the same result when executed
+     * on more than one database, without comparing the results of every pair
+     * of databases row by row.
+     * </p>
+     * 
+     * <p>
+     * The results are first summarised by a {@link ResultSetDigest} per
+     * database, computed for all databases at once. Only the databases whose
+     * digest differs from the most common one are then compared row by row
+     * with a database that has the common digest, to report the difference.
+     * Unlike compareResultSets, the digests don't depend on the order of the
+     * rows.
+     * </p>
+     * 
+     * @return True if all databases provide the same result, false otherwise.
+     * @param sql
+     *            The SQL query to execute.
+     * @param databases
+     *            The DatabaseRegistryEntries on which to execute sql.
+     */
+    public static boolean checkSameSQLResultByDigest(EnsTestCase test, final String sql,
+            DatabaseRegistryEntry[] databases, boolean comparingSchema) {
+
+        if (databases.length < 2) {
+            return true;
+        }
+
+        List<ResultSetDigest> digests = new ArrayList<ResultSetDigest>();
+
+        ExecutorService pool = Executors.newFixedThreadPool(Math.min(DIGEST_THREADS, databases.length),
+                new DigestThreadFactory());
+
+        try {
+
+            List<Future<ResultSetDigest>> futures = new ArrayList<Future<ResultSetDigest>>();
+
+            // the digests are computed within the time budget of the test
+            final QueryMonitor.TestContext testContext = QueryMonitor.getCurrentTest();
+
+            for (final DatabaseRegistryEntry dbre : databases) {
+                futures.add(pool.submit(new Callable<ResultSetDigest>() {
+                    public ResultSetDigest call() throws SQLException {
+                        QueryMonitor.setCurrentTest(testContext);
+                        try {
+                            return computeDigest(dbre.getConnection(), sql);
+                        } finally {
+                            QueryMonitor.setCurrentTest(null);
+                        }
+                    }
+                }));
+            }
+
+            for (Future<ResultSetDigest> future : futures) {
+                digests.add(future.get());
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SqlUncheckedException("Interrupted while checking same SQL results", e);
+        } catch (ExecutionException e) {
+            throw new SqlUncheckedException("Could not check same SQL results", e.getCause());
+        } finally {
+            pool.shutdownNow();
+        }
+
+        // the most common digest, the first one on a tie
+        Map<ResultSetDigest, Integer> counts = new HashMap<ResultSetDigest, Integer>();
+        int reference = 0;
+        for (int i = 0; i < digests.size(); i++) {
+            Integer count = counts.get(digests.get(i));
+            counts.put(digests.get(i), count == null ? 1 : count + 1);
+            if (counts.get(digests.get(i)) > counts.get(digests.get(reference))) {
+                reference = i;
+            }
+        }
+
+        if (counts.size() == 1) {
+            logger.finest("All " + databases.length + " databases have " + digests.get(0) + " for " + sql);
+            return true;
+        }
+
+        Connection referenceCon = databases[reference].getConnection();
+        boolean same = true;
+
+        for (int i = 0; i < databases.length; i++) {
+
+            if (!digests.get(i).equals(digests.get(reference))) {
+
+                logger.fine(databases[i].getName() + " has " + digests.get(i) + ", " + databases[reference].getName()
+                        + " has " + digests.get(reference) + " for " + sql);
+
+                // the row comparison decides, as it ignores differences
+                // the digests don't, such as AUTO_INCREMENT values
+                if (!compareQueryResults(referenceCon, sql, databases[i].getConnection(), sql, test, "", true, true,
+                        "", null, comparingSchema)) {
+                    same = false;
+                }
+            }
+        }
+
+        return same;
+
+    } // checkSameSQLResultByDigest
+
+    private static ResultSetDigest computeDigest(Connection con, String sql) throws SQLException {
+
+        Statement stmt = createStreamingStatement(con);
+        QueryMonitor.Query query = null;
+        ResultSetDigest digest = null;
+        try {
+            query = QueryMonitor.start(con, stmt, sql);
+            digest = ResultSetDigest.compute(stmt.executeQuery(sql));
+            return digest;
+        } finally {
+            if (query != null) {
+                query.finish(digest == null ? -1 : digest.getRowCount());
+            }
+            closeQuietly(stmt);
+        }
+    }
+
+    /**
+     * Names digest threads so log output can be attributed.
+     */
+    private static class DigestThreadFactory implements ThreadFactory {
+
+        private final AtomicInteger count = new AtomicInteger();
+
+        public Thread newThread(Runnable r) {
+            Thread t = new Thread(r, "healthcheck-digest-" + count.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        }
+    }
+
+    // -------------------------------------------------------------------------
+    /**
+     * Run a query on each of two connections and compare the results with
+     * {@link #compareResultSets(ResultSet, ResultSet, EnsTestCase, String, boolean, boolean, String, int[], boolean)}
+     * . The rows are streamed from the server rather than read into memory
+     * first, so the queries may return whole tables. They need to sort the
+     * rows the same way.
+     * 
+     * @param columns
+     *            The columns to compare, or null for all.
+     */
+    public static boolean compareQueryResults(Connection con1, String sql1, Connection con2, String sql2,
+            EnsTestCase testCase, String text, boolean reportErrors, boolean warnNull, String singleTableName,
+            int[] columns, boolean comparingSchema) {
+
+        Statement stmt1 = null;
+        Statement stmt2 = null;
+        QueryMonitor.Query query1 = null;
+        QueryMonitor.Query query2 = null;
+        boolean same = false;
+
+        try {
+
+            ResultSet rs1;
+            ResultSet rs2;
+
+            if (con1 == con2) {
+                // only one streamed result can be open per connection, and no
+                // other query can run while it is, so read the second result
+                // into memory before streaming the first
+                stmt2 = con2.createStatement();
+                query2 = QueryMonitor.start(con2, stmt2, sql2);
+                rs2 = stmt2.executeQuery(sql2);
+                stmt1 = createStreamingStatement(con1);
+                query1 = QueryMonitor.start(con1, stmt1, sql1);
+                rs1 = stmt1.executeQuery(sql1);
+            } else {
+                stmt1 = createStreamingStatement(con1);
+                stmt2 = createStreamingStatement(con2);
+                query1 = QueryMonitor.start(con1, stmt1, sql1);
+                rs1 = stmt1.executeQuery(sql1);
+                query2 = QueryMonitor.start(con2, stmt2, sql2);
+                rs2 = stmt2.executeQuery(sql2);
+            }
+
+            same = compareResultSets(rs1, rs2, testCase, text, reportErrors, warnNull, singleTableName, columns,
+                    comparingSchema);
+
+            return same;
+
+        } catch (SQLException se) {
+            DatabaseRegistryEntry.invalidateConnection(con1);
+            DatabaseRegistryEntry.invalidateConnection(con2);
+            throw new SqlUncheckedException("Could not compare query results", se);
+        } finally {
+            if (!same) {
+                // don't read the rest of the rows just to close the statements
+                cancelQuietly(stmt1);
+                cancelQuietly(stmt2);
+            }
+            if (query1 != null) {
+                query1.finish(-1);
+            }
+            if (query2 != null) {
+                query2.finish(-1);
+            }
+            closeQuietly(stmt1);
+            closeQuietly(stmt2);
+        }
+
+    }
+
+    /**
+     * @return A statement whose results are sent row by row instead of being
+     *         read into memory as a whole. Until its ResultSet has been read
+     *         or closed, no other statement can be run on con.
+     */
+    public static Statement createStreamingStatement(Connection con) throws SQLException {
+
+        Statement stmt = con.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            // MySQL's signal to stream
+            stmt.setFetchSize(Integer.MIN_VALUE);
+        } catch (SQLException e) {
+            logger.finest("Driver doesn't stream results: " + e.getMessage());
+        }
+        return stmt;
+    }
+
+    /**
+     * @return A prepared statement whose results are sent row by row, like
+     *         those of {@link #createStreamingStatement(Connection)}.
+     */
+    public static PreparedStatement prepareStreamingStatement(Connection con, String sql) throws SQLException {
+
+        PreparedStatement ps = con.prepareStatement(sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+        try {
+            ps.setFetchSize(Integer.MIN_VALUE);
+        } catch (SQLException e) {
+            logger.finest("Driver doesn't stream results: " + e.getMessage());
+        }
+        return ps;
+    }
+
+    /**
+     * Cancel the query running on a statement, ignoring errors. Stops a
+     * streamed result from being read to its end when it is closed.
+     */
+    public static void cancelQuietly(Statement st) {
+
+        if (st != null) {
+            try {
+                st.cancel();
+            } catch (SQLException e) {
+                // nothing more to do
+            }
+        }
+    }
+
     public static boolean compareResultSets(ResultSet rs1, ResultSet rs2, EnsTestCase testCase, String text,
             boolean reportErrors, boolean warnNull, String singleTableName, int[] columns, boolean comparingSchema) {
 
@@ -506,31 +822,36 @@ public final class DBUtils {
                 }
             } // for column
 
+            int[] types = new int[columns.length];
+            for (int j = 0; j < columns.length; j++) {
+                types[j] = rsmd1.getColumnType(columns[j]);
+            }
+
             // make sure both cursors are at the start of the ResultSet
-            // (default is before the start)
-            rs1.beforeFirst();
-            rs2.beforeFirst();
+            // (default is before the start). Forward only ResultSets, e.g.
+            // streamed ones, are always at the start.
+            if (rs1.getType() != ResultSet.TYPE_FORWARD_ONLY) {
+                rs1.beforeFirst();
+            }
+            if (rs2.getType() != ResultSet.TYPE_FORWARD_ONLY) {
+                rs2.beforeFirst();
+            }
             // if quick checks didn't cause return, try comparing row-wise
 
-            int row = 1;
             while (rs1.next()) {
 
                 if (rs2.next()) {
-                    String str = name1 + " and " + name2 + text + " " + singleTableName + " with columns ";
                     for (int j = 0; j < columns.length; j++) {
-                        int i = columns[j];
-                        str += rsmd1.getColumnName(i) + " " + Utils.truncate(rs1.getString(i), 250, true) + ", ";
                         // note columns indexed from 1
-                        if (!compareColumns(rs1, rs2, i, warnNull)) {
-                            str += " differ for values " + Utils.truncate(rs1.getString(i), 250, true) + ", "
-                                    + Utils.truncate(rs2.getString(i), 250, true);
+                        if (!compareColumns(rs1, rs2, columns[j], types[j], warnNull)) {
                             if (reportErrors) {
-                                ReportManager.problem(testCase, name1, str);
+                                ReportManager.problem(testCase, name1,
+                                        describeRowDifference(rs1, rs2, columns, j, name1 + " and " + name2 + text + " "
+                                                + singleTableName));
                             }
                             return false;
                         }
                     }
-                    row++;
 
                 } else {
                     // rs1 has more rows than rs2
@@ -587,72 +908,116 @@ public final class DBUtils {
 
         try {
 
-            ResultSetMetaData rsmd = rs1.getMetaData();
+            return compareColumns(rs1, rs2, i, rs1.getMetaData().getColumnType(i), warnNull);
 
-            Connection con1 = rs1.getStatement().getConnection();
-            Connection con2 = rs2.getStatement().getConnection();
+        } catch (SQLException se) {
+            throw new SqlUncheckedException("Could not compare two columns sets", se);
+        }
 
-            if (rs1.getObject(i) == null) {
-                if (warnNull) {
-                    logger.fine("Column " + rsmd.getColumnName(i) + " is null in table " + rsmd.getTableName(i) + " in "
-                            + DBUtils.getShortDatabaseName(con1));
-                }
-                return (rs2.getObject(i) == null); // true if both are null
-            }
-            if (rs2.getObject(i) == null) {
-                if (warnNull) {
-                    logger.fine("Column " + rsmd.getColumnName(i) + " is null in table " + rsmd.getTableName(i) + " in "
-                            + DBUtils.getShortDatabaseName(con2));
-                }
-                return (rs1.getObject(i) == null); // true if both are null
-            }
+    } // compareColumns
 
-            // Note deliberate early returns for performance reasons
-            switch (rsmd.getColumnType(i)) {
+    /**
+     * Compare a column of the current rows without looking at the metadata or
+     * creating objects for numbers.
+     */
+    private static boolean compareColumns(ResultSet rs1, ResultSet rs2, int i, int type, boolean warnNull)
+            throws SQLException {
 
-            case Types.INTEGER:
-                return rs1.getInt(i) == rs2.getInt(i);
+        // Note deliberate early returns for performance reasons
+        switch (type) {
+
+        case Types.INTEGER:
+        case Types.SMALLINT:
+        case Types.TINYINT: {
+            int v1 = rs1.getInt(i);
+            boolean null1 = rs1.wasNull();
+            int v2 = rs2.getInt(i);
+            boolean null2 = rs2.wasNull();
+            return null1 || null2 ? compareNulls(rs1, null1, rs2, null2, i, warnNull) : v1 == v2;
+        }
 
-            case Types.SMALLINT:
-                return rs1.getInt(i) == rs2.getInt(i);
+        case Types.FLOAT: {
+            float v1 = rs1.getFloat(i);
+            boolean null1 = rs1.wasNull();
+            float v2 = rs2.getFloat(i);
+            boolean null2 = rs2.wasNull();
+            return null1 || null2 ? compareNulls(rs1, null1, rs2, null2, i, warnNull) : v1 == v2;
+        }
 
-            case Types.TINYINT:
-                return rs1.getInt(i) == rs2.getInt(i);
+        case Types.DOUBLE: {
+            double v1 = rs1.getDouble(i);
+            boolean null1 = rs1.wasNull();
+            double v2 = rs2.getDouble(i);
+            boolean null2 = rs2.wasNull();
+            return null1 || null2 ? compareNulls(rs1, null1, rs2, null2, i, warnNull) : v1 == v2;
+        }
 
-            case Types.VARCHAR:
-                String s1 = rs1.getString(i);
-                String s2 = rs2.getString(i);
-                // ignore "AUTO_INCREMENT=" part in final part of table
-                // definition
-                s1 = s1.replaceAll("AUTO_INCREMENT=[0-9]+ ", "");
-                s2 = s2.replaceAll("AUTO_INCREMENT=[0-9]+ ", "");
-                return s1.equals(s2);
+        case Types.TIMESTAMP: {
+            Timestamp v1 = rs1.getTimestamp(i);
+            Timestamp v2 = rs2.getTimestamp(i);
+            return v1 == null || v2 == null ? compareNulls(rs1, v1 == null, rs2, v2 == null, i, warnNull) : v1
+                    .equals(v2);
+        }
 
-            case Types.FLOAT:
-                return rs1.getFloat(i) == rs2.getFloat(i);
+        case Types.VARCHAR: {
+            String s1 = rs1.getString(i);
+            String s2 = rs2.getString(i);
+            if (s1 == null || s2 == null) {
+                return compareNulls(rs1, s1 == null, rs2, s2 == null, i, warnNull);
+            }
+            // ignore "AUTO_INCREMENT=" part in final part of table
+            // definition
+            return s1.equals(s2)
+                    || AUTO_INCREMENT.matcher(s1).replaceAll("").equals(AUTO_INCREMENT.matcher(s2).replaceAll(""));
+        }
 
-            case Types.DOUBLE:
-                return rs1.getDouble(i) == rs2.getDouble(i);
+        default: {
+            // treat everything else as a String (should deal with ENUM and
+            // TEXT)
+            String s1 = rs1.getString(i);
+            String s2 = rs2.getString(i);
+            return s1 == null || s2 == null ? compareNulls(rs1, s1 == null, rs2, s2 == null, i, warnNull) : s1
+                    .equals(s2);
+        }
 
-            case Types.TIMESTAMP:
-                return rs1.getTimestamp(i).equals(rs2.getTimestamp(i));
+        } // switch
 
-            default:
-                // treat everything else as a String (should deal with ENUM and
-                // TEXT)
-                if (rs1.getString(i) == null || rs2.getString(i) == null) {
-                    return true; // ????
-                } else {
-                    return rs1.getString(i).equals(rs2.getString(i));
-                }
+    }
 
-            } // switch
+    /**
+     * @return true if the column is null in both rows.
+     */
+    private static boolean compareNulls(ResultSet rs1, boolean null1, ResultSet rs2, boolean null2, int i,
+            boolean warnNull) throws SQLException {
 
-        } catch (SQLException se) {
-            throw new SqlUncheckedException("Could not compare two columns sets", se);
+        if (warnNull && logger.isLoggable(Level.FINE)) {
+            ResultSetMetaData rsmd = rs1.getMetaData();
+            Connection con = (null1 ? rs1 : rs2).getStatement().getConnection();
+            logger.fine("Column " + rsmd.getColumnName(i) + " is null in table " + rsmd.getTableName(i) + " in "
+                    + DBUtils.getShortDatabaseName(con));
         }
+        return null1 && null2;
+    }
 
-    } // compareColumns
+    /**
+     * Describe the values of the current rows up to the column that differs.
+     * Only called once a difference has been found.
+     */
+    private static String describeRowDifference(ResultSet rs1, ResultSet rs2, int[] columns, int differing,
+            String prefix) throws SQLException {
+
+        ResultSetMetaData rsmd1 = rs1.getMetaData();
+        StringBuilder str = new StringBuilder(prefix).append(" with columns ");
+        for (int j = 0; j <= differing; j++) {
+            int i = columns[j];
+            str.append(rsmd1.getColumnName(i)).append(' ').append(Utils.truncate(rs1.getString(i), 250, true))
+                    .append(", ");
+        }
+        int i = columns[differing];
+        str.append(" differ for values ").append(Utils.truncate(rs1.getString(i), 250, true)).append(", ")
+                .append(Utils.truncate(rs2.getString(i), 250, true));
+        return str.toString();
+    }
 
     // -------------------------------------------------------------------------
     /**
@@ -703,6 +1068,11 @@ public final class DBUtils {
         } catch (SQLException se) {
             throw new SqlUncheckedException("Could not get database name", se);
         }
+        // without any connection properties
+        int properties = url.indexOf('?');
+        if (properties >= 0) {
+            url = url.substring(0, properties);
+        }
         String name = url.substring(url.lastIndexOf('/') + 1);
 
         return name;
@@ -762,12 +1132,16 @@ public final class DBUtils {
      *            The database connection to use.
      * @return An array of Strings representing the names of the base tables.
      */
-    public static String[] getTableNames(Connection con) {
-
-        List<String> result = getSqlTemplate(con).queryForDefaultObjectList(
-                "SELECT TABLE_NAME from information_schema.TABLES where TABLE_SCHEMA = DATABASE() AND TABLE_TYPE = 'BASE TABLE'",
-                String.class);
-        return result.toArray(new String[] {});
+    public static String[] getTableNames(final Connection con) {
+
+        return getCachedTableNames(con, "tables", new MetadataCache.Loader<String[]>() {
+            public String[] load() {
+                List<String> result = getSqlTemplate(con).queryForDefaultObjectList(
+                        "SELECT TABLE_NAME from information_schema.TABLES where TABLE_SCHEMA = DATABASE() AND TABLE_TYPE = 'BASE TABLE'",
+                        String.class);
+                return result.toArray(new String[] {});
+            }
+        });
 
     }
 
@@ -781,14 +1155,107 @@ public final class DBUtils {
      *            The SQL pattern to match the table names against.
      * @return An array of Strings representing the names of the tables.
      */
-    public static String[] getTableNames(Connection con, String pattern) {
+    public static String[] getTableNames(final Connection con, final String pattern) {
 
-        List<String> result = getSqlTemplate(con).queryForDefaultObjectList("SHOW TABLES LIKE '" + pattern + "'",
-                String.class);
-        return result.toArray(new String[] {});
+        return getCachedTableNames(con, "tables:" + pattern, new MetadataCache.Loader<String[]>() {
+            public String[] load() {
+                List<String> result = getSqlTemplate(con).queryForDefaultObjectList("SHOW TABLES LIKE '" + pattern + "'",
+                        String.class);
+                return result.toArray(new String[] {});
+            }
+        });
 
     }
 
+    // -------------------------------------------------------------------------
+    /**
+     * Get the number of rows of each table, as estimated by MySQL in
+     * information_schema.
+     *
+     * @param con
+     *            The database connection to use.
+     * @return The rows of each base table, by table name. Empty if the
+     *         database doesn't provide estimates.
+     */
+    public static Map<String, Long> getTableRowCounts(final Connection con) {
+
+        try {
+            return new HashMap<String, Long>(MetadataCache.get(con, "table_rows", new MetadataCache.Loader<Map<String, Long>>() {
+                public Map<String, Long> load() {
+                    final Map<String, Long> rows = new HashMap<String, Long>();
+                    try {
+                        getSqlTemplate(con).forEachRow(
+                                "SELECT TABLE_NAME, TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA = DATABASE() AND TABLE_TYPE = 'BASE TABLE'",
+                                new SqlTemplate.RowCallback() {
+                                    public boolean process(ResultSet rs) throws SQLException {
+                                        rows.put(rs.getString(1), rs.getLong(2));
+                                        return true;
+                                    }
+                                });
+                    } catch (SqlUncheckedException e) {
+                        // e.g. not MySQL; cached so it isn't asked again
+                        logger.finest("No table row counts: " + e.getMessage());
+                    }
+                    return rows;
+                }
+            }));
+        } catch (SQLException e) {
+            DatabaseRegistryEntry.invalidateConnection(con);
+            throw new SqlUncheckedException("Could not get table row counts", e);
+        }
+
+    }
+
+    // -------------------------------------------------------------------------
+    /**
+     * Get the number of rows of each table of several databases, as estimated
+     * by MySQL in information_schema, in one query over a connection to their
+     * server rather than one connection to each database.
+     *
+     * @param serverCon
+     *            A connection to the server the databases are on.
+     * @param databases
+     *            The names of the databases.
+     * @return The rows of each base table, by database name and table name.
+     *         Databases the server doesn't provide estimates for are missing.
+     */
+    public static Map<String, Map<String, Long>> getTableRowCounts(Connection serverCon, Collection<String> databases) {
+
+        final Map<String, Map<String, Long>> rows = new HashMap<String, Map<String, Long>>();
+
+        if (databases.isEmpty()) {
+            return rows;
+        }
+
+        getSqlTemplate(serverCon).forEachRow(
+                "SELECT TABLE_SCHEMA, TABLE_NAME, TABLE_ROWS FROM information_schema.TABLES WHERE TABLE_SCHEMA IN ("
+                        + StringUtils.join(Collections.nCopies(databases.size(), "?"), ",") + ") AND TABLE_TYPE = 'BASE TABLE'",
+                new SqlTemplate.RowCallback() {
+                    public boolean process(ResultSet rs) throws SQLException {
+                        Map<String, Long> tables = rows.get(rs.getString(1));
+                        if (tables == null) {
+                            tables = new HashMap<String, Long>();
+                            rows.put(rs.getString(1), tables);
+                        }
+                        tables.put(rs.getString(2), rs.getLong(3));
+                        return true;
+                    }
+                }, databases.toArray());
+
+        return rows;
+
+    }
+
+    private static String[] getCachedTableNames(Connection con, String key, MetadataCache.Loader<String[]> loader) {
+
+        try {
+            return MetadataCache.get(con, key, loader).clone();
+        } catch (SQLException e) {
+            DatabaseRegistryEntry.invalidateConnection(con);
+            throw new SqlUncheckedException("Could not list tables", e);
+        }
+    }
+
     // -------------------------------------------------------------------------
     /**
      * List the columns in a particular table.
@@ -799,9 +1266,18 @@ public final class DBUtils {
      *            The connection to use.
      * @return A List of Strings representing the column names.
      */
-    public static List<String> getColumnsInTable(Connection con, String table) {
+    public static List<String> getColumnsInTable(final Connection con, final String table) {
 
-        return getSqlTemplate(con).queryForDefaultObjectList("DESCRIBE " + table, String.class);
+        try {
+            return new ArrayList<String>(MetadataCache.get(con, "columns:" + table, new MetadataCache.Loader<List<String>>() {
+                public List<String> load() {
+                    return getSqlTemplate(con).queryForDefaultObjectList("DESCRIBE " + table, String.class);
+                }
+            }));
+        } catch (SQLException e) {
+            DatabaseRegistryEntry.invalidateConnection(con);
+            throw new SqlUncheckedException("Could not list columns of " + table, e);
+        }
 
     }
 
@@ -931,11 +1407,20 @@ public final class DBUtils {
     /**
      * Get the meta_value for a named key in the meta table.
      */
-    public static String getMetaValue(Connection con, String key) {
+    public static String getMetaValue(final Connection con, final String key) {
 
-        List<String> results = getSqlTemplate(con)
-                .queryForDefaultObjectList("SELECT meta_value FROM meta WHERE meta_key='" + key + "'", String.class);
-        return CollectionUtils.getFirstElement(results, StringUtils.EMPTY);
+        try {
+            return MetadataCache.get(con, "meta:" + key, new MetadataCache.Loader<String>() {
+                public String load() {
+                    List<String> results = getSqlTemplate(con).queryForDefaultObjectList(
+                            "SELECT meta_value FROM meta WHERE meta_key='" + key + "'", String.class);
+                    return CollectionUtils.getFirstElement(results, StringUtils.EMPTY);
+                }
+            });
+        } catch (SQLException e) {
+            DatabaseRegistryEntry.invalidateConnection(con);
+            throw new SqlUncheckedException("Could not get meta value " + key, e);
+        }
 
     }
 
@@ -956,7 +1441,7 @@ public final class DBUtils {
      * </p>
      * 
      */
-    public static List<DatabaseServer> getMainDatabaseServers() {
+    public static synchronized List<DatabaseServer> getMainDatabaseServers() {
 
         if (mainDatabaseServers == null) {
 
@@ -1085,7 +1570,7 @@ public final class DBUtils {
         }
     }
 
-    public static List<DatabaseServer> getSecondaryDatabaseServers() {
+    public static synchronized List<DatabaseServer> getSecondaryDatabaseServers() {
         if (DBUtils.hostConfiguration == null) {
             return getSecondaryDatabaseServersProperties();
         } else {
@@ -1203,7 +1688,7 @@ public final class DBUtils {
 
     // -------------------------------------------------------------------------
 
-    public static DatabaseRegistry getSecondaryDatabaseRegistry() {
+    public static synchronized DatabaseRegistry getSecondaryDatabaseRegistry() {
 
         if (secondaryDatabaseRegistry == null) {
 
@@ -1217,7 +1702,7 @@ public final class DBUtils {
 
     // -------------------------------------------------------------------------
 
-    public static DatabaseRegistry getSecondaryDatabaseRegistry(String regexp) {
+    public static synchronized DatabaseRegistry getSecondaryDatabaseRegistry(String regexp) {
 
         List<String> regexps = new ArrayList<String>();
         regexp = "%" + regexp + "%";
@@ -1243,7 +1728,7 @@ public final class DBUtils {
 
     // -------------------------------------------------------------------------
 
-    public static DatabaseRegistry getMainDatabaseRegistry() {
+    public static synchronized DatabaseRegistry getMainDatabaseRegistry() {
 
         if (mainDatabaseRegistry == null) {
 
@@ -1279,6 +1764,7 @@ public final class DBUtils {
             }
 
         } catch (SQLException e) {
+            DatabaseRegistryEntry.invalidateConnection(con);
             throw new SqlUncheckedException("Could not check for table " + table, e);
         } finally {
             closeQuietly(rs);
@@ -1304,6 +1790,7 @@ public final class DBUtils {
             }
 
         } catch (SQLException e) {
+            DatabaseRegistryEntry.invalidateConnection(con);
             throw new SqlUncheckedException("Could not check for table " + table, e);
         } finally {
             closeQuietly(rs);
@@ -1379,6 +1866,13 @@ public final class DBUtils {
 
     } // countRowsInTable
 
+    /** Reads every row, for counting them. */
+    private static final SqlTemplate.RowCallback COUNT_ROWS = new SqlTemplate.RowCallback() {
+        public boolean process(ResultSet rs) {
+            return true;
+        }
+    };
+
     // -------------------------------------------------------------------------
     /**
      * Use SELECT COUNT(*) to get a row count.
@@ -1391,33 +1885,12 @@ public final class DBUtils {
 
     // -------------------------------------------------------------------------
     /**
-     * Use a row-by-row approach to counting the rows in a table.
+     * Use a row-by-row approach to counting the rows in a table. The rows are
+     * streamed rather than read into memory.
      */
     public static int getRowCountSlow(Connection con, String sql) {
 
-        int result = -1;
-        Statement stmt = null;
-        ResultSet rs = null;
-        try {
-            stmt = con.createStatement();
-            rs = stmt.executeQuery(sql);
-            if (rs != null) {
-                if (rs.last()) {
-                    result = rs.getRow();
-                } else {
-                    result = 0; // probably signifies an empty ResultSet
-                }
-            }
-            rs.close();
-            stmt.close();
-        } catch (Exception e) {
-            throw new SqlUncheckedException("Could not retrieve row count", e);
-        } finally {
-            closeQuietly(rs);
-            closeQuietly(stmt);
-        }
-
-        return result;
+        return getSqlTemplate(con).forEachRow(sql, COUNT_ROWS);
 
     } // getRowCountSlow
 
@@ -1468,6 +1941,26 @@ public final class DBUtils {
 
     } // getRowCount
 
+    // -------------------------------------------------------------------------
+    /**
+     * Count the rows of a table matching each of several predicates, with one
+     * scan of the table.
+     *
+     * @param from
+     *            The table, or joined tables, to scan.
+     * @param predicates
+     *            SQL conditions, keyed on names for the counts.
+     * @return The number of rows matching each predicate, keyed like
+     *         predicates.
+     * @see SqlTemplate#queryForCounts(String, Map, Object...)
+     * @see SharedTableScan
+     */
+    public static Map<String, Integer> getRowCounts(Connection con, String from, Map<String, String> predicates) {
+
+        return getSqlTemplate(con).queryForCounts(from, predicates);
+
+    } // getRowCounts
+
     // -------------------------------------------------------------------------
     /**
      * Execute a SQL statement and return the value of one column of one row.
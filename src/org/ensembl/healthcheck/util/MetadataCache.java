@@ -0,0 +1,185 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Caches small facts about a database that many test cases ask for, like meta
+ * values, table and column names or the analysis logic names, so they are
+ * only fetched once per database and not once per test.
+ * </p>
+ *
+ * <p>
+ * There is one cache per database, identified by its JDBC URL and, for a
+ * connection, the catalog it is using, as a connection may switch to another
+ * database with USE. It is found with {@link #forDatabase(String)} or
+ * {@link #forConnection(Connection)}, and from a
+ * {@link org.ensembl.healthcheck.DatabaseRegistryEntry} with
+ * getMetadataCache(). Nothing is ever refreshed automatically: code that
+ * changes a database has to call {@link #invalidate(String)} or
+ * {@link #invalidateAll()}. The test runner calls {@link #clear()} at the end
+ * of a run.
+ * </p>
+ *
+ * <p>
+ * Cached values are shared, callers must not modify them.
+ * </p>
+ */
+public class MetadataCache {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Caches keyed on database URL, and catalog if any. */
+	private static final ConcurrentMap<String, MetadataCache> caches = new ConcurrentHashMap<String, MetadataCache>();
+
+	private static final AtomicLong hits = new AtomicLong();
+
+	private static final AtomicLong misses = new AtomicLong();
+
+	/** Stands in for null values, which ConcurrentHashMap can't store. */
+	private static final Object NULL = new Object();
+
+	private final ConcurrentMap<String, Object> values = new ConcurrentHashMap<String, Object>();
+
+	/**
+	 * Fetches a value that is not in the cache yet.
+	 */
+	public interface Loader<T> {
+		T load() throws SQLException;
+	}
+
+	/**
+	 * @return The cache for the database with this JDBC URL.
+	 */
+	public static MetadataCache forDatabase(String databaseURL) {
+
+		MetadataCache cache = caches.get(databaseURL);
+		if (cache == null) {
+			MetadataCache newCache = new MetadataCache();
+			cache = caches.putIfAbsent(databaseURL, newCache);
+			if (cache == null) {
+				cache = newCache;
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * @return The cache for the database con is currently using, or null if
+	 *         con is null or its URL can't be determined.
+	 */
+	public static MetadataCache forConnection(Connection con) {
+
+		if (con == null) {
+			return null;
+		}
+		try {
+			String catalog = con.getCatalog();
+			String url = con.getMetaData().getURL();
+			return forDatabase(catalog == null ? url : url + "#" + catalog);
+		} catch (SQLException e) {
+			logger.fine("Not caching metadata, can't get database URL: " + e.getMessage());
+			return null;
+		}
+	}
+
+	/**
+	 * Get a cached value, or load and cache it. If two threads ask for a
+	 * missing value at the same time both may load it.
+	 *
+	 * @param key
+	 *          Identifies the value within this database.
+	 * @param loader
+	 *          Fetches the value if it is not cached. Nothing is cached if it
+	 *          throws an exception.
+	 */
+	@SuppressWarnings("unchecked")
+	public <T> T get(String key, Loader<T> loader) throws SQLException {
+
+		Object value = values.get(key);
+
+		if (value == null) {
+
+			misses.incrementAndGet();
+			value = loader.load();
+			values.put(key, value == null ? NULL : value);
+
+		} else {
+
+			hits.incrementAndGet();
+		}
+
+		return value == NULL ? null : (T) value;
+	}
+
+	/**
+	 * Like {@link #get(String, Loader)}, but without caching if there is no
+	 * cache for con.
+	 */
+	public static <T> T get(Connection con, String key, Loader<T> loader) throws SQLException {
+
+		MetadataCache cache = forConnection(con);
+		return cache == null ? loader.load() : cache.get(key, loader);
+	}
+
+	/**
+	 * Forget one value.
+	 */
+	public void invalidate(String key) {
+		values.remove(key);
+	}
+
+	/**
+	 * Forget everything cached about this database.
+	 */
+	public void invalidateAll() {
+		values.clear();
+	}
+
+	/**
+	 * Forget everything cached about all databases.
+	 */
+	public static void clear() {
+		caches.clear();
+	}
+
+	/**
+	 * @return The number of lookups, over all databases, that were answered
+	 *         from a cache.
+	 */
+	public static long getHitCount() {
+		return hits.get();
+	}
+
+	/**
+	 * @return The number of lookups, over all databases, that had to query
+	 *         the database.
+	 */
+	public static long getMissCount() {
+		return misses.get();
+	}
+
+}
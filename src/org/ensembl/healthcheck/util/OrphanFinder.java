@@ -0,0 +1,526 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Finds rows whose foreign key doesn't match a row of the table it refers
+ * to.
+ * </p>
+ *
+ * <p>
+ * {@link #find(Connection, List)} checks several foreign keys. The number of
+ * orphans and a sample of their keys come from a single query, using
+ * GROUP_CONCAT for the sample. The keys of all child tables referring to the
+ * same table are joined to it in one statement, so the parent is only read
+ * once.
+ * </p>
+ *
+ * <p>
+ * For tables so large that the server's join spills to disk, keys set to
+ * {@link ForeignKey#setMergeJoin(boolean)} are checked by streaming both key
+ * columns in order and matching them in the JVM instead. Both give the same
+ * counts. The sample of the merge is the lowest orphan keys, that of the join
+ * the first ones the server finds.
+ * </p>
+ */
+public class OrphanFinder {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** The maximum number of orphan keys returned for each foreign key. */
+	public static final int SAMPLE_SIZE = 20;
+
+	private static final String SEPARATOR = ",";
+
+	/** The number of keys read from a result set at a time by the merge. */
+	static final int BUFFER_SIZE = 8192;
+
+	/**
+	 * A column of table1 that should only hold values of a column of table2.
+	 */
+	public static class ForeignKey {
+
+		private final String table1;
+		private final String col1;
+		private final String table2;
+		private final String col2;
+		private final String constraint1;
+
+		private boolean mergeJoin = false;
+
+		/**
+		 * @param constraint1
+		 *          Only check the rows of table1 matching this condition on
+		 *          one of its columns, e.g. "analysis_id IS NOT NULL". May be
+		 *          null.
+		 */
+		public ForeignKey(String table1, String col1, String table2, String col2, String constraint1) {
+			this.table1 = table1;
+			this.col1 = col1;
+			this.table2 = table2;
+			this.col2 = col2;
+			this.constraint1 = constraint1;
+		}
+
+		public ForeignKey(String table1, String col1, String table2, String col2) {
+			this(table1, col1, table2, col2, null);
+		}
+
+		public String getTable1() {
+			return table1;
+		}
+
+		public String getCol1() {
+			return col1;
+		}
+
+		public String getTable2() {
+			return table2;
+		}
+
+		public String getCol2() {
+			return col2;
+		}
+
+		public String getConstraint1() {
+			return constraint1;
+		}
+
+		public boolean isMergeJoin() {
+			return mergeJoin;
+		}
+
+		/**
+		 * @param mergeJoin
+		 *          If true, {@link OrphanFinder#find(Connection, List)} checks
+		 *          this key by merging the sorted key columns in the JVM rather
+		 *          than by a LEFT JOIN on the server. Only for integer keys;
+		 *          worth it for tables so large that the join spills to disk.
+		 */
+		public void setMergeJoin(boolean mergeJoin) {
+			this.mergeJoin = mergeJoin;
+		}
+
+		/**
+		 * @return The FROM and WHERE clauses selecting the orphans.
+		 */
+		public String getOrphanClauses() {
+
+			String sql = " FROM " + table1 + " LEFT JOIN " + table2 + " ON " + table1 + "." + col1 + " = " + table2 + "."
+					+ col2 + " WHERE " + table2 + "." + col2 + " IS NULL";
+
+			if (constraint1 != null && constraint1.length() > 0) {
+				sql += " AND " + table1 + "." + constraint1;
+			}
+			return sql;
+		}
+
+		/**
+		 * @return SQL listing the orphans, for reports.
+		 */
+		public String getOrphanSQL() {
+			return "SELECT " + table1 + "." + col1 + getOrphanClauses();
+		}
+
+		@Override
+		public String toString() {
+			return table1 + "." + col1 + " -> " + table2 + "." + col2;
+		}
+	}
+
+	/**
+	 * The orphans found for a foreign key.
+	 */
+	public static class Orphans {
+
+		private final ForeignKey foreignKey;
+		private final int count;
+		private final List<String> sample;
+
+		Orphans(ForeignKey foreignKey, int count, List<String> sample) {
+			this.foreignKey = foreignKey;
+			this.count = count;
+			this.sample = sample;
+		}
+
+		public ForeignKey getForeignKey() {
+			return foreignKey;
+		}
+
+		/**
+		 * @return The number of orphans.
+		 */
+		public int getCount() {
+			return count;
+		}
+
+		/**
+		 * @return Up to {@link OrphanFinder#SAMPLE_SIZE} orphan keys. Keys that
+		 *         are NULL are counted but not listed.
+		 */
+		public List<String> getSample() {
+			return sample;
+		}
+	}
+
+	/**
+	 * Count the orphans of one foreign key.
+	 */
+	public static Orphans find(Connection con, ForeignKey foreignKey) {
+
+		return find(con, Collections.singletonList(foreignKey)).get(0);
+	}
+
+	/**
+	 * Count the orphans of several foreign keys, with one statement per table
+	 * referred to, apart from the keys to be merged.
+	 *
+	 * @return The orphans of each key, in the order of foreignKeys.
+	 */
+	public static List<Orphans> find(Connection con, List<ForeignKey> foreignKeys) {
+
+		Orphans[] results = new Orphans[foreignKeys.size()];
+
+		// group the keys by the table and column they refer to
+		Map<String, List<Integer>> byParent = new LinkedHashMap<String, List<Integer>>();
+		for (int i = 0; i < foreignKeys.size(); i++) {
+			ForeignKey key = foreignKeys.get(i);
+			if (key.isMergeJoin()) {
+				try {
+					results[i] = merge(con, key);
+				} catch (SQLException e) {
+					throw new SqlUncheckedException("Could not count orphans of " + key, e);
+				}
+				continue;
+			}
+			String parent = key.getTable2() + "." + key.getCol2();
+			List<Integer> indexes = byParent.get(parent);
+			if (indexes == null) {
+				indexes = new ArrayList<Integer>();
+				byParent.put(parent, indexes);
+			}
+			indexes.add(i);
+		}
+
+		for (List<Integer> indexes : byParent.values()) {
+
+			try {
+
+				query(con, foreignKeys, indexes, results);
+
+			} catch (SQLException e) {
+
+				if (indexes.size() == 1) {
+					throw new SqlUncheckedException("Could not count orphans of " + foreignKeys.get(indexes.get(0)), e);
+				}
+
+				// find out which key the problem is with
+				logger.fine("Could not count orphans of " + indexes.size() + " keys at once: " + e.getMessage());
+				for (Integer index : indexes) {
+					try {
+						query(con, foreignKeys, Collections.singletonList(index), results);
+					} catch (SQLException e2) {
+						throw new SqlUncheckedException("Could not count orphans of " + foreignKeys.get(index), e2);
+					}
+				}
+			}
+		}
+
+		return Arrays.asList(results);
+	}
+
+	private static void query(Connection con, List<ForeignKey> foreignKeys, List<Integer> indexes, Orphans[] results)
+			throws SQLException {
+
+		String sql;
+
+		if (indexes.size() == 1) {
+
+			ForeignKey key = foreignKeys.get(indexes.get(0));
+			String column = key.getTable1() + "." + key.getCol1();
+			// GROUP_CONCAT skips NULLs, so count the keys it should hold too
+			sql = "SELECT " + indexes.get(0) + ", COUNT(*), COUNT(" + column + "), GROUP_CONCAT(" + column
+					+ " SEPARATOR '" + SEPARATOR + "')" + key.getOrphanClauses();
+
+		} else {
+
+			// the keys of all child tables, so the parent is joined only once
+			StringBuilder children = new StringBuilder();
+			for (Integer index : indexes) {
+				ForeignKey key = foreignKeys.get(index);
+				if (children.length() > 0) {
+					children.append(" UNION ALL ");
+				}
+				children.append("SELECT ").append(index).append(" AS fk, ").append(key.getTable1()).append(".")
+						.append(key.getCol1()).append(" AS child_key FROM ").append(key.getTable1());
+				if (key.getConstraint1() != null && key.getConstraint1().length() > 0) {
+					children.append(" WHERE ").append(key.getTable1()).append(".").append(key.getConstraint1());
+				}
+			}
+
+			ForeignKey first = foreignKeys.get(indexes.get(0));
+			String parent = first.getTable2() + "." + first.getCol2();
+			sql = "SELECT children.fk, COUNT(*), COUNT(children.child_key), GROUP_CONCAT(children.child_key SEPARATOR '"
+					+ SEPARATOR + "') FROM (" + children + ") children LEFT JOIN " + first.getTable2()
+					+ " ON children.child_key = " + parent + " WHERE " + parent + " IS NULL GROUP BY children.fk";
+		}
+
+		logger.finest(sql);
+
+		Statement stmt = con.createStatement();
+		QueryMonitor.Query query = QueryMonitor.start(con, stmt, sql);
+		long rows = 0;
+
+		try {
+
+			for (Integer index : indexes) {
+				results[index] = new Orphans(foreignKeys.get(index), 0, Collections.<String> emptyList());
+			}
+
+			ResultSet rs = stmt.executeQuery(sql);
+			while (rs.next()) {
+				rows++;
+				int index = rs.getInt(1);
+				results[index] = new Orphans(foreignKeys.get(index), rs.getInt(2), getSample(rs.getString(4), rs.getInt(3)));
+			}
+			rs.close();
+
+		} finally {
+			query.finish(rows);
+			DBUtils.closeQuietly(stmt);
+		}
+	}
+
+	/**
+	 * @param count
+	 *          The number of keys concatenated.
+	 * @return The first keys of a GROUP_CONCAT list, which the server may have
+	 *         cut off at group_concat_max_len. Without an ORDER BY in the
+	 *         GROUP_CONCAT, the server stops adding keys once it is full
+	 *         rather than sorting all of them.
+	 */
+	static List<String> getSample(String concatenated, int count) {
+
+		if (concatenated == null || concatenated.length() == 0) {
+			return Collections.emptyList();
+		}
+
+		List<String> keys = new ArrayList<String>(Arrays.asList(concatenated.split(SEPARATOR, -1)));
+
+		if (keys.size() < count) {
+			// the last one may have been cut off
+			keys.remove(keys.size() - 1);
+		}
+
+		return keys.size() > SAMPLE_SIZE ? new ArrayList<String>(keys.subList(0, SAMPLE_SIZE)) : keys;
+	}
+
+	/**
+	 * Count the orphans of several foreign keys by reading both key columns in
+	 * order, and merging them in the JVM. Only works for integer keys.
+	 *
+	 * The parent keys are streamed over a second connection, borrowed from the
+	 * pool con came from. If there is none, the orphans are found by the
+	 * server's join instead.
+	 *
+	 * @return The orphans of each key, in the order of foreignKeys.
+	 */
+	public static List<Orphans> findByMerge(Connection con, List<ForeignKey> foreignKeys) {
+
+		List<Orphans> results = new ArrayList<Orphans>();
+
+		for (ForeignKey key : foreignKeys) {
+			try {
+				results.add(merge(con, key));
+			} catch (SQLException e) {
+				throw new SqlUncheckedException("Could not count orphans of " + key, e);
+			}
+		}
+
+		return results;
+	}
+
+	private static Orphans merge(Connection con, ForeignKey key) throws SQLException {
+
+		String childSQL = "SELECT " + key.getTable1() + "." + key.getCol1() + " FROM " + key.getTable1();
+		if (key.getConstraint1() != null && key.getConstraint1().length() > 0) {
+			childSQL += " WHERE " + key.getTable1() + "." + key.getConstraint1();
+		}
+		childSQL += " ORDER BY " + key.getTable1() + "." + key.getCol1();
+
+		String parentSQL = "SELECT " + key.getTable2() + "." + key.getCol2() + " FROM " + key.getTable2() + " ORDER BY "
+				+ key.getTable2() + "." + key.getCol2();
+
+		logger.finest(childSQL + "; " + parentSQL);
+
+		Connection parentCon = null;
+		try {
+			parentCon = ConnectionPool.borrowConnectionLike(con);
+		} catch (SQLException e) {
+			logger.fine("No second connection for " + key + ": " + e.getMessage());
+		}
+
+		if (parentCon == null) {
+			// rather than reading every parent key into memory
+			logger.fine("Joining on the server to count orphans of " + key);
+			Orphans[] results = new Orphans[1];
+			query(con, Collections.singletonList(key), Collections.singletonList(0), results);
+			return results[0];
+		}
+
+		Statement parentStmt = null;
+		Statement childStmt = null;
+		QueryMonitor.Query parentQuery = null;
+		QueryMonitor.Query childQuery = null;
+		LongCursor parents = null;
+		LongCursor children = null;
+
+		try {
+
+			parentStmt = DBUtils.createStreamingStatement(parentCon);
+			parentQuery = QueryMonitor.start(parentCon, parentStmt, parentSQL);
+			parents = new LongCursor(parentStmt.executeQuery(parentSQL));
+
+			childStmt = DBUtils.createStreamingStatement(con);
+			childQuery = QueryMonitor.start(con, childStmt, childSQL);
+			children = new LongCursor(childStmt.executeQuery(childSQL));
+
+			int count = 0;
+			List<String> sample = new ArrayList<String>();
+
+			while (children.hasNext()) {
+
+				long child = children.peek();
+
+				while (parents.hasNext() && parents.peek() < child) {
+					parents.advance();
+				}
+
+				if (!parents.hasNext() || parents.peek() != child) {
+					count++;
+					if (sample.size() < SAMPLE_SIZE) {
+						sample.add(Long.toString(child));
+					}
+				}
+
+				children.advance();
+			}
+
+			// like the join, NULL keys count as orphans
+			count += children.getNullCount();
+
+			return new Orphans(key, count, sample);
+
+		} finally {
+			if (childQuery != null) {
+				childQuery.finish(children == null ? -1 : children.getRowCount());
+			}
+			if (parentQuery != null) {
+				parentQuery.finish(parents == null ? -1 : parents.getRowCount());
+			}
+			DBUtils.closeQuietly(childStmt);
+			DBUtils.closeQuietly(parentStmt);
+			DBUtils.closeQuietly(parentCon);
+		}
+	}
+
+	/**
+	 * Reads the non-NULL values of the first column of a result set as longs,
+	 * a buffer at a time.
+	 */
+	static class LongCursor {
+
+		private final ResultSet rs;
+
+		private long[] buffer;
+
+		private int size;
+
+		private int position;
+
+		private long nullCount;
+
+		private long rowCount;
+
+		LongCursor(ResultSet rs) throws SQLException {
+			this.rs = rs;
+			this.buffer = new long[BUFFER_SIZE];
+			fill();
+		}
+
+		private void fill() throws SQLException {
+
+			size = 0;
+			position = 0;
+
+			while (size < buffer.length && rs.next()) {
+				rowCount++;
+				long value = rs.getLong(1);
+				if (rs.wasNull()) {
+					nullCount++;
+				} else {
+					buffer[size++] = value;
+				}
+			}
+		}
+
+		boolean hasNext() {
+			return position < size;
+		}
+
+		long peek() {
+			return buffer[position];
+		}
+
+		void advance() throws SQLException {
+			position++;
+			if (position == size && size == buffer.length) {
+				fill();
+			}
+		}
+
+		/**
+		 * @return The number of NULLs skipped so far.
+		 */
+		long getNullCount() {
+			return nullCount;
+		}
+
+		/**
+		 * @return The number of rows read so far, including NULLs.
+		 */
+		long getRowCount() {
+			return rowCount;
+		}
+	}
+
+}
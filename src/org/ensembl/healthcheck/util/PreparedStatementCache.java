@@ -0,0 +1,240 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Keeps the most recently used {@link PreparedStatement}s of a connection
+ * open, so SQL that is run over and over, like a lookup per row or per
+ * species, is only prepared once.
+ * </p>
+ *
+ * <p>
+ * There is one cache per connection borrowed from a
+ * {@link BoundedConnectionPool}, found with {@link #forConnection(Connection)}.
+ * It is kept by the borrowed connection itself, so nothing else holds on to
+ * the connection, and its statements are closed when the connection goes back
+ * to its pool, whether it was closed or abandoned. Connections that aren't
+ * pooled have no cache.
+ * </p>
+ *
+ * <p>
+ * A statement is taken out of the cache with
+ * {@link #acquire(Connection, String)} and must be put back with
+ * {@link #release(String, PreparedStatement)} once its results have been
+ * closed, so two threads sharing a connection never run the same statement
+ * at once. When a cache is full the statement used longest ago is closed.
+ * </p>
+ */
+public class PreparedStatementCache {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** The number of statements kept open per connection, if not set. */
+	public static final int DEFAULT_SIZE = 50;
+
+	private static volatile int size = DEFAULT_SIZE;
+
+	private static final AtomicLong totalCaches = new AtomicLong();
+	private static final AtomicLong totalHits = new AtomicLong();
+	private static final AtomicLong totalMisses = new AtomicLong();
+	private static final AtomicLong totalEvictions = new AtomicLong();
+
+	private final int maxSize;
+
+	/** Idle statements keyed on their SQL, least recently used first. */
+	private final LinkedHashMap<String, PreparedStatement> statements;
+
+	private boolean closed = false;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long evictions = 0;
+
+	PreparedStatementCache(int maxSize) {
+
+		totalCaches.incrementAndGet();
+		this.maxSize = maxSize;
+		this.statements = new LinkedHashMap<String, PreparedStatement>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, PreparedStatement> eldest) {
+
+				if (size() > PreparedStatementCache.this.maxSize) {
+					evictions++;
+					totalEvictions.incrementAndGet();
+					DBUtils.closeQuietly(eldest.getValue());
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * @param newSize
+	 *          The number of statements kept open per connection by caches
+	 *          created from now on. 0 turns caching off.
+	 */
+	public static void setSize(int newSize) {
+		size = newSize;
+	}
+
+	public static int getSize() {
+		return size;
+	}
+
+	/**
+	 * @return The cache of con, or null if caching is turned off or con
+	 *         wasn't borrowed from a pool.
+	 */
+	public static PreparedStatementCache forConnection(Connection con) {
+
+		if (size <= 0) {
+			return null;
+		}
+		return BoundedConnectionPool.getStatementCache(con, size);
+	}
+
+	/**
+	 * @param connection
+	 *          The connection this is the cache of, to prepare statements that
+	 *          aren't cached.
+	 * @return A statement for sql, from the cache if there is one. Its
+	 *         parameters have been cleared.
+	 */
+	public synchronized PreparedStatement acquire(Connection connection, String sql) throws SQLException {
+
+		PreparedStatement ps = statements.remove(sql);
+
+		if (ps != null) {
+			hits++;
+			totalHits.incrementAndGet();
+			return ps;
+		}
+
+		misses++;
+		totalMisses.incrementAndGet();
+		return connection.prepareStatement(sql);
+	}
+
+	/**
+	 * Put a statement back once its results have been read. It is closed
+	 * instead if another statement for the same SQL is already cached, or it
+	 * can't be reset.
+	 */
+	public synchronized void release(String sql, PreparedStatement ps) {
+
+		if (closed || statements.containsKey(sql)) {
+			DBUtils.closeQuietly(ps);
+			return;
+		}
+
+		try {
+			ps.clearParameters();
+		} catch (SQLException e) {
+			DBUtils.closeQuietly(ps);
+			return;
+		}
+
+		statements.put(sql, ps);
+	}
+
+	/**
+	 * Close all cached statements. Statements acquired before are closed
+	 * when released.
+	 */
+	public void close() {
+
+		List<PreparedStatement> open;
+		synchronized (this) {
+			closed = true;
+			open = new ArrayList<PreparedStatement>(statements.values());
+			statements.clear();
+		}
+		for (PreparedStatement ps : open) {
+			DBUtils.closeQuietly(ps);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Metrics
+
+	/** @return The number of statements waiting to be used again. */
+	public synchronized int getCachedCount() {
+		return statements.size();
+	}
+
+	/** @return The number of statements found in this cache. */
+	public synchronized long getHitCount() {
+		return hits;
+	}
+
+	/** @return The number of statements that had to be prepared. */
+	public synchronized long getMissCount() {
+		return misses;
+	}
+
+	/** @return The number of statements closed to make room for others. */
+	public synchronized long getEvictionCount() {
+		return evictions;
+	}
+
+	/** @return The number of statements found in a cache, over all connections. */
+	public static long getTotalHitCount() {
+		return totalHits.get();
+	}
+
+	/** @return The number of statements prepared, over all connections. */
+	public static long getTotalMissCount() {
+		return totalMisses.get();
+	}
+
+	/** @return The number of statements evicted, over all connections. */
+	public static long getTotalEvictionCount() {
+		return totalEvictions.get();
+	}
+
+	/**
+	 * Log the metrics of the caches over all connections.
+	 */
+	public static void logStatistics() {
+
+		logger.info(String.format("Prepared statements: connections=%d hits=%d misses=%d evictions=%d", totalCaches
+				.get(), getTotalHitCount(), getTotalMissCount(), getTotalEvictionCount()));
+	}
+
+	public synchronized String toString() {
+		return String.format("%d statements cached: hits=%d misses=%d evictions=%d", statements.size(), hits, misses,
+				evictions);
+	}
+
+}
@@ -0,0 +1,459 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.text.SimpleDateFormat;
+import java.util.Collections;
+import java.util.Date;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * <p>
+ * Keeps queries within their time budget and logs the slow ones.
+ * </p>
+ *
+ * <p>
+ * A query may run for at most the query timeout, and all queries of a test on
+ * a database together for at most the test timeout. Code running a query
+ * calls {@link #start(Connection, Statement, String)} just before executing
+ * it, which sets the statement's query timeout to whatever is left of both,
+ * and {@link Query#finish(long)} once its results have been read. A watchdog
+ * thread cancels queries still running past their deadline, including
+ * streamed results being read after the driver's own timeout has stopped
+ * applying. MySQL's driver cancels a query by sending KILL QUERY on a
+ * separate connection, so the server stops working on it too.
+ * </p>
+ *
+ * <p>
+ * Queries taking longer than the slow query threshold are written to the
+ * slow query log, one tab-separated line each with the time, duration in
+ * milliseconds, rows returned (-1 if unknown), test, database and SQL, or to
+ * the log if there is no slow query log.
+ * </p>
+ */
+public final class QueryMonitor {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** Queries taking at least this many milliseconds are logged, if not set. */
+	public static final long DEFAULT_SLOW_QUERY_MILLIS = 60000;
+
+	private static volatile int queryTimeout = 0;
+
+	private static volatile int testTimeout = 0;
+
+	private static volatile long slowQueryMillis = DEFAULT_SLOW_QUERY_MILLIS;
+
+	private static PrintWriter slowQueryLog = null;
+
+	private static final ThreadLocal<TestContext> currentTest = new ThreadLocal<TestContext>();
+
+	/** Queries with a deadline, for the watchdog. */
+	private static final Set<Query> running = Collections.newSetFromMap(new ConcurrentHashMap<Query, Boolean>());
+
+	private static ScheduledExecutorService watchdog = null;
+
+	private static final AtomicLong slowCount = new AtomicLong();
+
+	private static final AtomicLong cancelledCount = new AtomicLong();
+
+	// hide constructor to stop instantiation
+	private QueryMonitor() {
+	}
+
+	// -------------------------------------------------------------------------
+	// Configuration
+
+	/**
+	 * @param seconds
+	 *          Time a single query may run for. 0 for no limit, the default.
+	 */
+	public static void setQueryTimeout(int seconds) {
+		queryTimeout = seconds;
+	}
+
+	/**
+	 * @param seconds
+	 *          Time the queries of one test on one database may run for
+	 *          together. 0 for no limit, the default.
+	 */
+	public static void setTestTimeout(int seconds) {
+		testTimeout = seconds;
+	}
+
+	/**
+	 * @param millis
+	 *          Queries taking at least this long are logged. Negative to log
+	 *          none.
+	 */
+	public static void setSlowQueryThreshold(long millis) {
+		slowQueryMillis = millis;
+	}
+
+	/**
+	 * Write slow queries to a file, appending to it if it exists, instead of
+	 * the log.
+	 */
+	public static synchronized void setSlowQueryLog(File file) throws IOException {
+
+		closeSlowQueryLog();
+		slowQueryLog = new PrintWriter(new FileWriter(file, true));
+	}
+
+	public static synchronized void closeSlowQueryLog() {
+
+		if (slowQueryLog != null) {
+			slowQueryLog.close();
+			slowQueryLog = null;
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Tests
+
+	/**
+	 * The test running on a thread, whose queries share its time budget and
+	 * are counted.
+	 */
+	public static final class TestContext {
+
+		private final String testName;
+		private final String databaseName;
+		private final int timeout;
+		private final long deadline;
+
+		private final AtomicLong statements = new AtomicLong();
+		private final AtomicLong rows = new AtomicLong();
+		private final long heapAtStart;
+		private final AtomicLong peakHeap;
+
+		TestContext(String testName, String databaseName, int timeout) {
+			this.testName = testName;
+			this.databaseName = databaseName;
+			this.timeout = timeout;
+			this.deadline = timeout > 0 ? System.nanoTime() + TimeUnit.SECONDS.toNanos(timeout) : Long.MAX_VALUE;
+			this.heapAtStart = getUsedHeap();
+			this.peakHeap = new AtomicLong(heapAtStart);
+		}
+
+		public String getTestName() {
+			return testName;
+		}
+
+		public String getDatabaseName() {
+			return databaseName;
+		}
+
+		/** @return The number of queries run so far. */
+		public long getStatementCount() {
+			return statements.get();
+		}
+
+		/**
+		 * @return The number of rows read or updated so far, leaving out
+		 *         queries whose row count isn't known.
+		 */
+		public long getRowCount() {
+			return rows.get();
+		}
+
+		/**
+		 * @return The most the heap in use grew by since the test started, as
+		 *         sampled after each query and now.
+		 */
+		public long getPeakHeapDelta() {
+			sampleHeap();
+			return peakHeap.get() - heapAtStart;
+		}
+
+		private void sampleHeap() {
+
+			long used = getUsedHeap();
+			long peak;
+			while (used > (peak = peakHeap.get())) {
+				if (peakHeap.compareAndSet(peak, used)) {
+					break;
+				}
+			}
+		}
+
+		private void count(long rowCount) {
+
+			statements.incrementAndGet();
+			if (rowCount > 0) {
+				rows.addAndGet(rowCount);
+			}
+			sampleHeap();
+		}
+	}
+
+	private static long getUsedHeap() {
+
+		Runtime runtime = Runtime.getRuntime();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Attribute the queries run on this thread to a test, and start the clock
+	 * on its time budget.
+	 *
+	 * @param databaseName
+	 *          The database tested, or null if the test runs on several.
+	 */
+	public static void startTest(String testName, String databaseName) {
+		currentTest.set(new TestContext(testName, databaseName, testTimeout));
+	}
+
+	/**
+	 * Stop attributing queries on this thread to the test started last.
+	 *
+	 * @return The test, with the counts of its queries, or null if none was
+	 *         started.
+	 */
+	public static TestContext finishTest() {
+
+		TestContext test = currentTest.get();
+		currentTest.remove();
+		return test;
+	}
+
+	/**
+	 * @return The test running on this thread, or null. For passing on to
+	 *         threads running queries on its behalf with
+	 *         {@link #setCurrentTest(TestContext)}.
+	 */
+	public static TestContext getCurrentTest() {
+		return currentTest.get();
+	}
+
+	public static void setCurrentTest(TestContext test) {
+
+		if (test == null) {
+			currentTest.remove();
+		} else {
+			currentTest.set(test);
+		}
+	}
+
+	// -------------------------------------------------------------------------
+	// Queries
+
+	/**
+	 * A query being run.
+	 */
+	public static final class Query {
+
+		private final TestContext test;
+		private final Connection con;
+		private final Statement statement;
+		private final String sql;
+		private final long start;
+		private final long deadline;
+		private volatile boolean cancelled = false;
+
+		Query(TestContext test, Connection con, Statement statement, String sql, long start, long deadline) {
+			this.test = test;
+			this.con = con;
+			this.statement = statement;
+			this.sql = sql;
+			this.start = start;
+			this.deadline = deadline;
+		}
+
+		/**
+		 * Called once the results have been read, or the query failed.
+		 *
+		 * @param rows
+		 *          The number of rows read or updated, or -1 if unknown.
+		 */
+		public void finish(long rows) {
+
+			if (deadline != Long.MAX_VALUE) {
+				running.remove(this);
+			}
+			if (test != null) {
+				test.count(rows);
+			}
+
+			long millis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (slowQueryMillis >= 0 && millis >= slowQueryMillis) {
+				logSlowQuery(this, millis, rows);
+			}
+		}
+
+		/**
+		 * @return True if the query was cancelled for running past its
+		 *         deadline.
+		 */
+		public boolean isCancelled() {
+			return cancelled;
+		}
+
+		private void cancel() {
+
+			cancelled = true;
+			cancelledCount.incrementAndGet();
+			logger.warning("Cancelling query that ran out of time in " + describe(this) + ": " + sql);
+			DBUtils.cancelQuietly(statement);
+		}
+	}
+
+	/**
+	 * Start timing a query and limit the time it may run for.
+	 *
+	 * @param con
+	 *          The connection the query runs on.
+	 * @param statement
+	 *          The statement about to be executed.
+	 * @param sql
+	 *          The SQL of the query, for the slow query log.
+	 * @throws SqlUncheckedException
+	 *           If the test running it has used up its time budget.
+	 */
+	public static Query start(Connection con, Statement statement, String sql) throws SQLException {
+
+		TestContext test = currentTest.get();
+		long now = System.nanoTime();
+
+		long deadline = queryTimeout > 0 ? now + TimeUnit.SECONDS.toNanos(queryTimeout) : Long.MAX_VALUE;
+		if (test != null && test.deadline < deadline) {
+			deadline = test.deadline;
+		}
+
+		if (deadline != Long.MAX_VALUE) {
+
+			long left = deadline - now;
+			if (left <= 0) {
+				throw new SqlUncheckedException("Test " + test.testName + " on " + test.databaseName
+						+ " has used up its time budget of " + test.timeout + "s, not running " + sql);
+			}
+			// rounded up, as 0 means no timeout
+			statement.setQueryTimeout((int) ((left + TimeUnit.SECONDS.toNanos(1) - 1) / TimeUnit.SECONDS.toNanos(1)));
+
+		} else if (queryTimeout > 0 || testTimeout > 0) {
+			// a cached statement may have had a timeout set by another test
+			statement.setQueryTimeout(0);
+		}
+
+		Query query = new Query(test, con, statement, sql, now, deadline);
+		if (deadline != Long.MAX_VALUE) {
+			startWatchdog();
+			running.add(query);
+		}
+		return query;
+	}
+
+	private static synchronized void startWatchdog() {
+
+		if (watchdog != null) {
+			return;
+		}
+
+		watchdog = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "healthcheck-query-watchdog");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		watchdog.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				long now = System.nanoTime();
+				for (Query query : running) {
+					if (!query.cancelled && now - query.deadline > 0) {
+						query.cancel();
+					}
+				}
+			}
+		}, 1, 1, TimeUnit.SECONDS);
+	}
+
+	private static String getTestName(Query query) {
+		return query.test != null ? query.test.testName : "no test";
+	}
+
+	private static String getDatabaseName(Query query) {
+
+		if (query.test != null && query.test.databaseName != null) {
+			return query.test.databaseName;
+		}
+		try {
+			return DBUtils.getShortDatabaseName(query.con);
+		} catch (SqlUncheckedException e) {
+			return "unknown database";
+		}
+	}
+
+	private static String describe(Query query) {
+		return getTestName(query) + " on " + getDatabaseName(query);
+	}
+
+	private static void logSlowQuery(Query query, long millis, long rows) {
+
+		slowCount.incrementAndGet();
+
+		String sql = query.sql.replaceAll("\\s+", " ").trim();
+
+		synchronized (QueryMonitor.class) {
+			if (slowQueryLog != null) {
+				slowQueryLog.println(new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date()) + "\t" + millis + "\t"
+						+ rows + "\t" + getTestName(query) + "\t" + getDatabaseName(query) + "\t" + sql);
+				slowQueryLog.flush();
+				return;
+			}
+		}
+		logger.info("Slow query (" + millis + "ms, " + (rows < 0 ? "?" : String.valueOf(rows)) + " rows"
+				+ (query.cancelled ? ", cancelled" : "") + ") in " + describe(query) + ": " + sql);
+	}
+
+	// -------------------------------------------------------------------------
+	// Metrics
+
+	/** @return The number of queries that took longer than the threshold. */
+	public static long getSlowQueryCount() {
+		return slowCount.get();
+	}
+
+	/** @return The number of queries cancelled for running out of time. */
+	public static long getCancelledCount() {
+		return cancelledCount.get();
+	}
+
+	/**
+	 * Log how many queries were slow or cancelled.
+	 */
+	public static void logStatistics() {
+		logger.info("Slow queries: " + getSlowQueryCount() + ", cancelled: " + getCancelledCount());
+	}
+
+}
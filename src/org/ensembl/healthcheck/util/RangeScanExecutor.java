@@ -0,0 +1,415 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+
+/**
+ * <p>
+ * Scans a large table in ranges of its integer key, several ranges at a time
+ * on separate connections.
+ * </p>
+ *
+ * <p>
+ * The query is run once per range, with the lower and upper key of the range
+ * bound to its first two parameters, e.g.
+ * <code>SELECT variation_id, frequency FROM allele WHERE variation_id BETWEEN ? AND ?</code>
+ * . Its rows are streamed into a {@link RangeCallback} created for the range,
+ * which reads the columns as longs and doubles from a reused {@link Row}, so
+ * no object is created per row. Rows with the same key are never split
+ * between ranges, so a callback can group them.
+ * </p>
+ *
+ * <p>
+ * One range is scanned on the connection given; the others on connections
+ * borrowed from the same {@link BoundedConnectionPool}, as many as it has to
+ * spare up to the concurrency asked for. Without a pool, the ranges are
+ * scanned one after the other.
+ * </p>
+ */
+public class RangeScanExecutor {
+
+	/** The logger to use for this class */
+	private static Logger logger = Logger.getLogger("HealthCheckLogger");
+
+	/** The number of keys in a range, if not given. */
+	public static final long DEFAULT_RANGE_SIZE = 250000;
+
+	/** The number of ranges scanned at the same time, if not given. */
+	public static final int DEFAULT_CONCURRENCY = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The current row of a scan, read into primitive values. Columns are
+	 * numbered from 1, as in JDBC. Integer columns are read as longs, all other
+	 * columns as doubles, so the query should only select numbers.
+	 */
+	public static final class Row {
+
+		private final boolean[] integral;
+		private final long[] longs;
+		private final double[] doubles;
+		private final boolean[] nulls;
+
+		Row(ResultSetMetaData metaData) throws SQLException {
+
+			int columns = metaData.getColumnCount();
+			integral = new boolean[columns + 1];
+			longs = new long[columns + 1];
+			doubles = new double[columns + 1];
+			nulls = new boolean[columns + 1];
+
+			for (int i = 1; i <= columns; i++) {
+				switch (metaData.getColumnType(i)) {
+				case Types.BIGINT:
+				case Types.INTEGER:
+				case Types.SMALLINT:
+				case Types.TINYINT:
+				case Types.BIT:
+				case Types.BOOLEAN:
+					integral[i] = true;
+					break;
+				default:
+					integral[i] = false;
+				}
+			}
+		}
+
+		void read(ResultSet rs) throws SQLException {
+
+			for (int i = 1; i < integral.length; i++) {
+				if (integral[i]) {
+					longs[i] = rs.getLong(i);
+					doubles[i] = longs[i];
+				} else {
+					doubles[i] = rs.getDouble(i);
+					longs[i] = (long) doubles[i];
+				}
+				nulls[i] = rs.wasNull();
+			}
+		}
+
+		public int getColumnCount() {
+			return integral.length - 1;
+		}
+
+		/**
+		 * @return The value of the column, or 0 if it is NULL.
+		 */
+		public long getLong(int column) {
+			return longs[column];
+		}
+
+		/**
+		 * @return The value of the column, or 0 if it is NULL.
+		 */
+		public double getDouble(int column) {
+			return doubles[column];
+		}
+
+		public boolean isNull(int column) {
+			return nulls[column];
+		}
+	}
+
+	/**
+	 * Receives the rows of one range, in the order of the query, on the thread
+	 * scanning it.
+	 */
+	public static interface RangeCallback<R> {
+
+		/**
+		 * @return false to stop the scan; ranges being scanned are cut short
+		 *         and no more are started.
+		 */
+		boolean row(Row row);
+
+		/**
+		 * Called after the last row of the range has been read, or the scan
+		 * was stopped.
+		 *
+		 * @param complete
+		 *          false if the scan was stopped before the last row of the
+		 *          range, so the rows of its last key may not all have been
+		 *          read.
+		 * @return The result for the range.
+		 */
+		R finish(boolean complete);
+	}
+
+	/**
+	 * Creates the callback for each range.
+	 */
+	public static interface RangeCallbackFactory<R> {
+
+		/**
+		 * @param lower
+		 *          The lowest key of the range.
+		 * @param upper
+		 *          The highest key of the range.
+		 */
+		RangeCallback<R> create(long lower, long upper);
+	}
+
+	private final Connection con;
+	private final long rangeSize;
+	private final int concurrency;
+
+	public RangeScanExecutor(Connection con, long rangeSize, int concurrency) {
+		this.con = con;
+		this.rangeSize = rangeSize;
+		this.concurrency = concurrency;
+	}
+
+	public RangeScanExecutor(Connection con) {
+		this(con, DEFAULT_RANGE_SIZE, DEFAULT_CONCURRENCY);
+	}
+
+	/**
+	 * Scan a table between the lowest and highest values of its key.
+	 *
+	 * @param table
+	 *          The table whose key is split into ranges.
+	 * @param keyColumn
+	 *          An indexed integer column of table.
+	 * @param sql
+	 *          The query for a range, whose first two parameters are its lower
+	 *          and upper keys, inclusive.
+	 * @param factory
+	 *          Creates the callback for each range.
+	 * @param args
+	 *          Any further parameters of sql.
+	 * @return The results of the ranges scanned, in the order of their keys.
+	 *         If the scan was stopped, ranges that weren't started are left
+	 *         out.
+	 */
+	public <R> List<R> scan(String table, String keyColumn, final String sql, final RangeCallbackFactory<R> factory,
+			final Object... args) {
+
+		long min;
+		long max;
+		Statement stmt = null;
+
+		try {
+			stmt = con.createStatement();
+			ResultSet rs = stmt.executeQuery("SELECT MIN(" + keyColumn + "), MAX(" + keyColumn + ") FROM " + table);
+			rs.next();
+			min = rs.getLong(1);
+			max = rs.getLong(2);
+			if (rs.wasNull()) {
+				return new ArrayList<R>();
+			}
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not get the range of " + table + "." + keyColumn, e);
+		} finally {
+			DBUtils.closeQuietly(stmt);
+		}
+
+		final long lowest = min;
+		final int ranges = (int) ((max - min) / rangeSize + 1);
+		final Object[] results = new Object[ranges];
+		final AtomicInteger nextRange = new AtomicInteger();
+		final AtomicBoolean stopped = new AtomicBoolean();
+
+		// spare connections for the other ranges, if con came from a pool
+		List<Connection> borrowed = new ArrayList<Connection>();
+		try {
+			while (borrowed.size() + 1 < Math.min(concurrency, ranges)) {
+				Connection other = ConnectionPool.borrowConnectionLike(con, 0);
+				if (other == null) {
+					break;
+				}
+				borrowed.add(other);
+			}
+		} catch (SQLException e) {
+			logger.finest("No more connections for scanning " + table + ": " + e.getMessage());
+		}
+
+		logger.fine("Scanning " + table + " in " + ranges + " ranges of " + rangeSize + " on "
+				+ (borrowed.size() + 1) + " connections");
+
+		ExecutorService pool = null;
+		boolean completed = false;
+
+		// the other threads work within the time budget of the test, and
+		// their reports are recorded with its own
+		final QueryMonitor.TestContext test = QueryMonitor.getCurrentTest();
+		final List<ReportLine> recording = ReportManager.getRecording();
+
+		try {
+
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+
+			if (!borrowed.isEmpty()) {
+				pool = Executors.newFixedThreadPool(borrowed.size(), new ScanThreadFactory());
+				for (final Connection other : borrowed) {
+					futures.add(pool.submit(new Callable<Void>() {
+						public Void call() throws SQLException {
+							QueryMonitor.setCurrentTest(test);
+							ReportManager.setRecording(recording);
+							try {
+								scanRanges(other, sql, args, factory, lowest, ranges, nextRange, stopped, results);
+							} finally {
+								QueryMonitor.setCurrentTest(null);
+								ReportManager.setRecording(null);
+							}
+							return null;
+						}
+					}));
+				}
+			}
+
+			scanRanges(con, sql, args, factory, lowest, ranges, nextRange, stopped, results);
+
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			completed = true;
+
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not scan " + table + " with " + sql, e);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SqlUncheckedException("Interrupted while scanning " + table, e);
+		} catch (ExecutionException e) {
+			throw new SqlUncheckedException("Could not scan " + table + " with " + sql, e.getCause());
+		} finally {
+			if (!completed) {
+				// the other threads stop at their next row
+				stopped.set(true);
+			}
+			if (pool != null) {
+				pool.shutdown();
+				try {
+					pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+			for (Connection other : borrowed) {
+				DBUtils.closeQuietly(other);
+			}
+		}
+
+		List<R> scanned = new ArrayList<R>();
+		for (Object result : results) {
+			if (result != null) {
+				@SuppressWarnings("unchecked")
+				R r = (R) result;
+				scanned.add(r);
+			}
+		}
+		return scanned;
+	}
+
+	/**
+	 * Scan ranges on one connection until there are none left.
+	 */
+	private <R> void scanRanges(Connection scanCon, String sql, Object[] args, RangeCallbackFactory<R> factory,
+			long lowest, int ranges, AtomicInteger nextRange, AtomicBoolean stopped, Object[] results)
+			throws SQLException {
+
+		PreparedStatement ps = DBUtils.prepareStreamingStatement(scanCon, sql);
+
+		try {
+
+			for (int i = 0; i < args.length; i++) {
+				ps.setObject(i + 3, args[i]);
+			}
+
+			int range;
+			while (!stopped.get() && (range = nextRange.getAndIncrement()) < ranges) {
+
+				long lower = lowest + range * rangeSize;
+				long upper = lower + rangeSize - 1;
+
+				ps.setLong(1, lower);
+				ps.setLong(2, upper);
+
+				RangeCallback<R> callback = factory.create(lower, upper);
+				QueryMonitor.Query query = QueryMonitor.start(scanCon, ps, sql);
+				ResultSet rs = null;
+				long rows = 0;
+				boolean complete = true;
+
+				try {
+
+					rs = ps.executeQuery();
+					Row row = new Row(rs.getMetaData());
+					while (rs.next()) {
+						rows++;
+						row.read(rs);
+						if (!callback.row(row)) {
+							stopped.set(true);
+						}
+						if (stopped.get()) {
+							// rather than reading the rest of a streamed result
+							DBUtils.cancelQuietly(ps);
+							complete = false;
+							break;
+						}
+					}
+
+				} finally {
+					DBUtils.closeQuietly(rs);
+					query.finish(rows);
+				}
+
+				results[range] = callback.finish(complete);
+			}
+
+		} finally {
+			DBUtils.closeQuietly(ps);
+		}
+	}
+
+	/**
+	 * Names scan threads so log output can be attributed.
+	 */
+	private static class ScanThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger count = new AtomicInteger();
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, "healthcheck-scan-" + count.incrementAndGet());
+			t.setDaemon(true);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * <p>
+ * A summary of the rows of a ResultSet that can be compared instead of the
+ * rows themselves: the column names and types, the number of rows and a hash
+ * of the rows that does not depend on their order.
+ * </p>
+ *
+ * <p>
+ * The rows are read once, front to back, so the ResultSet may be streamed.
+ * Values are hashed as strings; like
+ * {@link DBUtils#compareColumns(ResultSet, ResultSet, int, boolean)},
+ * AUTO_INCREMENT values in table definitions are ignored.
+ * </p>
+ */
+public class ResultSetDigest {
+
+	private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+	private static final long FNV_PRIME = 0x100000001b3L;
+
+	private final String columns;
+
+	private final long rowCount;
+
+	private final long hash;
+
+	ResultSetDigest(String columns, long rowCount, long hash) {
+		this.columns = columns;
+		this.rowCount = rowCount;
+		this.hash = hash;
+	}
+
+	/**
+	 * Read the remaining rows of rs and summarise them.
+	 */
+	public static ResultSetDigest compute(ResultSet rs) throws SQLException {
+
+		ResultSetMetaData rsmd = rs.getMetaData();
+		int columnCount = rsmd.getColumnCount();
+
+		int[] types = new int[columnCount + 1];
+		StringBuilder columns = new StringBuilder();
+		for (int i = 1; i <= columnCount; i++) {
+			types[i] = rsmd.getColumnType(i);
+			columns.append(rsmd.getColumnName(i)).append(' ').append(types[i]).append(',');
+		}
+
+		long rowCount = 0;
+		long hash = 0;
+
+		while (rs.next()) {
+
+			long rowHash = FNV_OFFSET;
+
+			for (int i = 1; i <= columnCount; i++) {
+
+				String value = rs.getString(i);
+
+				if (value == null) {
+					rowHash = (rowHash ^ 0xff) * FNV_PRIME;
+				} else {
+					if (types[i] == Types.VARCHAR && value.indexOf("AUTO_INCREMENT=") >= 0) {
+						value = DBUtils.AUTO_INCREMENT.matcher(value).replaceAll("");
+					}
+					for (int c = 0; c < value.length(); c++) {
+						rowHash = (rowHash ^ value.charAt(c)) * FNV_PRIME;
+					}
+				}
+				// separate the columns, so ("ab", "c") and ("a", "bc") differ
+				rowHash = (rowHash ^ 0xfe) * FNV_PRIME;
+			}
+
+			// a sum doesn't depend on the order of the rows but counts
+			// duplicates
+			hash += mix(rowHash);
+			rowCount++;
+		}
+
+		return new ResultSetDigest(columns.toString(), rowCount, hash);
+	}
+
+	/**
+	 * Spread the bits of a hash, so that sums of similar row hashes don't
+	 * cancel out.
+	 */
+	private static long mix(long h) {
+		h = (h ^ (h >>> 30)) * 0xbf58476d1ce4e5b9L;
+		h = (h ^ (h >>> 27)) * 0x94d049bb133111ebL;
+		return h ^ (h >>> 31);
+	}
+
+	public long getRowCount() {
+		return rowCount;
+	}
+
+	@Override
+	public boolean equals(Object o) {
+
+		if (!(o instanceof ResultSetDigest)) {
+			return false;
+		}
+		ResultSetDigest other = (ResultSetDigest) o;
+		return rowCount == other.rowCount && hash == other.hash && columns.equals(other.columns);
+	}
+
+	@Override
+	public int hashCode() {
+		return (int) (hash ^ (hash >>> 32));
+	}
+
+	@Override
+	public String toString() {
+		return rowCount + " rows, hash " + Long.toHexString(hash);
+	}
+
+}
@@ -0,0 +1,136 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * <p>
+ * Lets several test cases share one scan of a large table for their row
+ * counts.
+ * </p>
+ *
+ * <p>
+ * Test cases register the predicates they will count when they run, not
+ * when they are created, so that tests which aren't part of the run add
+ * nothing to the scans. The first test to ask for a count on a database
+ * counts the rows matching every predicate registered for that table so far,
+ * with
+ * {@link SqlTemplate#queryForCounts(String, Map, Object...)}. The counts are
+ * kept in the database's {@link MetadataCache}, so the other tests get theirs
+ * without touching the table again. A predicate registered after a table
+ * was scanned causes one more scan of it, after which the tests share the
+ * scans of the remaining databases. The runner clears the predicates at the
+ * end of each run.
+ * </p>
+ */
+public class SharedTableScan {
+
+	/** Predicates registered for each table, keyed on name. */
+	private static final Map<String, Map<String, String>> predicates = new HashMap<String, Map<String, String>>();
+
+	/**
+	 * Register a predicate to be counted with the next scan of a table.
+	 *
+	 * @param from
+	 *          The table, or joined tables, to scan.
+	 * @param name
+	 *          Identifies the predicate; names are shared by all test cases,
+	 *          so prefix them with the test's name.
+	 * @param predicate
+	 *          The SQL condition to count rows for.
+	 * @throws IllegalArgumentException
+	 *           If another predicate has been registered under the same name.
+	 */
+	public static synchronized void register(String from, String name, String predicate) {
+
+		Map<String, String> tablePredicates = predicates.get(from);
+		if (tablePredicates == null) {
+			tablePredicates = new LinkedHashMap<String, String>();
+			predicates.put(from, tablePredicates);
+		}
+
+		String existing = tablePredicates.get(name);
+		if (existing != null && !existing.equals(predicate)) {
+			throw new IllegalArgumentException("Predicate " + name + " on " + from + " is already registered as "
+					+ existing);
+		}
+		tablePredicates.put(name, predicate);
+	}
+
+	private static synchronized Map<String, String> getPredicates(String from) {
+
+		Map<String, String> tablePredicates = predicates.get(from);
+		return tablePredicates == null ? new LinkedHashMap<String, String>() : new LinkedHashMap<String, String>(
+				tablePredicates);
+	}
+
+	/**
+	 * Get the number of rows matching a registered predicate, scanning the
+	 * table for all its registered predicates if that hasn't been done for
+	 * this database yet.
+	 *
+	 * @throws IllegalArgumentException
+	 *           If no predicate has been registered under name.
+	 */
+	public static int getCount(final Connection con, final String from, String name) {
+
+		final Map<String, String> tablePredicates = getPredicates(from);
+
+		if (!tablePredicates.containsKey(name)) {
+			throw new IllegalArgumentException("No predicate " + name + " registered on " + from);
+		}
+
+		MetadataCache.Loader<Map<String, Integer>> loader = new MetadataCache.Loader<Map<String, Integer>>() {
+			public Map<String, Integer> load() {
+				return DBUtils.getRowCounts(con, from, tablePredicates);
+			}
+		};
+
+		String key = "scan:" + from;
+		MetadataCache cache = MetadataCache.forConnection(con);
+
+		try {
+
+			Map<String, Integer> counts = cache == null ? loader.load() : cache.get(key, loader);
+
+			if (!counts.containsKey(name)) {
+				// registered after the table was scanned
+				cache.invalidate(key);
+				counts = cache.get(key, loader);
+			}
+
+			return counts.get(name);
+
+		} catch (SQLException e) {
+			throw new SqlUncheckedException("Could not count rows of " + from, e);
+		}
+	}
+
+	/**
+	 * Forget all registered predicates.
+	 */
+	public static synchronized void clear() {
+		predicates.clear();
+	}
+
+}
@@ -280,6 +280,103 @@ public interface SqlTemplate {
 			Object... args);
 
 	/**
+	 * Counts the rows matching each of several predicates with a single scan,
+	 * rather than with one <code>SELECT COUNT(*)</code> per predicate. Example
+	 * usage:
+	 *
+	 * <code>
+	 * Map&lt;String, String&gt; predicates = new LinkedHashMap&lt;String, String&gt;();
+	 * predicates.put("start", "seq_region_start &lt; 1");
+	 * predicates.put("end", "seq_region_start &gt; seq_region_end");
+	 * Map&lt;String, Integer&gt; counts = template.queryForCounts("gene", predicates);
+	 * </code>
+	 *
+	 * @param from
+	 *            The table, or joined tables, to scan
+	 * @param predicates
+	 *            SQL conditions keyed on names to return the counts under
+	 * @param args
+	 *            Arguments to use in the predicates, in order
+	 * @return The number of rows matching each predicate, keyed and ordered
+	 *         like predicates
+	 */
+	Map<String, Integer> queryForCounts(String from,
+			Map<String, String> predicates, Object... args);
+
+	/**
+	 * Streams the rows of a query into a callback one at a time, rather than
+	 * reading them all into memory first. Use this for scans of large tables.
+	 * The statement is forward only and read only, with the fetch size MySQL
+	 * takes as a signal to stream. While the rows are read no other statement
+	 * can be run on the same connection, so the callback must not query the
+	 * database. Example usage:
+	 *
+	 * <code>
+	 * int rows = template.forEachRow("select exon_id, seq_region_start from exon", new RowCallback() {
+	 *   public boolean process(ResultSet rs) throws SQLException {
+	 *     return rs.getLong(2) &gt; 0; // stop at the first bad exon
+	 *   }
+	 * });
+	 * </code>
+	 *
+	 * @param sql
+	 *            The SQL to execute
+	 * @param callback
+	 *            Reads the current row of the result set; returns false to
+	 *            stop reading
+	 * @param args
+	 *            Arguments to use in the SQL
+	 * @return The number of rows passed to the callback
+	 */
+	int forEachRow(String sql, RowCallback callback, Object... args);
+
+	/**
+	 * Streams the rows of a query like
+	 * {@link #forEachRow(String, RowCallback, Object...)}, mapping each to
+	 * an object for the callback.
+	 *
+	 * @param <T>
+	 *            The type rows are mapped to
+	 * @param sql
+	 *            The SQL to execute
+	 * @param mapper
+	 *            The mapper to use
+	 * @param callback
+	 *            Receives each mapped row; returns false to stop reading
+	 * @param args
+	 *            Arguments to use in the SQL
+	 * @return The number of rows passed to the callback
+	 */
+	<T> int stream(String sql, RowMapper<T> mapper, ObjectCallback<T> callback,
+			Object... args);
+
+	/**
+	 * Scans a table in ranges of its integer key, several at a time on
+	 * separate connections, streaming the rows of each range into a callback
+	 * of its own. See {@link RangeScanExecutor}. Example usage:
+	 *
+	 * <code>
+	 * List&lt;Long&gt; counts = template.scanRanges("allele", "variation_id",
+	 *     "SELECT variation_id, frequency FROM allele WHERE variation_id BETWEEN ? AND ?", factory);
+	 * </code>
+	 *
+	 * @param table
+	 *            The table whose key is split into ranges
+	 * @param keyColumn
+	 *            An indexed integer column of table
+	 * @param sql
+	 *            The query for a range, whose first two parameters are the
+	 *            lower and upper keys of the range
+	 * @param factory
+	 *            Creates the callback for each range
+	 * @param args
+	 *            Any further arguments of the SQL
+	 * @return The result of each range scanned, in the order of their keys
+	 */
+	<R> List<R> scanRanges(String table, String keyColumn, String sql,
+			RangeScanExecutor.RangeCallbackFactory<R> factory, Object... args);
+
+	/**
    * A generic method used for opening {@link PreparedStatement} and
    * {@link ResultSet} instances and closing them down. Useful for when
    * you need to execute SQL but want finer control over how you
@@ -326,4 +423,25 @@ public interface SqlTemplate {
     T process(ResultSet rs) throws SQLException;
   }
 
+  /**
+   * Callback used to process each row of a streamed {@link ResultSet}.
+   */
+  public static interface RowCallback {
+    /**
+     * @return false to stop reading rows
+     */
+    boolean process(ResultSet rs) throws SQLException;
+  }
+
+  /**
+   * Callback used to process each row of a streamed query once it has been
+   * mapped to an object.
+   */
+  public static interface ObjectCallback<T> {
+    /**
+     * @return false to stop reading rows
+     */
+    boolean process(T object);
+  }
+
 }
@@ -0,0 +1,249 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+
+import org.apache.commons.io.FileUtils;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.testng.annotations.Test;
+
+public class IncrementalRunCacheTest {
+
+  private static class CountingTestCase extends SingleDatabaseTestCase {
+
+    int runs = 0;
+
+    @Override
+    public boolean run(DatabaseRegistryEntry dbre) {
+      runs++;
+      ReportManager.problem(this, dbre.getName(), "problem " + runs);
+      return false;
+    }
+  }
+
+  /** Reports from a thread of its own, as range scans do. */
+  private static class ThreadedTestCase extends CountingTestCase {
+
+    @Override
+    public boolean run(final DatabaseRegistryEntry dbre) {
+      runs++;
+      final List<ReportLine> recording = ReportManager.getRecording();
+      final EnsTestCase testCase = this;
+      Thread worker = new Thread() {
+        public void run() {
+          ReportManager.setRecording(recording);
+          try {
+            ReportManager.problem(testCase, dbre.getName(), "worker problem " + runs);
+          } finally {
+            ReportManager.setRecording(null);
+          }
+        }
+      };
+      worker.start();
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      return false;
+    }
+  }
+
+  /** Checksums set by the test rather than by CHECKSUM TABLE. */
+  private static class FixedChecksumCache extends IncrementalRunCache {
+
+    final Map<String, String> checksums = new HashMap<String, String>();
+
+    FixedChecksumCache(File directory) {
+      super(directory);
+    }
+
+    @Override
+    protected String getChecksum(DatabaseRegistryEntry database, String table) {
+      return checksums.get(table);
+    }
+  }
+
+  /** Keeps the messages reported. */
+  private static class MessageReporter implements Reporter {
+
+    final List<String> messages = new ArrayList<String>();
+
+    public void message(ReportLine reportLine) {
+      messages.add(reportLine.getMessage());
+    }
+
+    public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+    }
+
+    public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
+    }
+  }
+
+  private static boolean run(IncrementalRunCache cache, final CountingTestCase testCase,
+      final DatabaseRegistryEntry database) throws Exception {
+
+    return cache.run(testCase, database, new Callable<Boolean>() {
+      public Boolean call() {
+        return testCase.run(database);
+      }
+    });
+  }
+
+  @Test
+  public void testReplayWhileTablesUnchanged() throws Exception {
+
+    File directory = new File(System.getProperty("java.io.tmpdir"), "incremental_run_cache_test");
+    FileUtils.deleteDirectory(directory);
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    DatabaseRegistryEntry database = new DatabaseRegistryEntry(server, "homo_sapiens_core_80_38", null, null, null);
+
+    MessageReporter reporter = new MessageReporter();
+    ReportManager.setReporter(reporter);
+
+    try {
+
+      FixedChecksumCache cache = new FixedChecksumCache(directory);
+      cache.checksums.put("gene", "1");
+      cache.checksums.put("transcript", "2");
+
+      CountingTestCase testCase = new CountingTestCase();
+      testCase.setTablesRead("gene", "transcript");
+
+      assertFalse(run(cache, testCase, database));
+      assertEquals(testCase.runs, 1);
+
+      // nothing changed, so the test doesn't run but reports the same
+      FixedChecksumCache nextRun = new FixedChecksumCache(directory);
+      nextRun.checksums.putAll(cache.checksums);
+      assertFalse(run(nextRun, testCase, database));
+      assertEquals(testCase.runs, 1);
+
+      nextRun.checksums.put("transcript", "3");
+      assertFalse(run(nextRun, testCase, database));
+      assertEquals(testCase.runs, 2);
+
+      assertEquals(reporter.messages, Arrays.asList("problem 1", "problem 1", "problem 2"));
+
+    } finally {
+      ReportManager.setReporter(null);
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testDatabasesOfTheSameNameOnOtherServers() throws Exception {
+
+    File directory = new File(System.getProperty("java.io.tmpdir"), "incremental_run_cache_test4");
+    FileUtils.deleteDirectory(directory);
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    DatabaseServer otherServer = new DatabaseServer("localhost", "3307", "sa", "", "org.h2.Driver");
+    DatabaseRegistryEntry database = new DatabaseRegistryEntry(server, "homo_sapiens_core_80_38", null, null, null);
+    DatabaseRegistryEntry otherDatabase = new DatabaseRegistryEntry(otherServer, "homo_sapiens_core_80_38", null,
+        null, null);
+
+    MessageReporter reporter = new MessageReporter();
+    ReportManager.setReporter(reporter);
+
+    try {
+
+      FixedChecksumCache cache = new FixedChecksumCache(directory);
+      cache.checksums.put("gene", "1");
+
+      CountingTestCase testCase = new CountingTestCase();
+      testCase.setTablesRead("gene");
+
+      assertFalse(run(cache, testCase, database));
+      // same name and checksums, but not the database whose result is cached
+      assertFalse(run(cache, testCase, otherDatabase));
+      assertEquals(testCase.runs, 2);
+
+      assertFalse(run(cache, testCase, database));
+      assertEquals(testCase.runs, 2);
+
+      assertEquals(reporter.messages, Arrays.asList("problem 1", "problem 2", "problem 1"));
+
+    } finally {
+      ReportManager.setReporter(null);
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testReplayReportsOfOtherThreads() throws Exception {
+
+    File directory = new File(System.getProperty("java.io.tmpdir"), "incremental_run_cache_test3");
+    FileUtils.deleteDirectory(directory);
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    DatabaseRegistryEntry database = new DatabaseRegistryEntry(server, "homo_sapiens_core_80_38", null, null, null);
+
+    MessageReporter reporter = new MessageReporter();
+    ReportManager.setReporter(reporter);
+
+    try {
+
+      FixedChecksumCache cache = new FixedChecksumCache(directory);
+      cache.checksums.put("allele", "1");
+
+      CountingTestCase testCase = new ThreadedTestCase();
+      testCase.setTablesRead("allele");
+
+      assertFalse(run(cache, testCase, database));
+      assertFalse(run(cache, testCase, database));
+      assertEquals(testCase.runs, 1);
+
+      assertEquals(reporter.messages, Arrays.asList("worker problem 1", "worker problem 1"));
+
+    } finally {
+      ReportManager.setReporter(null);
+      FileUtils.deleteDirectory(directory);
+    }
+  }
+
+  @Test
+  public void testUndeclaredTablesAlwaysRun() throws Exception {
+
+    File directory = new File(System.getProperty("java.io.tmpdir"), "incremental_run_cache_test2");
+    FileUtils.deleteDirectory(directory);
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    DatabaseRegistryEntry database = new DatabaseRegistryEntry(server, "homo_sapiens_core_80_38", null, null, null);
+
+    CountingTestCase testCase = new CountingTestCase();
+    IncrementalRunCache cache = new FixedChecksumCache(directory);
+
+    run(cache, testCase, database);
+    run(cache, testCase, database);
+    assertEquals(testCase.runs, 2);
+    assertFalse(directory.exists());
+  }
+
+}
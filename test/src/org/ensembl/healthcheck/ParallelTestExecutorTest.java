@@ -0,0 +1,167 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ensembl.healthcheck;
+
+import static org.testng.Assert.*;
+
+import java.sql.DriverManager;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.MultiDatabaseTestCase;
+import org.ensembl.healthcheck.testcase.OrderedDatabaseTestCase;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.testng.annotations.Test;
+
+public class ParallelTestExecutorTest {
+
+  static final AtomicInteger running = new AtomicInteger();
+  static final AtomicInteger maxRunning = new AtomicInteger();
+  static final List<String> failureTexts = new ArrayList<String>();
+
+  public static class SlowTestCase extends SingleDatabaseTestCase {
+
+    @Override
+    public boolean run(DatabaseRegistryEntry dbre) {
+      int now = running.incrementAndGet();
+      synchronized (maxRunning) {
+        maxRunning.set(Math.max(maxRunning.get(), now));
+      }
+      synchronized (failureTexts) {
+        failureTexts.add(getFailureText());
+      }
+      try {
+        Thread.sleep(50);
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      } finally {
+        running.decrementAndGet();
+      }
+      return true;
+    }
+  }
+
+  public static class FailingTestCase extends SingleDatabaseTestCase {
+
+    @Override
+    public boolean run(DatabaseRegistryEntry dbre) {
+      if (dbre.getName().startsWith("mus_musculus")) {
+        throw new IllegalStateException("broken");
+      }
+      return true;
+    }
+  }
+
+  public static class LongTestCase extends SingleDatabaseTestCase {
+
+    public LongTestCase() {
+      setHintLongRunning(true);
+    }
+
+    @Override
+    public boolean run(DatabaseRegistryEntry dbre) {
+      fail("Long-running tests are skipped");
+      return false;
+    }
+  }
+
+  private static TestRegistry registryOf(final SingleDatabaseTestCase... tests) {
+
+    return new TestRegistry() {
+      public List<SingleDatabaseTestCase> getAllSingle(List<String> groupsToRun, DatabaseType type) {
+        return Arrays.asList(tests);
+      }
+
+      public List<MultiDatabaseTestCase> getAllMulti(List<String> groupsToRun) {
+        return new ArrayList<MultiDatabaseTestCase>();
+      }
+
+      public List<OrderedDatabaseTestCase> getAllOrdered(List<String> groups) {
+        return new ArrayList<OrderedDatabaseTestCase>();
+      }
+
+      public List<EnsTestCase> getAll() {
+        return new ArrayList<EnsTestCase>(Arrays.asList(tests));
+      }
+
+      public DatabaseType[] getTypes() {
+        return new DatabaseType[0];
+      }
+
+      public String[] getGroups(DatabaseType type) {
+        return new String[0];
+      }
+
+      public EnsTestCase[] getTestsInGroup(String string, DatabaseType type) {
+        return new EnsTestCase[0];
+      }
+    };
+  }
+
+  @Test
+  public void testRunSingleDatabaseTests() throws Exception {
+
+    ReportManager.setReporter(new Reporter() {
+      public void message(ReportLine reportLine) {
+      }
+
+      public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+      }
+
+      public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
+      }
+    });
+
+    String[] names = { "homo_sapiens_core_80_38", "mus_musculus_core_80_38", "danio_rerio_core_80_10",
+        "gallus_gallus_core_80_4" };
+    List<DatabaseRegistryEntry> databases = new ArrayList<DatabaseRegistryEntry>();
+    for (String name : names) {
+      databases.add(new DatabaseRegistryEntry(DatabaseRegistryEntry.getInfoFromName(name),
+          DriverManager.getConnection("jdbc:h2:mem:" + name, "sa", "")));
+    }
+
+    SlowTestCase slow = new SlowTestCase();
+    slow.setFailureText("set after registration");
+    TestRegistry testRegistry = registryOf(slow, new FailingTestCase(), new LongTestCase());
+
+    HashSet<Class<? extends EnsTestCase>> testsRun = new HashSet<Class<? extends EnsTestCase>>();
+    Map<Class<? extends EnsTestCase>, TestRunStats.CompletionStatus> status = new HashMap<Class<? extends EnsTestCase>, TestRunStats.CompletionStatus>();
+    Map<Class<? extends EnsTestCase>, List<DatabaseRegistryEntry>> exceptionToDb = new HashMap<Class<? extends EnsTestCase>, List<DatabaseRegistryEntry>>();
+
+    int completed = new ParallelTestExecutor(new TestRunner(), 2, 4).runSingleDatabaseTests(
+        new DatabaseRegistry(databases), testRegistry, new ArrayList<String>(), true, testsRun, status, exceptionToDb);
+
+    // all but the failing one and the skipped ones
+    assertEquals(completed, 7);
+    assertEquals(testsRun, new HashSet<Class<?>>(Arrays.asList(SlowTestCase.class, FailingTestCase.class)));
+    // the last database in registry order decides, as in a serial run
+    assertEquals(status.get(FailingTestCase.class), TestRunStats.CompletionStatus.COMPLETED);
+    assertEquals(status.get(LongTestCase.class), TestRunStats.CompletionStatus.SKIPPED_LONG_RUNNING);
+    assertEquals(exceptionToDb.get(FailingTestCase.class), Arrays.asList(databases.get(1)));
+
+    assertTrue(maxRunning.get() <= 2, "At most 2 tests at a time, but " + maxRunning.get() + " ran");
+    // each database ran on a fresh instance with the registered settings
+    assertEquals(failureTexts, Arrays.asList("set after registration", "set after registration",
+        "set after registration", "set after registration"));
+  }
+}
@@ -0,0 +1,190 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ensembl.healthcheck;
+
+import static org.testng.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.BatchUpdateException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.testng.annotations.Test;
+
+public class ReportDatabaseWriterTest {
+
+  private static class Meta extends SingleDatabaseTestCase {
+
+    @Override
+    public boolean run(DatabaseRegistryEntry dbre) {
+      return true;
+    }
+  }
+
+  private static ReportLine line(String text) {
+    return new ReportLine(new Meta(), "homo_sapiens_core_80_38", ReportLine.PROBLEM, text, Team.GENEBUILD, null);
+  }
+
+  private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+    return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+  }
+
+  /**
+   * A connection to an output database whose SHOW statements return a row
+   * if they are in shown, and whose report inserts fail for the text "bad"
+   * and throw an unchecked exception for "fatal".
+   */
+  private static Connection outputDatabase(final List<String> shown, final List<String> written) {
+
+    return proxy(Connection.class, new InvocationHandler() {
+      public Object invoke(Object con, Method method, Object[] args) throws Throwable {
+
+        if (method.getName().equals("createStatement")) {
+          return proxy(Statement.class, new InvocationHandler() {
+            public Object invoke(Object stmt, Method method, Object[] args) throws Throwable {
+              if (method.getName().equals("executeQuery")) {
+                final boolean found = shown.contains(args[0]);
+                return proxy(ResultSet.class, new InvocationHandler() {
+                  public Object invoke(Object rs, Method method, Object[] args) {
+                    return method.getName().equals("next") ? found : null;
+                  }
+                });
+              }
+              return null;
+            }
+          });
+        }
+
+        if (method.getName().equals("prepareStatement")) {
+          final String[] text = new String[1];
+          final List<String> batch = new ArrayList<String>();
+          return proxy(PreparedStatement.class, new InvocationHandler() {
+            public Object invoke(Object stmt, Method method, Object[] args) throws Throwable {
+              String name = method.getName();
+              if (name.equals("setString") && args[0].equals(8)) {
+                text[0] = (String) args[1];
+              } else if (name.equals("addBatch")) {
+                batch.add(text[0]);
+              } else if (name.equals("executeBatch")) {
+                List<String> lines = new ArrayList<String>(batch);
+                batch.clear();
+                if (lines.contains("fatal")) {
+                  throw new IllegalStateException("Connection lost");
+                }
+                if (lines.contains("bad")) {
+                  throw new BatchUpdateException("Data too long", new int[0]);
+                }
+                written.addAll(lines);
+                return new int[lines.size()];
+              } else if (name.equals("executeUpdate")) {
+                if (text[0].equals("bad")) {
+                  throw new SQLException("Data too long");
+                }
+                written.add(text[0]);
+                return 1;
+              }
+              return null;
+            }
+          });
+        }
+
+        return null;
+      }
+    });
+  }
+
+  @Test
+  public void testIsSupported() {
+
+    String column = "SHOW COLUMNS FROM report LIKE 'report_hash'";
+    String key = "SHOW INDEX FROM report WHERE Key_name = 'report_hash_idx'";
+    List<String> written = new ArrayList<String>();
+
+    assertTrue(ReportDatabaseWriter.isSupported(outputDatabase(Arrays.asList(column, key), written)));
+    // the key is missing until duplicates are merged
+    assertFalse(ReportDatabaseWriter.isSupported(outputDatabase(Arrays.asList(column), written)));
+    assertFalse(ReportDatabaseWriter.isSupported(outputDatabase(Collections.<String> emptyList(), written)));
+  }
+
+  @Test
+  public void testFailedBatchIsWrittenLineByLine() {
+
+    List<String> written = Collections.synchronizedList(new ArrayList<String>());
+    ReportDatabaseWriter writer = new ReportDatabaseWriter(outputDatabase(Collections.<String> emptyList(), written));
+
+    writer.add(line("one"));
+    writer.add(line("bad"));
+    writer.add(line("two"));
+    writer.close();
+
+    // only the line that fails on its own is lost
+    assertEquals(written, Arrays.asList("one", "two"));
+  }
+
+  @Test(timeOut = 10000)
+  public void testWriterFailureIsRethrown() throws InterruptedException {
+
+    List<String> written = Collections.synchronizedList(new ArrayList<String>());
+    ReportDatabaseWriter writer = new ReportDatabaseWriter(outputDatabase(Collections.<String> emptyList(), written));
+
+    writer.add(line("fatal"));
+
+    try {
+      writer.flush();
+      fail("flush() should rethrow the writer's failure");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getCause().getMessage(), "Connection lost");
+    }
+
+    // rather than block once the queue is full
+    try {
+      for (int i = 0; i <= ReportDatabaseWriter.QUEUE_CAPACITY; i++) {
+        writer.add(line("line " + i));
+      }
+      fail("add() should rethrow the writer's failure");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getCause().getMessage(), "Connection lost");
+    }
+
+    try {
+      writer.close();
+      fail("close() should rethrow the writer's failure");
+    } catch (IllegalStateException e) {
+      assertEquals(e.getCause().getMessage(), "Connection lost");
+    }
+    assertTrue(written.isEmpty());
+  }
+
+  @Test
+  public void testGetReportHash() {
+
+    // MD5(CONVERT(CONCAT_WS(CHAR(0), ...) USING utf8)) as patch_02 computes
+    // it, whatever the charset of the report table
+    assertEquals(ReportDatabaseWriter.getReportHash(line("plain")), "97bfc51e9056b2ae3252ef5039746cdf");
+    assertEquals(ReportDatabaseWriter.getReportHash(line("Ångström")), "35e08e04892c02895d1ce93272724519");
+  }
+}
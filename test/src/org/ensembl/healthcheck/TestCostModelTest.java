@@ -0,0 +1,93 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ensembl.healthcheck;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class TestCostModelTest {
+
+  private static TestTiming timing(String testcase, String type, long tableRows, long wallTimeMs) {
+    return new TestTiming(testcase, "db", type, tableRows, "2019-01-01 00:00:00", wallTimeMs, 0, 0, -1, 0, 0);
+  }
+
+  @Test
+  public void testEstimate() {
+
+    TestCostModel model = new TestCostModel(Arrays.asList(
+        timing("ExonStrandOrder", "core", 1000, 2000),
+        timing("ExonStrandOrder", "core", 3000, 3000),
+        timing("ExonStrandOrder", "otherfeatures", -1, 500),
+        timing("Meta", "core", -1, 100),
+        timing("Meta", "core", -1, 300)));
+
+    assertEquals(model.size(), 5);
+
+    // scaled by the average of 2ms and 1ms a row
+    assertEquals(model.estimate("ExonStrandOrder", "core", 2000, false), 3000);
+    // size unknown, so the average time
+    assertEquals(model.estimate("ExonStrandOrder", "core", -1, false), 2500);
+    assertEquals(model.estimate("ExonStrandOrder", "otherfeatures", 100000, false), 500);
+    // never ran on this type, so runs on any type
+    assertEquals(model.estimate("Meta", "variation", 10, false), 200);
+
+    // never ran: the average test, or the longest one
+    assertEquals(model.estimate("NewTest", "core", 10, false), 5900 / 5);
+    assertEquals(model.estimate("NewTest", "core", 10, true), 3000);
+
+    assertEquals(new TestCostModel(new ArrayList<TestTiming>()).estimate("NewTest", "core", 10, true),
+        TestCostModel.DEFAULT_ESTIMATE_MS);
+  }
+
+  @Test
+  public void testReadSessionTimingsSkipsGapsInSessionIds() throws SQLException {
+
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:recenttimings;MODE=MySQL", "sa", "");
+    Statement stmt = con.createStatement();
+    stmt.execute("CREATE TABLE session_timing (session_id INT NOT NULL, testcase VARCHAR(255) NOT NULL, "
+        + "database_name VARCHAR(255), database_type VARCHAR(255), table_rows BIGINT, start_time DATETIME, "
+        + "wall_time_ms BIGINT NOT NULL, statements INT NOT NULL, rows_fetched BIGINT NOT NULL, "
+        + "bytes_transferred BIGINT, report_lines INT NOT NULL, heap_delta_bytes BIGINT NOT NULL)");
+    // sessions 2, 4 and 5 ran without timings
+    for (int session : new int[] { 1, 3, 3, 6 }) {
+      stmt.execute("INSERT INTO session_timing VALUES (" + session + ", 'Test" + session
+          + "', 'db', 'core', NULL, NULL, 1, 0, 0, NULL, 0, 0)");
+    }
+
+    List<TestTiming> timings = ReportManager.readSessionTimings(con, 2);
+    Set<String> tests = new HashSet<String>();
+    for (TestTiming timing : timings) {
+      tests.add(timing.getTestcase());
+    }
+    assertEquals(timings.size(), 3);
+    assertEquals(tests, new HashSet<String>(Arrays.asList("Test3", "Test6")));
+
+    con.close();
+  }
+
+}
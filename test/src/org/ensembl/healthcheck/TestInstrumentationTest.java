@@ -0,0 +1,123 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.ensembl.healthcheck;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.util.List;
+
+import org.apache.commons.io.FileUtils;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.SqlTemplate;
+import org.testng.annotations.Test;
+
+public class TestInstrumentationTest {
+
+  private static class QueryingTestCase extends SingleDatabaseTestCase {
+
+    @Override
+    public boolean run(DatabaseRegistryEntry dbre) {
+      SqlTemplate t = DBUtils.getSqlTemplate(dbre.getConnection());
+      t.queryForDefaultObjectList("SELECT x FROM SYSTEM_RANGE(1, 10)", Integer.class);
+      t.queryForDefaultObject("SELECT COUNT(*) FROM SYSTEM_RANGE(1, 5)", Integer.class);
+      ReportManager.problem(this, dbre.getName(), "one");
+      ReportManager.problem(this, dbre.getName(), "two, with a comma");
+      return false;
+    }
+  }
+
+  @Test
+  public void testMeasureAndWrite() throws Exception {
+
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:instrumentation;MODE=MySQL", "sa", "");
+    DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(
+        DatabaseRegistryEntry.getInfoFromName("homo_sapiens_core_80_38"), con);
+    QueryingTestCase testCase = new QueryingTestCase();
+
+    TestInstrumentation.clear();
+    ReportManager.setReporter(new Reporter() {
+      public void message(ReportLine reportLine) {
+      }
+
+      public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+      }
+
+      public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
+      }
+    });
+
+    try {
+
+      TestInstrumentation.startTest(testCase, dbre);
+      testCase.run(dbre);
+      TestTiming timing = TestInstrumentation.finishTest();
+
+      assertEquals(timing.getTestcase(), testCase.getShortTestName());
+      assertEquals(timing.getDatabaseName(), "homo_sapiens_core_80_38");
+      assertEquals(timing.getDatabaseType(), "core");
+      assertEquals(timing.getStatements(), 2);
+      // rows of a single object aren't counted
+      assertEquals(timing.getRowsFetched(), 10);
+      assertEquals(timing.getReportLines(), 2);
+      // not MySQL
+      assertEquals(timing.getBytesTransferred(), -1);
+      assertEquals(timing.getTableRows(), -1);
+      assertTrue(timing.getWallTimeMs() >= 0);
+
+      // nothing counted outside a test
+      ReportManager.problem(testCase, dbre.getName(), "three");
+      assertNull(TestInstrumentation.finishTest());
+
+      // nor a replayed result
+      TestInstrumentation.startTest(testCase, dbre);
+      TestInstrumentation.discardTest();
+      assertNull(TestInstrumentation.finishTest());
+
+      List<TestTiming> timings = TestInstrumentation.getTimings();
+      assertEquals(timings.size(), 1);
+
+      File csv = File.createTempFile("timings", ".csv");
+      TestInstrumentation.write(csv);
+      List<?> lines = FileUtils.readLines(csv, "UTF-8");
+      assertEquals(lines.size(), 2);
+      assertEquals(lines.get(0), "testcase,database_name,database_type,table_rows,start_time,wall_time_ms,statements,"
+          + "rows_fetched,bytes_transferred,report_lines,heap_delta_bytes");
+      assertTrue(((String) lines.get(1)).startsWith(testCase.getShortTestName() + ",homo_sapiens_core_80_38,core,,"));
+      assertTrue(((String) lines.get(1)).contains(",2,10,,2,"), (String) lines.get(1));
+
+      File json = File.createTempFile("timings", ".json");
+      TestInstrumentation.write(json);
+      String text = FileUtils.readFileToString(json, "UTF-8");
+      assertTrue(text.contains("\"rows_fetched\": 10"), text);
+      assertTrue(text.contains("\"bytes_transferred\": null"), text);
+
+      csv.delete();
+      json.delete();
+
+    } finally {
+      TestInstrumentation.clear();
+      con.close();
+    }
+  }
+
+}
@@ -0,0 +1,125 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.scheduler;
+
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.ensembl.healthcheck.HealthcheckJob;
+import org.testng.annotations.Test;
+
+public class LocalJobSchedulerTest {
+
+  /**
+   * Records how many jobs run at once instead of starting JVMs.
+   */
+  static class RecordingScheduler extends LocalJobScheduler {
+
+    final AtomicInteger running = new AtomicInteger();
+    final AtomicInteger maxRunning = new AtomicInteger();
+    final List<String> finished = Collections.synchronizedList(new ArrayList<String>());
+
+    RecordingScheduler(int jobs, int jobsPerHost) {
+      super(jobs, jobsPerHost, new ArrayList<String>());
+    }
+
+    @Override
+    protected int runJob(HealthcheckJob job) {
+      int now = running.incrementAndGet();
+      synchronized (maxRunning) {
+        maxRunning.set(Math.max(maxRunning.get(), now));
+      }
+      try {
+        Thread.sleep(20);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+      running.decrementAndGet();
+      finished.add(job.getName());
+      return 0;
+    }
+  }
+
+  private static HealthcheckJob job(String name, String... hosts) {
+    return new HealthcheckJob(name, new String[] {}, Arrays.asList(hosts), null);
+  }
+
+  @Test
+  public void testJobsPerHostIsRespected() {
+    RecordingScheduler scheduler = new RecordingScheduler(4, 2);
+    for (int i = 0; i < 8; i++) {
+      scheduler.submit(job("Job_" + i, "hosta", "secondary"));
+    }
+    scheduler.awaitCompletion();
+    assertEquals(scheduler.finished.size(), 8);
+    assertTrue(scheduler.maxRunning.get() <= 2, "at most 2 jobs on one host, saw " + scheduler.maxRunning.get());
+  }
+
+  @Test
+  public void testJobsOnDifferentHostsRunTogether() {
+    RecordingScheduler scheduler = new RecordingScheduler(4, 1);
+    scheduler.submit(job("Job_0", "hosta"));
+    scheduler.submit(job("Job_1", "hostb"));
+    scheduler.submit(job("Job_2", "hosta"));
+    scheduler.submit(job("Job_3", "hostb"));
+    scheduler.awaitCompletion();
+    assertEquals(scheduler.finished.size(), 4);
+    assertTrue(scheduler.maxRunning.get() <= 2);
+  }
+
+  @Test
+  public void testJobsForBusyHostDontHoldUpOthers() {
+    RecordingScheduler scheduler = new RecordingScheduler(2, 1);
+    scheduler.submit(job("Job_0", "hosta"));
+    scheduler.submit(job("Job_1", "hosta"));
+    scheduler.submit(job("Job_2", "hostb"));
+    scheduler.awaitCompletion();
+    // Job_2 runs next to Job_0 rather than after Job_1
+    assertEquals(scheduler.finished.get(2), "Job_1");
+  }
+
+  @Test
+  public void testHostLimit() {
+    RecordingScheduler scheduler = new RecordingScheduler(4, 1);
+    scheduler.setHostLimit("secondary", 3);
+    for (int i = 0; i < 6; i++) {
+      scheduler.submit(job("Job_" + i, "host" + (i % 3), "secondary"));
+    }
+    scheduler.awaitCompletion();
+    assertEquals(scheduler.finished.size(), 6);
+    assertEquals(scheduler.maxRunning.get(), 3, "each job on its own main host, three on the secondary");
+  }
+
+  @Test
+  public void testAfterAllRunsLast() {
+    RecordingScheduler scheduler = new RecordingScheduler(3, 3);
+    for (int i = 0; i < 5; i++) {
+      scheduler.submit(job("Job_" + i, "hosta"));
+    }
+    scheduler.submitAfterAll(job("hc_1"));
+    scheduler.awaitCompletion();
+    assertEquals(scheduler.finished.size(), 6);
+    assertEquals(scheduler.finished.get(5), "hc_1");
+  }
+
+}
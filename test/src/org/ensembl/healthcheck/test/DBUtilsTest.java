@@ -17,6 +17,15 @@
 
 package org.ensembl.healthcheck.test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
 import org.ensembl.healthcheck.util.DBUtils;
 import org.testng.Assert;
 import org.testng.annotations.Test;
@@ -29,4 +38,99 @@ public class DBUtilsTest {
     Assert.assertNotNull(dbName);
   }
 
+  private static Connection createTable(String name, String lastRow) throws SQLException {
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:" + name, "sa", "");
+    Statement stmt = con.createStatement();
+    stmt.execute("CREATE TABLE t (id INT, name VARCHAR(20), score DOUBLE)");
+    stmt.execute("INSERT INTO t VALUES (1, 'a', 0.5), (2, NULL, NULL), " + lastRow);
+    stmt.close();
+    return con;
+  }
+
+  private static Object forward(Object target, Method method, Object[] args) throws Throwable {
+    try {
+      return method.invoke(target, args);
+    } catch (InvocationTargetException e) {
+      throw e.getCause();
+    }
+  }
+
+  /**
+   * Like MySQL, refuses to run a query while a streamed result of the same
+   * connection is open.
+   */
+  private static Connection streamingConnection(final Connection con) {
+
+    final Statement[] streaming = new Statement[1];
+
+    return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Connection.class },
+        new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            Object result = forward(con, method, args);
+            if (!(result instanceof Statement)) {
+              return result;
+            }
+            final Statement stmt = (Statement) result;
+            return Proxy.newProxyInstance(Connection.class.getClassLoader(), new Class<?>[] { Statement.class },
+                new InvocationHandler() {
+
+                  boolean streamed = false;
+
+                  public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                    String name = method.getName();
+                    if (name.equals("setFetchSize") && args[0].equals(Integer.MIN_VALUE)) {
+                      streamed = true;
+                      return null;
+                    }
+                    if (name.equals("executeQuery")) {
+                      if (streaming[0] != null && !streaming[0].isClosed()) {
+                        throw new SQLException("Streaming result set is still active");
+                      }
+                      if (streamed) {
+                        streaming[0] = stmt;
+                      }
+                    }
+                    return forward(stmt, method, args);
+                  }
+                });
+          }
+        });
+  }
+
+  @Test
+  public void testCompareQueryResultsOnOneConnection() throws SQLException {
+
+    Connection con = createTable("compare4", "(3, 'c', 1.5)");
+    Connection streaming = streamingConnection(con);
+    String sql = "SELECT * FROM t ORDER BY id";
+
+    Assert.assertTrue(DBUtils.compareQueryResults(streaming, sql, streaming, sql, null, "", false, false, "t", null,
+        false));
+    Assert.assertFalse(DBUtils.compareQueryResults(streaming, sql, streaming, "SELECT * FROM t WHERE id < 3 ORDER BY id",
+        null, "", false, false, "t", null, false));
+
+    con.close();
+  }
+
+  @Test
+  public void testCompareQueryResults() throws SQLException {
+
+    Connection con1 = createTable("compare1", "(3, 'c', 1.5)");
+    Connection con2 = createTable("compare2", "(3, 'c', 1.5)");
+    Connection con3 = createTable("compare3", "(3, 'c', 2.5)");
+    String sql = "SELECT * FROM t ORDER BY id";
+
+    Assert.assertTrue(DBUtils.compareQueryResults(con1, sql, con2, sql, null, "", false, false, "t", null, false));
+    Assert.assertTrue(DBUtils.compareQueryResults(con1, sql, con1, sql, null, "", false, false, "t", null, false));
+    Assert.assertFalse(DBUtils.compareQueryResults(con1, sql, con3, sql, null, "", false, false, "t", null, false));
+    Assert.assertTrue(DBUtils.compareQueryResults(con1, sql, con3, sql, null, "", false, false, "t", new int[] { 1, 2 },
+        false));
+    Assert.assertFalse(DBUtils.compareQueryResults(con1, sql, con3, "SELECT * FROM t WHERE id < 3 ORDER BY id", null,
+        "", false, false, "t", null, false));
+
+    con1.close();
+    con2.close();
+    con3.close();
+  }
+
 }
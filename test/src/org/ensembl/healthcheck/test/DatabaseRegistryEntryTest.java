@@ -17,9 +17,20 @@
 
 package org.ensembl.healthcheck.test;
 
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Map;
+
 import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseRegistryEntry.DatabaseInfo;
+import org.ensembl.healthcheck.DatabaseServer;
 import org.ensembl.healthcheck.DatabaseType;
 import org.ensembl.healthcheck.Species;
+import org.ensembl.healthcheck.util.DBUtils;
+import org.ensembl.healthcheck.util.SqlUncheckedException;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
@@ -47,4 +58,67 @@ public class DatabaseRegistryEntryTest {
 
   // -----------------------------------------------------------------
 
+  @Test
+  public void testConnectionValidationIsSkippedWhenRecentlyUsed() throws SQLException {
+
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:dbretest", "sa", "");
+    String name = "homo_sapiens_core_20_34";
+    DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(
+        DatabaseRegistryEntry.getInfoFromName(name), con);
+
+    long performed = DatabaseRegistryEntry.getValidationsPerformed();
+    long skipped = DatabaseRegistryEntry.getValidationsSkipped();
+
+    // never validated so far
+    Assert.assertSame(dbre.getConnection(), con);
+    Assert.assertEquals(DatabaseRegistryEntry.getValidationsPerformed(), performed + 1);
+
+    Assert.assertSame(dbre.getConnection(), con);
+    Assert.assertEquals(DatabaseRegistryEntry.getValidationsSkipped(), skipped + 1);
+
+    dbre.invalidateConnection();
+    Assert.assertSame(dbre.getConnection(), con);
+    Assert.assertEquals(DatabaseRegistryEntry.getValidationsPerformed(), performed + 2);
+
+    // a failed statement invalidates it too
+    try {
+      DBUtils.getSqlTemplate(con).queryForDefaultObject("SELECT * FROM no_such_table", Integer.class);
+      Assert.fail("the query should have failed");
+    } catch (SqlUncheckedException e) {
+      // expected
+    }
+    Assert.assertSame(dbre.getConnection(), con);
+    Assert.assertEquals(DatabaseRegistryEntry.getValidationsPerformed(), performed + 3);
+
+    con.close();
+  }
+
+  @Test
+  public void testGetInfoFromDatabases() throws SQLException {
+
+    String url = "jdbc:h2:mem:dbreinfotest;MODE=MySQL";
+    Connection con = DriverManager.getConnection(url, "sa", "");
+    Statement stmt = con.createStatement();
+    stmt.execute("CREATE SCHEMA my_core");
+    stmt.execute("CREATE TABLE my_core.meta (meta_key VARCHAR(40), meta_value VARCHAR(40))");
+    stmt.execute("INSERT INTO my_core.meta VALUES ('schema_type', 'core'), ('schema_version', '80')");
+    stmt.execute("CREATE SCHEMA my_other");
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    server.setDatabaseURL(url);
+
+    Map<String, DatabaseInfo> infos = DatabaseRegistryEntry.getInfoFromDatabases(server,
+        Arrays.asList("my_core", "my_other"));
+
+    Assert.assertEquals(infos.size(), 1);
+    Assert.assertEquals(infos.get("my_core").getType(), DatabaseType.CORE);
+    Assert.assertEquals(infos.get("my_core").getSchemaVersion(), "80");
+
+    DatabaseRegistryEntry dbre = new DatabaseRegistryEntry(server, "my_core", null, null, infos.get("my_core"));
+    Assert.assertEquals(dbre.getType(), DatabaseType.CORE);
+
+    stmt.close();
+    con.close();
+  }
+
 }
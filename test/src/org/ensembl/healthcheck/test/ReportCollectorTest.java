@@ -0,0 +1,109 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.ReportCollector;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+public class ReportCollectorTest {
+
+  public static class FirstTest extends SingleDatabaseTestCase {
+    public boolean run(DatabaseRegistryEntry dbre) {
+      return true;
+    }
+  }
+
+  public static class SecondTest extends SingleDatabaseTestCase {
+    public boolean run(DatabaseRegistryEntry dbre) {
+      return true;
+    }
+  }
+
+  private static ReportLine line(EnsTestCase test, String database, int level) {
+    return new ReportLine(test, database, level, "message", null, null);
+  }
+
+  @Test
+  public void testCounts() {
+
+    EnsTestCase first = new FirstTest();
+    EnsTestCase second = new SecondTest();
+    String core = "homo_sapiens_core_20_34";
+    String variation = "homo_sapiens_variation_20_34";
+
+    ReportCollector collector = new ReportCollector();
+    collector.add(line(first, core, ReportLine.INFO));
+    collector.add(line(first, core, ReportLine.PROBLEM));
+    collector.add(line(first, variation, ReportLine.CORRECT));
+    collector.add(line(second, core, ReportLine.WARNING));
+
+    Assert.assertEquals(collector.countPassesAndFailsAll(), new int[] { 2, 1 });
+    Assert.assertEquals(collector.countPassesAndFailsDatabase(core), new int[] { 1, 1 });
+    Assert.assertEquals(collector.countPassesAndFailsDatabase(variation), new int[] { 1, 0 });
+    Assert.assertEquals(collector.countPassesAndFailsTest(first.getTestName()), new int[] { 1, 1 });
+    Assert.assertEquals(collector.countPassesAndFailsTest("NoSuchTest"), new int[] { 0, 0 });
+
+    Assert.assertFalse(collector.databasePassed(first.getTestName(), core));
+    Assert.assertTrue(collector.databasePassed(first.getTestName(), variation));
+    Assert.assertFalse(collector.allDatabasesPassed(first.getTestName()));
+    Assert.assertTrue(collector.allDatabasesPassed(second.getTestName()));
+
+    Assert.assertEquals(collector.getReportsForDatabase(core).size(), 3);
+    Assert.assertEquals(collector.getReportsForTest(first.getTestName()).size(), 3);
+  }
+
+  @Test
+  public void testConcurrentAdds() throws InterruptedException {
+
+    final EnsTestCase first = new FirstTest();
+    final ReportCollector collector = new ReportCollector();
+    final int linesPerThread = 200;
+
+    List<Thread> threads = new ArrayList<Thread>();
+    for (int i = 0; i < 8; i++) {
+      final String database = "homo_sapiens_core_" + (20 + i) + "_34";
+      Thread t = new Thread(new Runnable() {
+        public void run() {
+          for (int j = 0; j < linesPerThread; j++) {
+            collector.add(line(first, database, j == linesPerThread - 1 ? ReportLine.PROBLEM : ReportLine.INFO));
+          }
+        }
+      });
+      threads.add(t);
+      t.start();
+    }
+    for (Thread t : threads) {
+      t.join();
+    }
+
+    Assert.assertEquals(collector.countPassesAndFailsAll(), new int[] { 0, 8 });
+    Assert.assertEquals(collector.getReportsByDatabase().size(), 8);
+    for (List<ReportLine> lines : collector.getReportsByDatabase().values()) {
+      Assert.assertEquals(lines.size(), linesPerThread);
+    }
+  }
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase;
+
+import static org.testng.Assert.*;
+
+import java.io.UnsupportedEncodingException;
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseServer;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.Reporter;
+import org.ensembl.healthcheck.util.H2Database;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+public class AbstractControlledTableTest {
+
+  private static class ControlledTaxa extends AbstractControlledTable {
+
+    @Override
+    protected String getControlledTableName() {
+      return "TAXA";
+    }
+
+    int getNumReportedRows() {
+      return numReportedRows;
+    }
+
+    @Override
+    protected int getRowHashBucketSize() {
+      return 100;
+    }
+  }
+
+  /** Called by H2 for MD5, which it lacks. */
+  public static String md5(String value) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    if (value == null) {
+      return null;
+    }
+    byte[] digest = MessageDigest.getInstance("MD5").digest(value.getBytes("UTF-8"));
+    return String.format("%032x", new BigInteger(1, digest));
+  }
+
+  /** Stands in for MD5 in a database whose ranges should all differ. */
+  public static String saltedMd5(String value) throws NoSuchAlgorithmException, UnsupportedEncodingException {
+    return md5(value + "salt");
+  }
+
+  /** Called by H2 for CONV, which it lacks. */
+  public static String conv(String number, int fromBase, int toBase) {
+    return number == null ? null : new BigInteger(number, fromBase).toString(toBase);
+  }
+
+  /** Called by H2 for CONCAT_WS, which it lacks; skips nulls like MySQL. */
+  public static String concatWs(String separator, String... values) {
+    StringBuilder result = new StringBuilder();
+    for (String value : values) {
+      if (value != null) {
+        if (result.length() > 0) {
+          result.append(separator);
+        }
+        result.append(value);
+      }
+    }
+    return result.toString();
+  }
+
+  /**
+   * Create a database in which the bucket hash SQL meant for MySQL runs
+   * unchanged.
+   */
+  private static Connection createDatabase(String name, String md5Method) throws SQLException {
+
+    String className = AbstractControlledTableTest.class.getName();
+    return H2Database.create(name,
+        "CREATE ALIAS MD5 FOR \"" + className + "." + md5Method + "\"",
+        "CREATE ALIAS CONV FOR \"" + className + ".conv\"",
+        "CREATE ALIAS CONCAT_WS FOR \"" + className + ".concatWs\"",
+        "CREATE DOMAIN UNSIGNED AS DECIMAL(20)",
+        "CREATE TABLE taxa (taxon_id INT PRIMARY KEY, name VARCHAR(40))",
+        "INSERT INTO taxa SELECT x, CONCAT('taxon', x) FROM SYSTEM_RANGE(1, 1000)");
+  }
+
+  private static Connection createDatabase(String name) throws SQLException {
+    return createDatabase(name, "md5");
+  }
+
+  @AfterMethod
+  void resetReporter() {
+    ReportManager.setReporter(null);
+  }
+
+  @Test
+  public void testBucketHashSql() {
+
+    String sql = new ControlledTaxa().getBucketHashSql("taxa", Arrays.asList("taxon_id", "name"), "taxon_id");
+    assertEquals(sql, "select floor(taxon_id / 100) as bucket, count(*), "
+        + "sum(cast(conv(left(md5(concat_ws('#', coalesce(concat('=', taxon_id), ''), coalesce(concat('=', name), ''))), 16), 16, 10) as unsigned)) "
+        + "from taxa group by bucket");
+  }
+
+  @Test
+  public void testCheckByRowHash() throws SQLException {
+
+    Connection master = createDatabase("rowhash_master");
+    Connection test = createDatabase("rowhash_test");
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    server.setDatabaseURL("jdbc:h2:mem:");
+    DatabaseRegistryEntry testDbre = new DatabaseRegistryEntry(server, "rowhash_test", null, null, null);
+    DatabaseRegistryEntry masterDbre = new DatabaseRegistryEntry(server, "rowhash_master", null, null, null);
+
+    ControlledTaxa controlled = new ControlledTaxa();
+    assertEquals(controlled.getIntegerPrimaryKeyColumn(test, "TAXA"), "taxon_id");
+    assertTrue(controlled.checkByRowHash("TAXA", testDbre, masterDbre));
+    assertEquals(controlled.getNumReportedRows(), 0);
+
+    Statement stmt = test.createStatement();
+    stmt.execute("UPDATE taxa SET name = 'renamed' WHERE taxon_id = 250");
+    stmt.execute("DELETE FROM taxa WHERE taxon_id = 777");
+    stmt.close();
+
+    controlled = new ControlledTaxa();
+    assertFalse(controlled.checkByRowHash("TAXA", testDbre, masterDbre));
+    // the renamed row is missing from master, and master's version of it
+    // and the deleted row are missing from the tested database
+    assertEquals(controlled.getNumReportedRows(), 3);
+
+    master.close();
+    test.close();
+  }
+
+  @Test
+  public void testRangesWithoutDifferingRowsAreReported() throws SQLException {
+
+    final List<String> problems = new ArrayList<String>();
+    ReportManager.setReporter(new Reporter() {
+      public void message(ReportLine reportLine) {
+        if (reportLine.getLevel() == ReportLine.PROBLEM) {
+          problems.add(reportLine.getMessage());
+        }
+      }
+
+      public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+      }
+
+      public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
+      }
+    });
+
+    Connection master = createDatabase("rowhash_master2");
+    // the same rows, but a different hash in every range
+    Connection test = createDatabase("rowhash_test2", "saltedMd5");
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    server.setDatabaseURL("jdbc:h2:mem:");
+    DatabaseRegistryEntry testDbre = new DatabaseRegistryEntry(server, "rowhash_test2", null, null, null);
+    DatabaseRegistryEntry masterDbre = new DatabaseRegistryEntry(server, "rowhash_master2", null, null, null);
+
+    ControlledTaxa controlled = new ControlledTaxa();
+    assertFalse(controlled.checkByRowHash("TAXA", testDbre, masterDbre));
+    assertEquals(controlled.getNumReportedRows(), 0);
+    assertEquals(problems.size(), 1, problems.toString());
+    assertTrue(problems.get(0).contains("0-99, 100-199"), problems.get(0));
+
+    master.close();
+    test.close();
+  }
+
+}
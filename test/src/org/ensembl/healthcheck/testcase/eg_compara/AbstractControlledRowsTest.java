@@ -0,0 +1,104 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.eg_compara;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.List;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.DatabaseServer;
+import org.ensembl.healthcheck.util.H2Database;
+import org.testng.annotations.Test;
+
+public class AbstractControlledRowsTest {
+
+  private static class ControlledRows extends AbstractControlledRows {
+    @Override
+    protected boolean runTest(DatabaseRegistryEntry dbre) {
+      return true;
+    }
+  }
+
+  private static Connection createDatabase(String name, String rows) throws SQLException {
+
+    return H2Database.create(name,
+        "CREATE TABLE dnafrag (dnafrag_id INT PRIMARY KEY, name VARCHAR(40), coord_system_name VARCHAR(40))",
+        "INSERT INTO dnafrag VALUES " + rows);
+  }
+
+  @Test
+  public void testCountRowsInMaster() throws SQLException {
+
+    Connection master = createDatabase("controlled_master1", "(1, 'a', 'chromosome'), (2, 'b', NULL), (3, 'c', 'scaffold')");
+    Statement stmt = master.createStatement();
+    // a table without a primary key may hold duplicates
+    stmt.execute("CREATE TABLE dnafrag_copy AS SELECT * FROM dnafrag");
+    stmt.execute("INSERT INTO dnafrag_copy VALUES (3, 'c', 'scaffold')");
+    stmt.close();
+
+    List<String> columns = Arrays.asList("dnafrag_id", "name", "coord_system_name");
+    List<Object[]> rows = Arrays.asList(
+        new Object[] { 1, "a", "chromosome" },
+        new Object[] { 2, "b", null },
+        new Object[] { 3, "c", "scaffold" },
+        new Object[] { 4, "d", "chromosome" },
+        new Object[] { 1, "a", null });
+
+    int[] counts = new ControlledRows().countRowsInMaster(master, "dnafrag_copy", columns, rows);
+    assertEquals(counts, new int[] { 1, 1, 2, 0, 0 });
+
+    master.close();
+  }
+
+  @Test
+  public void testCheckRowsInTable() throws SQLException {
+
+    StringBuilder rows = new StringBuilder("(0, 'x', NULL)");
+    for (int i = 1; i < 2500; i++) {
+      rows.append(", (").append(i).append(", 'n").append(i).append("', 'chromosome')");
+    }
+    Connection master = createDatabase("controlled_master2", rows.toString());
+    Connection test = createDatabase("controlled_test2", rows.toString());
+    Statement stmt = test.createStatement();
+    stmt.execute("UPDATE dnafrag SET name = 'changed' WHERE dnafrag_id IN (7, 1500, 2499)");
+    stmt.close();
+
+    DatabaseServer server = new DatabaseServer("localhost", "3306", "sa", "", "org.h2.Driver");
+    server.setDatabaseURL("jdbc:h2:mem:");
+    DatabaseRegistryEntry testDbre = new DatabaseRegistryEntry(server, "controlled_test2", null, null, null);
+    DatabaseRegistryEntry masterDbre = new DatabaseRegistryEntry(server, "controlled_master2", null, null, null);
+
+    ControlledRows controlledRows = new ControlledRows();
+    assertFalse(controlledRows.checkRowsInTable("DNAFRAG", "dnafrag", testDbre, masterDbre, ""));
+    assertEquals(controlledRows.numReportedRows, 3);
+
+    controlledRows = new ControlledRows();
+    assertTrue(controlledRows.checkRowsInTable("DNAFRAG", "dnafrag", testDbre, masterDbre, " where dnafrag_id < 7 "));
+    assertFalse(controlledRows.checkRowsInTable("DNAFRAG", "dnafrag", testDbre, masterDbre, " where dnafrag_id > 1000 "));
+    assertEquals(controlledRows.numReportedRows, 2);
+
+    master.close();
+    test.close();
+  }
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.generic;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.Reporter;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Column;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Index;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Table;
+import org.testng.annotations.Test;
+
+public class SchemaComparerTest {
+
+  private static class MessageReporter implements Reporter {
+
+    final List<String> messages = new ArrayList<String>();
+
+    public void message(ReportLine reportLine) {
+      messages.add(reportLine.getMessage());
+    }
+
+    public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+    }
+
+    public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
+    }
+  }
+
+  private static SchemaSnapshot snapshot(String name, String engine, boolean nullableDisplayLabel, String... indexColumns) {
+
+    Set<Column> columns = new LinkedHashSet<Column>();
+    columns.add(new Column("xref_id", "int(10) unsigned", false, null, 0, true));
+    columns.add(new Column("display_label", "varchar(128)", nullableDisplayLabel, null, 128, false));
+
+    Set<Index> indexes = new LinkedHashSet<Index>();
+    indexes.add(new Index("PRIMARY", Arrays.asList("xref_id"), false, "BTREE"));
+    indexes.add(new Index("display_index", Arrays.asList(indexColumns), true, "BTREE"));
+
+    Map<String, Table> tables = new LinkedHashMap<String, Table>();
+    tables.put("xref", new Table("xref", false, engine, "latin1", "max_rows=100000000 avg_row_length=40", columns,
+        indexes));
+    return new SchemaSnapshot(name, "1:2015-01-01 00:00:00:2", tables);
+  }
+
+  @Test
+  public void testSnapshotSurvivesDisk() throws Exception {
+
+    File file = new File(System.getProperty("java.io.tmpdir"), "schema_comparer_test/master.snapshot");
+    SchemaSnapshot master = snapshot("master_schema_90", "MyISAM", false, "display_label");
+
+    SchemaSnapshot.write(master, file);
+    SchemaSnapshot read = SchemaSnapshot.read(file);
+    file.delete();
+
+    assertEquals(read.getName(), master.getName());
+    assertEquals(read.getVersion(), master.getVersion());
+    assertEquals(read.getTableNames(), master.getTableNames());
+    assertTrue(read.getTables().get("xref").isIdentical(master.getTables().get("xref")));
+  }
+
+  @Test
+  public void testSnapshotFileNamesServer() {
+
+    File directory = new File("snapshots");
+    File staging = SchemaSnapshot.getFile(directory, "jdbc:mysql://mysql-staging:3306/master_schema_90?useSSL=false",
+        "master_schema_90");
+    File release = SchemaSnapshot.getFile(directory, "jdbc:mysql://mysql-release:3306/master_schema_90",
+        "master_schema_90");
+
+    assertEquals(staging, new File(new File(directory, "mysql-staging_3306"), "master_schema_90.snapshot"));
+    assertFalse(staging.equals(release));
+  }
+
+  @Test
+  public void testColumnsOfDifferentServerVersions() {
+
+    // MySQL 5.7 and 8.0.19 or later
+    assertEquals(new Column("xref_id", "int(10) unsigned", false, null, 0, true),
+        new Column("xref_id", "int unsigned", false, null, 0, true));
+    assertEquals(new Column("rank", "bigint(20)", true, null, 0, false).hashCode(),
+        new Column("rank", "bigint", true, null, 0, false).hashCode());
+    assertEquals(new Column("strand", "tinyint(2)", false, null, 0, false),
+        new Column("strand", "tinyint", false, null, 0, false));
+    assertEquals(new Column("status", "enum('KNOWN','NOVEL')", true, null, 5, false),
+        new Column("status", "enum('KNOWN','NOVEL')", true, null, 5, false));
+
+    // widths both show
+    assertFalse(new Column("is_current", "tinyint(1)", false, null, 0, false).equals(
+        new Column("is_current", "tinyint(4)", false, null, 0, false)));
+    assertFalse(new Column("code", "smallint(5) unsigned zerofill", true, null, 0, false).equals(
+        new Column("code", "smallint(6) unsigned zerofill", true, null, 0, false)));
+    // still compared
+    assertFalse(new Column("xref_id", "int(10) unsigned", false, null, 0, true).equals(
+        new Column("xref_id", "int", false, null, 0, true)));
+    assertFalse(new Column("status", "enum('KNOWN','NOVEL')", true, null, 5, false).equals(
+        new Column("status", "enum('KNOWN')", true, null, 5, false)));
+
+    SchemaComparer comparer = new SchemaComparer();
+    SchemaSnapshot master = snapshot("master_schema_90", "MyISAM", false, "display_label");
+    Set<Column> columns = new LinkedHashSet<Column>();
+    columns.add(new Column("xref_id", "int unsigned", false, null, 0, true));
+    columns.add(new Column("display_label", "varchar(128)", false, null, 128, false));
+    Table xref = master.getTables().get("xref");
+    Map<String, Table> tables = new LinkedHashMap<String, Table>();
+    tables.put("xref", new Table("xref", false, "MyISAM", "latin1", "max_rows=100000000 avg_row_length=40", columns,
+        xref.getIndexes()));
+
+    MessageReporter reporter = new MessageReporter();
+    ReportManager.setReporter(reporter);
+    try {
+      assertTrue(comparer.compareTable(new CompareSchema(), master, new SchemaSnapshot("homo_sapiens_core_90_38",
+          "1:2015-01-01 00:00:00:2", tables), null, "xref"), reporter.messages.toString());
+    } finally {
+      ReportManager.setReporter(null);
+    }
+  }
+
+  @Test
+  public void testCompareTable() {
+
+    SchemaComparer comparer = new SchemaComparer();
+    comparer.addTestTypes(SchemaComparer.TestTypes.ENGINE, SchemaComparer.TestTypes.MAX_ROWS);
+
+    SchemaSnapshot master = snapshot("master_schema_90", "MyISAM", false, "display_label");
+    EnsTestCase test = new CompareSchema();
+
+    MessageReporter reporter = new MessageReporter();
+    ReportManager.setReporter(reporter);
+    try {
+
+      assertTrue(comparer.compareTable(test, master, snapshot("homo_sapiens_core_90_38", "MyISAM", false,
+          "display_label"), null, "xref"));
+      assertTrue(reporter.messages.isEmpty());
+
+      assertFalse(comparer.compareTable(test, master, snapshot("homo_sapiens_core_90_38", "InnoDB", true,
+          "display_label", "xref_id"), null, "xref"));
+      assertEquals(reporter.messages.size(), 5, reporter.messages.toString());
+      assertTrue(reporter.messages.get(0).contains("Column `display_label` was different"));
+      assertTrue(reporter.messages.get(2).contains("does not have the index `display_index=[display_label]`"));
+      assertTrue(reporter.messages.get(4).startsWith("ENGINE in `xref` had different values"));
+
+    } finally {
+      ReportManager.setReporter(null);
+    }
+  }
+
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.testcase.generic;
+
+import static org.testng.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Column;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Index;
+import org.ensembl.healthcheck.testcase.generic.SchemaSnapshot.Table;
+import org.testng.annotations.Test;
+
+public class SchemaDdlParserTest {
+
+  private static final String DDL = "# The gene table\n"
+      + "CREATE TABLE gene (\n"
+      + "  gene_id         INT(10) UNSIGNED NOT NULL AUTO_INCREMENT,\n"
+      + "  biotype         VARCHAR(40) NOT NULL,\n"
+      + "  seq_region_strand TINYINT(2) NOT NULL,\n"
+      + "  description     TEXT,\n"
+      + "  is_current      BOOLEAN NOT NULL DEFAULT 1, -- flag\n"
+      + "  score           DECIMAL(5,2) DEFAULT 0,\n"
+      + "  status          ENUM('KNOWN', 'NOVEL', 'it''s') DEFAULT 'NOVEL',\n"
+      + "  stable_id       VARCHAR(128) CHARACTER SET utf8 DEFAULT NULL,\n"
+      + "  version         SMALLINT UNSIGNED,\n"
+      + "  PRIMARY KEY (gene_id),\n"
+      + "  KEY stable_id_idx (stable_id, version),\n"
+      + "  UNIQUE (biotype),\n"
+      + "  FULLTEXT KEY description_idx (description(100))\n"
+      + ") COLLATE=latin1_swedish_ci ENGINE=MyISAM MAX_ROWS=100000000 AVG_ROW_LENGTH=80;\n"
+      + "\n"
+      + "/* not a table */\n"
+      + "INSERT INTO meta (meta_key, meta_value) VALUES ('schema_version', '90; or so');\n"
+      + "CREATE OR REPLACE ALGORITHM=MERGE VIEW `gene_view` AS SELECT * FROM gene;\n"
+      + "CREATE TABLE IF NOT EXISTS `meta` (`meta_id` INTEGER NOT NULL PRIMARY KEY) ENGINE=InnoDB DEFAULT CHARSET=utf8";
+
+  @Test
+  public void testParse() {
+
+    SchemaSnapshot snapshot = SchemaDdlParser.parse("table.sql", DDL);
+
+    assertEquals(snapshot.getTables().keySet(), new LinkedHashSet<String>(Arrays.asList("gene", "gene_view", "meta")));
+    assertEquals(snapshot.getTableNames(), new LinkedHashSet<String>(Arrays.asList("gene", "meta")));
+
+    Table gene = snapshot.getTables().get("gene");
+    assertEquals(gene.getEngine(), "MyISAM");
+    assertEquals(gene.getCharset(), "latin1");
+    assertEquals(gene.getCreateOptions(), "max_rows=100000000 avg_row_length=80");
+
+    // columns as information_schema shows them
+    Set<Column> columns = new LinkedHashSet<Column>();
+    columns.add(new Column("gene_id", "int(10) unsigned", false, null, 0, true));
+    columns.add(new Column("biotype", "varchar(40)", false, null, 40, false));
+    columns.add(new Column("seq_region_strand", "tinyint(2)", false, null, 0, false));
+    columns.add(new Column("description", "text", true, null, 65535, false));
+    columns.add(new Column("is_current", "tinyint(1)", false, "1", 0, false));
+    columns.add(new Column("score", "decimal(5,2)", true, "0.00", 0, false));
+    columns.add(new Column("status", "enum('KNOWN','NOVEL','it''s')", true, "NOVEL", 5, false));
+    columns.add(new Column("stable_id", "varchar(128)", true, null, 384, false));
+    columns.add(new Column("version", "smallint(5) unsigned", true, null, 0, false));
+    assertEquals(new ArrayList<Column>(gene.getColumns()), new ArrayList<Column>(columns));
+    for (Column column : gene.getColumns()) {
+      assertTrue(columns.contains(column), column.getName());
+    }
+
+    List<Index> indexes = new ArrayList<Index>(gene.getIndexes());
+    assertEquals(indexes.size(), 4);
+    assertEquals(indexes.get(0), new Index("PRIMARY", Arrays.asList("gene_id"), false, "BTREE"));
+    assertEquals(indexes.get(1), new Index("stable_id_idx", Arrays.asList("stable_id", "version"), true, "BTREE"));
+    assertEquals(indexes.get(2).getName(), "biotype");
+    assertEquals(indexes.get(2), new Index("biotype", Arrays.asList("biotype"), false, "BTREE"));
+    assertEquals(indexes.get(3), new Index("description_idx", Arrays.asList("description"), true, "FULLTEXT"));
+
+    assertTrue(snapshot.getTables().get("gene_view").isView());
+
+    Table meta = snapshot.getTables().get("meta");
+    assertEquals(meta.getEngine(), "InnoDB");
+    assertEquals(meta.getCharset(), "utf8");
+    assertEquals(new ArrayList<Column>(meta.getColumns()), Arrays.asList(new Column("meta_id", "int(11)", false, null,
+        0, false)));
+    assertEquals(new ArrayList<Index>(meta.getIndexes()), Arrays.asList(new Index("PRIMARY", Arrays.asList("meta_id"),
+        false, "BTREE")));
+  }
+
+  @Test
+  public void testTableDefaults() {
+
+    String ddl = "CREATE TABLE attrib (name VARCHAR(10), PRIMARY KEY (name));";
+
+    // unknown without defaults, so the comparer skips them
+    Table attrib = SchemaDdlParser.parse("table.sql", ddl).getTables().get("attrib");
+    assertNull(attrib.getCharset());
+    assertNull(attrib.getEngine());
+
+    attrib = SchemaDdlParser.parse("table.sql", ddl, "utf8", "InnoDB").getTables().get("attrib");
+    assertEquals(attrib.getCharset(), "utf8");
+    assertEquals(attrib.getEngine(), "InnoDB");
+    assertEquals(attrib.getColumns().iterator().next(), new Column("name", "varchar(10)", false, null, 30, false));
+  }
+
+  @Test
+  public void testDisplayWidths() {
+
+    String ddl = "CREATE TABLE flags (flag_id INT(10) UNSIGNED, is_current TINYINT(1), code SMALLINT ZEROFILL, "
+        + "rank BIGINT);";
+
+    Table flags = SchemaDdlParser.parse("table.sql", ddl, null, null, false).getTables().get("flags");
+    // as MySQL 8.0.19 and later show them
+    assertEquals(new ArrayList<Column>(flags.getColumns()), Arrays.asList(
+        new Column("flag_id", "int unsigned", true, null, 0, false),
+        new Column("is_current", "tinyint(1)", true, null, 0, false),
+        new Column("code", "smallint(5) unsigned zerofill", true, null, 0, false),
+        new Column("rank", "bigint", true, null, 0, false)));
+
+    assertTrue(SchemaDdlParser.showsDisplayWidths("5.6.33-log"));
+    assertTrue(SchemaDdlParser.showsDisplayWidths("8.0.18"));
+    assertFalse(SchemaDdlParser.showsDisplayWidths("8.0.19"));
+    assertFalse(SchemaDdlParser.showsDisplayWidths("8.4.0"));
+    assertTrue(SchemaDdlParser.showsDisplayWidths("10.3.27-MariaDB"));
+  }
+
+}
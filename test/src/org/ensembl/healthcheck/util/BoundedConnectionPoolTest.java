@@ -0,0 +1,207 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.testng.annotations.Test;
+
+public class BoundedConnectionPoolTest {
+
+  private static BoundedConnectionPool pool(String name, int maxSize, long maxWait) {
+    return new BoundedConnectionPool("org.h2.Driver", "jdbc:h2:mem:" + name, "sa", "", 0, maxSize, 60000, 60000, maxWait);
+  }
+
+  @Test
+  public void testBorrowAndReturn() throws SQLException {
+
+    BoundedConnectionPool pool = pool("pooltest1", 2, 1000);
+
+    Connection first = pool.borrow();
+    assertEquals(pool.getActiveCount(), 1);
+    assertEquals(pool.getIdleCount(), 0);
+
+    first.close();
+    assertTrue(first.isClosed());
+    assertEquals(pool.getActiveCount(), 0);
+    assertEquals(pool.getIdleCount(), 1);
+
+    Connection second = pool.borrow();
+    assertFalse(second.isClosed());
+    assertEquals(pool.getCreatedCount(), 1, "connection should have been reused");
+    assertEquals(pool.getBorrowCount(), 2);
+
+    second.close();
+    pool.close();
+  }
+
+  @Test(expectedExceptions = SQLException.class)
+  public void testReturnedConnectionCantBeUsed() throws SQLException {
+
+    BoundedConnectionPool pool = pool("pooltest2", 1, 1000);
+    Connection con = pool.borrow();
+    con.close();
+    con.createStatement();
+  }
+
+  @Test
+  public void testMaxSizeIsEnforced() throws SQLException {
+
+    BoundedConnectionPool pool = pool("pooltest3", 1, 200);
+    Connection con = pool.borrow();
+
+    try {
+      pool.borrow();
+      fail("second borrow should have timed out");
+    } catch (SQLException e) {
+      assertEquals(pool.getWaitCount(), 1);
+    }
+
+    con.close();
+    pool.borrow().close();
+    assertEquals(pool.getCreatedCount(), 1);
+    pool.close();
+  }
+
+  @Test
+  public void testAbandonedConnectionIsReclaimed() throws SQLException, InterruptedException {
+
+    BoundedConnectionPool pool = pool("pooltest4", 1, 5000);
+    pool.borrow();
+
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+
+    Connection con = pool.borrow();
+    assertEquals(pool.getAbandonedCount(), 1);
+    assertEquals(pool.getCreatedCount(), 1);
+    con.close();
+    pool.close();
+  }
+
+  @Test
+  public void testStatementKeepsConnectionBorrowed() throws SQLException, InterruptedException {
+
+    BoundedConnectionPool pool = pool("pooltest5", 1, 200);
+    Statement stmt = pool.borrow().createStatement();
+    ResultSet rs = stmt.executeQuery("SELECT x FROM SYSTEM_RANGE(1, 10)");
+
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+
+    try {
+      pool.borrow();
+      fail("the connection of an open statement should not have been reclaimed");
+    } catch (SQLException e) {
+      assertEquals(pool.getAbandonedCount(), 0);
+    }
+
+    assertSame(rs.getStatement(), stmt);
+    Connection con = stmt.getConnection();
+    assertFalse(con.isClosed());
+
+    // statements left open are closed with the connection
+    con.close();
+    assertTrue(stmt.isClosed());
+    assertTrue(rs.isClosed());
+    pool.close();
+  }
+
+  @Test
+  public void testExpiredLeaseIsTakenBack() throws SQLException, InterruptedException {
+
+    BoundedConnectionPool pool = new BoundedConnectionPool("org.h2.Driver", "jdbc:h2:mem:pooltest6", "sa", "", 0, 1,
+        60000, 60000, 5000, 100, null);
+    Connection first = pool.borrow();
+    Statement stmt = first.createStatement();
+    stmt.executeQuery("SELECT 1").close();
+
+    // still referenced, so the garbage collector can't help
+    long start = System.currentTimeMillis();
+    Connection second = pool.borrow();
+    assertTrue(System.currentTimeMillis() - start < 5000);
+    assertEquals(pool.getExpiredCount(), 1);
+    assertEquals(pool.getCreatedCount(), 1);
+
+    assertTrue(first.isClosed());
+    assertTrue(stmt.isClosed());
+    try {
+      first.createStatement();
+      fail("a connection taken back should not be usable");
+    } catch (SQLException e) {
+      // expected
+    }
+
+    // closing it late doesn't return the connection a second time
+    first.close();
+    assertEquals(pool.getActiveCount(), 1);
+    assertFalse(second.isClosed());
+    second.close();
+    pool.close();
+  }
+
+  @Test
+  public void testServerLimit() throws SQLException {
+
+    BoundedConnectionPool.ServerLimit server = new BoundedConnectionPool.ServerLimit("h2", 1);
+    BoundedConnectionPool first = new BoundedConnectionPool("org.h2.Driver", "jdbc:h2:mem:pooltest7", "sa", "", 1, 2,
+        60000, 60000, 200, 0, server);
+    BoundedConnectionPool second = new BoundedConnectionPool("org.h2.Driver", "jdbc:h2:mem:pooltest8", "sa", "", 1, 2,
+        60000, 60000, 200, 0, server);
+
+    first.borrow().close();
+    assertEquals(first.getIdleCount(), 1);
+    assertEquals(server.getSize(), 1);
+
+    // the idle connection of the other pool makes room
+    Connection con = second.borrow();
+    assertEquals(first.getIdleCount(), 0);
+    assertEquals(server.getSize(), 1);
+
+    try {
+      first.borrow();
+      fail("the server has no connection to spare");
+    } catch (SQLException e) {
+      assertEquals(first.getCreatedCount(), 1);
+    }
+
+    con.close();
+    first.close();
+    second.close();
+    assertEquals(server.getSize(), 0);
+  }
+
+  @Test
+  public void testGetServer() {
+
+    assertEquals(ConnectionPool.getServer("jdbc:mysql://mysql-ens:3306/homo_sapiens_core_80_38?useCursorFetch=true"),
+        "mysql-ens:3306");
+    assertEquals(ConnectionPool.getServer("jdbc:mysql://mysql-ens:3306"), "mysql-ens:3306");
+    assertEquals(ConnectionPool.getServer("jdbc:h2:mem:test"), "jdbc:h2:mem:test");
+  }
+
+}
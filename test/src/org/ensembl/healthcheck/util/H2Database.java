@@ -0,0 +1,53 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * Creates the in-memory H2 databases that tests run their SQL on.
+ */
+public class H2Database {
+
+  private H2Database() {
+  }
+
+  /**
+   * Create an in-memory database in MySQL mode and run statements in it.
+   * Connecting to jdbc:h2:mem:name again, for instance through a
+   * DatabaseServer with that URL, reaches the same database while this
+   * connection is open.
+   */
+  public static Connection create(String name, String... statements) throws SQLException {
+
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:" + name + ";MODE=MySQL", "sa", "");
+    Statement stmt = con.createStatement();
+    try {
+      for (String statement : statements) {
+        stmt.execute(statement);
+      }
+    } finally {
+      stmt.close();
+    }
+    return con;
+  }
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.testng.annotations.Test;
+
+public class MetadataCacheTest {
+
+  @Test
+  public void testMetaValueIsFetchedOnce() throws SQLException {
+
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:metacachetest", "sa", "");
+    Statement stmt = con.createStatement();
+    stmt.execute("CREATE TABLE meta (meta_key VARCHAR(40), meta_value VARCHAR(255))");
+    stmt.execute("INSERT INTO meta VALUES ('species.production_name', 'homo_sapiens')");
+
+    long misses = MetadataCache.getMissCount();
+    long hits = MetadataCache.getHitCount();
+
+    assertEquals(DBUtils.getMetaValue(con, "species.production_name"), "homo_sapiens");
+    stmt.execute("UPDATE meta SET meta_value = 'mus_musculus'");
+    assertEquals(DBUtils.getMetaValue(con, "species.production_name"), "homo_sapiens");
+
+    assertEquals(MetadataCache.getMissCount(), misses + 1);
+    assertEquals(MetadataCache.getHitCount(), hits + 1);
+
+    MetadataCache.forConnection(con).invalidate("meta:species.production_name");
+    assertEquals(DBUtils.getMetaValue(con, "species.production_name"), "mus_musculus");
+
+    stmt.close();
+    con.close();
+  }
+
+  @Test
+  public void testNullIsCached() throws SQLException {
+
+    MetadataCache cache = MetadataCache.forDatabase("jdbc:test:nullcache");
+    MetadataCache.Loader<String> loader = new MetadataCache.Loader<String>() {
+      int calls = 0;
+      public String load() {
+        assertEquals(calls++, 0, "value should only be loaded once");
+        return null;
+      }
+    };
+
+    assertNull(cache.get("key", loader));
+    assertNull(cache.get("key", loader));
+  }
+
+  @Test
+  public void testCacheFollowsCatalog() throws SQLException {
+
+    final Connection h2 = DriverManager.getConnection("jdbc:h2:mem:metacachecatalogtest", "sa", "");
+    Statement stmt = h2.createStatement();
+    for (String schema : new String[] { "homo_sapiens_core", "mus_musculus_core" }) {
+      stmt.execute("CREATE SCHEMA " + schema);
+      stmt.execute("CREATE TABLE " + schema + ".meta (meta_key VARCHAR(40), meta_value VARCHAR(255))");
+      stmt.execute("INSERT INTO " + schema + ".meta VALUES ('species.production_name', '" + schema + "')");
+    }
+
+    // like MySQL after USE, the catalog tells which database is used
+    final String[] catalog = { null };
+    Connection con = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+        new Class<?>[] { Connection.class }, new InvocationHandler() {
+          public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            if (method.getName().equals("getCatalog")) {
+              return catalog[0];
+            }
+            try {
+              return method.invoke(h2, args);
+            } catch (InvocationTargetException e) {
+              throw e.getCause();
+            }
+          }
+        });
+
+    for (String schema : new String[] { "homo_sapiens_core", "mus_musculus_core", "homo_sapiens_core" }) {
+      stmt.execute("SET SCHEMA " + schema);
+      catalog[0] = schema;
+      assertEquals(DBUtils.getMetaValue(con, "species.production_name"), schema);
+    }
+
+    stmt.close();
+    h2.close();
+  }
+
+  @Test
+  public void testClear() throws SQLException {
+
+    MetadataCache cache = MetadataCache.forDatabase("jdbc:test:clearcache");
+    MetadataCache.clear();
+    assertNotSame(MetadataCache.forDatabase("jdbc:test:clearcache"), cache);
+  }
+
+}
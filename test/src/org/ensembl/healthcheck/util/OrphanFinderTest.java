@@ -0,0 +1,167 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.annotations.Test;
+
+public class OrphanFinderTest {
+
+  private static Connection createDatabase(String name) throws SQLException {
+
+    return H2Database.create(name,
+        "CREATE TABLE analysis (analysis_id INT)",
+        "CREATE TABLE gene (gene_id INT, analysis_id INT)",
+        "CREATE TABLE transcript (transcript_id INT, analysis_id INT)",
+        "INSERT INTO analysis VALUES (1), (2)",
+        "INSERT INTO gene VALUES (1, 1), (2, 3), (3, 4), (4, NULL)",
+        "INSERT INTO transcript VALUES (1, 2), (2, 5)");
+  }
+
+  @Test
+  public void testFind() throws SQLException {
+
+    Connection con = createDatabase("orphantest1");
+
+    List<OrphanFinder.Orphans> found = OrphanFinder.find(con, Arrays.asList(
+        new OrphanFinder.ForeignKey("gene", "analysis_id", "analysis", "analysis_id"),
+        new OrphanFinder.ForeignKey("transcript", "analysis_id", "analysis", "analysis_id"),
+        new OrphanFinder.ForeignKey("gene", "analysis_id", "analysis", "analysis_id", "analysis_id IS NOT NULL"),
+        new OrphanFinder.ForeignKey("analysis", "analysis_id", "transcript", "analysis_id")));
+
+    assertEquals(found.get(0).getCount(), 3, "NULL keys are orphans too");
+    assertEquals(found.get(0).getSample(), Arrays.asList("3", "4"));
+
+    assertEquals(found.get(1).getCount(), 1);
+    assertEquals(found.get(1).getSample(), Arrays.asList("5"));
+
+    assertEquals(found.get(2).getCount(), 2);
+    assertEquals(found.get(3).getCount(), 1);
+    assertEquals(found.get(3).getSample(), Arrays.asList("1"));
+
+    con.close();
+  }
+
+  @Test
+  public void testMergeMatchesJoin() throws SQLException {
+
+    // borrowed from a pool, so the merge can stream over a second connection
+    Connection con = ConnectionPool.borrowConnection("org.h2.Driver", "jdbc:h2:mem:mergetest;MODE=MySQL", "sa", "");
+    Statement stmt = con.createStatement();
+    stmt.execute("CREATE TABLE homology (homology_id INT)");
+    stmt.execute("CREATE TABLE homology_member (homology_id INT, seq_member_id INT)");
+    // as in compara, rather than have H2 join by nested loops
+    stmt.execute("CREATE INDEX homology_idx ON homology (homology_id)");
+    stmt.execute("CREATE INDEX homology_member_idx ON homology_member (homology_id)");
+    // more rows than fit in one buffer, with gaps in the parent keys
+    stmt.execute("INSERT INTO homology SELECT x FROM SYSTEM_RANGE(1, 20000) WHERE MOD(x, 1000) <> 7");
+    stmt.execute("INSERT INTO homology_member SELECT MOD(x * 7919, 20050), x FROM SYSTEM_RANGE(1, 30000)");
+    stmt.execute("INSERT INTO homology_member VALUES (NULL, 0)");
+    stmt.close();
+
+    List<OrphanFinder.ForeignKey> keys = Arrays.asList(
+        new OrphanFinder.ForeignKey("homology_member", "homology_id", "homology", "homology_id"),
+        new OrphanFinder.ForeignKey("homology", "homology_id", "homology_member", "homology_id"),
+        new OrphanFinder.ForeignKey("homology_member", "homology_id", "homology", "homology_id", "seq_member_id > 100"));
+
+    List<OrphanFinder.Orphans> joined = OrphanFinder.find(con, keys);
+    List<OrphanFinder.Orphans> merged = OrphanFinder.findByMerge(con, keys);
+
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(merged.get(i).getCount(), joined.get(i).getCount(), keys.get(i).toString());
+      assertSampleOfOrphans(con, keys.get(i), merged.get(i));
+      assertSampleOfOrphans(con, keys.get(i), joined.get(i));
+    }
+
+    // only the keys set to be merged are
+    keys.get(1).setMergeJoin(true);
+    List<OrphanFinder.Orphans> mixed = OrphanFinder.find(con, keys);
+    for (int i = 0; i < keys.size(); i++) {
+      assertEquals(mixed.get(i).getCount(), joined.get(i).getCount(), keys.get(i).toString());
+      assertSampleOfOrphans(con, keys.get(i), mixed.get(i));
+    }
+    // the lowest orphans when merged
+    assertEquals(mixed.get(1).getSample(), merged.get(1).getSample());
+    assertTrue(joined.get(0).getCount() > OrphanFinder.SAMPLE_SIZE);
+
+    con.close();
+  }
+
+  /** The sample holds distinct orphans of the key, as many as there are up to its size. */
+  private static void assertSampleOfOrphans(Connection con, OrphanFinder.ForeignKey key, OrphanFinder.Orphans orphans)
+      throws SQLException {
+
+    Set<String> all = new HashSet<String>();
+    long nonNull = 0;
+    Statement stmt = con.createStatement();
+    ResultSet rs = stmt.executeQuery(key.getOrphanSQL());
+    while (rs.next()) {
+      if (rs.getString(1) != null) {
+        all.add(rs.getString(1));
+        nonNull++;
+      }
+    }
+    stmt.close();
+
+    assertEquals(orphans.getSample().size(), Math.min(nonNull, OrphanFinder.SAMPLE_SIZE), key.toString());
+    assertTrue(all.containsAll(orphans.getSample()), key + ": " + orphans.getSample());
+  }
+
+  @Test
+  public void testMergeWithoutSecondConnection() throws SQLException {
+
+    Connection con = createDatabase("orphantest2");
+
+    List<OrphanFinder.ForeignKey> keys = Arrays.asList(
+        new OrphanFinder.ForeignKey("gene", "analysis_id", "analysis", "analysis_id"),
+        new OrphanFinder.ForeignKey("gene", "analysis_id", "analysis", "analysis_id", "analysis_id IS NOT NULL"));
+
+    // joined on the server instead
+    List<OrphanFinder.Orphans> merged = OrphanFinder.findByMerge(con, keys);
+    assertEquals(merged.get(0).getCount(), 3);
+    assertEquals(merged.get(0).getSample(), Arrays.asList("3", "4"));
+    assertEquals(merged.get(1).getCount(), 2);
+
+    con.close();
+  }
+
+  @Test
+  public void testTruncatedSample() {
+
+    assertEquals(OrphanFinder.getSample("1,2,3", 3), Arrays.asList("1", "2", "3"));
+    assertEquals(OrphanFinder.getSample("1,2,3", 10), Arrays.asList("1", "2"), "last key may be cut off");
+    assertTrue(OrphanFinder.getSample(null, 0).isEmpty());
+
+    StringBuilder many = new StringBuilder("0");
+    for (int i = 1; i < 50; i++) {
+      many.append(',').append(i);
+    }
+    assertEquals(OrphanFinder.getSample(many.toString(), 50).size(), OrphanFinder.SAMPLE_SIZE);
+  }
+
+}
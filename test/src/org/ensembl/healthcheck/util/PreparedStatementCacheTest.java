@@ -0,0 +1,110 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import org.testng.annotations.Test;
+
+public class PreparedStatementCacheTest {
+
+  @Test
+  public void testAcquireAndEvict() throws SQLException {
+
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:statementcachetest", "sa", "");
+    PreparedStatementCache cache = new PreparedStatementCache(2);
+
+    PreparedStatement one = cache.acquire(con, "SELECT 1");
+    // in use, so a second caller gets a statement of its own
+    PreparedStatement other = cache.acquire(con, "SELECT 1");
+    assertNotSame(other, one);
+    cache.release("SELECT 1", one);
+    cache.release("SELECT 1", other);
+    assertTrue(other.isClosed(), "Only one statement per SQL is kept");
+    assertSame(cache.acquire(con, "SELECT 1"), one);
+    cache.release("SELECT 1", one);
+
+    PreparedStatement two = cache.acquire(con, "SELECT 2");
+    cache.release("SELECT 2", two);
+    PreparedStatement three = cache.acquire(con, "SELECT 3");
+    cache.release("SELECT 3", three);
+
+    assertTrue(one.isClosed(), "Least recently used statement is evicted");
+    assertFalse(two.isClosed());
+    assertEquals(cache.getCachedCount(), 2);
+    assertEquals(cache.getHitCount(), 1);
+    assertEquals(cache.getMissCount(), 4);
+    assertEquals(cache.getEvictionCount(), 1);
+
+    cache.close();
+    assertTrue(two.isClosed());
+    assertTrue(three.isClosed());
+    con.close();
+  }
+
+  @Test
+  public void testClosedWithPooledConnection() throws SQLException {
+
+    Connection con = ConnectionPool.borrowConnection("org.h2.Driver", "jdbc:h2:mem:statementcachetest2", "sa", "");
+    SqlTemplate template = new ConnectionBasedSqlTemplateImpl(con);
+    template.execute("CREATE TABLE numbers (a INT)");
+
+    for (int i = 0; i < 5; i++) {
+      template.update("INSERT INTO numbers VALUES (?)", i);
+      assertEquals(template.queryForDefaultObject("SELECT COUNT(*) FROM numbers WHERE a <= ?", Integer.class, i),
+          Integer.valueOf(i + 1));
+    }
+
+    PreparedStatementCache cache = PreparedStatementCache.forConnection(con);
+    assertEquals(cache.getMissCount(), 2);
+    assertEquals(cache.getHitCount(), 8);
+    PreparedStatement ps = cache.acquire(con, "SELECT COUNT(*) FROM numbers WHERE a <= ?");
+    cache.release("SELECT COUNT(*) FROM numbers WHERE a <= ?", ps);
+
+    con.close();
+    assertTrue(ps.isClosed(), "Statements are closed when the connection goes back to the pool");
+  }
+
+  @Test
+  public void testUnreferencedConnectionIsReleased() throws SQLException, InterruptedException {
+
+    BoundedConnectionPool pool = new BoundedConnectionPool("org.h2.Driver", "jdbc:h2:mem:statementcachetest3", "sa",
+        "", 0, 1, 60000, 60000, 5000);
+
+    // used through a template, so it has cached statements, but never closed
+    new ConnectionBasedSqlTemplateImpl(pool.borrow()).queryForDefaultObject("SELECT ?", Integer.class, 1);
+
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+      Thread.sleep(20);
+    }
+
+    Connection con = pool.borrow();
+    assertEquals(pool.getAbandonedCount(), 1);
+    assertNull(PreparedStatementCache.forConnection(DriverManager.getConnection("jdbc:h2:mem:statementcachetest3",
+        "sa", "")), "Connections that aren't pooled have no cache");
+    con.close();
+    pool.close();
+  }
+
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+
+import org.apache.commons.io.FileUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+public class QueryMonitorTest {
+
+  /** Sleeps for a minute on the server without using its CPU. H2 checks for a cancel every 128 rows. */
+  private static final String LONG_QUERY = "SELECT SUM(SLEEP_MILLIS(5)) FROM SYSTEM_RANGE(1, 12000)";
+
+  private SqlTemplate t = null;
+
+  @BeforeClass
+  void setupDb() throws SQLException {
+    t = new ConnectionBasedSqlTemplateImpl(DriverManager.getConnection("jdbc:h2:mem:querymonitortest", "sa", ""));
+    t.execute("CREATE ALIAS SLEEP_MILLIS FOR \"" + QueryMonitorTest.class.getName() + ".sleep\"");
+  }
+
+  /** Called by H2 for SLEEP_MILLIS. */
+  public static long sleep(long millis) throws InterruptedException {
+    Thread.sleep(millis);
+    return millis;
+  }
+
+  @AfterMethod
+  void resetLimits() {
+    QueryMonitor.setQueryTimeout(0);
+    QueryMonitor.setTestTimeout(0);
+    QueryMonitor.setSlowQueryThreshold(QueryMonitor.DEFAULT_SLOW_QUERY_MILLIS);
+    QueryMonitor.closeSlowQueryLog();
+    QueryMonitor.finishTest();
+  }
+
+  @Test
+  public void testQueryTimeout() {
+    QueryMonitor.setQueryTimeout(1);
+    long start = System.currentTimeMillis();
+    try {
+      t.queryForDefaultObject(LONG_QUERY, Long.class);
+      fail("Query should have been cancelled");
+    } catch (SqlUncheckedException e) {
+      assertTrue(System.currentTimeMillis() - start < 30000, "Cancelled soon after the timeout");
+    }
+    // the timeout doesn't stick to the statement once lifted
+    QueryMonitor.setQueryTimeout(0);
+    assertEquals(t.queryForDefaultObject("SELECT COUNT(*) FROM SYSTEM_RANGE(1, 10)", Long.class), Long.valueOf(10));
+  }
+
+  @Test
+  public void testTestTimeout() throws InterruptedException {
+    QueryMonitor.setTestTimeout(1);
+    QueryMonitor.startTest("TimedTest", "timed_db");
+    assertEquals(t.queryForDefaultObject("SELECT 1", Integer.class), Integer.valueOf(1));
+    Thread.sleep(1100);
+    try {
+      t.queryForDefaultObject("SELECT 1", Integer.class);
+      fail("Test should have run out of time");
+    } catch (SqlUncheckedException e) {
+      assertTrue(e.getMessage().contains("TimedTest on timed_db has used up its time budget"), e.getMessage());
+    }
+    QueryMonitor.finishTest();
+    assertEquals(t.queryForDefaultObject("SELECT 1", Integer.class), Integer.valueOf(1));
+  }
+
+  @Test
+  public void testSlowQueryLog() throws IOException {
+    File log = File.createTempFile("slow_queries", ".tsv");
+    log.deleteOnExit();
+    QueryMonitor.setSlowQueryLog(log);
+    QueryMonitor.setSlowQueryThreshold(0);
+    QueryMonitor.startTest("SlowTest", "slow_db");
+
+    long slow = QueryMonitor.getSlowQueryCount();
+    t.queryForDefaultObjectList("SELECT x FROM SYSTEM_RANGE(1, 3)\n WHERE x > ?", Long.class, 0);
+    t.forEachRow("SELECT x FROM SYSTEM_RANGE(1, 5)", new SqlTemplate.RowCallback() {
+      public boolean process(java.sql.ResultSet rs) {
+        return true;
+      }
+    });
+    assertEquals(QueryMonitor.getSlowQueryCount(), slow + 2);
+
+    QueryMonitor.closeSlowQueryLog();
+    String[] lines = FileUtils.readFileToString(log, "UTF-8").split("\n");
+    assertEquals(lines.length, 2);
+    String[] fields = lines[0].split("\t");
+    assertEquals(fields.length, 6);
+    assertEquals(fields[2], "3");
+    assertEquals(fields[3], "SlowTest");
+    assertEquals(fields[4], "slow_db");
+    assertEquals(fields[5], "SELECT x FROM SYSTEM_RANGE(1, 3) WHERE x > ?");
+    assertTrue(lines[1].endsWith("\t5\tSlowTest\tslow_db\tSELECT x FROM SYSTEM_RANGE(1, 5)"), lines[1]);
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallback;
+import org.ensembl.healthcheck.util.RangeScanExecutor.RangeCallbackFactory;
+import org.ensembl.healthcheck.util.RangeScanExecutor.Row;
+import org.testng.annotations.Test;
+
+public class RangeScanExecutorTest {
+
+  private static final String SQL = "SELECT variation_id, frequency FROM allele WHERE variation_id BETWEEN ? AND ? "
+      + "ORDER BY variation_id";
+
+  /** The result of a range: its bounds, rows and summed frequencies. */
+  private static class Sum {
+    long lower;
+    long upper;
+    int rows = 0;
+    int nulls = 0;
+    double sum = 0;
+    boolean complete;
+  }
+
+  private static class SumFactory implements RangeCallbackFactory<Sum> {
+
+    final long stopAt;
+    final Set<String> threads = Collections.synchronizedSet(new HashSet<String>());
+
+    SumFactory(long stopAt) {
+      this.stopAt = stopAt;
+    }
+
+    public RangeCallback<Sum> create(final long lower, final long upper) {
+
+      final Sum sum = new Sum();
+      sum.lower = lower;
+      sum.upper = upper;
+
+      return new RangeCallback<Sum>() {
+
+        public boolean row(Row row) {
+          assertTrue(row.getLong(1) >= lower && row.getLong(1) <= upper);
+          sum.rows++;
+          if (row.isNull(2)) {
+            sum.nulls++;
+          }
+          sum.sum += row.getDouble(2);
+          return row.getLong(1) != stopAt;
+        }
+
+        public Sum finish(boolean complete) {
+          threads.add(Thread.currentThread().getName());
+          sum.complete = complete;
+          return sum;
+        }
+      };
+    }
+  }
+
+  private static void createTable(Connection con) throws SQLException {
+
+    Statement stmt = con.createStatement();
+    stmt.execute("CREATE TABLE allele (allele_id INT PRIMARY KEY, variation_id INT, frequency FLOAT)");
+    stmt.execute("CREATE INDEX variation_idx ON allele (variation_id)");
+    // two alleles for most variations from 11 to 10010, none for some
+    stmt.execute("INSERT INTO allele SELECT x, 10 + x, 0.5 FROM SYSTEM_RANGE(1, 10000) WHERE MOD(x, 100) <> 7");
+    stmt.execute("INSERT INTO allele SELECT 10000 + x, 10 + x, 0.5 FROM SYSTEM_RANGE(1, 10000) WHERE MOD(x, 100) <> 7");
+    stmt.execute("INSERT INTO allele VALUES (20001, 11, NULL)");
+    stmt.close();
+  }
+
+  @Test
+  public void testScanOnPooledConnections() throws SQLException {
+
+    // borrowed from a pool, so other ranges can be scanned on other connections
+    Connection con = ConnectionPool.borrowConnection("org.h2.Driver", "jdbc:h2:mem:rangescantest;MODE=MySQL", "sa", "");
+    createTable(con);
+
+    SumFactory factory = new SumFactory(-1);
+    List<Sum> sums = new RangeScanExecutor(con, 1000, 3).scan("allele", "variation_id", SQL, factory);
+
+    assertEquals(sums.size(), 10);
+    int rows = 0;
+    int nulls = 0;
+    double total = 0;
+    for (int i = 0; i < sums.size(); i++) {
+      assertEquals(sums.get(i).lower, 11 + i * 1000);
+      assertEquals(sums.get(i).upper, 1010 + i * 1000);
+      rows += sums.get(i).rows;
+      nulls += sums.get(i).nulls;
+      total += sums.get(i).sum;
+      assertTrue(sums.get(i).complete);
+    }
+    assertEquals(rows, 19801);
+    assertEquals(nulls, 1);
+    assertEquals(total, 9900.0, 0.001);
+    assertTrue(factory.threads.size() > 1, factory.threads.toString());
+
+    con.close();
+  }
+
+  @Test
+  public void testScanStops() throws SQLException {
+
+    // not pooled, so the ranges are scanned one after the other
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:rangescantest2;MODE=MySQL", "sa", "");
+    createTable(con);
+
+    SumFactory factory = new SumFactory(2500);
+    List<Sum> sums = new RangeScanExecutor(con, 1000, 3).scan("allele", "variation_id", SQL, factory);
+
+    assertEquals(sums.size(), 3);
+    // two rows for each of the 485 variations from 2011, stopped after the first row of 2500
+    assertEquals(sums.get(2).rows, 969);
+    assertTrue(sums.get(1).complete);
+    assertFalse(sums.get(2).complete);
+    assertEquals(factory.threads, Collections.singleton(Thread.currentThread().getName()));
+
+    con.close();
+  }
+
+}
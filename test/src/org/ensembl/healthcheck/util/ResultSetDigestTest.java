@@ -0,0 +1,127 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+import org.ensembl.healthcheck.DatabaseRegistryEntry;
+import org.ensembl.healthcheck.ReportLine;
+import org.ensembl.healthcheck.ReportManager;
+import org.ensembl.healthcheck.Reporter;
+import org.ensembl.healthcheck.testcase.EnsTestCase;
+import org.ensembl.healthcheck.testcase.SingleDatabaseTestCase;
+import org.testng.annotations.Test;
+
+public class ResultSetDigestTest {
+
+  private static class Meta extends SingleDatabaseTestCase {
+
+    @Override
+    public boolean run(DatabaseRegistryEntry dbre) {
+      return true;
+    }
+  }
+
+  private static Connection createTable(String name, String rows) throws SQLException {
+    Connection con = DriverManager.getConnection("jdbc:h2:mem:" + name, "sa", "");
+    Statement stmt = con.createStatement();
+    stmt.execute("CREATE TABLE t (id INT, name VARCHAR(20))");
+    stmt.execute("INSERT INTO t VALUES " + rows);
+    stmt.close();
+    return con;
+  }
+
+  private static ResultSetDigest digest(Connection con, String sql) throws SQLException {
+    Statement stmt = con.createStatement();
+    try {
+      return ResultSetDigest.compute(stmt.executeQuery(sql));
+    } finally {
+      stmt.close();
+    }
+  }
+
+  @Test
+  public void testDigest() throws SQLException {
+
+    Connection con = createTable("digest1", "(1, 'a'), (2, NULL), (3, 'bc'), (3, 'bc')");
+    String sql = "SELECT id, name FROM t";
+
+    ResultSetDigest all = digest(con, sql);
+    assertEquals(all.getRowCount(), 4);
+    assertEquals(digest(con, sql + " ORDER BY id DESC"), all, "order should not matter");
+    assertFalse(digest(con, sql + " WHERE id < 3").equals(all));
+    assertFalse(digest(con, "SELECT id, name FROM t WHERE id < 3 UNION ALL SELECT 3, 'b' UNION ALL SELECT 3, 'cbc'")
+        .equals(all));
+    assertFalse(digest(con, "SELECT name, id FROM t").equals(all), "columns should matter");
+
+    con.close();
+  }
+
+  @Test
+  public void testCheckSameSQLResultByDigest() throws SQLException {
+
+    Connection con1 = createTable("digest2", "(1, 'a'), (2, 'b')");
+    Connection con2 = createTable("digest3", "(2, 'b'), (1, 'a')");
+    DatabaseRegistryEntry[] databases = {
+        new DatabaseRegistryEntry(DatabaseRegistryEntry.getInfoFromName("homo_sapiens_core_20_34"), con1),
+        new DatabaseRegistryEntry(DatabaseRegistryEntry.getInfoFromName("mus_musculus_core_20_34"), con2) };
+
+    assertTrue(DBUtils.checkSameSQLResultByDigest(null, "SELECT * FROM t", databases, false));
+
+    con1.close();
+    con2.close();
+  }
+
+  @Test
+  public void testCheckSameSQLResultByDigestComparesRows() throws SQLException {
+
+    ReportManager.setReporter(new Reporter() {
+      public void message(ReportLine reportLine) {
+      }
+
+      public void startTestCase(EnsTestCase testCase, DatabaseRegistryEntry dbre) {
+      }
+
+      public void finishTestCase(EnsTestCase testCase, boolean result, DatabaseRegistryEntry dbre) {
+      }
+    });
+
+    Connection con1 = createTable("digest4", "(1, 'AUTO_INCREMENT=5 a'), (2, 'b')");
+    Connection con2 = createTable("digest5", "(1, 'AUTO_INCREMENT=7 a'), (2, 'b')");
+    Connection con3 = createTable("digest6", "(1, 'a'), (2, 'c')");
+    DatabaseRegistryEntry[] databases = {
+        new DatabaseRegistryEntry(DatabaseRegistryEntry.getInfoFromName("homo_sapiens_core_20_34"), con1),
+        new DatabaseRegistryEntry(DatabaseRegistryEntry.getInfoFromName("mus_musculus_core_20_34"), con2) };
+
+    // the digests differ, but the rows only in what the row comparison ignores
+    assertTrue(DBUtils.checkSameSQLResultByDigest(new Meta(), "SELECT * FROM t", databases, false));
+
+    databases[1] = new DatabaseRegistryEntry(DatabaseRegistryEntry.getInfoFromName("danio_rerio_core_20_34"), con3);
+    assertFalse(DBUtils.checkSameSQLResultByDigest(new Meta(), "SELECT * FROM t", databases, false));
+
+    con1.close();
+    con2.close();
+    con3.close();
+  }
+
+}
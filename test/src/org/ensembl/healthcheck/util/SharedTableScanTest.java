@@ -0,0 +1,88 @@
+/*
+ * Copyright [1999-2015] Wellcome Trust Sanger Institute and the EMBL-European Bioinformatics Institute
+ * Copyright [2016-2019] EMBL-European Bioinformatics Institute
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.ensembl.healthcheck.util;
+
+import static org.testng.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.testng.annotations.Test;
+
+public class SharedTableScanTest {
+
+  private static Connection createDatabase(String name) throws SQLException {
+
+    return H2Database.create(name,
+        "CREATE TABLE simple_feature (seq_region_start INT, seq_region_end INT)",
+        "INSERT INTO simple_feature VALUES (0, 10), (5, 4), (-1, -2), (1, 1)",
+        "CREATE TABLE empty_feature (seq_region_start INT, seq_region_end INT)");
+  }
+
+  @Test
+  public void testQueryForCounts() throws SQLException {
+
+    Connection con = createDatabase("scantest1");
+
+    Map<String, String> predicates = new LinkedHashMap<String, String>();
+    predicates.put("start", "seq_region_start < 1");
+    predicates.put("end", "seq_region_start > seq_region_end");
+    predicates.put("none", "seq_region_start > 100");
+
+    Map<String, Integer> counts = DBUtils.getRowCounts(con, "simple_feature", predicates);
+    assertEquals(counts.get("start"), Integer.valueOf(2));
+    assertEquals(counts.get("end"), Integer.valueOf(2));
+    assertEquals(counts.get("none"), Integer.valueOf(0));
+
+    counts = DBUtils.getRowCounts(con, "empty_feature", predicates);
+    assertEquals(counts.get("start"), Integer.valueOf(0), "no rows should count as 0");
+
+    con.close();
+  }
+
+  @Test
+  public void testScanIsShared() throws SQLException {
+
+    Connection con = createDatabase("scantest2");
+
+    SharedTableScan.register("simple_feature", "ScanTest.start", "seq_region_start < 1");
+    SharedTableScan.register("simple_feature", "OtherScanTest.end", "seq_region_start > seq_region_end");
+
+    long misses = MetadataCache.getMissCount();
+
+    assertEquals(SharedTableScan.getCount(con, "simple_feature", "ScanTest.start"), 2);
+    assertEquals(SharedTableScan.getCount(con, "simple_feature", "OtherScanTest.end"), 2);
+    assertEquals(MetadataCache.getMissCount() - misses, 1, "table should have been scanned once");
+
+    // registered after the scan
+    SharedTableScan.register("simple_feature", "LateScanTest.one", "seq_region_start = 1");
+    assertEquals(SharedTableScan.getCount(con, "simple_feature", "LateScanTest.one"), 1);
+
+    con.close();
+  }
+
+  @Test(expectedExceptions = IllegalArgumentException.class)
+  public void testConflictingRegistration() {
+
+    SharedTableScan.register("gene", "ScanTest.conflict", "seq_region_start < 1");
+    SharedTableScan.register("gene", "ScanTest.conflict", "seq_region_end < 1");
+  }
+
+}
@@ -101,4 +101,28 @@ public class SqlTemplateTest {
     assertEquals(triple(1, "hello", 4.0D), t.queryForObject(sql, TupleRowMappers.triple(a,b,c)), "Checking triple ok");
     assertEquals(quadruple(1, "hello", 4.0D, true), t.queryForObject(sql, TupleRowMappers.quadruple(a, b, c, d)), "Checking quadruple ok");
   }
+  
+  @Test
+  public void streamingMethods() {
+    final List<Integer> seen = new ArrayList<Integer>();
+    int rows = t.forEachRow(SQL_INT, new SqlTemplate.RowCallback() {
+      public boolean process(ResultSet rs) throws SQLException {
+        seen.add(rs.getInt(1));
+        return true;
+      }
+    });
+    assertEquals(rows, TABLE_ROWS.length, "All rows read");
+    assertEquals(seen, t.queryForDefaultObjectList(SQL_INT, Integer.class), "Rows streamed in order");
+    
+    final List<Integer> stopped = new ArrayList<Integer>();
+    rows = t.stream("select a from numbers where a < ? order by a", new DefaultObjectRowMapper<Integer>(Integer.class),
+        new SqlTemplate.ObjectCallback<Integer>() {
+          public boolean process(Integer i) {
+            stopped.add(i);
+            return i < 3;
+          }
+        }, 8);
+    assertEquals(rows, 4, "Stopped at the first row over 2");
+    assertEquals(stopped, createArrayList(new Integer[]{1,1,2,3}), "Mapped rows up to the stop");
+  }
 }